@@ -0,0 +1,43 @@
+#!/bin/sh
+
+# Compares the global clock schemes (see org.deuce.transaction.clock.Factory)
+# on the intset and bank benchmarks.
+
+java="java -Xmx2g -Xms2g"
+
+warmup=2000
+duration=10000
+
+clockList="GV1 GV4 GV5 GV6"
+tList="1 2 4 8 16 32 64"
+
+mkdir -p logs
+
+for r in 1 2 3; do
+for c in tl2.Context lsa.Context; do
+for g in $clockList; do
+for t in $tList; do
+
+opts="-Dorg.deuce.transaction.contextClass=org.deuce.transaction.${c} \
+  -Dorg.deuce.transaction.clock=${g}"
+
+# IntSet
+for b in LinkedList SkipList RBTree; do
+log=logs/clock-intset-${b}-${c}-${g}-t${t}.log
+CLASSPATH=bin/tests \
+  ${java} -javaagent:bin/deuceAgent.jar ${opts} \
+  org.deuce.benchmark.Driver -n ${t} -d ${duration} -w ${warmup} \
+  org.deuce.benchmark.intset.Benchmark ${b} -r 262144 -i 4096 -w 20 >> $log 2>&1
+done
+
+# Bank
+log=logs/clock-bank-${c}-${g}-t${t}.log
+CLASSPATH=bin/tests \
+  ${java} -javaagent:bin/deuceAgent.jar ${opts} \
+  org.deuce.benchmark.Driver -n ${t} -d ${duration} -w ${warmup} \
+  org.deuce.benchmark.bank.Benchmark -n 1024 >> $log 2>&1
+
+done
+done
+done
+done
@@ -0,0 +1,51 @@
+#!/bin/sh
+
+# Compares the lock table layouts (see org.deuce.transaction.util.LockTableLayout)
+# on the intset and bank benchmarks.
+
+java="java -Xmx2g -Xms2g"
+
+warmup=2000
+duration=10000
+
+sizeList="65536 1048576"
+layoutList="compact padded striped"
+hashList="sum murmur fibonacci"
+tList="1 2 4 8 16 32 64"
+
+mkdir -p logs
+
+for r in 1 2 3; do
+for c in tl2.Context lsa.Context; do
+for s in $sizeList; do
+for l in $layoutList; do
+for h in $hashList; do
+for t in $tList; do
+
+opts="-Dorg.deuce.transaction.contextClass=org.deuce.transaction.${c} \
+  -Dorg.deuce.transaction.locktable.size=${s} \
+  -Dorg.deuce.transaction.locktable.layout=${l} \
+  -Dorg.deuce.transaction.locktable.hash=${h}"
+
+# IntSet
+for b in LinkedList SkipList RBTree; do
+log=logs/locktable-intset-${b}-${c}-s${s}-${l}-${h}-t${t}.log
+CLASSPATH=bin/tests \
+  ${java} -javaagent:bin/deuceAgent.jar ${opts} \
+  org.deuce.benchmark.Driver -n ${t} -d ${duration} -w ${warmup} \
+  org.deuce.benchmark.intset.Benchmark ${b} -r 262144 -i 4096 -w 20 >> $log 2>&1
+done
+
+# Bank
+log=logs/locktable-bank-${c}-s${s}-${l}-${h}-t${t}.log
+CLASSPATH=bin/tests \
+  ${java} -javaagent:bin/deuceAgent.jar ${opts} \
+  org.deuce.benchmark.Driver -n ${t} -d ${duration} -w ${warmup} \
+  org.deuce.benchmark.bank.Benchmark -n 1024 >> $log 2>&1
+
+done
+done
+done
+done
+done
+done
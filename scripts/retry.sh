@@ -0,0 +1,32 @@
+#!/bin/sh
+
+# Compares the retry policies (see org.deuce.transaction.retry.Factory)
+# on the bank benchmark with a few hot accounts.
+
+java="java -Xmx2g -Xms2g"
+
+warmup=2000
+duration=10000
+
+policyList="none backoff spinyield irrevocable"
+tList="1 2 4 8 16 32 64"
+
+mkdir -p logs
+
+for r in 1 2 3; do
+for c in tl2.Context lsa.Context norec.Context; do
+for p in $policyList; do
+for t in $tList; do
+
+log=logs/retry-bank-${c}-${p}-t${t}.log
+CLASSPATH=bin/tests \
+  ${java} -javaagent:bin/deuceAgent.jar \
+  -Dorg.deuce.transaction.contextClass=org.deuce.transaction.${c} \
+  -Dorg.deuce.transaction.retryPolicy=${p} \
+  org.deuce.benchmark.Driver -n ${t} -d ${duration} -w ${warmup} \
+  org.deuce.benchmark.bank.Benchmark -n 8 >> $log 2>&1
+
+done
+done
+done
+done
@@ -16,4 +16,21 @@ import java.lang.annotation.Target;
 public @interface Atomic {
 	int retries() default Integer.MAX_VALUE;
 	String metainf() default "";
+	/**
+	 * The retry policy used between aborted attempts, empty for the global policy.
+	 * @see org.deuce.transaction.retry.Factory
+	 */
+	String retryPolicy() default "";
+	/**
+	 * Hints that the method doesn't write shared state, so it can run as a read-only
+	 * transaction. Methods that provably don't write are detected without the hint.
+	 * @see org.deuce.transaction.ReadOnlyContext
+	 */
+	boolean readOnly() default false;
+	/**
+	 * The isolation level of the block. A snapshot block doesn't take the read-only fast
+	 * path, it logs no reads either.
+	 * @see org.deuce.transaction.SnapshotContext
+	 */
+	Isolation isolation() default Isolation.SERIALIZABLE;
 }
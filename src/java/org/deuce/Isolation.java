@@ -0,0 +1,26 @@
+package org.deuce;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * The isolation level of an atomic block, see {@link Atomic#isolation()}.
+ *
+ * @since 1.4
+ */
+@Exclude
+public enum Isolation {
+
+	/**
+	 * The atomic block runs as if alone, the default.
+	 */
+	SERIALIZABLE,
+
+	/**
+	 * The atomic block reads from a consistent snapshot taken when it starts, and aborts only
+	 * if another transaction committed a write to a location it writes. Write skew is
+	 * allowed: two blocks reading each other's locations and writing disjoint ones both
+	 * commit. Suits the blocks that tolerate it, e.g. caches or statistics.
+	 * @see org.deuce.transaction.SnapshotContext
+	 */
+	SNAPSHOT
+}
@@ -0,0 +1,59 @@
+package org.deuce;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A counter whose updates commute: a transaction that adds to it doesn't read it, so two
+ * transactions updating the same counter don't conflict. Suits the counters every
+ * transaction touches, e.g. the size of a collection or hit/miss statistics.
+ * <p>
+ * Within a transaction the instrumentation turns {@link #add(long)}, {@link #increment()}
+ * and {@link #decrement()} into increments logged by the context (see
+ * {@link org.deuce.transaction.CommutativeContext}) and applied when the transaction
+ * commits, under the lock of the counter. {@link #get()} reads the counter as any other
+ * location, plus the increments of the transaction, hence a transaction that reads the
+ * counter conflicts with the ones updating it. A backend without commutative updates reads
+ * and writes the counter.
+ * <p>
+ * Out of a transaction the updates are atomic, though as any location written by the
+ * transactions the counter shouldn't be updated concurrently in and out of them.
+ *
+ * @since 1.4
+ */
+final public class TxCounter {
+
+	final public static String COUNTER_INTERNAL = "org/deuce/TxCounter";
+
+	final private static AtomicLongFieldUpdater<TxCounter> UPDATER =
+		AtomicLongFieldUpdater.newUpdater(TxCounter.class, "value");
+
+	private volatile long value;
+
+	public TxCounter() {
+	}
+
+	public TxCounter(long value) {
+		this.value = value;
+	}
+
+	public long get() {
+		return value;
+	}
+
+	public void add(long delta) {
+		UPDATER.addAndGet(this, delta);
+	}
+
+	public void increment() {
+		add(1);
+	}
+
+	public void decrement() {
+		add(-1);
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(value);
+	}
+}
@@ -8,8 +8,34 @@ import org.deuce.transform.Exclude;
 @Exclude
 public class AddressUtil {
 
+	/**
+	 * The instance field the transformer adds to the instrumented classes to hold the
+	 * transactional metadata (e.g. a versioned lock) of the fields the class declares.
+	 */
+	final public static String METADATA_FIELD = "__METADATA__";
+
+	/**
+	 * The backend keeping its metadata in the objects, see {@link #METADATA_FIELD}.
+	 */
+	final public static String METADATA_CONTEXT = "org.deuce.transaction.tl2obj.Context";
+
+	final private static boolean METADATA =
+		METADATA_CONTEXT.equals( System.getProperty( "org.deuce.transaction.contextClass"));
+
+	/**
+	 * @return <code>true</code> if the instrumented classes get a {@link #METADATA_FIELD},
+	 * i.e. the backend is {@link #METADATA_CONTEXT}.
+	 */
+	public static boolean isMetadataEnabled() {
+		return METADATA;
+	}
+
 	/**
 	 * Fetches the field direct address.
+	 * <p>
+	 * With {@link #isMetadataEnabled() metadata} the address of an instance field whose class
+	 * declares a {@link #METADATA_FIELD} holds the offset of the metadata in its high int,
+	 * see {@link #getOffset(long)} and {@link #getMetadataOffset(long)}.
 	 * @param field field reference
 	 * @return direct address
 	 */
@@ -17,9 +43,32 @@ public class AddressUtil {
 		if( Modifier.isStatic(field.getModifiers())){
 			return UnsafeHolder.getUnsafe().staticFieldOffset(field);
 		}else{
-			return UnsafeHolder.getUnsafe().objectFieldOffset(field);
+			long offset = UnsafeHolder.getUnsafe().objectFieldOffset(field);
+			if( METADATA){
+				try {
+					Field metadata = field.getDeclaringClass().getDeclaredField( METADATA_FIELD);
+					offset |= UnsafeHolder.getUnsafe().objectFieldOffset( metadata) << 32;
+				} catch( NoSuchFieldException e) {
+					// Not instrumented, e.g. by an external fields holder
+				}
+			}
+			return offset;
 		}
 	}
+
+	/**
+	 * @return the offset of the field in its object.
+	 */
+	public static long getOffset( long address) {
+		return address & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * @return the offset of the metadata of the field in its object, 0 if it has none.
+	 */
+	public static long getMetadataOffset( long address) {
+		return address >>> 32;
+	}
 	
 	/**
 	 * Fetches base class handle
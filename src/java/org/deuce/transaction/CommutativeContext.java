@@ -0,0 +1,31 @@
+package org.deuce.transaction;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * A {@link Context} that logs increments of <code>long</code> locations instead of reading
+ * and writing them, see {@link org.deuce.TxCounter}.
+ * <p>
+ * An increment doesn't enter the read set. The context adds the increments of a location
+ * up, and applies the sum when the transaction commits, while it holds the lock of the
+ * location, to the value the location holds then. Two transactions incrementing the same
+ * location don't conflict, at worst the second to commit waits for the lock.
+ * <p>
+ * A backend without this interface reads and writes the location, see
+ * {@link ContextDelegator#onIncrement(Context, Object, long, long)}.
+ *
+ * @since 1.4
+ */
+@Exclude
+public interface CommutativeContext extends Context {
+
+	/**
+	 * Adds <code>delta</code> to the <code>long</code> location when the transaction commits.
+	 */
+	void onIncrement(Object obj, long field, long delta);
+
+	/**
+	 * @return the sum of the increments of the location the transaction logged so far.
+	 */
+	long getIncrement(Object obj, long field);
+}
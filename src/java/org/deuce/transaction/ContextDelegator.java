@@ -1,8 +1,14 @@
 package org.deuce.transaction;
 
+import org.deuce.TxCounter;
 import org.deuce.objectweb.asm.Type;
 import org.deuce.reflection.AddressUtil;
+import org.deuce.reflection.UnsafeHolder;
 import org.deuce.transaction.Context;
+import org.deuce.transaction.capture.CaptureContext;
+import org.deuce.transaction.retry.Factory;
+import org.deuce.transaction.statistics.Statistics;
+import org.deuce.transaction.statistics.StatisticsContext;
 import org.deuce.transform.Exclude;
 
 /**
@@ -22,6 +28,24 @@ public class ContextDelegator {
 	final static public String BEFORE_READ_METHOD_DESC = "(Ljava/lang/Object;J" + Context.CONTEXT_DESC +")V";
 	final static public String IRREVOCABLE_METHOD_NAME = "onIrrevocableAccess";
 	final static public String IRREVOCABLE_METHOD_DESC = "(" + Context.CONTEXT_DESC + ")V";
+	final static public String READ_ONLY_INIT_METHOD_NAME = "initReadOnly";
+	final static public String READ_ONLY_INIT_METHOD_DESC = "(" + Context.CONTEXT_DESC + "ILjava/lang/String;)V";
+	final static public String SNAPSHOT_INIT_METHOD_NAME = "initSnapshot";
+	final static public String SNAPSHOT_INIT_METHOD_DESC = READ_ONLY_INIT_METHOD_DESC;
+	final static public String COUNTER_ADD_METHOD_NAME = "onCounterAdd";
+	final static public String COUNTER_ADD_METHOD_DESC = "(L" + TxCounter.COUNTER_INTERNAL + ";J" + Context.CONTEXT_DESC + ")V";
+	final static public String COUNTER_GET_METHOD_NAME = "onCounterGet";
+	final static public String COUNTER_GET_METHOD_DESC = "(L" + TxCounter.COUNTER_INTERNAL + ";" + Context.CONTEXT_DESC + ")J";
+	final static public String ALLOCATION_METHOD_NAME = "onAllocation";
+	final static public String ALLOCATION_METHOD_DESC = "(Ljava/lang/Object;" + Context.CONTEXT_DESC + ")V";
+	final static public String RETRY_METHOD_NAME = "beforeRetry";
+	final static public String RETRY_METHOD_DESC = "(ILjava/lang/String;" + Context.CONTEXT_DESC + ")V";
+	final static public String RETRIES_EXHAUSTED_METHOD_NAME = "onRetriesExhausted";
+	final static public String RETRIES_EXHAUSTED_METHOD_DESC = "(" + Context.CONTEXT_DESC + ")V";
+	final static public String LEASE_METHOD_NAME = "lease";
+	final static public String LEASE_METHOD_DESC = "()" + Context.CONTEXT_DESC;
+	final static public String RELEASE_METHOD_NAME = "release";
+	final static public String RELEASE_METHOD_DESC = "(" + Context.CONTEXT_DESC + ")V";
 	
 	final static public String WRITE_METHOD_NAME = "onWriteAccess";
 	final static public String WRITE_ARR_METHOD_NAME = "onArrayWriteAccess";
@@ -98,6 +122,10 @@ public class ContextDelegator {
 
 
 	final private static ContextThreadLocal THREAD_CONTEXT = new ContextThreadLocal();
+	final private static ContextPool CONTEXT_POOL = Boolean.getBoolean(ContextPool.POOL_PROPERTY) ?
+			new DelegatorContextPool() : null;
+	final private static boolean READ_ONLY = !"false".equals(System.getProperty("org.deuce.transaction.readOnly"));
+	final private static boolean SNAPSHOT = !"false".equals(System.getProperty("org.deuce.transaction.snapshot"));
 
 	@Exclude
 	private static class ContextThreadLocal extends ThreadLocal<Context>
@@ -119,18 +147,199 @@ public class ContextDelegator {
 
 		@Override
 		protected synchronized Context initialValue() {
+			return create(Thread.currentThread());
+		}
+
+		/**
+		 * @param owner the thread running the context, <code>null</code> if shared by the threads.
+		 */
+		public Context create(Thread owner) {
 			try {
-				return this.contextClass.newInstance();
+				Context context = this.contextClass.newInstance();
+				if( Statistics.ENABLED)
+					context = new StatisticsContext(context, owner);
+				if( CaptureContext.ENABLED)
+					context = new CaptureContext(context);
+				return context;
 			} catch (Exception e) {
 				throw new TransactionException( e);
 			}
 		}
 	}
 
+	@Exclude
+	private static class DelegatorContextPool extends ContextPool
+	{
+		@Override
+		protected Context create() {
+			Context context = THREAD_CONTEXT.create(null);
+			Context backend = unwrap(context);
+			if( backend instanceof ThreadBoundContext)
+				((ThreadBoundContext)backend).detach();
+			return context;
+		}
+
+		@Override
+		protected void dispose(Context context) {
+			if( context instanceof CaptureContext)
+				context = ((CaptureContext)context).getContext();
+			if( context instanceof StatisticsContext){
+				((StatisticsContext)context).dispose();
+				context = ((StatisticsContext)context).getContext();
+			}
+			if( context instanceof ThreadBoundContext)
+				((ThreadBoundContext)context).dispose();
+		}
+
+		private static Context unwrap(Context context) {
+			if( context instanceof CaptureContext)
+				context = ((CaptureContext)context).getContext();
+			if( context instanceof StatisticsContext)
+				context = ((StatisticsContext)context).getContext();
+			return context;
+		}
+	}
+
+	/**
+	 * @return the context bound to the current thread.
+	 */
 	public static Context getInstance(){
 		return THREAD_CONTEXT.get();
 	}
 
+	/**
+	 * Called by an atomic method when it starts, the context is used by all its attempts
+	 * and given back with {@link #release(Context)} once it is done.
+	 * @return the context of the current thread, or one from the pool when the context pool
+	 * is enabled (see {@link ContextPool}).
+	 */
+	public static Context lease(){
+		return CONTEXT_POOL == null ? THREAD_CONTEXT.get() : CONTEXT_POOL.lease();
+	}
+
+	/**
+	 * Called by an atomic method once it committed or gave up.
+	 */
+	public static void release(Context context){
+		if( CONTEXT_POOL != null)
+			CONTEXT_POOL.release(context);
+	}
+
+	/**
+	 * @return the context pool, <code>null</code> if each thread has its own context.
+	 */
+	public static ContextPool getContextPool(){
+		return CONTEXT_POOL;
+	}
+
+	/**
+	 * Starts a transaction of an atomic block that doesn't write, see {@link ReadOnlyContext}.
+	 * Can be turned off with <code>-Dorg.deuce.transaction.readOnly=false</code>.
+	 */
+	public static void initReadOnly(Context context, int atomicBlockId, String metainf){
+		if( READ_ONLY && context instanceof ReadOnlyContext)
+			((ReadOnlyContext)context).initReadOnly(atomicBlockId, metainf);
+		else
+			context.init(atomicBlockId, metainf);
+	}
+
+	/**
+	 * Starts a transaction of an atomic block under snapshot isolation, see
+	 * {@link SnapshotContext}. Can be turned off with
+	 * <code>-Dorg.deuce.transaction.snapshot=false</code>.
+	 */
+	public static void initSnapshot(Context context, int atomicBlockId, String metainf){
+		if( SNAPSHOT && context instanceof SnapshotContext)
+			((SnapshotContext)context).initSnapshot(atomicBlockId, metainf);
+		else
+			context.init(atomicBlockId, metainf);
+	}
+
+	/**
+	 * Makes the next transaction of the context run irrevocably, see
+	 * {@link IrrevocableContext}. A context without this interface runs it regularly.
+	 */
+	public static void requestIrrevocable(Context context){
+		if( context instanceof IrrevocableContext)
+			((IrrevocableContext)context).requestIrrevocable();
+	}
+
+	/**
+	 * Called by the instrumentation when the last attempt of a transaction failed, before
+	 * the context is released. Drops a pending irrevocable request so the next, unrelated
+	 * transaction of the context doesn't run irrevocably.
+	 */
+	public static void onRetriesExhausted(Context context){
+		if( context instanceof IrrevocableContext)
+			((IrrevocableContext)context).cancelIrrevocable();
+	}
+
+	/**
+	 * Called by the instrumentation on the objects allocated by the transaction which might be
+	 * accessed through the barriers, see {@link CaptureContext}.
+	 */
+	public static void onAllocation(Object obj, Context context){
+		if( context instanceof CaptureContext)
+			((CaptureContext)context).onAllocation(obj);
+	}
+
+	/**
+	 * The address of the value of a {@link TxCounter}, resolved once a transaction uses a
+	 * counter, hence once the instrumented counter class is loaded.
+	 */
+	@Exclude
+	private static class CounterField {
+		final static long VALUE;
+		static {
+			try {
+				VALUE = AddressUtil.getAddress(TxCounter.class.getDeclaredField("value"));
+			} catch (NoSuchFieldException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * Called by the instrumentation instead of {@link TxCounter#add(long)} and the like.
+	 */
+	public static void onCounterAdd(TxCounter counter, long delta, Context context){
+		onIncrement(context, counter, CounterField.VALUE, delta);
+	}
+
+	/**
+	 * Called by the instrumentation instead of {@link TxCounter#get()}.
+	 */
+	public static long onCounterGet(TxCounter counter, Context context){
+		long field = CounterField.VALUE;
+		context.beforeReadAccess(counter, field);
+		long value = context.onReadAccess(counter, counter.get(), field);
+		return value + getIncrement(context, counter, field);
+	}
+
+	/**
+	 * Adds <code>delta</code> to a <code>long</code> location, logged if the context is a
+	 * {@link CommutativeContext}, else read and written.
+	 */
+	public static void onIncrement(Context context, Object obj, long field, long delta){
+		if( context instanceof CommutativeContext){
+			((CommutativeContext)context).onIncrement(obj, field, delta);
+			return;
+		}
+		context.beforeReadAccess(obj, field);
+		long value = context.onReadAccess(obj,
+				UnsafeHolder.getUnsafe().getLongVolatile(obj, AddressUtil.getOffset(field)), field);
+		context.onWriteAccess(obj, value + delta, field);
+	}
+
+	/**
+	 * @return the increments of the location logged by the context so far.
+	 */
+	public static long getIncrement(Context context, Object obj, long field){
+		if( context instanceof CommutativeContext)
+			return ((CommutativeContext)context).getIncrement(obj, field);
+		return 0;
+	}
+
 	public static String getWriteMethodDesc( Type type) {
 		switch( type.getSort()) {
 		case Type.BOOLEAN:
@@ -366,5 +575,14 @@ public class ContextDelegator {
 	static public void onIrrevocableAccess(Context context) {
 		context.onIrrevocableAccess();
 	}
+
+	/**
+	 * Called by the atomic method loop between two attempts.
+	 * @param attempt how many attempts aborted so far.
+	 * @param policy the retry policy name, empty for the global policy.
+	 */
+	static public void beforeRetry(int attempt, String policy, Context context) {
+		Factory.getPolicy(policy).beforeRetry(context, attempt);
+	}
 	
 }
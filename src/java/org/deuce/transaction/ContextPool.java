@@ -0,0 +1,121 @@
+package org.deuce.transaction;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * A bounded pool of contexts, an alternative to a context per thread.
+ * <p>
+ * An atomic block leases a context when it starts and returns it once it committed or
+ * gave up, see {@link ContextDelegator#lease()}. The memory of the contexts therefore
+ * follows the amount of transactions running at once rather than the amount of live
+ * threads, which matters with thousands of (virtual) threads that seldom run a transaction.
+ * <p>
+ * The pool is split in stripes of a few slots, a thread uses the stripe its id hashes to.
+ * A thread running transactions back to back thus gets the context it just returned. The
+ * pool never blocks: a lease finding its stripe empty creates a new context, a context
+ * returned to a full stripe is dropped (see {@link #dispose(Context)}), as is a context
+ * whose atomic block failed with an unexpected error.
+ * <p>
+ * Enabled with <code>-Dorg.deuce.transaction.contextPool=true</code>, the amount of pooled
+ * contexts is set by <code>org.deuce.transaction.contextPool.size</code>, rounded up to a
+ * power of 2 (default 4 times the processors).
+ *
+ * @since 1.4
+ */
+@Exclude
+abstract public class ContextPool {
+
+	final public static String POOL_PROPERTY = "org.deuce.transaction.contextPool";
+	final public static String SIZE_PROPERTY = "org.deuce.transaction.contextPool.size";
+
+	final private static int STRIPE_SHIFT = 3; // slots per stripe
+	final private static int STRIPE = 1 << STRIPE_SHIFT;
+
+	final private AtomicReferenceArray<Context> slots;
+	final private int stripeMask;
+
+	final private AtomicLong created = new AtomicLong();
+	final private AtomicLong dropped = new AtomicLong();
+
+	public ContextPool(int size) {
+		if (size <= 0)
+			throw new IllegalArgumentException("Illegal pool size: " + size);
+		int stripes = Math.max(1, (Integer.highestOneBit(size - 1) << 1) >> STRIPE_SHIFT);
+		this.slots = new AtomicReferenceArray<Context>(stripes << STRIPE_SHIFT);
+		this.stripeMask = stripes - 1;
+	}
+
+	public ContextPool() {
+		this(Integer.getInteger(SIZE_PROPERTY, 4 * Runtime.getRuntime().availableProcessors()));
+	}
+
+	/**
+	 * @return a new context, ready to run transactions on any thread.
+	 */
+	abstract protected Context create();
+
+	/**
+	 * Called on a context dropped by the pool, it won't run transactions anymore.
+	 */
+	protected void dispose(Context context) {
+	}
+
+	private int stripe() {
+		long id = Thread.currentThread().getId();
+		int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+		return ((hash >>> 16) & stripeMask) << STRIPE_SHIFT;
+	}
+
+	/**
+	 * @return a context no other transaction uses until it is {@link #release(Context)}d.
+	 */
+	public Context lease() {
+		AtomicReferenceArray<Context> slots = this.slots;
+		int base = stripe();
+		for (int i = base; i < base + STRIPE; i++) {
+			Context context = slots.get(i);
+			if (context != null && slots.compareAndSet(i, context, null))
+				return context;
+		}
+		created.incrementAndGet();
+		return create();
+	}
+
+	/**
+	 * Gives back a context got from {@link #lease()}.
+	 */
+	public void release(Context context) {
+		AtomicReferenceArray<Context> slots = this.slots;
+		int base = stripe();
+		for (int i = base; i < base + STRIPE; i++) {
+			if (slots.get(i) == null && slots.compareAndSet(i, null, context))
+				return;
+		}
+		dropped.incrementAndGet();
+		dispose(context);
+	}
+
+	/**
+	 * @return the amount of contexts the pool can hold.
+	 */
+	public int size() {
+		return slots.length();
+	}
+
+	/**
+	 * @return amount of contexts created so far.
+	 */
+	public long getCreated() {
+		return created.get();
+	}
+
+	/**
+	 * @return amount of contexts dropped so far, because their stripe was full.
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+}
@@ -0,0 +1,30 @@
+package org.deuce.transaction;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * A context whose read barrier checks a summary of the write set, e.g. a
+ * {@link org.deuce.transaction.tl2.BloomFilter}, before looking the write set up. Its
+ * counters are reported by the statistics, see the filter.
+ *
+ * @since 1.4
+ */
+@Exclude
+public interface FilteredWriteSet {
+
+	/**
+	 * @return amount of reads checked against a non empty write set, the reads of a
+	 * transaction that didn't write yet skip the filter.
+	 */
+	long getFilterLookups();
+
+	/**
+	 * @return amount of lookups the filter couldn't rule out, hence looked the write set up.
+	 */
+	long getFilterPasses();
+
+	/**
+	 * @return amount of passes whose field was not in the write set.
+	 */
+	long getFilterFalsePositives();
+}
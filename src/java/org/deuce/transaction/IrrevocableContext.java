@@ -0,0 +1,29 @@
+package org.deuce.transaction;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * A {@link Context} whose next transaction can be asked to run irrevocably, see
+ * {@link org.deuce.transaction.util.Irrevocability}.
+ * <p>
+ * Used by the retry policies between two attempts of a transaction. Unlike
+ * {@link #onIrrevocableAccess()}, it is not an access of the running transaction: nothing
+ * is upgraded nor restarted, the next {@link #init(int, String)} simply starts an
+ * irrevocable transaction.
+ *
+ * @since 1.4
+ */
+@Exclude
+public interface IrrevocableContext extends Context {
+
+	/**
+	 * Makes the next transaction of the context run irrevocably, called between two attempts.
+	 */
+	void requestIrrevocable();
+
+	/**
+	 * Drops the request of {@link #requestIrrevocable()} or of a restart, called once the
+	 * transaction gave up after its last attempt.
+	 */
+	void cancelIrrevocable();
+}
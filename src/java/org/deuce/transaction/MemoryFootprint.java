@@ -0,0 +1,19 @@
+package org.deuce.transaction;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * A context that can tell the memory held by its logs, reported by the statistics (see
+ * {@link org.deuce.transaction.util.Capacity}).
+ *
+ * @since 1.4
+ */
+@Exclude
+public interface MemoryFootprint {
+
+	/**
+	 * @return the approximate bytes held by the read and write logs of the context,
+	 * including the entries kept for reuse.
+	 */
+	long getFootprint();
+}
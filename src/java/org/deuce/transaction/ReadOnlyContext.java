@@ -0,0 +1,25 @@
+package org.deuce.transaction;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * A {@link Context} with a fast path for transactions that don't write.
+ * <p>
+ * The instrumentation starts the atomic blocks that can't write (proven at transform time
+ * or hinted by {@link org.deuce.Atomic#readOnly()}) with {@link #initReadOnly(int, String)}
+ * instead of {@link #init(int, String)}. A read-only transaction keeps no read set and never
+ * validates, it reads from the snapshot of its start and aborts as soon as it can't.
+ * <p>
+ * If a read-only transaction tries to write anyway (a wrong hint, or a method the analysis
+ * could not see) the context aborts it, and runs the next attempt as an update transaction.
+ *
+ * @since 1.4
+ */
+@Exclude
+public interface ReadOnlyContext extends Context {
+
+	/**
+	 * Starts a read-only transaction, see {@link #init(int, String)}.
+	 */
+	void initReadOnly(int atomicBlockId, String metainf);
+}
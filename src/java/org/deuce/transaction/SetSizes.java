@@ -0,0 +1,25 @@
+package org.deuce.transaction;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * A context that can tell the size of the read and write sets of its transaction, reported
+ * by the statistics when it commits. Unlike the number of barriers called, these are the
+ * entries the commit validates and writes back, after the duplicates were dropped.
+ *
+ * @since 1.4
+ */
+@Exclude
+public interface SetSizes {
+
+	/**
+	 * @return the entries of the read set of the running transaction.
+	 */
+	int getReadSetSize();
+
+	/**
+	 * @return the entries of the write set of the running transaction, including the
+	 * pending increments.
+	 */
+	int getWriteSetSize();
+}
@@ -0,0 +1,26 @@
+package org.deuce.transaction;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * A {@link Context} that can run an atomic block under snapshot isolation.
+ * <p>
+ * The instrumentation starts the atomic blocks annotated with
+ * <code>@Atomic(isolation=SNAPSHOT)</code> with {@link #initSnapshot(int, String)} instead
+ * of {@link #init(int, String)}. Such a transaction reads from the snapshot of its start
+ * and keeps no read set, its commit only checks that no location it writes was written
+ * since the snapshot. It never aborts because a location it read changed, it still aborts
+ * if it meets a location too new for its snapshot, which it can't extend.
+ * <p>
+ * A backend without this interface runs these blocks as serializable transactions.
+ *
+ * @since 1.4
+ */
+@Exclude
+public interface SnapshotContext extends Context {
+
+	/**
+	 * Starts a snapshot isolation transaction, see {@link #init(int, String)}.
+	 */
+	void initSnapshot(int atomicBlockId, String metainf);
+}
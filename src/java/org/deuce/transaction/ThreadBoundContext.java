@@ -0,0 +1,27 @@
+package org.deuce.transaction;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * A context holding resources bound to the thread which created it, e.g. the id naming it
+ * in the lock words (see {@link org.deuce.transaction.util.OwnerRegistry}), which are taken
+ * back once that thread terminated.
+ * <p>
+ * A context of the {@link ContextPool} runs on any thread, the pool detaches it from the
+ * thread which created it and disposes it once it drops it.
+ *
+ * @since 1.4
+ */
+@Exclude
+public interface ThreadBoundContext {
+
+	/**
+	 * Called on a new pooled context, it keeps its resources until {@link #dispose()}d.
+	 */
+	void detach();
+
+	/**
+	 * Called on a detached context which won't run transactions anymore.
+	 */
+	void dispose();
+}
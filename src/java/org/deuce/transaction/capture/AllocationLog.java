@@ -0,0 +1,89 @@
+package org.deuce.transaction.capture;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * The objects allocated by a transaction, an identity hash set with open addressing.
+ * <p>
+ * Adding and looking up allocate nothing, clearing only touches the used slots.
+ *
+ * @since 1.4
+ */
+@Exclude
+public class AllocationLog {
+
+	private static final int DEFAULT_CAPACITY = 64; // power of two
+
+	private Object[] table;
+	private int[] used; // the slots of the table in use
+	private int size;
+
+	public AllocationLog(int initialCapacity) {
+		int capacity = Integer.highestOneBit(Math.max(initialCapacity, 2) - 1) << 1;
+		table = new Object[capacity];
+		used = new int[capacity >> 1];
+	}
+
+	public AllocationLog() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		Object[] table = this.table;
+		int[] used = this.used;
+		for (int i = 0; i < size; i++)
+			table[used[i]] = null;
+		size = 0;
+	}
+
+	private static int hash(Object obj) {
+		int h = System.identityHashCode(obj);
+		return h ^ (h >>> 16);
+	}
+
+	public boolean contains(Object obj) {
+		Object[] table = this.table;
+		int mask = table.length - 1;
+		for (int i = hash(obj) & mask;; i = (i + 1) & mask) {
+			Object o = table[i];
+			if (o == obj)
+				return true;
+			if (o == null)
+				return false;
+		}
+	}
+
+	public void add(Object obj) {
+		if (size >= used.length)
+			grow();
+		Object[] table = this.table;
+		int mask = table.length - 1;
+		int i = hash(obj) & mask;
+		for (Object o; (o = table[i]) != null; i = (i + 1) & mask) {
+			if (o == obj)
+				return;
+		}
+		table[i] = obj;
+		used[size++] = i;
+	}
+
+	// Keeps the load factor at most 1/2
+	private void grow() {
+		Object[] old = table;
+		int[] oldUsed = used;
+		int n = size;
+		table = new Object[old.length << 1];
+		used = new int[table.length >> 1];
+		size = 0;
+		for (int i = 0; i < n; i++)
+			add(old[oldUsed[i]]);
+	}
+}
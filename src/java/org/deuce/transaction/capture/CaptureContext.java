@@ -0,0 +1,237 @@
+package org.deuce.transaction.capture;
+
+import org.deuce.reflection.AddressUtil;
+import org.deuce.reflection.UnsafeHolder;
+import org.deuce.transaction.CommutativeContext;
+import org.deuce.transaction.Context;
+import org.deuce.transaction.ContextDelegator;
+import org.deuce.transaction.ReadOnlyContext;
+import org.deuce.transaction.IrrevocableContext;
+import org.deuce.transaction.SnapshotContext;
+import org.deuce.transform.Exclude;
+
+import sun.misc.Unsafe;
+
+/**
+ * A {@link Context} that filters out the accesses to the objects allocated by the current
+ * transaction, the wrapped context never logs them.
+ * <p>
+ * The instrumentation removes the barriers on the objects it can prove captured within a
+ * method (see {@link org.deuce.transform.asm.CaptureAnalyzer}). This context handles the
+ * other cases, e.g. a new object passed to another method: the instrumented constructors
+ * register the objects they build, and so are the arrays that might escape the method
+ * allocating them. The barriers on a registered object access the memory in place, like the
+ * instrumented code does for the captured accesses, so both see the same values.
+ * <p>
+ * The check costs a field read for the transactions that allocate nothing, and an identity
+ * hash lookup per barrier for the others, hence it is off by default. Enabled with
+ * <code>-Dorg.deuce.transaction.capture=true</code>, installed by
+ * {@link org.deuce.transaction.ContextDelegator} on top of the configured context.
+ * <p>
+ * The registration calls are only added when the property is set at instrumentation time,
+ * otherwise the allocations pay nothing. Classes instrumented offline must therefore be
+ * instrumented with the property too, or the filter sees no object.
+ *
+ * @since 1.4
+ */
+@Exclude
+public class CaptureContext implements ReadOnlyContext, SnapshotContext, CommutativeContext,
+		IrrevocableContext {
+
+	final public static String CAPTURE_PROPERTY = "org.deuce.transaction.capture";
+	final public static boolean ENABLED = Boolean.getBoolean(CAPTURE_PROPERTY);
+
+	final private static Unsafe unsafe = UnsafeHolder.getUnsafe();
+
+	final private Context context;
+	final private AllocationLog allocations = new AllocationLog();
+
+	public CaptureContext(Context context) {
+		this.context = context;
+	}
+
+	public Context getContext() {
+		return context;
+	}
+
+	/**
+	 * Registers an object allocated by the current transaction.
+	 */
+	public void onAllocation(Object obj) {
+		allocations.add(obj);
+	}
+
+	public boolean isCaptured(Object obj) {
+		return !allocations.isEmpty() && allocations.contains(obj);
+	}
+
+	public void init(int atomicBlockId, String metainf) {
+		allocations.clear();
+		context.init(atomicBlockId, metainf);
+	}
+
+	public void initReadOnly(int atomicBlockId, String metainf) {
+		allocations.clear();
+		ContextDelegator.initReadOnly(context, atomicBlockId, metainf);
+	}
+
+	public void initSnapshot(int atomicBlockId, String metainf) {
+		allocations.clear();
+		ContextDelegator.initSnapshot(context, atomicBlockId, metainf);
+	}
+
+	public boolean commit() {
+		return context.commit();
+	}
+
+	public void rollback() {
+		context.rollback();
+	}
+
+	public void beforeReadAccess(Object obj, long field) {
+		if (!isCaptured(obj))
+			context.beforeReadAccess(obj, field);
+	}
+
+	public Object onReadAccess(Object obj, Object value, long field) {
+		if (isCaptured(obj))
+			return value;
+		return context.onReadAccess(obj, value, field);
+	}
+
+	public boolean onReadAccess(Object obj, boolean value, long field) {
+		if (isCaptured(obj))
+			return value;
+		return context.onReadAccess(obj, value, field);
+	}
+
+	public byte onReadAccess(Object obj, byte value, long field) {
+		if (isCaptured(obj))
+			return value;
+		return context.onReadAccess(obj, value, field);
+	}
+
+	public char onReadAccess(Object obj, char value, long field) {
+		if (isCaptured(obj))
+			return value;
+		return context.onReadAccess(obj, value, field);
+	}
+
+	public short onReadAccess(Object obj, short value, long field) {
+		if (isCaptured(obj))
+			return value;
+		return context.onReadAccess(obj, value, field);
+	}
+
+	public int onReadAccess(Object obj, int value, long field) {
+		if (isCaptured(obj))
+			return value;
+		return context.onReadAccess(obj, value, field);
+	}
+
+	public long onReadAccess(Object obj, long value, long field) {
+		if (isCaptured(obj))
+			return value;
+		return context.onReadAccess(obj, value, field);
+	}
+
+	public float onReadAccess(Object obj, float value, long field) {
+		if (isCaptured(obj))
+			return value;
+		return context.onReadAccess(obj, value, field);
+	}
+
+	public double onReadAccess(Object obj, double value, long field) {
+		if (isCaptured(obj))
+			return value;
+		return context.onReadAccess(obj, value, field);
+	}
+
+	public void onWriteAccess(Object obj, Object value, long field) {
+		if (isCaptured(obj))
+			unsafe.putObject(obj, AddressUtil.getOffset(field), value);
+		else
+			context.onWriteAccess(obj, value, field);
+	}
+
+	public void onWriteAccess(Object obj, boolean value, long field) {
+		if (isCaptured(obj))
+			unsafe.putBoolean(obj, AddressUtil.getOffset(field), value);
+		else
+			context.onWriteAccess(obj, value, field);
+	}
+
+	public void onWriteAccess(Object obj, byte value, long field) {
+		if (isCaptured(obj))
+			unsafe.putByte(obj, AddressUtil.getOffset(field), value);
+		else
+			context.onWriteAccess(obj, value, field);
+	}
+
+	public void onWriteAccess(Object obj, char value, long field) {
+		if (isCaptured(obj))
+			unsafe.putChar(obj, AddressUtil.getOffset(field), value);
+		else
+			context.onWriteAccess(obj, value, field);
+	}
+
+	public void onWriteAccess(Object obj, short value, long field) {
+		if (isCaptured(obj))
+			unsafe.putShort(obj, AddressUtil.getOffset(field), value);
+		else
+			context.onWriteAccess(obj, value, field);
+	}
+
+	public void onWriteAccess(Object obj, int value, long field) {
+		if (isCaptured(obj))
+			unsafe.putInt(obj, AddressUtil.getOffset(field), value);
+		else
+			context.onWriteAccess(obj, value, field);
+	}
+
+	public void onWriteAccess(Object obj, long value, long field) {
+		if (isCaptured(obj))
+			unsafe.putLong(obj, AddressUtil.getOffset(field), value);
+		else
+			context.onWriteAccess(obj, value, field);
+	}
+
+	public void onWriteAccess(Object obj, float value, long field) {
+		if (isCaptured(obj))
+			unsafe.putFloat(obj, AddressUtil.getOffset(field), value);
+		else
+			context.onWriteAccess(obj, value, field);
+	}
+
+	public void onWriteAccess(Object obj, double value, long field) {
+		if (isCaptured(obj))
+			unsafe.putDouble(obj, AddressUtil.getOffset(field), value);
+		else
+			context.onWriteAccess(obj, value, field);
+	}
+
+	public void onIncrement(Object obj, long field, long delta) {
+		if (isCaptured(obj)) {
+			long offset = AddressUtil.getOffset(field);
+			unsafe.putLong(obj, offset, unsafe.getLong(obj, offset) + delta);
+		} else
+			ContextDelegator.onIncrement(context, obj, field, delta);
+	}
+
+	public long getIncrement(Object obj, long field) {
+		// The increments of a captured object are applied in place
+		return isCaptured(obj) ? 0 : ContextDelegator.getIncrement(context, obj, field);
+	}
+
+	public void requestIrrevocable() {
+		ContextDelegator.requestIrrevocable(context);
+	}
+
+	public void cancelIrrevocable() {
+		ContextDelegator.onRetriesExhausted(context);
+	}
+
+	public void onIrrevocableAccess() {
+		context.onIrrevocableAccess();
+	}
+}
@@ -0,0 +1,54 @@
+package org.deuce.transaction.clock;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * Factory for creating global clocks.
+ * <p>
+ * The scheme is selected with the <code>org.deuce.transaction.clock</code> system property:
+ * <code>GV1</code> (default), <code>GV4</code>, <code>GV5</code> or <code>GV6</code>.
+ * The GV6 period is set with <code>org.deuce.transaction.clock.period</code> (default 32).
+ *
+ * @since 1.4
+ */
+@Exclude
+public class Factory {
+
+	final public static String CLOCK_PROPERTY = "org.deuce.transaction.clock";
+	final public static String PERIOD_PROPERTY = "org.deuce.transaction.clock.period";
+
+	final private static String CLOCK_ID = System.getProperty(CLOCK_PROPERTY, "GV1");
+	final private static int PERIOD = Integer.getInteger(PERIOD_PROPERTY, 32);
+
+	/**
+	 * Creates a clock over the shared clock word, using the configured scheme.
+	 */
+	public static GlobalClock createClock(AtomicInteger clock) {
+		return createClock(CLOCK_ID, clock);
+	}
+
+	public static GlobalClock createClock(String clockId, AtomicInteger clock) {
+		if ("GV1".equalsIgnoreCase(clockId)) {
+			return new GV1(clock);
+		}
+		else if ("GV4".equalsIgnoreCase(clockId)) {
+			return new GV4(clock);
+		}
+		else if ("GV5".equalsIgnoreCase(clockId)) {
+			return new GV5(clock);
+		}
+		else if ("GV6".equalsIgnoreCase(clockId)) {
+			return new GV6(clock, PERIOD);
+		}
+		throw new IllegalArgumentException("Unknown " + CLOCK_PROPERTY + " value: " + clockId);
+	}
+
+	/**
+	 * @return description of the configured scheme.
+	 */
+	public static String getDescription() {
+		return CLOCK_ID.equalsIgnoreCase("GV6") ? "GV6 [period=" + PERIOD + "]" : CLOCK_ID.toUpperCase();
+	}
+}
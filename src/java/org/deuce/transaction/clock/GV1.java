@@ -0,0 +1,36 @@
+package org.deuce.transaction.clock;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * The classic global clock, every update transaction increments it at commit time.
+ *
+ * @since 1.4
+ */
+@Exclude
+public class GV1 extends GlobalClock {
+
+	public GV1(AtomicInteger clock) {
+		super(clock);
+	}
+
+	@Override
+	public int tick(int after) {
+		++counters.commits;
+		++counters.increments;
+		return clock.incrementAndGet();
+	}
+
+	@Override
+	public boolean canSkipValidation(int startTime, int version) {
+		// No one else committed since the transaction started
+		return version == startTime + 1;
+	}
+
+	@Override
+	public String getDescription() {
+		return "GV1";
+	}
+}
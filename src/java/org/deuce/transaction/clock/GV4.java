@@ -0,0 +1,48 @@
+package org.deuce.transaction.clock;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * TL2's GV4 "pass on failure" clock. A committer tries a single CAS on the clock, if it
+ * fails it adopts the value installed by the winner instead of retrying. Concurrent
+ * committers (holding disjoint locks) may share a version.
+ *
+ * @since 1.4
+ */
+@Exclude
+public class GV4 extends GlobalClock {
+
+	// Set when the last tick incremented the clock by itself
+	private boolean exclusive;
+
+	public GV4(AtomicInteger clock) {
+		super(clock);
+	}
+
+	@Override
+	public int tick(int after) {
+		++counters.commits;
+		int now = clock.get();
+		if (clock.compareAndSet(now, now + 1)) {
+			++counters.increments;
+			exclusive = true;
+			return now + 1;
+		}
+		++counters.failures;
+		exclusive = false;
+		return clock.get();
+	}
+
+	@Override
+	public boolean canSkipValidation(int startTime, int version) {
+		// An adopted version might be startTime + 1 although another transaction committed
+		return exclusive && version == startTime + 1;
+	}
+
+	@Override
+	public String getDescription() {
+		return "GV4";
+	}
+}
@@ -0,0 +1,58 @@
+package org.deuce.transaction.clock;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * TL2's GV5 clock. Committers use the clock value plus one as their version without
+ * writing the clock, so the clock word is only written when a transaction falls behind:
+ * on abort or when a reader has to extend its snapshot. Readers see recent writes as
+ * "too new" more often, this is the price for a commit free of shared writes.
+ *
+ * @since 1.4
+ */
+@Exclude
+public class GV5 extends GlobalClock {
+
+	public GV5(AtomicInteger clock) {
+		super(clock);
+	}
+
+	@Override
+	public int tick(int after) {
+		++counters.commits;
+		// The version must be greater than the ones the transaction saw, those might
+		// already be ahead of the clock.
+		return advance(after) + 1;
+	}
+
+	@Override
+	public int advance(int version) {
+		int now = clock.get();
+		while (now < version) {
+			if (clock.compareAndSet(now, version)) {
+				++counters.advances;
+				return version;
+			}
+			++counters.failures;
+			now = clock.get();
+		}
+		return now;
+	}
+
+	@Override
+	public void onAbort() {
+		// Every version in memory is at most the clock plus one
+		int now = clock.get();
+		if (clock.compareAndSet(now, now + 1))
+			++counters.advances;
+		else
+			++counters.failures; // someone else moved it forward
+	}
+
+	@Override
+	public String getDescription() {
+		return "GV5";
+	}
+}
@@ -0,0 +1,47 @@
+package org.deuce.transaction.clock;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * TL2's GV6 clock, a mix of {@link GV1} and {@link GV5}. One out of <code>period</code>
+ * commits of a thread increments the clock, the others behave as in GV5. This bounds
+ * the distance between the clock and the written versions and so the false aborts of GV5.
+ * <p>
+ * The read set validation is never skipped: a GV5 commit of another thread hands out
+ * the clock plus one without writing the clock, so an incrementing commit getting
+ * <code>startTime + 1</code> doesn't prove that nobody committed since <code>startTime</code>.
+ *
+ * @since 1.4
+ */
+@Exclude
+public class GV6 extends GV5 {
+
+	final private int period;
+	private int countdown;
+
+	public GV6(AtomicInteger clock, int period) {
+		super(clock);
+		if (period <= 0)
+			throw new IllegalArgumentException("Illegal GV6 period: " + period);
+		this.period = period;
+		this.countdown = period;
+	}
+
+	@Override
+	public int tick(int after) {
+		if (--countdown > 0)
+			return super.tick(after);
+		countdown = period;
+		++counters.commits;
+		advance(after);
+		++counters.increments;
+		return clock.incrementAndGet();
+	}
+
+	@Override
+	public String getDescription() {
+		return "GV6 [period=" + period + "]";
+	}
+}
@@ -0,0 +1,156 @@
+package org.deuce.transaction.clock;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * The global version clock used by the time based STMs (TL2 and LSA).
+ * <p>
+ * The clock word itself is shared by all the threads of a backend, each transaction context
+ * holds its own <code>GlobalClock</code> over it. The instance keeps the per-thread state a
+ * scheme might need and the contention counters of its thread, so updating them is free of
+ * any synchronization. The counters of a clock no longer in use, e.g. the clock of a
+ * terminated thread or of a dropped pooled context, are folded into totals once the clock
+ * is garbage collected.
+ * <p>
+ * All the schemes keep the following invariant: every version written to a lock word
+ * is at most the clock value plus one. A reader that sees a version newer than its snapshot
+ * can therefore always catch up by calling {@link #advance(int)}.
+ *
+ * @since 1.4
+ */
+@Exclude
+abstract public class GlobalClock {
+
+	// The counters of the clocks in use, used to sum the counters
+	final private static HashSet<Counters> clocks = new HashSet<Counters>();
+	// The clocks collected, their counters are folded into the totals
+	final private static ReferenceQueue<GlobalClock> collected = new ReferenceQueue<GlobalClock>();
+	final private static Counters totals = new Counters(null, null);
+
+	final protected AtomicInteger clock;
+	final protected Counters counters;
+
+	public GlobalClock(AtomicInteger clock) {
+		this.clock = clock;
+		this.counters = new Counters(this, collected);
+		synchronized (clocks) {
+			fold();
+			clocks.add(counters);
+		}
+	}
+
+	/**
+	 * The contention counters of a clock, only updated by the owner thread. They outlive the
+	 * clock until they are folded into the totals.
+	 */
+	@Exclude
+	final protected static class Counters extends WeakReference<GlobalClock> {
+		protected long commits;    // write versions handed out
+		protected long increments; // successful updates of the clock word
+		protected long failures;   // failed CAS on the clock word
+		protected long advances;   // clock moved forward on behalf of a reader
+
+		Counters(GlobalClock clock, ReferenceQueue<GlobalClock> queue) {
+			super(clock, queue);
+		}
+
+		void add(Counters c) {
+			commits += c.commits;
+			increments += c.increments;
+			failures += c.failures;
+			advances += c.advances;
+		}
+	}
+
+	/**
+	 * Folds the counters of the collected clocks into the totals. Must hold the
+	 * <code>clocks</code> lock.
+	 */
+	private static void fold() {
+		Reference<? extends GlobalClock> r;
+		while ((r = collected.poll()) != null) {
+			totals.add((Counters) r);
+			clocks.remove(r);
+		}
+	}
+
+	/**
+	 * @return the current time, used as a snapshot by a starting transaction.
+	 */
+	public int get() {
+		return clock.get();
+	}
+
+	/**
+	 * Hands out the version of a committing update transaction. Must be called while
+	 * the transaction holds the locks of its write set.
+	 * @param after a version the returned one must be greater than, e.g. the
+	 * last versions seen by the transaction.
+	 * @return the version to be written to the released locks.
+	 */
+	abstract public int tick(int after);
+
+	/**
+	 * Whether the read set validation can be skipped at commit time, this is only
+	 * safe if no other transaction has committed since <code>startTime</code>.
+	 * @param startTime the snapshot of the transaction.
+	 * @param version the version returned by the last {@link #tick(int)}.
+	 */
+	public boolean canSkipValidation(int startTime, int version) {
+		return false;
+	}
+
+	/**
+	 * Makes sure the clock is not behind <code>version</code>.
+	 * @return the current time, not less than <code>version</code>.
+	 */
+	public int advance(int version) {
+		return clock.get();
+	}
+
+	/**
+	 * Called when the transaction aborts. A scheme that lets versions run ahead of
+	 * the clock must catch up here, otherwise the restarted transaction might see
+	 * the same versions again and abort forever.
+	 */
+	public void onAbort() {
+	}
+
+	/**
+	 * Gets a description of this clock scheme
+	 * @return description
+	 */
+	abstract public String getDescription();
+
+	/**
+	 * @return the counters summed over all the clocks created so far.
+	 */
+	public static String getStatistics() {
+		Counters sum = new Counters(null, null);
+		synchronized (clocks) {
+			fold();
+			sum.add(totals);
+			for (Counters c : clocks)
+				sum.add(c);
+		}
+		return "commits=" + sum.commits + ", increments=" + sum.increments +
+		", failures=" + sum.failures + ", advances=" + sum.advances;
+	}
+
+	/**
+	 * @return the amount of clocks whose counters are kept apart, the clocks not yet
+	 * collected.
+	 */
+	public static int getClockCount() {
+		synchronized (clocks) {
+			fold();
+			return clocks.size();
+		}
+	}
+}
@@ -2,8 +2,11 @@ package org.deuce.transaction.estm;
 
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicIntegerArray;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.deuce.transaction.CommutativeContext;
+import org.deuce.transaction.IrrevocableContext;
+import org.deuce.transaction.MemoryFootprint;
+import org.deuce.transaction.SetSizes;
 import org.deuce.transaction.TransactionException;
 //import org.deuce.transaction.estm.field.Field;
 import org.deuce.transaction.estm.field.ReadFieldAccess.Field;
@@ -11,6 +14,9 @@ import org.deuce.transaction.estm.field.ReadFieldAccess.Field.Type;
 //import org.deuce.transaction.estm.field.Field.Type;
 import org.deuce.transaction.estm.ReadSet;
 import org.deuce.transaction.estm.WriteSet;
+import org.deuce.transaction.util.DeltaLog;
+import org.deuce.transaction.util.Granularity;
+import org.deuce.transaction.util.Irrevocability;
 import org.deuce.transform.Exclude;
 
 /**
@@ -19,11 +25,14 @@ import org.deuce.transform.Exclude;
  * 
  * See the companion paper, Elastic Transactions [DISC '09]
  * 
+ * The increments (see {@link CommutativeContext}) are locked on commit and join the
+ * write set with the values they give.
+ * 
  * 
  * @author Vincent Gramoli
  */
 @Exclude
-final public class Context implements org.deuce.transaction.Context {
+final public class Context implements CommutativeContext, IrrevocableContext, MemoryFootprint, SetSizes {
 
 	/** Type of the tx, (!elastic) means regular type */
 	private boolean elastic;
@@ -44,9 +53,8 @@ final public class Context implements org.deuce.transaction.Context {
 	final private static AtomicInteger clock = new AtomicInteger(0);
 	final private static AtomicInteger threadID = new AtomicInteger(0);
 	
-	//Global lock used to allow only one irrevocable transaction solely. 
-	final private static ReentrantReadWriteLock irrevocableAccessLock = new ReentrantReadWriteLock();
-	private boolean irrevocableState = false;
+	//Used to allow only one irrevocable transaction solely. 
+	final private Irrevocability irrevocable = new Irrevocability();
 	
 	/**
 	 * The last-read-entries contains up to k=2 entries.
@@ -60,6 +68,8 @@ final public class Context implements org.deuce.transaction.Context {
 	final private ReadSet readSet = new ReadSet(1024);
 	/** Write set, usual redo-log */
 	final private WriteSet writeSet = new WriteSet(32);
+	/** Increments, locked on commit */
+	final private DeltaLog deltas = new DeltaLog();
 
 	private int readHash;
 	private int readLock;
@@ -77,15 +87,13 @@ final public class Context implements org.deuce.transaction.Context {
 	 */
 	public void init(int blockId, String metainf) {
         elastic = (metainf.indexOf("elastic") != -1);
-		writeSet.clear();
-		readSet.clear();
+		writeSet.init(blockId);
+		readSet.init(blockId);
 		lreSet.clear();
+		deltas.clear();
 		
 		//Lock according to the transaction irrevocable state
-		if(irrevocableState)
-			irrevocableAccessLock.writeLock().lock();
-		else
-			irrevocableAccessLock.readLock().lock();
+		irrevocable.begin();
 		
 		lb = ub = clock.get();
 	}
@@ -95,6 +103,10 @@ final public class Context implements org.deuce.transaction.Context {
 	 */
 	public boolean commit() {
 		try{
+			if (!resolveDeltas()) {
+				writeSet.rollback(); // Release locks
+				return false;
+			}
 			if (!writeSet.isEmpty()) {
 				int newClock = clock.incrementAndGet();
 				if (newClock != lb + 1 && !readSet.validate(id)) {
@@ -107,13 +119,7 @@ final public class Context implements org.deuce.transaction.Context {
 			return true;
 		}
 		finally{
-			if(irrevocableState){
-				irrevocableState = false;
-				irrevocableAccessLock.writeLock().unlock();
-			}
-			else{
-				irrevocableAccessLock.readLock().unlock();
-			}
+			irrevocable.commit();
 		}
 	}
 
@@ -123,7 +129,45 @@ final public class Context implements org.deuce.transaction.Context {
 	public void rollback() {
 		// Release locks
 		writeSet.rollback();
-		irrevocableAccessLock.readLock().unlock();
+		irrevocable.rollback();
+	}
+
+	/**
+	 * Locks the locations of the increments and adds the values they give to the write set,
+	 * waits up to {@link DeltaLog#WAITS} yields for a lock held by another transaction.
+	 * @return false if a lock stayed held, or if a counter read by the transaction was
+	 * updated since
+	 */
+	private boolean resolveDeltas() {
+		for (int i = 0; i < deltas.size(); i++) {
+			Object obj = deltas.getReference(i);
+			long field = deltas.getField(i);
+			int hash = LockTable.hash(obj, field);
+			int timestamp;
+			for (int waits = 0; ; waits++) {
+				try {
+					timestamp = LockTable.lock(hash, id);
+					break;
+				} catch (TransactionException e) {
+					if (waits == DeltaLog.WAITS)
+						return false;
+					Thread.yield();
+				}
+			}
+			// The value in place is the last one committed
+			if (timestamp < 0) {
+				writeSet.append(hash, obj, field, deltas.getValue(i), Type.LONG);
+			} else {
+				// Write-after-read: the counter was read and updated since, as in onWriteAccess
+				if (timestamp > ub && ((elastic && lreSet.contains(hash)) || readSet.contains(hash))) {
+					LockTable.setAndReleaseLock(hash, timestamp);
+					return false;
+				}
+				writeSet.add(hash, obj, field, deltas.getValue(i), Type.LONG, timestamp);
+			}
+		}
+		deltas.clear();
+		return true;
 	}
 
 	/**
@@ -219,7 +263,8 @@ final public class Context implements org.deuce.transaction.Context {
 		}
 		if (timestamp > ub) {
 			// Handle write-after-read
-			if ((elastic && lreSet.contains(obj, field)) || readSet.contains(obj, field)) {
+			// Any location read under the lock, several locations might share it
+			if ((elastic && lreSet.contains(hash)) || readSet.contains(hash)) {
 				// Abort
 				LockTable.setAndReleaseLock(hash, timestamp);
 				throw WRITE_FAILURE_EXCEPTION;
@@ -312,6 +357,18 @@ final public class Context implements org.deuce.transaction.Context {
 		onWriteAccess(obj, field, (Object) value, Type.DOUBLE);
 	}
 	
+	public void onIncrement(Object obj, long field, long delta) {
+		deltas.add(obj, field, delta);
+	}
+
+	public long getIncrement(Object obj, long field) {
+		return deltas.get(obj, field);
+	}
+	
+	/**
+	 * The locks are taken with a CAS and released with an ordered store once the values are
+	 * written back, see {@link org.deuce.transaction.lsa.LockTable}.
+	 */
 	@Exclude
 	static public class LockTable {
 
@@ -326,6 +383,7 @@ final public class Context implements org.deuce.transaction.Context {
 
 		// Array of 32-bit lock words
 		final private static AtomicIntegerArray locks = new AtomicIntegerArray(ARRAYSIZE);
+		final private static Granularity GRANULARITY = Granularity.getDefault();
 
 		public static int lock(int hash, int id) throws TransactionException {
 			assert hash <= MASK;
@@ -367,21 +425,64 @@ final public class Context implements org.deuce.transaction.Context {
 
 		public static void setAndReleaseLock(int hash, int lock) {
 			assert hash <= MASK;
-			locks.set(hash, lock);
+			locks.lazySet(hash, lock);
 		}
 
 		public static int hash(Object obj, long field) {
-			int hash = System.identityHashCode(obj) + (int) field;
+			int hash = System.identityHashCode(obj) + (int) GRANULARITY.stripe(obj, field);
 			return hash & MASK;
 		}
 	}
 
+	@Override
+	public void requestIrrevocable() {
+		irrevocable.request();
+	}
+
+	@Override
+	public void cancelIrrevocable() {
+		irrevocable.cancel();
+	}
+
 	@Override
 	public void onIrrevocableAccess() {
-		if(irrevocableState) // already in irrevocable state so no need to restart transaction.
+		if(irrevocable.isIrrevocable()) // already in irrevocable state so no need to restart transaction.
 			return;
 
-		irrevocableState = true;
-		throw TransactionException.STATIC_TRANSACTION;
+		if(!irrevocable.upgrade() || !flush())
+			throw irrevocable.restart();
+		irrevocable.onUpgrade();
+	}
+
+	/**
+	 * Commits what the transaction did so far, must run alone. The transaction then goes on
+	 * from the current time with empty read and write sets.
+	 * @return <code>false</code> if the reads are no longer valid
+	 */
+	private boolean flush() {
+		// The last reads of an elastic transaction are validated as on a write
+		if (!resolveDeltas() || (elastic && !lreSet.validate(id, ub)) || !readSet.validate(id))
+			return false; // the locks are released on rollback
+		if (!writeSet.isEmpty()) {
+			// Write values and release locks
+			writeSet.commit(clock.incrementAndGet());
+		}
+		writeSet.clear();
+		readSet.clear();
+		lreSet.clear();
+		lb = ub = clock.get();
+		return true;
+	}
+
+	public long getFootprint() {
+		return readSet.getFootprint() + writeSet.getFootprint() + deltas.getFootprint();
+	}
+
+	public int getReadSetSize() {
+		return readSet.getSize();
+	}
+
+	public int getWriteSetSize() {
+		return writeSet.getSize() + deltas.size();
 	}
 }
@@ -76,10 +76,9 @@ final public class LastReadEntries {
 		return true;
 	}
 
-	public boolean contains(Object obj, long field) {
+	public boolean contains(int hash) {
 		for (int i = 0; i < size; i++) {
-			ReadFieldAccess r = entries[i];
-			if (r.getField() == field && r.getReference() == obj)
+			if (entries[i].getHash() == hash)
 				return true;
 		}
 		return false;
@@ -1,8 +1,11 @@
 package org.deuce.transaction.estm;
 
+import java.util.Arrays;
+
 import org.deuce.transaction.TransactionException;
 import org.deuce.transaction.estm.Context.LockTable;
 import org.deuce.transaction.estm.field.ReadFieldAccess;
+import org.deuce.transaction.util.Capacity;
 import org.deuce.transform.Exclude;
 
 /**
@@ -18,6 +21,8 @@ final public class ReadSet {
 	private ReadFieldAccess[] entries;
 	/** The number of read entries */
 	private int size;
+	/** Sizes the array after the transactions */
+	final private Capacity capacity;
 
 	/**
 	 * Initialize the read set with a given number of elements
@@ -28,12 +33,29 @@ final public class ReadSet {
 		entries = new ReadFieldAccess[initialCapacity];
 		size = 0;
 		initArray(0);
+		capacity = new Capacity(initialCapacity);
+	}
+
+	/**
+	 * Clear the read set and size it for the atomic block about to run
+	 * 
+	 * @param atomicBlockId the atomic block
+	 */
+	public void init(int atomicBlockId) {
+		clear();
+		int expected = capacity.predict(atomicBlockId);
+		if (expected > entries.length)
+			resize(Capacity.grow(entries.length, expected));
 	}
 
 	/**
-	 * Clear the read set by resetting its size
+	 * Clear the read set by resetting its size,
+	 * shrink it if it was used far below its length for a while
 	 */
 	public void clear() {
+		int fit = capacity.fit(size, entries.length);
+		if (fit < entries.length)
+			entries = Arrays.copyOf(entries, fit);
 		size = 0;
 	}
 
@@ -75,13 +97,8 @@ final public class ReadSet {
 			ReadFieldAccess r = entries[size++];
 			r.init(reference, field, hash, lock);
 		} */
-		if (size >= entries.length) {
-			int l = entries.length;
-			ReadFieldAccess[] e = new ReadFieldAccess[l << 1];
-			System.arraycopy(entries, 0, e, 0, l);
-			entries = e;
-			initArray(l);
-		}
+		if (size >= entries.length)
+			resize(entries.length << 1);
 		assert size < entries.length;
 		ReadFieldAccess r = entries[size++];
 		r.init(reference, field, hash, lock);
@@ -121,22 +138,39 @@ final public class ReadSet {
 	}
 
 	/**
-	 * Indicates whether the given field corresponds
-	 * to an existing read entry of the read set
+	 * Indicates whether an existing read entry of the read set
+	 * is covered by the given lock
 	 * 
-	 * @param obj the object of the field
-	 * @param field the accessed field
-	 * @return true is the read set contains the field
+	 * @param hash the lock of the accessed field
+	 * @return true is the read set contains a field of the lock
 	 */
-	public boolean contains(Object obj, long field) {
+	public boolean contains(int hash) {
 		for (int i = 0; i < size; i++) {
-			ReadFieldAccess r = entries[i];
-			if (r.getField() == field && r.getReference() == obj)
+			if (entries[i].getHash() == hash)
 				return true;
 		}
 		return false;
 	}
 
+	/**
+	 * Return the approximate bytes held, the recycled entries included
+	 */
+	public long getFootprint() {
+		return Capacity.arrayBytes(entries.length, Capacity.REFERENCE) +
+				entries.length * Capacity.objectBytes(Capacity.REFERENCE + 8 + 4 + 4);
+	}
+
+	/**
+	 * Resize the array, allocating the new entries
+	 * 
+	 * @param length the new length
+	 */
+	private void resize(int length) {
+		int l = entries.length;
+		entries = Arrays.copyOf(entries, length);
+		initArray(l);
+	}
+
 	/**
 	 * Allocating more space for the array
 	 * 
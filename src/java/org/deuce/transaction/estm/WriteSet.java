@@ -3,6 +3,7 @@ package org.deuce.transaction.estm;
 import org.deuce.transaction.estm.field.WriteFieldAccess;
 import org.deuce.transaction.estm.field.ReadFieldAccess.Field.Type;
 import org.deuce.transaction.estm.Context.LockTable;
+import org.deuce.transaction.util.Capacity;
 import org.deuce.transform.Exclude;
 import org.deuce.trove.THashMap;
 
@@ -10,6 +11,10 @@ import org.deuce.trove.THashMap;
  * The set of write entries maintained by the transaction
  * Based on the code from Pascal Felber 
  * 
+ * Clearing the map takes the time of its capacity, so an empty map
+ * is left as is and the map is compacted once it was used far below
+ * the largest size it reached.
+ * 
  * @author Vincent Gramoli
  */
 @Exclude
@@ -19,24 +24,60 @@ final public class WriteSet {
 
 	final private THashMap<Integer, WriteFieldAccess> entries;
 	private boolean empty = true;
+	final private Capacity capacity;
+	/** The largest size since the map was last compacted */
+	private int high;
 
 	public WriteSet(int initialCapacity) {
 		entries = new THashMap<Integer, WriteFieldAccess>(initialCapacity);
+		capacity = new Capacity(initialCapacity);
+		high = initialCapacity;
 	}
 
 	public WriteSet() {
 		this(DEFAULT_CAPACITY);
 	}
 
+	/**
+	 * Clear the write set and size it for the atomic block about to run
+	 * 
+	 * @param atomicBlockId the atomic block
+	 */
+	public void init(int atomicBlockId) {
+		clear();
+		int expected = capacity.predict(atomicBlockId);
+		if (expected > high) {
+			entries.ensureCapacity(expected);
+			high = expected;
+		}
+	}
+
 	public void clear() {
-		entries.clear();
+		int used = entries.size();
+		if (used > high)
+			high = used;
+		if (!empty)
+			entries.clear();
 		empty = true;
+		int fit = capacity.fit(used, high);
+		if (fit < high) {
+			entries.compact();
+			entries.ensureCapacity(fit);
+			high = fit;
+		}
 	}
 
 	public boolean isEmpty() {
 		return empty;
 	}
 
+	/**
+	 * @return the number of locks written, the fields under the same lock share an entry.
+	 */
+	public int getSize() {
+		return entries.size();
+	}
+
 	/**
 	 * Indicates whether the given field corresponds
 	 * to an existing write entry of the read set
@@ -110,6 +151,14 @@ final public class WriteSet {
 		}
 	}
 
+	/**
+	 * Return the approximate bytes held by the map, keys and values arrays
+	 */
+	public long getFootprint() {
+		// Kept at most half full
+		return 2 * Capacity.arrayBytes(high << 1, Capacity.REFERENCE);
+	}
+
 	public void rollback() {
 		// Release locks
 		for (WriteFieldAccess w : entries.values()) {
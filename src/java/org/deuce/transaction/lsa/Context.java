@@ -1,57 +1,85 @@
 package org.deuce.transaction.lsa;
 
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.deuce.transaction.CommutativeContext;
+import org.deuce.transaction.IrrevocableContext;
+import org.deuce.transaction.MemoryFootprint;
+import org.deuce.transaction.SetSizes;
+import org.deuce.transaction.SnapshotContext;
 import org.deuce.transaction.TransactionException;
+import org.deuce.transaction.clock.Factory;
+import org.deuce.transaction.clock.GlobalClock;
 import org.deuce.transaction.lsa.field.Field;
 import org.deuce.transaction.lsa.field.Field.Type;
 import org.deuce.transaction.lsa.field.WriteFieldAccess;
 import org.deuce.transaction.lsa.ReadSet;
 import org.deuce.transaction.lsa.WriteSet;
 import org.deuce.transaction.util.BooleanArrayList;
+import org.deuce.transaction.util.DeltaLog;
+import org.deuce.transaction.util.Irrevocability;
 import org.deuce.transform.Exclude;
 
 /**
  * LSA implementation
+ * <p>
+ * A snapshot isolation transaction (see {@link SnapshotContext}) logs no read, so it can't
+ * extend its snapshot: it aborts on a location too new to read, and on a location written
+ * since its snapshot when it locks it to write. Its commit doesn't validate anything else.
+ * <p>
+ * The increments (see {@link CommutativeContext}) are locked when the transaction commits,
+ * and join the write set with the values they give.
  * 
  * @author Pascal Felber
  */
 @Exclude
-final public class Context implements org.deuce.transaction.Context {
+final public class Context implements org.deuce.transaction.ReadOnlyContext, SnapshotContext, CommutativeContext,
+		IrrevocableContext, MemoryFootprint, SetSizes {
 
 	final private static TransactionException WRITE_FAILURE_EXCEPTION =
 		new TransactionException("Fail on write (read previous version).");
 
+	final private static TransactionException SNAPSHOT_FAILURE_EXCEPTION =
+		new TransactionException("Fail on write (written since the snapshot).");
+
 	final private static TransactionException EXTEND_FAILURE_EXCEPTION =
 		new TransactionException("Fail on extend.");
 
 	final private static TransactionException READ_ONLY_FAILURE_EXCEPTION =
 		new TransactionException("Fail on write (read-only hint was set).");
 
-	final private static AtomicInteger clock = new AtomicInteger(0);
+	final private static AtomicInteger globalClock = new AtomicInteger(0);
 	final private static AtomicInteger threadID = new AtomicInteger(0);
 
 	final private static boolean RO_HINT = Boolean.getBoolean("org.deuce.transaction.lsa.rohint");
 
-	//Global lock used to allow only one irrevocable transaction solely. 
-	final private static ReentrantReadWriteLock irrevocableAccessLock = new ReentrantReadWriteLock();
-	private boolean irrevocableState = false;
+	//Used to allow only one irrevocable transaction solely. 
+	final private Irrevocability irrevocable = new Irrevocability();
 
 	final private ReadSet readSet = new ReadSet(1024);
 	final private WriteSet writeSet = new WriteSet(32);
+	final private DeltaLog deltas = new DeltaLog();
 
-	// Keep per-thread read-only hints (uses more memory but faster)
+	// Keep per-thread read-only hints (uses more memory but faster), also marks the
+	// blocks whose read-only attempt tried to write or failed to extend
 	final private BooleanArrayList readWriteMarkers = new BooleanArrayList();
 	private boolean readWriteHint = true;
 	private int atomicBlockId;
+	// Snapshot isolation, reads aren't logged
+	private boolean snapshot;
 
 	private int readHash;
 	private int readLock;
-	private Object readValue;
+	// Value re-read or found in the write set, kept unboxed
+	private long readBits;
+	private Object readObject;
+
+	final private GlobalClock clock = Factory.createClock(globalClock);
 
 	private int startTime;
 	private int endTime;
+	// Latest version seen on a location of the write set
+	private int lastWriteTime;
 	private int id;
 
 	public Context() {
@@ -61,29 +89,46 @@ final public class Context implements org.deuce.transaction.Context {
 
 	@Override
 	public void init(int blockId, String metainf) {
-		readSet.clear();
-		writeSet.clear();
+		readSet.init(blockId);
+		writeSet.init(blockId);
+		deltas.clear();
 		
 		//Lock according to the transaction irrevocable state
-		if(irrevocableState)
-			irrevocableAccessLock.writeLock().lock();
-		else
-			irrevocableAccessLock.readLock().lock();
+		irrevocable.begin();
 		
-		startTime = endTime = clock.get();
-		if (RO_HINT) {
-			atomicBlockId = blockId;
-			readWriteHint = readWriteMarkers.get(atomicBlockId);
-		}
+		startTime = endTime = lastWriteTime = clock.get();
+		atomicBlockId = blockId;
+		readWriteHint = RO_HINT ? readWriteMarkers.get(atomicBlockId) : true;
+		snapshot = false;
+	}
+
+	@Override
+	public void initReadOnly(int blockId, String metainf) {
+		boolean readOnly = !readWriteMarkers.get(blockId) && !irrevocable.isRequested();
+		init(blockId, metainf);
+		if (readOnly)
+			readWriteHint = false;
+	}
+
+	@Override
+	public void initSnapshot(int blockId, String metainf) {
+		init(blockId, metainf);
+		snapshot = true;
 	}
 
 	@Override
 	public boolean commit() {
 		try{
+			if (!resolveDeltas()) {
+				writeSet.rollback(); // Release locks
+				clock.onAbort();
+				return false;
+			}
 			if (!writeSet.isEmpty()) {
-				int newClock = clock.incrementAndGet();
-				if (newClock != startTime + 1 && !readSet.validate(id)) {
+				int newClock = clock.tick(lastWriteTime);
+				if (!snapshot && !clock.canSkipValidation(startTime, newClock) && !readSet.validate(id)) {
 					writeSet.rollback(); // Release locks
+					clock.onAbort();
 					return false;
 				}
 				// Write values and release locks
@@ -92,14 +137,7 @@ final public class Context implements org.deuce.transaction.Context {
 			return true;
 		}
 		finally{
-			if(irrevocableState){
-				irrevocableState = false;
-				irrevocableAccessLock.writeLock().unlock();
-			}
-			else{
-				irrevocableAccessLock.readLock().unlock();
-			}
-
+			irrevocable.commit();
 		}
 	}
 
@@ -107,11 +145,53 @@ final public class Context implements org.deuce.transaction.Context {
 	public void rollback() {
 		// Release locks
 		writeSet.rollback();
-		irrevocableAccessLock.readLock().unlock();
+		clock.onAbort();
+		irrevocable.rollback();
+	}
+
+	/**
+	 * Locks the locations of the increments and adds the values they give to the write set.
+	 * Waits for a lock held by another transaction, up to {@link DeltaLog#WAITS} yields.
+	 * @return <code>false</code> if a lock stayed held, or if a counter read by the
+	 * transaction was updated since.
+	 */
+	private boolean resolveDeltas() {
+		for (int i = 0; i < deltas.size(); i++) {
+			Object obj = deltas.getReference(i);
+			long field = deltas.getField(i);
+			int hash = LockTable.hash(obj, field);
+			int timestamp;
+			for (int waits = 0; ; waits++) {
+				try {
+					timestamp = LockTable.lock(hash, id);
+					break;
+				} catch (TransactionException e) {
+					if (waits == DeltaLog.WAITS)
+						return false;
+					Thread.yield();
+				}
+			}
+			// The value in place is the last one committed
+			if (timestamp < 0) {
+				writeSet.append(hash, obj, field, deltas.getValue(i), null, Type.LONG);
+			} else {
+				// Write-after-read: the counter was read and updated since, as in onWriteAccess
+				if (timestamp > endTime && readSet.contains(hash)) {
+					LockTable.setAndReleaseLock(hash, timestamp);
+					return false;
+				}
+				if (timestamp > lastWriteTime)
+					lastWriteTime = timestamp;
+				writeSet.add(hash, obj, field, deltas.getValue(i), null, Type.LONG, timestamp);
+			}
+		}
+		deltas.clear();
+		return true;
 	}
 
-	private boolean extend() {
-		int now = clock.get();
+	private boolean extend(int version) {
+		// The clock might lag behind the version (see GlobalClock)
+		int now = clock.advance(version);
 		if (readSet.validate(id)) {
 			endTime = now;
 			return true;
@@ -132,7 +212,8 @@ final public class Context implements org.deuce.transaction.Context {
 			WriteFieldAccess w = writeSet.get(readHash, obj, field);
 			if (w == null)
 				return false;
-			readValue = w.getValue();
+			readBits = w.getBits();
+			readObject = w.getObject();
 			return true;
 		}
 		boolean b = false;
@@ -142,12 +223,15 @@ final public class Context implements org.deuce.transaction.Context {
 				int lock = LockTable.checkLock(readHash, id);
 				if (lock != readLock) {
 					readLock = lock;
-					readValue = Field.getValue(obj, field, type);
+					if (type == Type.OBJECT)
+						readObject = Field.getObject(obj, field);
+					else
+						readBits = Field.getBits(obj, field, type);
 					b = true;
 					continue;
 				}
 				// We have read a valid value (in snapshot)
-				if (readWriteHint) {
+				if (readWriteHint && !snapshot) {
 					// Save to read set
 					readSet.add(obj, field, readHash, lock);
 				}
@@ -155,13 +239,16 @@ final public class Context implements org.deuce.transaction.Context {
 			}
 
 			// Try to extend snapshot
-			if (!(readWriteHint && extend())) {
+			if (!(readWriteHint && !snapshot && extend(readLock))) {
+				// A read-only or snapshot transaction has no read set to extend
+				if (!readWriteHint)
+					readWriteMarkers.insert(atomicBlockId, true);
 				throw EXTEND_FAILURE_EXCEPTION;
 			}
 		}
 	}
 
-	private void onWriteAccess(Object obj, long field, Object value, Type type) {
+	private void onWriteAccess(Object obj, long field, long bits, Object object, Type type) {
 		if (!readWriteHint) {
 			// Change hint to read-write
 			readWriteMarkers.insert(atomicBlockId, true);
@@ -175,13 +262,22 @@ final public class Context implements org.deuce.transaction.Context {
 
 		if (timestamp < 0) {
 			// We already own that lock
-			writeSet.append(hash, obj, field, value, type);
+			writeSet.append(hash, obj, field, bits, object, type);
 			return;
 		}
 
+		if (timestamp > lastWriteTime)
+			lastWriteTime = timestamp;
+
 		if (timestamp > endTime) {
+			if (snapshot) {
+				// Write-write conflict
+				LockTable.setAndReleaseLock(hash, timestamp);
+				throw SNAPSHOT_FAILURE_EXCEPTION;
+			}
 			// Handle write-after-read
-			if (readSet.contains(obj, field)) {
+			// Any location read under the lock, several locations might share it
+			if (readSet.contains(hash)) {
 				// Abort
 				LockTable.setAndReleaseLock(hash, timestamp);
 				throw WRITE_FAILURE_EXCEPTION;
@@ -190,105 +286,164 @@ final public class Context implements org.deuce.transaction.Context {
 		}
 
 		// Add to write set
-		writeSet.add(hash, obj, field, value, type, timestamp);
+		writeSet.add(hash, obj, field, bits, object, type, timestamp);
+	}
+
+	@Override
+	public void onIncrement(Object obj, long field, long delta) {
+		if (!readWriteHint) {
+			// Change hint to read-write
+			readWriteMarkers.insert(atomicBlockId, true);
+			throw READ_ONLY_FAILURE_EXCEPTION;
+		}
+		deltas.add(obj, field, delta);
+	}
+
+	@Override
+	public long getIncrement(Object obj, long field) {
+		return deltas.get(obj, field);
 	}
 
 	@Override
 	public Object onReadAccess(Object obj, Object value, long field) {
-		return (onReadAccess(obj, field, Type.OBJECT) ? readValue : value);
+		return (onReadAccess(obj, field, Type.OBJECT) ? readObject : value);
 	}
 
 	@Override
 	public boolean onReadAccess(Object obj, boolean value, long field) {
-		return (onReadAccess(obj, field, Type.BOOLEAN) ? (Boolean) readValue : value);
+		return (onReadAccess(obj, field, Type.BOOLEAN) ? readBits != 0 : value);
 	}
 
 	@Override
 	public byte onReadAccess(Object obj, byte value, long field) {
-		return (onReadAccess(obj, field, Type.BYTE) ? ((Number) readValue).byteValue() : value);
+		return (onReadAccess(obj, field, Type.BYTE) ? (byte) readBits : value);
 	}
 
 	@Override
 	public char onReadAccess(Object obj, char value, long field) {
-		return (onReadAccess(obj, field, Type.CHAR) ? (Character) readValue : value);
+		return (onReadAccess(obj, field, Type.CHAR) ? (char) readBits : value);
 	}
 
 	@Override
 	public short onReadAccess(Object obj, short value, long field) {
-		return (onReadAccess(obj, field, Type.SHORT) ? ((Number) readValue).shortValue() : value);
+		return (onReadAccess(obj, field, Type.SHORT) ? (short) readBits : value);
 	}
 
 	@Override
 	public int onReadAccess(Object obj, int value, long field) {
-		return (onReadAccess(obj, field, Type.INT) ? ((Number) readValue).intValue() : value);
+		return (onReadAccess(obj, field, Type.INT) ? (int) readBits : value);
 	}
 
 	@Override
 	public long onReadAccess(Object obj, long value, long field) {
-		return (onReadAccess(obj, field, Type.LONG) ? ((Number) readValue).longValue() : value);
+		return (onReadAccess(obj, field, Type.LONG) ? readBits : value);
 	}
 
 	@Override
 	public float onReadAccess(Object obj, float value, long field) {
-		return (onReadAccess(obj, field, Type.FLOAT) ? ((Number) readValue).floatValue() : value);
+		return (onReadAccess(obj, field, Type.FLOAT) ? Float.intBitsToFloat((int) readBits) : value);
 	}
 
 	@Override
 	public double onReadAccess(Object obj, double value, long field) {
-		return (onReadAccess(obj, field, Type.DOUBLE) ? ((Number) readValue).doubleValue() : value);
+		return (onReadAccess(obj, field, Type.DOUBLE) ? Double.longBitsToDouble(readBits) : value);
 	}
 
 	@Override
 	public void onWriteAccess(Object obj, Object value, long field) {
-		onWriteAccess(obj, field, value, Type.OBJECT);
+		onWriteAccess(obj, field, 0, value, Type.OBJECT);
 	}
 
 	@Override
 	public void onWriteAccess(Object obj, boolean value, long field) {
-		onWriteAccess(obj, field, (Object) value, Type.BOOLEAN);
+		onWriteAccess(obj, field, value ? 1 : 0, null, Type.BOOLEAN);
 	}
 
 	@Override
 	public void onWriteAccess(Object obj, byte value, long field) {
-		onWriteAccess(obj, field, (Object) value, Type.BYTE);
+		onWriteAccess(obj, field, value, null, Type.BYTE);
 	}
 
 	@Override
 	public void onWriteAccess(Object obj, char value, long field) {
-		onWriteAccess(obj, field, (Object) value, Type.CHAR);
+		onWriteAccess(obj, field, value, null, Type.CHAR);
 	}
 
 	@Override
 	public void onWriteAccess(Object obj, short value, long field) {
-		onWriteAccess(obj, field, (Object) value, Type.SHORT);
+		onWriteAccess(obj, field, value, null, Type.SHORT);
 	}
 
 	@Override
 	public void onWriteAccess(Object obj, int value, long field) {
-		onWriteAccess(obj, field, (Object) value, Type.INT);
+		onWriteAccess(obj, field, value, null, Type.INT);
 	}
 
 	@Override
 	public void onWriteAccess(Object obj, long value, long field) {
-		onWriteAccess(obj, field, (Object) value, Type.LONG);
+		onWriteAccess(obj, field, value, null, Type.LONG);
 	}
 
 	@Override
 	public void onWriteAccess(Object obj, float value, long field) {
-		onWriteAccess(obj, field, (Object) value, Type.FLOAT);
+		onWriteAccess(obj, field, Float.floatToRawIntBits(value), null, Type.FLOAT);
 	}
 
 	@Override
 	public void onWriteAccess(Object obj, double value, long field) {
-		onWriteAccess(obj, field, (Object) value, Type.DOUBLE);
+		onWriteAccess(obj, field, Double.doubleToRawLongBits(value), null, Type.DOUBLE);
+	}
+
+	@Override
+	public void requestIrrevocable() {
+		irrevocable.request();
+	}
+
+	@Override
+	public void cancelIrrevocable() {
+		irrevocable.cancel();
 	}
 
 	@Override
 	public void onIrrevocableAccess() {
-		if(irrevocableState) // already in irrevocable state so no need to restart transaction.
+		if(irrevocable.isIrrevocable()) // already in irrevocable state so no need to restart transaction.
 			return;
 
-		irrevocableState = true;
-		throw TransactionException.STATIC_TRANSACTION;
+		// A read-only transaction has no read set to validate
+		if(!readWriteHint || !irrevocable.upgrade() || !flush())
+			throw irrevocable.restart();
+		irrevocable.onUpgrade();
+	}
+
+	/**
+	 * Commits what the transaction did so far, must run alone. The transaction then goes on
+	 * from the current time with empty read and write sets.
+	 * @return <code>false</code> if the read set is no longer valid.
+	 */
+	private boolean flush() {
+		if (!resolveDeltas() || !readSet.validate(id))
+			return false; // the locks are released on rollback
+		int version = endTime;
+		if (!writeSet.isEmpty()) {
+			version = clock.tick(lastWriteTime);
+			// Write values and release locks
+			writeSet.commit(version);
+		}
+		readSet.clear();
+		writeSet.clear();
+		startTime = endTime = lastWriteTime = clock.advance(version);
+		return true;
+	}
+
+	public long getFootprint() {
+		return readSet.getFootprint() + writeSet.getFootprint() + deltas.getFootprint();
+	}
+
+	public int getReadSetSize() {
+		return readSet.getSize();
+	}
+
+	public int getWriteSetSize() {
+		return writeSet.getSize() + deltas.size();
 	}
 }
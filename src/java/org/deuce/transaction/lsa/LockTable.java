@@ -3,9 +3,19 @@ package org.deuce.transaction.lsa;
 import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import org.deuce.transaction.TransactionException;
+import org.deuce.transaction.util.LockTableLayout;
 import org.deuce.transform.Exclude;
 
 /**
+ * Memory ordering: a lock is taken with a CAS, a full fence, and the commit time is taken
+ * with a CAS on the global clock once all the locks are held. The values are then written
+ * back with plain stores and each lock is released with an ordered store
+ * ({@link AtomicIntegerArray#lazySet}) of the commit time, which isn't reordered with the
+ * write-back before it, so a reader seeing the new version sees the new values. The
+ * StoreLoad fence of a volatile store isn't needed, the committing thread never waits on
+ * the other threads seeing its locks released. An abort releases the locks with their old
+ * version the same way.
+ *
  * @author Pascal Felber
  */
 @Exclude
@@ -15,18 +25,19 @@ public class LockTable {
 	final private static TransactionException FAILURE_EXCEPTION =
 		new TransactionException("Fail on lock (already locked).");
 	
-	final private static int ARRAYSIZE = 1 << 20; // 2^20
-	final private static int MASK = ARRAYSIZE - 1;
+	final private static LockTableLayout LAYOUT = new LockTableLayout(4);
+	final private static int MASK = LAYOUT.mask();
 	final private static int LOCK = 1 << 31;
 	final private static int IDMASK = LOCK - 1;
 
 	// Array of 32-bit lock words
-	final private static AtomicIntegerArray locks = new AtomicIntegerArray(ARRAYSIZE);
+	final private static AtomicIntegerArray locks = new AtomicIntegerArray(LAYOUT.arrayLength());
 
 	public static int lock(int hash, int id) throws TransactionException {
 		assert hash <= MASK;
+		int slot = LAYOUT.slot(hash);
 		while (true) {
-			int lock = locks.get(hash);
+			int lock = locks.get(slot);
 			if ((lock & LOCK) != 0) {
 				if ((lock & IDMASK) != id) {
 					// Already locked by other thread
@@ -37,7 +48,7 @@ public class LockTable {
 				}
 			}
 
-			if (locks.compareAndSet(hash, lock, id | LOCK)) {
+			if (locks.compareAndSet(slot, lock, id | LOCK)) {
 				// Return old timestamp (lock bit is not set)
 				return lock;
 			}
@@ -46,7 +57,7 @@ public class LockTable {
 
 	public static int checkLock(int hash, int id) throws TransactionException {
 		assert hash <= MASK;
-		int lock = locks.get(hash);
+		int lock = locks.get(LAYOUT.slot(hash));
 		if ((lock & LOCK) != 0) {
 			if ((lock & IDMASK) != id) {
 				// Already locked by other thread
@@ -63,11 +74,14 @@ public class LockTable {
 
 	public static void setAndReleaseLock(int hash, int lock) {
 		assert hash <= MASK;
-		locks.set(hash, lock);
+		locks.lazySet(LAYOUT.slot(hash), lock);
 	}
 
 	public static int hash(Object obj, long field) {
-		int hash = System.identityHashCode(obj) + (int) field;
-		return hash & MASK;
+		return LAYOUT.hash(obj, field);
+	}
+
+	public static LockTableLayout getLayout() {
+		return LAYOUT;
 	}
 }
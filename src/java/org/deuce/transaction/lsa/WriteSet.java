@@ -1,12 +1,20 @@
 package org.deuce.transaction.lsa;
 
+import java.util.Arrays;
+
 import org.deuce.transaction.lsa.field.Field.Type;
 import org.deuce.transaction.lsa.field.WriteFieldAccess;
 import org.deuce.transaction.lsa.LockTable;
+import org.deuce.transaction.util.Capacity;
 import org.deuce.transform.Exclude;
-import org.deuce.trove.THashMap;
 
 /**
+ * The write set, it also acts as a recycle pool of {@link WriteFieldAccess}.
+ * <p>
+ * Entries are chained per lock, the first entry of a chain owns the lock. The owners
+ * are found through an open addressing index keyed by the lock hash, which is
+ * cleared in the time of the entries used, not of its capacity.
+ *
  * @author Pascal Felber
  */
 @Exclude
@@ -14,10 +22,24 @@ public class WriteSet {
 
 	private static final int DEFAULT_CAPACITY = 16;
 
-	final private THashMap<Integer, WriteFieldAccess> entries;
+	private WriteFieldAccess[] entries;
+	private int size;
+
+	private WriteFieldAccess[] index;
+	private int owners;
+
+	final private Capacity capacity;
 
 	public WriteSet(int initialCapacity) {
-		entries = new THashMap<Integer, WriteFieldAccess>(initialCapacity);
+		entries = new WriteFieldAccess[initialCapacity];
+		initArray(0);
+		index = newIndex(initialCapacity);
+		capacity = new Capacity(initialCapacity);
+	}
+
+	private static WriteFieldAccess[] newIndex(int capacity) {
+		// Keep the index at most half full
+		return new WriteFieldAccess[Capacity.roundUp(Math.max(capacity, 2)) << 1];
 	}
 
 	public WriteSet() {
@@ -25,16 +47,82 @@ public class WriteSet {
 	}
 
 	public void clear() {
-		entries.clear();
+		for (int i = 0; i < size; i++) {
+			WriteFieldAccess w = entries[i];
+			if (w.isOwner())
+				index[w.getSlot()] = null;
+			w.clear();
+		}
+		int fit = capacity.fit(size, entries.length);
+		if (fit < entries.length) {
+			entries = Arrays.copyOf(entries, fit);
+			if (index.length > fit << 1)
+				index = newIndex(fit);
+		}
+		size = 0;
+		owners = 0;
+	}
+
+	/**
+	 * Clears the write set and sizes it for the atomic block about to run.
+	 */
+	public void init(int atomicBlockId) {
+		clear();
+		int expected = capacity.predict(atomicBlockId);
+		if (expected > entries.length) {
+			int l = entries.length;
+			entries = Arrays.copyOf(entries, Capacity.grow(l, expected));
+			initArray(l);
+			if (index.length < entries.length << 1)
+				index = newIndex(entries.length);
+		}
 	}
 
 	public boolean isEmpty() {
-		return entries.isEmpty();
+		return size == 0;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	private static int mix(int hash) {
+		return hash * 0x9E3779B9;
+	}
+
+	private WriteFieldAccess find(int hash) {
+		int mask = index.length - 1;
+		int i = mix(hash) & mask;
+		WriteFieldAccess w;
+		while ((w = index[i]) != null) {
+			if (w.getHash() == hash)
+				return w;
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	private void insert(WriteFieldAccess w) {
+		int mask = index.length - 1;
+		int i = mix(w.getHash()) & mask;
+		while (index[i] != null)
+			i = (i + 1) & mask;
+		index[i] = w;
+		w.setSlot(i);
+	}
+
+	private WriteFieldAccess next() {
+		if (size >= entries.length) {
+			int l = entries.length;
+			entries = Arrays.copyOf(entries, l << 1);
+			initArray(l);
+		}
+		return entries[size++];
 	}
 
 	public WriteFieldAccess get(int hash, Object obj, long field) {
 		// Return value from existing entry
-		WriteFieldAccess w = entries.get(hash);
+		WriteFieldAccess w = find(hash);
 		while (w != null) {
 			// Check if we have already written that field
 			if (w.getReference() == obj && w.getField() == field)
@@ -44,49 +132,82 @@ public class WriteSet {
 		return null;
 	}
 
-	public void append(int hash, Object obj, long field, Object value, Type type) {
+	public void append(int hash, Object obj, long field, long bits, Object object, Type type) {
 		// Append to existing entry
-		WriteFieldAccess w = entries.get(hash);
+		WriteFieldAccess w = find(hash);
 		while (w != null) {
 			// Check if we have already written that field
 			if (w.getReference() == obj && w.getField() == field) {
 				// Update written value
-				w.setValue(value);
+				w.setValue(bits, object);
 				return;
 			}
 			WriteFieldAccess next = w.getNext();
 			if (next == null) {
 				// We did not write this field (we must add it to write set)
-				w.setNext(new WriteFieldAccess(obj, field, type, value, hash, 0));
+				next = next();
+				next.init(obj, field, type, bits, object, hash, 0, false);
+				w.setNext(next);
 				return;
 			}
 			w = next;
 		}
 	}
 
-	public void add(int hash, Object obj, long field, Object value, Type type, int timestamp) {
+	public void add(int hash, Object obj, long field, long bits, Object object, Type type, int timestamp) {
 		// Add new entry
-		entries.put(hash, new WriteFieldAccess(obj, field, type, value, hash, timestamp));
+		if (++owners << 1 > index.length)
+			growIndex();
+		WriteFieldAccess w = next();
+		w.init(obj, field, type, bits, object, hash, timestamp, true);
+		insert(w);
+	}
+
+	private void growIndex() {
+		index = new WriteFieldAccess[index.length << 1];
+		for (int i = 0; i < size; i++) {
+			WriteFieldAccess w = entries[i];
+			if (w.isOwner())
+				insert(w);
+		}
 	}
 
 	public void commit(int timestamp) {
-		// Write values and release locks
-		for (WriteFieldAccess w : entries.values()) {
-			int hash = w.getHash();
-			assert w.getLock() >= 0;
-			do {
-				w.writeField();
-				w = w.getNext();
-			} while (w != null);
-			LockTable.setAndReleaseLock(hash, timestamp);
+		// Write values
+		for (int i = 0; i < size; i++)
+			entries[i].writeField();
+		// Release locks
+		for (int i = 0; i < size; i++) {
+			WriteFieldAccess w = entries[i];
+			if (w.isOwner()) {
+				assert w.getLock() >= 0;
+				LockTable.setAndReleaseLock(w.getHash(), timestamp);
+			}
 		}
 	}
 
 	public void rollback() {
 		// Release locks
-		for (WriteFieldAccess w : entries.values()) {
-			assert w.getLock() >= 0;
-			LockTable.setAndReleaseLock(w.getHash(), w.getLock());
+		for (int i = 0; i < size; i++) {
+			WriteFieldAccess w = entries[i];
+			if (w.isOwner()) {
+				assert w.getLock() >= 0;
+				LockTable.setAndReleaseLock(w.getHash(), w.getLock());
+			}
 		}
 	}
+
+	/**
+	 * @return the approximate bytes held, the recycled entries included.
+	 */
+	public long getFootprint() {
+		return Capacity.arrayBytes(entries.length, Capacity.REFERENCE) +
+				Capacity.arrayBytes(index.length, Capacity.REFERENCE) +
+				entries.length * Capacity.objectBytes(Capacity.REFERENCE * 4 + 8 + 8 + 4 + 4 + 4 + 1);
+	}
+
+	private void initArray(int fromIndex) {
+		for (int i = fromIndex; i < entries.length; i++)
+			entries[i] = new WriteFieldAccess();
+	}
 }
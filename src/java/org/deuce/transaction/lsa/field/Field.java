@@ -6,6 +6,10 @@ import org.deuce.transform.Exclude;
 import sun.misc.Unsafe;
 
 /**
+ * Reads and writes fields without boxing: primitive values travel as raw bits in a
+ * <code>long</code> (floating point values through their raw bit representation), and
+ * references as an <code>Object</code>.
+ *
  * @author Pascal Felber
  */
 @Exclude
@@ -16,13 +20,13 @@ public class Field {
 		BYTE, BOOLEAN, CHAR, SHORT, INT, LONG, FLOAT, DOUBLE, OBJECT
 	}
 
-	static public Object getValue(Object reference, long field, Type type) {
+	static public long getBits(Object reference, long field, Type type) {
 		Unsafe unsafe = UnsafeHolder.getUnsafe();
 		switch (type) {
 		case BYTE:
 			return unsafe.getByte(reference, field);
 		case BOOLEAN:
-			return unsafe.getBoolean(reference, field);
+			return unsafe.getBoolean(reference, field) ? 1 : 0;
 		case CHAR:
 			return unsafe.getChar(reference, field);
 		case SHORT:
@@ -32,45 +36,47 @@ public class Field {
 		case LONG:
 			return unsafe.getLong(reference, field);
 		case FLOAT:
-			return unsafe.getFloat(reference, field);
+			return Float.floatToRawIntBits(unsafe.getFloat(reference, field));
 		case DOUBLE:
-			return unsafe.getDouble(reference, field);
-		case OBJECT:
-			return unsafe.getObject(reference, field);
+			return Double.doubleToRawLongBits(unsafe.getDouble(reference, field));
 		}
-		return null;
+		return 0;
+	}
+
+	static public Object getObject(Object reference, long field) {
+		return UnsafeHolder.getUnsafe().getObject(reference, field);
 	}
 
-	static public void putValue(Object reference, long field, Object value, Type type) {
+	static public void putValue(Object reference, long field, long bits, Object object, Type type) {
 		Unsafe unsafe = UnsafeHolder.getUnsafe();
 		switch (type) {
 		case BYTE:
-			unsafe.putByte(reference, field, (Byte) value);
+			unsafe.putByte(reference, field, (byte) bits);
 			break;
 		case BOOLEAN:
-			unsafe.putBoolean(reference, field, (Boolean) value);
+			unsafe.putBoolean(reference, field, bits != 0);
 			break;
 		case CHAR:
-			unsafe.putChar(reference, field, (Character) value);
+			unsafe.putChar(reference, field, (char) bits);
 			break;
 		case SHORT:
-			unsafe.putShort(reference, field, (Short) value);
+			unsafe.putShort(reference, field, (short) bits);
 			break;
 		case INT:
-			unsafe.putInt(reference, field, (Integer) value);
+			unsafe.putInt(reference, field, (int) bits);
 			break;
 		case LONG:
-			unsafe.putLong(reference, field, (Long) value);
+			unsafe.putLong(reference, field, bits);
 			break;
 		case FLOAT:
-			unsafe.putFloat(reference, field, (Float) value);
+			unsafe.putFloat(reference, field, Float.intBitsToFloat((int) bits));
 			break;
 		case DOUBLE:
-			unsafe.putDouble(reference, field, (Double) value);
+			unsafe.putDouble(reference, field, Double.longBitsToDouble(bits));
 			break;
 		case OBJECT:
-			unsafe.putObject(reference, field, value);
+			unsafe.putObject(reference, field, object);
 			break;
 		}
 	}
-}
\ No newline at end of file
+}
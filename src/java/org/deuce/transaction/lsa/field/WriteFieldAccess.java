@@ -5,28 +5,52 @@ import org.deuce.transaction.lsa.field.Field.Type;
 import org.deuce.transform.Exclude;
 
 /**
+ * A write set entry, recycled by the {@link org.deuce.transaction.lsa.WriteSet}.
+ * Primitive values are kept as raw bits (see {@link Field}) so no boxing takes place.
+ *
  * @author Pascal Felber
  */
 @Exclude
 public class WriteFieldAccess extends ReadFieldAccess {
 
-	final private Type type;
-	private Object value;
+	private Type type;
+	private long bits;
+	private Object object;
 	private WriteFieldAccess next;
+	// The first entry of a lock owns it and restores its version on rollback
+	private boolean owner;
+	// Position in the write set index (owners only)
+	private int slot;
 
-	public WriteFieldAccess(Object reference, long field, Type type, Object value, int hash, int lock) {
-		super(reference, field, hash, lock);
+	public WriteFieldAccess() { }
+
+	public void init(Object reference, long field, Type type, long bits, Object object, int hash, int lock, boolean owner) {
+		super.init(reference, field, hash, lock);
 		this.type = type;
-		this.value = value;
+		this.bits = bits;
+		this.object = object;
+		this.next = null;
+		this.owner = owner;
+	}
+
+	public void clear() {
+		// Don't keep garbage reachable
+		this.reference = null;
+		this.object = null;
 		this.next = null;
 	}
 
-	public void setValue(Object value) {
-		this.value = value;
+	public void setValue(long bits, Object object) {
+		this.bits = bits;
+		this.object = object;
+	}
+
+	public long getBits() {
+		return bits;
 	}
 
-	public Object getValue() {
-		return value;
+	public Object getObject() {
+		return object;
 	}
 
 	public void setNext(WriteFieldAccess next) {
@@ -37,7 +61,19 @@ public class WriteFieldAccess extends ReadFieldAccess {
 		return next;
 	}
 
+	public boolean isOwner() {
+		return owner;
+	}
+
+	public void setSlot(int slot) {
+		this.slot = slot;
+	}
+
+	public int getSlot() {
+		return slot;
+	}
+
 	public void writeField() {
-		Field.putValue(reference, field, value, type);
+		Field.putValue(reference, field, bits, object, type);
 	}
-}
\ No newline at end of file
+}
@@ -1,11 +1,13 @@
 package org.deuce.transaction.lsacm;
 
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
 
+import org.deuce.transaction.CommutativeContext;
+import org.deuce.transaction.IrrevocableContext;
+import org.deuce.transaction.MemoryFootprint;
+import org.deuce.transaction.SetSizes;
+import org.deuce.transaction.ThreadBoundContext;
 import org.deuce.transaction.TransactionException;
 import org.deuce.transaction.lsacm.field.Field;
 import org.deuce.transaction.lsacm.field.Field.Type;
@@ -15,15 +17,22 @@ import org.deuce.transaction.lsacm.WriteSet;
 import org.deuce.transaction.lsacm.ContentionManager;
 import org.deuce.transaction.lsacm.ContentionManager.ConflictType;
 import org.deuce.transaction.util.BooleanArrayList;
+import org.deuce.transaction.util.DeltaLog;
+import org.deuce.transaction.util.Irrevocability;
+import org.deuce.transaction.util.OwnerRegistry;
 import org.deuce.transform.Exclude;
 
 /**
  * LSA implementation
+ * <p>
+ * The increments (see {@link CommutativeContext}) are locked on commit, through the
+ * contention manager, and join the write set with the values they give.
  * 
  * @author Pascal Felber
  */
 @Exclude
-final public class Context implements org.deuce.transaction.Context {
+final public class Context implements org.deuce.transaction.ReadOnlyContext, CommutativeContext, IrrevocableContext,
+		MemoryFootprint, SetSizes, ThreadBoundContext {
 
 	final private static int TX_IDLE = 0;
 	final private static int TX_ACTIVE = 1;
@@ -48,9 +57,12 @@ final public class Context implements org.deuce.transaction.Context {
 		new TransactionException("Transaction has been killed.");
 
 	final private static AtomicLong clock = new AtomicLong(0);
-	final private static AtomicInteger threadID = new AtomicInteger(0);
+	// Ids are recycled once their threads terminated
+	final private static OwnerRegistry<Context> threads = new OwnerRegistry<Context>(LockTable.MAX_ID);
 
-	final private static Map<Integer, Context> threads = new ConcurrentHashMap<Integer, Context>();
+	// The longs of the padded record
+	final private static int STATUS = 0;
+	final private static int START_TIME = 1;
 
 	final private static boolean RO_HINT = Boolean.getBoolean("org.deuce.transaction.lsacm.rohint");
 
@@ -58,14 +70,15 @@ final public class Context implements org.deuce.transaction.Context {
 
 	final private static ContentionManager cm;
 
-	//Global lock used to allow only one irrevocable transaction solely. 
-	final private static ReentrantReadWriteLock irrevocableAccessLock = new ReentrantReadWriteLock();
-	private boolean irrevocableState = false;
+	//Used to allow only one irrevocable transaction solely. 
+	final private Irrevocability irrevocable = new Irrevocability();
 
 	final private ReadSet readSet = new ReadSet(1024);
 	final private WriteSet writeSet = new WriteSet(32);
+	final private DeltaLog deltas = new DeltaLog();
 
-	// Keep per-thread read-only hints (uses more memory but faster)
+	// Keep per-thread read-only hints (uses more memory but faster), also marks the
+	// blocks whose read-only attempt tried to write or failed to extend
 	final private BooleanArrayList readWriteMarkers = new BooleanArrayList();
 	private boolean readWriteHint = true;
 	private int atomicBlockId;
@@ -75,15 +88,14 @@ final public class Context implements org.deuce.transaction.Context {
 	private Object readValue;
 
 	// Can be accessed (read) by other transaction during contention management
-	private AtomicLong startTime;
+	final private AtomicLongArray records;
+	final private int record;
 	private long endTime;
-	private int id;
+	final private int id;
 
 	private int attempts;
 	private boolean vr;
 
-	private AtomicInteger status;
-
 	static {
 		// Set contention manager
 		String s = System.getProperty("org.deuce.transaction.lsacm.cm");
@@ -100,60 +112,93 @@ final public class Context implements org.deuce.transaction.Context {
 
 	public Context() {
 		// Unique identifier among active threads
-		id = threadID.incrementAndGet();
-		threads.put(id, this);
+		id = threads.register(this);
+		records = threads.records(id);
+		record = OwnerRegistry.recordIndex(id);
 		attempts = 0;
 		vr = false;
-		startTime = new AtomicLong(0L);
-		status = new AtomicInteger(TX_IDLE);
+		records.set(record + START_TIME, 0L);
+		// A recycled id carries on the version of its status
+		setStatus((status() & ~STATUS_MASK) | TX_IDLE);
+	}
+
+	public void detach() {
+		threads.detach(id);
+	}
+
+	public void dispose() {
+		threads.release(id);
+	}
+
+	/**
+	 * @return the ids of the contexts.
+	 */
+	public static OwnerRegistry<Context> getThreads() {
+		return threads;
+	}
+
+	private int status() {
+		return (int) records.get(record + STATUS);
 	}
 
-	protected void finalize() throws Throwable {
-		threads.remove(id);
-		super.finalize();
+	private void setStatus(int status) {
+		records.set(record + STATUS, status);
+	}
+
+	private boolean casStatus(int expect, int update) {
+		return records.compareAndSet(record + STATUS, expect, update);
 	}
 
 	@Override
 	public void init(int blockId, String metainf) {
-		readSet.clear();
-		writeSet.clear();
+		readSet.init(blockId);
+		writeSet.init(blockId);
+		deltas.clear();
 		
 		//Lock according to the transaction irrevocable state
-		if(irrevocableState)
-			irrevocableAccessLock.writeLock().lock();
-		else
-			irrevocableAccessLock.readLock().lock();
+		irrevocable.begin();
 		
 		endTime = clock.get();
-		startTime.set(endTime);
-		status.set(((status.get() + (1 << STATUS_BITS)) & ~STATUS_MASK) | TX_ACTIVE);
-		if (RO_HINT) {
-			atomicBlockId = blockId;
-			readWriteHint = readWriteMarkers.get(atomicBlockId);
-		}
+		records.set(record + START_TIME, endTime);
+		setStatus(((status() + (1 << STATUS_BITS)) & ~STATUS_MASK) | TX_ACTIVE);
+		atomicBlockId = blockId;
+		readWriteHint = RO_HINT ? readWriteMarkers.get(atomicBlockId) : true;
 		attempts++;
 		vr = (VR_THRESHOLD > 0 && VR_THRESHOLD <= attempts);
 	}
 
+	@Override
+	public void initReadOnly(int blockId, String metainf) {
+		boolean readOnly = !readWriteMarkers.get(blockId) && !irrevocable.isRequested();
+		init(blockId, metainf);
+		// Visible reads need the read set to release their locks
+		if (readOnly && !vr)
+			readWriteHint = false;
+	}
+
 	@Override
 	public boolean commit() {
 		try{
+			if (!resolveDeltas()) {
+				rollback0();
+				return false;
+			}
 			if (!writeSet.isEmpty()) {
-				int v = status.get();
+				int v = status();
 				int s = v & STATUS_MASK;
-				if (s == TX_ACTIVE && status.compareAndSet(v, v + (TX_COMMITTING - TX_ACTIVE))) {
+				if (s == TX_ACTIVE && casStatus(v, v + (TX_COMMITTING - TX_ACTIVE))) {
 					long newClock = clock.incrementAndGet();
-					if (newClock != startTime.get() + 1 && !readSet.validate(this, id)) {
+					if (newClock != records.get(record + START_TIME) + 1 && !readSet.validate(this, id)) {
 						rollback0();
 						return false;
 					}
 					// Write values and release locks
 					writeSet.commit(newClock);
-					status.set(v + (TX_COMMITTED - TX_ACTIVE));
+					setStatus(v + (TX_COMMITTED - TX_ACTIVE));
 				} else {
 					// We have been killed: wait for our locks to have been released
 					while (s != TX_ABORTED)
-						s = status.get() & STATUS_MASK;
+						s = status() & STATUS_MASK;
 					return false;
 				}
 			} else {
@@ -163,14 +208,7 @@ final public class Context implements org.deuce.transaction.Context {
 			return true;
 		}
 		finally{
-			if(irrevocableState){
-				irrevocableState = false;
-				irrevocableAccessLock.writeLock().unlock();
-			}
-			else{
-				irrevocableAccessLock.readLock().unlock();
-			}
-
+			irrevocable.commit();
 		}
 	}
 
@@ -178,42 +216,46 @@ final public class Context implements org.deuce.transaction.Context {
 	public void rollback() {
 		rollback0();
 		
-		irrevocableAccessLock.readLock().unlock();
+		irrevocable.rollback();
 	}
 	
 	private void rollback0() {
 		if (!writeSet.isEmpty()) {
-			int v = status.get();
+			int v = status();
 			int s = v & STATUS_MASK;
 			if (s == TX_COMMITTING) {
 				// Release locks
 				writeSet.rollback();
-				status.set(v + (TX_ABORTED - TX_COMMITTING));
-			} else if (s == TX_ACTIVE && status.compareAndSet(v, v + (TX_ABORTING - TX_ACTIVE))) {
+				setStatus(v + (TX_ABORTED - TX_COMMITTING));
+			} else if (s == TX_ACTIVE && casStatus(v, v + (TX_ABORTING - TX_ACTIVE))) {
 				// Release locks
 				writeSet.rollback();
-				status.set(v + (TX_ABORTED - TX_ACTIVE));
+				setStatus(v + (TX_ABORTED - TX_ACTIVE));
 			} else {
 				// We have been killed: wait for our locks to have been released
-				while (s != TX_ABORTED)
-					s = status.get() & STATUS_MASK;
+				while (s == TX_ABORTING)
+					s = status() & STATUS_MASK;
 			}
 		} else {
 			// No need to set status to ABORTED (at that point we do not hold locks anymore)
 		}
-		
-		irrevocableAccessLock.readLock().unlock();
 	}
 
 	public boolean conflict(int other, ConflictType type, int hash, long lock) {
 		if (cm != null) {
 			Context tx = threads.get(other);
+			if (tx == null) {
+				// The owner let go of its id, hence of its locks: retry
+				return true;
+			}
 			if (cm.arbitrate(this, tx, type) == ContentionManager.KILL_OTHER) {
 				// We win
 				synchronized (tx.writeSet) {
 					// Mutual exclusion on write set to drop locks
 					if (lock == LockTable.readLock(hash)) {
-						// The other transaction still owns the lock
+						// The other transaction still owns the lock. Its id might have been
+						// recycled since the lock was read, then the lock changed and the
+						// arbitration only cost a retry.
 						kill(tx);
 					}
 				}
@@ -225,17 +267,17 @@ final public class Context implements org.deuce.transaction.Context {
 
 	public static void kill(Context tx) {
 		// Kill other transaction
-		int v = tx.status.get();
+		int v = tx.status();
 		int s = v & STATUS_MASK;
-		if (s == TX_ACTIVE && tx.status.compareAndSet(v, v + (TX_ABORTING - TX_ACTIVE))) {
+		if (s == TX_ACTIVE && tx.casStatus(v, v + (TX_ABORTING - TX_ACTIVE))) {
 			// Release locks
 			tx.writeSet.rollback();
-			tx.status.set(v + (TX_ABORTED - TX_ACTIVE));
+			tx.setStatus(v + (TX_ABORTED - TX_ACTIVE));
 		}
 	}
 
 	public long getStartTime() {
-		return startTime.get();
+		return records.get(record + START_TIME);
 	}
 
 	public int getId() {
@@ -243,7 +285,7 @@ final public class Context implements org.deuce.transaction.Context {
 	}
 
 	public boolean isActive() {
-		return (status.get() & STATUS_MASK) == TX_ACTIVE;
+		return (status() & STATUS_MASK) == TX_ACTIVE;
 	}
 
 	private boolean extend() {
@@ -264,7 +306,7 @@ final public class Context implements org.deuce.transaction.Context {
 			if (readLock >= 0) {
 				synchronized (writeSet) {
 					// Mutual exclusion on write set to allow other transaction to drop locks
-					if ((status.get() & STATUS_MASK) != TX_ACTIVE) {
+					if ((status() & STATUS_MASK) != TX_ACTIVE) {
 						// We have been killed: drop lock we just acquired (not in write set)
 						LockTable.setAndReleaseLock(readHash, readLock);
 						// Abort
@@ -297,7 +339,7 @@ final public class Context implements org.deuce.transaction.Context {
 			}
 		} else {
 			// Invisible read
-			if ((status.get() & STATUS_MASK) != TX_ACTIVE) {
+			if ((status() & STATUS_MASK) != TX_ACTIVE) {
 				// We have been killed: abort
 				throw KILLED_EXCEPTION;
 			}
@@ -333,6 +375,9 @@ final public class Context implements org.deuce.transaction.Context {
 
 				// Try to extend snapshot
 				if (!(readWriteHint && extend())) {
+					// A read-only transaction has no read set to extend
+					if (!readWriteHint)
+						readWriteMarkers.insert(atomicBlockId, true);
 					throw EXTEND_FAILURE_EXCEPTION;
 				}
 			}
@@ -352,7 +397,7 @@ final public class Context implements org.deuce.transaction.Context {
 
 		synchronized (writeSet) {
 			// Mutual exclusion on write set to allow other transaction to drop locks
-			if ((status.get() & STATUS_MASK) != TX_ACTIVE) {
+			if ((status() & STATUS_MASK) != TX_ACTIVE) {
 				// We have been killed
 				if (timestamp >= 0) {
 					// Drop lock we just acquired (not in write set)
@@ -368,7 +413,8 @@ final public class Context implements org.deuce.transaction.Context {
 				// Add to write set
 				if (timestamp > endTime) {
 					// Handle write-after-read
-					if (readSet.contains(obj, field)) {
+					// Any location read under the lock, several locations might share it
+					if (readSet.contains(hash)) {
 						// Abort
 						LockTable.setAndReleaseLock(hash, timestamp);
 						throw WRITE_FAILURE_EXCEPTION;
@@ -381,6 +427,69 @@ final public class Context implements org.deuce.transaction.Context {
 		}
 	}
 
+	/**
+	 * Locks the locations of the increments and adds the values they give to the write set.
+	 * Waits up to {@link DeltaLog#WAITS} yields for a lock the contention manager didn't get.
+	 * @return <code>false</code> if a lock stayed held, if we have been killed, or if a
+	 * counter read by the transaction was updated since.
+	 */
+	private boolean resolveDeltas() {
+		for (int i = 0; i < deltas.size(); i++) {
+			Object obj = deltas.getReference(i);
+			long field = deltas.getField(i);
+			int hash = LockTable.hash(obj, field);
+			long timestamp;
+			for (int waits = 0; ; waits++) {
+				try {
+					timestamp = LockTable.lock(this, hash, id, true);
+					break;
+				} catch (TransactionException e) {
+					if (waits == DeltaLog.WAITS)
+						return false;
+					Thread.yield();
+				}
+			}
+			synchronized (writeSet) {
+				// Mutual exclusion on write set to allow other transaction to drop locks
+				if ((status() & STATUS_MASK) != TX_ACTIVE) {
+					// We have been killed: drop lock we just acquired (not in write set)
+					if (timestamp >= 0)
+						LockTable.setAndReleaseLock(hash, timestamp);
+					return false;
+				}
+				// The value in place is the last one committed
+				Object value = deltas.getValue(i);
+				if (timestamp < 0) {
+					writeSet.appendWrite(hash, obj, field, value, Type.LONG);
+				} else {
+					// Write-after-read: the counter was read and updated since, as in onWriteAccess
+					if (timestamp > endTime && readSet.contains(hash)) {
+						LockTable.setAndReleaseLock(hash, timestamp);
+						return false;
+					}
+					writeSet.addWrite(hash, obj, field, value, Type.LONG, timestamp);
+				}
+			}
+		}
+		deltas.clear();
+		return true;
+	}
+
+	@Override
+	public void onIncrement(Object obj, long field, long delta) {
+		if (!readWriteHint) {
+			// Change hint to read-write
+			readWriteMarkers.insert(atomicBlockId, true);
+			throw READ_ONLY_FAILURE_EXCEPTION;
+		}
+		deltas.add(obj, field, delta);
+	}
+
+	@Override
+	public long getIncrement(Object obj, long field) {
+		return deltas.get(obj, field);
+	}
+
 	@Override
 	public Object onReadAccess(Object obj, Object value, long field) {
 		return (onReadAccess(obj, field, Type.OBJECT) ? readValue : value);
@@ -471,12 +580,56 @@ final public class Context implements org.deuce.transaction.Context {
 		onWriteAccess(obj, field, (Object) value, Type.DOUBLE);
 	}
 
+	@Override
+	public void requestIrrevocable() {
+		irrevocable.request();
+	}
+
+	@Override
+	public void cancelIrrevocable() {
+		irrevocable.cancel();
+	}
+
 	@Override
 	public void onIrrevocableAccess() {
-		if(irrevocableState) // already in irrevocable state so no need to restart transaction.
+		if(irrevocable.isIrrevocable()) // already in irrevocable state so no need to restart transaction.
 			return;
 
-		irrevocableState = true;
-		throw TransactionException.STATIC_TRANSACTION;
+		// A read-only transaction has no read set to validate
+		if(!readWriteHint || !irrevocable.upgrade() || !flush())
+			throw irrevocable.restart();
+		irrevocable.onUpgrade();
+	}
+
+	/**
+	 * Commits what the transaction did so far, must run alone. The transaction then goes on
+	 * from the current time with empty read and write sets.
+	 * @return <code>false</code> if we have been killed or the read set is no longer valid.
+	 */
+	private boolean flush() {
+		// Nobody can kill us anymore, but we might have been killed before
+		if (!resolveDeltas() || !isActive() || !readSet.validate(this, id))
+			return false; // the locks are released on rollback
+		if (!writeSet.isEmpty()) {
+			// Write values and release locks (including those of the visible reads)
+			writeSet.commit(clock.incrementAndGet());
+		}
+		readSet.clear();
+		writeSet.clear();
+		endTime = clock.get();
+		records.set(record + START_TIME, endTime);
+		return true;
+	}
+
+	public long getFootprint() {
+		return readSet.getFootprint() + writeSet.getFootprint() + deltas.getFootprint();
+	}
+
+	public int getReadSetSize() {
+		return readSet.getSize();
+	}
+
+	public int getWriteSetSize() {
+		return writeSet.getSize() + deltas.size();
 	}
 }
@@ -5,9 +5,16 @@ import java.util.concurrent.atomic.AtomicLongArray;
 import org.deuce.transaction.TransactionException;
 import org.deuce.transaction.lsacm.Context;
 import org.deuce.transaction.lsacm.ContentionManager.ConflictType;
+import org.deuce.transaction.util.Granularity;
 import org.deuce.transform.Exclude;
 
 /**
+ * Memory ordering: as in LSA (see {@link org.deuce.transaction.lsa.LockTable}), the locks
+ * are taken with a CAS and released with an ordered store ({@link AtomicLongArray#lazySet})
+ * once the values are written back. The contention manager only kills a transaction still
+ * active, it releases the locks of the victim the same way then publishes the aborted
+ * status with a volatile store, which the victim waits for before it goes on.
+ *
  * @author Pascal Felber
  */
 @Exclude
@@ -30,6 +37,9 @@ public class LockTable {
 	final private static int IDBITS = 14; // 14 bits
 	final private static int IDOFFSET = TSBITS;
 	final private static long IDMASK = ((1L << IDBITS) - 1L) << IDOFFSET;
+	final public static int MAX_ID = (1 << IDBITS) - 1;
+
+	final private static Granularity GRANULARITY = Granularity.getDefault();
 
 	// Lock modes
 	final public static long LOCKED_WRITE = -1L;
@@ -101,11 +111,11 @@ public class LockTable {
 
 	public static void setAndReleaseLock(int hash, long lock) {
 		assert hash <= MASK;
-		locks.set(hash, lock);
+		locks.lazySet(hash, lock);
 	}
 
 	public static int hash(Object obj, long field) {
-		int hash = System.identityHashCode(obj) + (int) field;
+		int hash = System.identityHashCode(obj) + (int) GRANULARITY.stripe(obj, field);
 		return hash & MASK;
 	}
 }
@@ -1,9 +1,12 @@
 package org.deuce.transaction.lsacm;
 
+import java.util.Arrays;
+
 import org.deuce.transaction.TransactionException;
 import org.deuce.transaction.lsacm.field.ReadFieldAccess;
 import org.deuce.transaction.lsacm.LockTable;
 import org.deuce.transaction.lsacm.Context;
+import org.deuce.transaction.util.Capacity;
 import org.deuce.transform.Exclude;
 
 /**
@@ -16,29 +19,45 @@ public class ReadSet {
 
 	private ReadFieldAccess[] entries;
 	private int size;
+	final private Capacity capacity;
 
 	public ReadSet(int initialCapacity) {
 		entries = new ReadFieldAccess[initialCapacity];
 		size = 0;
 		initArray(0);
+		capacity = new Capacity(initialCapacity);
 	}
 
 	public ReadSet() {
 		this(DEFAULT_CAPACITY);
 	}
 
+	/**
+	 * Clears the read set and sizes it for the atomic block about to run.
+	 */
+	public void init(int atomicBlockId) {
+		clear();
+		int expected = capacity.predict(atomicBlockId);
+		if (expected > entries.length)
+			resize(Capacity.grow(entries.length, expected));
+	}
+
 	public void clear() {
+		int fit = capacity.fit(size, entries.length);
+		if (fit < entries.length)
+			entries = Arrays.copyOf(entries, fit);
 		size = 0;
 	}
 
+	private void resize(int length) {
+		int l = entries.length;
+		entries = Arrays.copyOf(entries, length);
+		initArray(l);
+	}
+
 	public void add(Object reference, long field, int hash, long lock) {
-		if (size >= entries.length) {
-			int l = entries.length;
-			ReadFieldAccess[] e = new ReadFieldAccess[l << 1];
-			System.arraycopy(entries, 0, e, 0, l);
-			entries = e;
-			initArray(l);
-		}
+		if (size >= entries.length)
+			resize(entries.length << 1);
 		assert size < entries.length;
 		ReadFieldAccess r = entries[size++];
 		r.init(reference, field, hash, lock);
@@ -65,15 +84,25 @@ public class ReadSet {
 		return true;
 	}
 
-	public boolean contains(Object obj, long field) {
+	/**
+	 * @return <code>true</code> if a location read is covered by the lock.
+	 */
+	public boolean contains(int hash) {
 		for (int i = 0; i < size; i++) {
-			ReadFieldAccess r = entries[i];
-			if (r.getReference() == obj && r.getField() == field)
+			if (entries[i].getHash() == hash)
 				return true;
 		}
 		return false;
 	}
 
+	/**
+	 * @return the approximate bytes held, the recycled entries included.
+	 */
+	public long getFootprint() {
+		return Capacity.arrayBytes(entries.length, Capacity.REFERENCE) +
+				entries.length * Capacity.objectBytes(Capacity.REFERENCE + 8 + 4 + 8);
+	}
+
 	private void initArray(int fromIndex) {
 		for (int i = fromIndex; i < entries.length; i++)
 			entries[i] = new ReadFieldAccess();
@@ -3,10 +3,16 @@ package org.deuce.transaction.lsacm;
 import org.deuce.transaction.lsacm.field.Field.Type;
 import org.deuce.transaction.lsacm.field.WriteFieldAccess;
 import org.deuce.transaction.lsacm.LockTable;
+import org.deuce.transaction.util.Capacity;
 import org.deuce.transform.Exclude;
 import org.deuce.trove.THashMap;
 
 /**
+ * The write set, keyed by lock.
+ * <p>
+ * Clearing the map takes the time of its capacity, so an empty map is left as is and the
+ * map is compacted once it was used far below the largest size it reached.
+ *
  * @author Pascal Felber
  */
 @Exclude
@@ -15,23 +21,56 @@ public class WriteSet {
 	private static final int DEFAULT_CAPACITY = 16;
 
 	final private THashMap<Integer, WriteFieldAccess> entries;
+	final private Capacity capacity;
+	private int high; // the largest size since the map was last compacted
 
 	public WriteSet(int initialCapacity) {
 		entries = new THashMap<Integer, WriteFieldAccess>(initialCapacity);
+		capacity = new Capacity(initialCapacity);
+		high = initialCapacity;
 	}
 
 	public WriteSet() {
 		this(DEFAULT_CAPACITY);
 	}
 
+	/**
+	 * Clears the write set and sizes it for the atomic block about to run.
+	 */
+	public void init(int atomicBlockId) {
+		clear();
+		int expected = capacity.predict(atomicBlockId);
+		if (expected > high) {
+			entries.ensureCapacity(expected);
+			high = expected;
+		}
+	}
+
 	public void clear() {
-		entries.clear();
+		int used = entries.size();
+		if (used > high)
+			high = used;
+		if (used > 0)
+			entries.clear();
+		int fit = capacity.fit(used, high);
+		if (fit < high) {
+			entries.compact();
+			entries.ensureCapacity(fit);
+			high = fit;
+		}
 	}
 
 	public boolean isEmpty() {
 		return entries.isEmpty();
 	}
 
+	/**
+	 * @return the number of locks written, the fields under the same lock share an entry.
+	 */
+	public int getSize() {
+		return entries.size();
+	}
+
 	public WriteFieldAccess get(int hash, Object obj, long field) {
 		// Return value from existing entry
 		WriteFieldAccess w = entries.get(hash);
@@ -87,6 +126,14 @@ public class WriteSet {
 		}
 	}
 
+	/**
+	 * @return the approximate bytes held by the map, keys and values arrays.
+	 */
+	public long getFootprint() {
+		// Kept at most half full
+		return 2 * Capacity.arrayBytes(high << 1, Capacity.REFERENCE);
+	}
+
 	public void rollback() {
 		// Release locks
 		for (WriteFieldAccess w : entries.values()) {
@@ -0,0 +1,627 @@
+package org.deuce.transaction.mvstm;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.deuce.reflection.AddressUtil;
+import org.deuce.transaction.CommutativeContext;
+import org.deuce.transaction.IrrevocableContext;
+import org.deuce.transaction.MemoryFootprint;
+import org.deuce.transaction.SetSizes;
+import org.deuce.transaction.ThreadBoundContext;
+import org.deuce.transaction.TransactionException;
+import org.deuce.transaction.clock.Factory;
+import org.deuce.transaction.clock.GlobalClock;
+import org.deuce.transaction.lsa.field.Field;
+import org.deuce.transaction.lsa.field.Field.Type;
+import org.deuce.transaction.statistics.CounterSource;
+import org.deuce.transaction.statistics.Statistics;
+import org.deuce.transaction.util.BooleanArrayList;
+import org.deuce.transaction.util.DeltaLog;
+import org.deuce.transaction.util.Irrevocability;
+import org.deuce.transaction.util.OwnerRegistry;
+import org.deuce.transform.Exclude;
+
+/**
+ * Multi-version STM implementation, in the style of LSA-MV and JVSTM.
+ * <p>
+ * Update transactions run as in LSA: they read the current values, extend their snapshot
+ * when they meet a newer version, buffer their writes and take the locks of their write
+ * set at commit time. A commit keeps the values it overwrites in the history of their
+ * locks (see {@link LockTable}), stamped with its commit time. The increments (see
+ * {@link CommutativeContext}) are locked after the write set, waiting for a while if another
+ * transaction holds the lock, and aren't validated.
+ * <p>
+ * Read-only transactions (see {@link org.deuce.transaction.ReadOnlyContext}) read the
+ * snapshot of their start time: the current value if it is old enough, otherwise the
+ * version it had then, from the history. They log nothing, never validate, and never abort
+ * on a conflict, a long scan goes through under any amount of concurrent writers. The only
+ * exception is a version dropped from a full history, see below.
+ * <p>
+ * The histories are trimmed by epoch: each read-only transaction publishes its snapshot,
+ * and every {@value #EPOCH} commits a thread looks for the oldest one. The versions
+ * overwritten before the oldest snapshot are dropped as the histories are updated, so a
+ * history holds the versions the running snapshots might read and no more. The
+ * configuration is read from the following system properties:
+ * <ul>
+ * <li><code>org.deuce.transaction.mvstm.depth</code> - the versions kept per lock, 0 for
+ * no limit but the oldest snapshot (default 0). A lower depth bounds the memory held
+ * for a snapshot left behind, e.g. the scan of a preempted thread. A read-only transaction
+ * needing a version beyond the depth aborts, and is counted as a snapshot miss.</li>
+ * </ul>
+ * The versions kept and the snapshot misses are reported by the statistics.
+ *
+ * @since 1.4
+ */
+@Exclude
+final public class Context implements org.deuce.transaction.ReadOnlyContext, CommutativeContext,
+		IrrevocableContext, MemoryFootprint, SetSizes, ThreadBoundContext {
+
+	final private static TransactionException READ_FAILURE_EXCEPTION =
+		new TransactionException("Fail on read (locked or newer version).");
+
+	final private static TransactionException READ_ONLY_FAILURE_EXCEPTION =
+		new TransactionException("Fail on write (read-only transaction).");
+
+	final private static TransactionException SNAPSHOT_FAILURE_EXCEPTION =
+		new TransactionException("Fail on read (version dropped from the history).");
+
+	final public static String DEPTH_PROPERTY = "org.deuce.transaction.mvstm.depth";
+
+	final private static int DEPTH = Integer.getInteger(DEPTH_PROPERTY, 0);
+	final public static int EPOCH = 64; // commits between two looks for the oldest snapshot
+	final private static long IDLE = Long.MAX_VALUE; // no snapshot published
+
+	final private static AtomicInteger globalClock = new AtomicInteger(0);
+
+	// Owner ids are recycled once their threads terminated, the record holds the snapshot
+	final private static OwnerRegistry<Context> threads = new OwnerRegistry<Context>(LockTable.MAX_OWNER);
+
+	// No running snapshot is older, only goes forward
+	private static volatile int oldest;
+
+	final private static AtomicLong versions = new AtomicLong();
+	final private static AtomicLong misses = new AtomicLong();
+
+	static {
+		Statistics.registerSource(new VersionCounters());
+	}
+
+	final private GlobalClock clock = Factory.createClock(globalClock);
+
+	final private ReadSet readSet = new ReadSet();
+	final private WriteSet writeSet = new WriteSet();
+	final private DeltaLog deltas = new DeltaLog();
+
+	final private int owner;
+	final private AtomicLongArray records;
+	final private int record;
+
+	private int localClock;
+	private int commits;
+
+	// A read-only transaction reads from the snapshot of its start and logs nothing
+	private boolean readOnly;
+	private int atomicBlockId;
+	// The blocks whose read-only attempt tried to write run as update transactions
+	final private BooleanArrayList updateBlocks = new BooleanArrayList();
+
+	// Marked on beforeRead, used for the double lock check
+	private int readHash;
+	private long readLock;
+
+	//Used to allow only one irrevocable transaction solely.
+	final private Irrevocability irrevocable = new Irrevocability();
+
+	public Context() {
+		owner = threads.register(this);
+		records = threads.records(owner);
+		record = OwnerRegistry.recordIndex(owner);
+		// The id might be recycled, start without a snapshot
+		records.set(record, IDLE);
+		localClock = clock.get();
+	}
+
+	public void detach() {
+		threads.detach(owner);
+	}
+
+	public void dispose() {
+		records.set(record, IDLE);
+		threads.release(owner);
+	}
+
+	@Override
+	public void init(int atomicBlockId, String metainf) {
+		readSet.init(atomicBlockId);
+		writeSet.init(atomicBlockId);
+		deltas.clear();
+
+		//Lock according to the transaction irrevocable state
+		irrevocable.begin();
+
+		localClock = clock.get();
+		this.atomicBlockId = atomicBlockId;
+		readOnly = false;
+	}
+
+	@Override
+	public void initReadOnly(int atomicBlockId, String metainf) {
+		boolean readOnly = !updateBlocks.get(atomicBlockId) && !irrevocable.isRequested();
+		init(atomicBlockId, metainf);
+		this.readOnly = readOnly;
+		if (readOnly) {
+			// Publish before taking the snapshot, a thread looking for the oldest snapshot
+			// either sees it or read the clock before the snapshot is taken
+			records.set(record, clock.get());
+			localClock = clock.get();
+		}
+	}
+
+	@Override
+	public boolean commit() {
+		try {
+			if (writeSet.isEmpty() && deltas.isEmpty()) // a read-only transaction read a consistent snapshot
+				return true;
+			if (!writeBack()) {
+				clock.onAbort();
+				return false;
+			}
+			return true;
+		}
+		finally {
+			end();
+			irrevocable.commit();
+		}
+	}
+
+	@Override
+	public void rollback() {
+		end();
+		clock.onAbort();
+		irrevocable.rollback();
+	}
+
+	private void end() {
+		if (readOnly)
+			records.lazySet(record, IDLE);
+	}
+
+	/**
+	 * Locks the write set, validates the read set and writes the values back, keeping the
+	 * values overwritten in the histories.
+	 * @return <code>false</code> if a lock is held by another transaction or the read set
+	 * is no longer valid, nothing was written.
+	 */
+	private boolean writeBack() {
+		int size = writeSet.getSize();
+		long after = localClock;
+		for (int i = 0; i < size; i++) {
+			long lock = lock(writeSet.getHash(i));
+			if (lock < 0) {
+				release(i);
+				return false;
+			}
+			// The versions of a history must grow
+			after = Math.max(after, lock);
+		}
+		int increments = deltas.size();
+		for (int i = 0; i < increments; i++) {
+			long lock = lockDelta(LockTable.hash(deltas.getReference(i), deltas.getField(i)));
+			if (lock < 0) {
+				releaseDeltas(i, -1);
+				release(size);
+				return false;
+			}
+			after = Math.max(after, lock);
+		}
+
+		int version = clock.tick((int) after);
+		if (!clock.canSkipValidation(localClock, version) && !readSet.validate(localClock, owner)) {
+			releaseDeltas(increments, -1);
+			release(size);
+			return false;
+		}
+
+		if (++commits % EPOCH == 0)
+			oldest = Math.max(oldest, oldestSnapshot());
+		int added = writeSet.commit(version, DEPTH, oldest);
+		for (int i = 0; i < increments; i++) {
+			Object obj = deltas.getReference(i);
+			long field = deltas.getField(i);
+			long old = Field.getBits(obj, AddressUtil.getOffset(field), Type.LONG);
+			added += LockTable.push(LockTable.hash(obj, field), obj, field, old, null, version, DEPTH, oldest);
+		}
+		deltas.apply();
+		for (int i = 0; i < size; i++) {
+			int hash = writeSet.getHash(i);
+			if (isOwned(LockTable.get(hash)))
+				LockTable.release(hash, version);
+		}
+		releaseDeltas(increments, version);
+		deltas.clear();
+		if (added != 0)
+			versions.addAndGet(added);
+		localClock = version;
+		return true;
+	}
+
+	/**
+	 * @return the version of the lock, 0 if it was already held by this transaction, or -1
+	 * if it is held by another transaction.
+	 */
+	private long lock(int hash) {
+		while (true) {
+			long lock = LockTable.get(hash);
+			if (LockTable.isLocked(lock))
+				return LockTable.getOwner(lock) == owner ? 0 : -1; // the entries might share a lock
+			if (LockTable.lock(hash, lock, owner))
+				return LockTable.getVersion(lock);
+		}
+	}
+
+	/**
+	 * Releases the locks of the first entries of the write set with their old version.
+	 */
+	private void release(int entries) {
+		for (int i = 0; i < entries; i++) {
+			int hash = writeSet.getHash(i);
+			long lock = LockTable.get(hash);
+			if (isOwned(lock))
+				LockTable.release(hash, LockTable.getVersion(lock));
+		}
+	}
+
+	/**
+	 * Takes the lock of an incremented location, waits up to {@link DeltaLog#WAITS} yields
+	 * while another transaction holds it.
+	 * @return as {@link #lock(int)}, -1 if the lock stayed held.
+	 */
+	private long lockDelta(int hash) {
+		long lock;
+		for (int waits = 0; (lock = lock(hash)) < 0 && waits < DeltaLog.WAITS; waits++)
+			Thread.yield();
+		return lock;
+	}
+
+	/**
+	 * Releases the locks of the first increments with the given version, or with their old
+	 * version if it is negative.
+	 */
+	private void releaseDeltas(int entries, long version) {
+		for (int i = 0; i < entries; i++) {
+			int hash = LockTable.hash(deltas.getReference(i), deltas.getField(i));
+			long lock = LockTable.get(hash);
+			if (isOwned(lock))
+				LockTable.release(hash, version < 0 ? LockTable.getVersion(lock) : version);
+		}
+	}
+
+	private boolean isOwned(long lock) {
+		return LockTable.isLocked(lock) && LockTable.getOwner(lock) == owner;
+	}
+
+	/**
+	 * @return the oldest snapshot of the running read-only transactions, or the current
+	 * time if none runs.
+	 */
+	private int oldestSnapshot() {
+		long oldest = clock.get();
+		int capacity = threads.getCapacity();
+		for (int id = OwnerRegistry.NO_OWNER + 1; id < capacity; id++) {
+			if (threads.get(id) != null)
+				oldest = Math.min(oldest, threads.records(id).get(OwnerRegistry.recordIndex(id)));
+		}
+		return (int) oldest;
+	}
+
+	@Override
+	public void beforeReadAccess(Object obj, long field) {
+		int hash = LockTable.hash(obj, field);
+		long lock = LockTable.get(hash);
+		if (!readOnly) {
+			if (LockTable.isLocked(lock))
+				throw READ_FAILURE_EXCEPTION;
+			long version = LockTable.getVersion(lock);
+			if (version > localClock)
+				extend(version);
+		}
+		readHash = hash;
+		readLock = lock;
+	}
+
+	/**
+	 * Moves the snapshot of an update transaction forward if the locations read so far are
+	 * unchanged.
+	 */
+	private void extend(long version) {
+		// The clock might lag behind the version (see GlobalClock)
+		int now = clock.advance((int) version);
+		if (!readSet.validate(localClock, owner))
+			throw READ_FAILURE_EXCEPTION;
+		localClock = now;
+	}
+
+	/**
+	 * @return the entry of the write set holding the location, -1 if the value read is
+	 * valid and the location not written.
+	 */
+	private int onReadAccess0(Object obj, long field) {
+		int w = writeSet.get(obj, field);
+		if (w >= 0)
+			return w;
+
+		// Check the read is still valid
+		if (LockTable.get(readHash) != readLock)
+			throw READ_FAILURE_EXCEPTION;
+		readSet.add(readHash);
+		return -1;
+	}
+
+	// Returned by snapshot() when the field must be read again
+	final private static Version RETRY = new Version(0);
+
+	/**
+	 * Finds the value of the location in the snapshot of a read-only transaction.
+	 * @return <code>null</code> if the value read is the one of the snapshot, the version
+	 * holding it, or {@link #RETRY} if the location changed since the value was read.
+	 */
+	private Version snapshot(Object obj, long field) {
+		long lock = readLock;
+		if (LockTable.isLocked(lock) || LockTable.get(readHash) != lock) {
+			// Let the commit complete, its version might be older than the snapshot
+			while (LockTable.isLocked(lock = LockTable.get(readHash)))
+				Thread.yield();
+			readLock = lock;
+			return RETRY;
+		}
+		if (LockTable.getVersion(lock) <= localClock)
+			return null;
+		Version version = LockTable.find(readHash, obj, field, localClock);
+		if (version != null && version.isTruncated()) {
+			misses.incrementAndGet();
+			throw SNAPSHOT_FAILURE_EXCEPTION;
+		}
+		return version;
+	}
+
+	private long readBits(Object obj, long field, long bits, Type type) {
+		if (readOnly) {
+			Version version;
+			while ((version = snapshot(obj, field)) == RETRY)
+				bits = Field.getBits(obj, field, type);
+			return version == null ? bits : version.getBits();
+		}
+		int w = onReadAccess0(obj, field);
+		return w < 0 ? bits : writeSet.getBits(w);
+	}
+
+	@Override
+	public Object onReadAccess(Object obj, Object value, long field) {
+		if (readOnly) {
+			Version version;
+			while ((version = snapshot(obj, field)) == RETRY)
+				value = Field.getObject(obj, field);
+			return version == null ? value : version.getObject();
+		}
+		int w = onReadAccess0(obj, field);
+		return w < 0 ? value : writeSet.getObject(w);
+	}
+
+	@Override
+	public boolean onReadAccess(Object obj, boolean value, long field) {
+		return readBits(obj, field, value ? 1 : 0, Type.BOOLEAN) != 0;
+	}
+
+	@Override
+	public byte onReadAccess(Object obj, byte value, long field) {
+		return (byte) readBits(obj, field, value, Type.BYTE);
+	}
+
+	@Override
+	public char onReadAccess(Object obj, char value, long field) {
+		return (char) readBits(obj, field, value, Type.CHAR);
+	}
+
+	@Override
+	public short onReadAccess(Object obj, short value, long field) {
+		return (short) readBits(obj, field, value, Type.SHORT);
+	}
+
+	@Override
+	public int onReadAccess(Object obj, int value, long field) {
+		return (int) readBits(obj, field, value, Type.INT);
+	}
+
+	@Override
+	public long onReadAccess(Object obj, long value, long field) {
+		return readBits(obj, field, value, Type.LONG);
+	}
+
+	@Override
+	public float onReadAccess(Object obj, float value, long field) {
+		return Float.intBitsToFloat((int) readBits(obj, field, Float.floatToRawIntBits(value), Type.FLOAT));
+	}
+
+	@Override
+	public double onReadAccess(Object obj, double value, long field) {
+		return Double.longBitsToDouble(readBits(obj, field, Double.doubleToRawLongBits(value), Type.DOUBLE));
+	}
+
+	private void addWriteAccess0() {
+		if (readOnly) {
+			updateBlocks.insert(atomicBlockId, true); // next attempts as update transactions
+			throw READ_ONLY_FAILURE_EXCEPTION;
+		}
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, Object value, long field) {
+		addWriteAccess0();
+		writeSet.add(obj, field, 0, value, Type.OBJECT);
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, boolean value, long field) {
+		addWriteAccess0();
+		writeSet.add(obj, field, value ? 1 : 0, null, Type.BOOLEAN);
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, byte value, long field) {
+		addWriteAccess0();
+		writeSet.add(obj, field, value, null, Type.BYTE);
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, char value, long field) {
+		addWriteAccess0();
+		writeSet.add(obj, field, value, null, Type.CHAR);
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, short value, long field) {
+		addWriteAccess0();
+		writeSet.add(obj, field, value, null, Type.SHORT);
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, int value, long field) {
+		addWriteAccess0();
+		writeSet.add(obj, field, value, null, Type.INT);
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, long value, long field) {
+		addWriteAccess0();
+		writeSet.add(obj, field, value, null, Type.LONG);
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, float value, long field) {
+		addWriteAccess0();
+		writeSet.add(obj, field, Float.floatToRawIntBits(value), null, Type.FLOAT);
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, double value, long field) {
+		addWriteAccess0();
+		writeSet.add(obj, field, Double.doubleToRawLongBits(value), null, Type.DOUBLE);
+	}
+
+	@Override
+	public void onIncrement(Object obj, long field, long delta) {
+		addWriteAccess0();
+		deltas.add(obj, field, delta);
+	}
+
+	@Override
+	public long getIncrement(Object obj, long field) {
+		return deltas.get(obj, field);
+	}
+
+	@Override
+	public void requestIrrevocable() {
+		irrevocable.request();
+	}
+
+	@Override
+	public void cancelIrrevocable() {
+		irrevocable.cancel();
+	}
+
+	@Override
+	public void onIrrevocableAccess() {
+		if(irrevocable.isIrrevocable()) // already in irrevocable state so no need to restart transaction.
+			return;
+
+		// A read-only transaction has no read set to validate
+		if(readOnly || !irrevocable.upgrade() || !flush())
+			throw irrevocable.restart();
+		irrevocable.onUpgrade();
+	}
+
+	/**
+	 * Commits what the transaction did so far, must run alone. The transaction then goes on
+	 * from the current time with empty read and write sets.
+	 * @return <code>false</code> if the read set is no longer valid.
+	 */
+	private boolean flush() {
+		if (writeSet.isEmpty() && deltas.isEmpty()) {
+			if (!readSet.validate(localClock, owner))
+				return false;
+		} else if (!writeBack()) {
+			return false;
+		}
+		readSet.clear();
+		writeSet.clear();
+		localClock = clock.advance(localClock);
+		return true;
+	}
+
+	/**
+	 * @return the owner ids of the contexts.
+	 */
+	public static OwnerRegistry<Context> getThreads() {
+		return threads;
+	}
+
+	public long getFootprint() {
+		return readSet.getFootprint() + writeSet.getFootprint() + deltas.getFootprint();
+	}
+
+	public int getReadSetSize() {
+		return readSet.size();
+	}
+
+	public int getWriteSetSize() {
+		return writeSet.getSize() + deltas.size();
+	}
+
+	/**
+	 * @return amount of old versions kept by the backend.
+	 */
+	public long getVersions() {
+		return versions.get();
+	}
+
+	/**
+	 * @return the approximate bytes held by the old versions, not counting the values
+	 * they refer to.
+	 */
+	public long getVersionFootprint() {
+		return versions.get() * Version.FOOTPRINT;
+	}
+
+	/**
+	 * @return amount of read-only transactions aborted since the version they needed was
+	 * dropped.
+	 */
+	public long getSnapshotMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * The versions are shared by the contexts, they outlive the threads.
+	 */
+	@Exclude
+	private static class VersionCounters implements CounterSource {
+
+		public String getTitle() {
+			return "Version history";
+		}
+
+		public String[] getCounterNames() {
+			return new String[] { "versions", "bytes", "snapshot misses" };
+		}
+
+		public void addCounters(org.deuce.transaction.Context context, boolean live, long[] counters) {
+			if (context != null)
+				return;
+			counters[0] += versions.get();
+			counters[1] += versions.get() * Version.FOOTPRINT;
+			counters[2] += misses.get();
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package org.deuce.transaction.mvstm;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.deuce.transaction.util.LockTableLayout;
+import org.deuce.transform.Exclude;
+
+/**
+ * The versioned locks of the multi-version STM and the history of the locations each
+ * lock covers.
+ * <p>
+ * A lock word holds the lock bit, the owner of the lock and the version of the current
+ * values. A committing transaction takes the locks of its write set, {@link #push}es the
+ * values it is about to overwrite to the histories, writes its values back and releases
+ * the locks with an ordered store of its commit time. A reader seeing the new version
+ * hence sees the versions pushed before it.
+ * <p>
+ * The histories are only changed by the holder of their lock. A history keeps at most
+ * the given depth of versions, and drops the versions no running snapshot can read, i.e.
+ * that were overwritten before the oldest snapshot. Dropped versions are replaced by a
+ * truncation mark (see {@link Version#isTruncated()}) so a reader never mistakes a cut
+ * history for a complete one.
+ *
+ * @since 1.4
+ */
+@Exclude
+public class LockTable {
+
+	final private static long LOCK = 1L << 63;
+	final private static int OWNER_SHIFT = 48;
+	final private static long VERSION = (1L << OWNER_SHIFT) - 1;
+	final public static int MAX_OWNER = (1 << (63 - OWNER_SHIFT)) - 1;
+
+	final private static LockTableLayout LAYOUT = new LockTableLayout(8);
+
+	// Array of 64-bit lock words
+	final private static AtomicLongArray locks = new AtomicLongArray(LAYOUT.arrayLength());
+	// The newest version of each lock, null if none
+	final private static AtomicReferenceArray<Version> histories = new AtomicReferenceArray<Version>(LAYOUT.size());
+
+	/**
+	 * Hashes the location to a lock index.
+	 */
+	public static int hash(Object obj, long field) {
+		return LAYOUT.hash(obj, field);
+	}
+
+	public static long get(int hash) {
+		return locks.get(LAYOUT.slot(hash));
+	}
+
+	/**
+	 * Takes an unlocked lock.
+	 * @return <code>false</code> if the lock changed since it read <code>lock</code>.
+	 */
+	public static boolean lock(int hash, long lock, int owner) {
+		return locks.compareAndSet(LAYOUT.slot(hash), lock, LOCK | ((long) owner << OWNER_SHIFT) | lock);
+	}
+
+	/**
+	 * Releases a held lock with the given version.
+	 */
+	public static void release(int hash, long version) {
+		locks.lazySet(LAYOUT.slot(hash), version);
+	}
+
+	public static boolean isLocked(long lock) {
+		return lock < 0;
+	}
+
+	public static int getOwner(long lock) {
+		return (int) ((lock & ~LOCK) >>> OWNER_SHIFT);
+	}
+
+	public static long getVersion(long lock) {
+		return lock & VERSION;
+	}
+
+	/**
+	 * Finds the value of a location in the snapshot of the given time, given that the lock
+	 * has a newer version.
+	 * @return the oldest version overwritten after the snapshot, <code>null</code> if the
+	 * location wasn't written since, or a truncation mark if its history was cut.
+	 */
+	public static Version find(int hash, Object obj, long field, int snapshot) {
+		Version found = null;
+		for (Version v = histories.get(hash); v != null; v = v.next) {
+			if (v.validUntil <= snapshot)
+				break; // The older versions were overwritten before the snapshot
+			if (v.isTruncated())
+				return v;
+			if (v.reference == obj && v.field == field)
+				found = v;
+		}
+		return found;
+	}
+
+	/**
+	 * Adds a version to the history of a held lock and trims the history.
+	 * @param depth the versions kept, 0 for no limit.
+	 * @param oldest no running snapshot is older.
+	 * @return the change of the amount of versions kept.
+	 */
+	public static int push(int hash, Object obj, long field, long bits, Object object, int validUntil,
+			int depth, int oldest) {
+		Version head = new Version(obj, field, bits, object, validUntil, histories.get(hash));
+		histories.set(hash, head);
+
+		int kept = 1;
+		Version last = head;
+		for (Version v = head.next; v != null; last = v, v = v.next) {
+			if (v.isTruncated())
+				return 1;
+			if (v.validUntil <= oldest || (depth > 0 && kept >= depth)) {
+				// Drop the versions from here on, the mark covers the newest of them
+				int dropped = 0;
+				for (Version d = v; d != null && !d.isTruncated(); d = d.next)
+					dropped++;
+				last.next = v.validUntil <= oldest ? null : new Version(v.validUntil);
+				return 1 - dropped;
+			}
+			kept++;
+		}
+		return 1;
+	}
+}
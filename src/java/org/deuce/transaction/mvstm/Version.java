@@ -0,0 +1,56 @@
+package org.deuce.transaction.mvstm;
+
+import org.deuce.transaction.util.Capacity;
+import org.deuce.transform.Exclude;
+
+/**
+ * An old value of a location, valid until the commit time of the transaction that
+ * overwrote it. The versions of the locations sharing a lock are chained from the newest.
+ * <p>
+ * A version without a location marks the end of a truncated history, its time is the
+ * newest of the versions dropped: a snapshot older than that can't be read from it.
+ *
+ * @since 1.4
+ */
+@Exclude
+final public class Version {
+
+	// Approximate bytes of an instance
+	final public static int FOOTPRINT = (16 + 3 * Capacity.REFERENCE + 8 + 8 + 4 + 7) & ~7;
+
+	final Object reference;
+	final long field;
+	final long bits;      // primitive value as raw bits
+	final Object object;  // reference value
+	final int validUntil; // the version that overwrote it
+	volatile Version next;
+
+	Version(Object reference, long field, long bits, Object object, int validUntil, Version next) {
+		this.reference = reference;
+		this.field = field;
+		this.bits = bits;
+		this.object = object;
+		this.validUntil = validUntil;
+		this.next = next;
+	}
+
+	Version(int validUntil) {
+		this(null, 0, 0, null, validUntil, null);
+	}
+
+	public boolean isTruncated() {
+		return reference == null;
+	}
+
+	public long getBits() {
+		return bits;
+	}
+
+	public Object getObject() {
+		return object;
+	}
+
+	public int getValidUntil() {
+		return validUntil;
+	}
+}
@@ -1,72 +1,103 @@
 package org.deuce.transaction.norec;
 
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.deuce.transaction.CommutativeContext;
+import org.deuce.transaction.IrrevocableContext;
+import org.deuce.transaction.MemoryFootprint;
+import org.deuce.transaction.SetSizes;
 import org.deuce.transaction.TransactionException;
-import org.deuce.transaction.norec.field.BooleanFieldAccess;
-import org.deuce.transaction.norec.field.ByteFieldAccess;
-import org.deuce.transaction.norec.field.CharFieldAccess;
-import org.deuce.transaction.norec.field.DoubleFieldAccess;
-import org.deuce.transaction.norec.field.FieldAccess;
 import org.deuce.transaction.norec.field.Field;
-import org.deuce.transaction.norec.field.FloatFieldAccess;
-import org.deuce.transaction.norec.field.IntFieldAccess;
-import org.deuce.transaction.norec.field.LongFieldAccess;
-import org.deuce.transaction.norec.field.ObjectFieldAccess;
-import org.deuce.transaction.norec.field.ShortFieldAccess;
 import org.deuce.transaction.norec.field.Field.Type;
 import org.deuce.transaction.norec.ReadSet;
 import org.deuce.transaction.norec.WriteSet;
+import org.deuce.transaction.util.BooleanArrayList;
+import org.deuce.transaction.util.DeltaLog;
+import org.deuce.transaction.util.Irrevocability;
 import org.deuce.transform.Exclude;
 
 /**
- * LSA implementation
+ * NOrec implementation
+ * <p>
+ * Memory ordering: the clock is a sequence lock. A committing transaction takes it with a
+ * CAS, making it odd, writes its values back with plain stores, then releases it with an
+ * ordered store ({@link AtomicInteger#lazySet}) of the next even value, which isn't
+ * reordered with the write-back before it. Readers validate by loading the clock, a
+ * volatile load, after their reads.
+ * <p>
+ * The increments (see {@link CommutativeContext}) are applied with the write-back, they
+ * are never validated.
  * 
  * @author Pascal Felber
  */
 @Exclude
-final public class Context implements org.deuce.transaction.Context {
+final public class Context implements org.deuce.transaction.ReadOnlyContext, CommutativeContext, IrrevocableContext,
+		MemoryFootprint, SetSizes {
 
 	final private static TransactionException VALIDATE_FAILURE_EXCEPTION =
 		new TransactionException("Fail on validate.");
 
+	final private static TransactionException READ_ONLY_FAILURE_EXCEPTION =
+		new TransactionException("Fail on read-only transaction.");
+
 	final private static int LOCK = 1;
 
 	final private static AtomicInteger clock = new AtomicInteger(0);
 
 	final private ReadSet readSet = new ReadSet(1024);
 	final private WriteSet writeSet = new WriteSet(32);
+	final private DeltaLog deltas = new DeltaLog();
 	
-	//Global lock used to allow only one irrevocable transaction solely. 
-	final private static ReentrantReadWriteLock irrevocableAccessLock = new ReentrantReadWriteLock();
-	private boolean irrevocableState = false;
+	//Used to allow only one irrevocable transaction solely. 
+	final private Irrevocability irrevocable = new Irrevocability();
 
 	private int timeStamp;
 
+	// A read-only transaction keeps no read set, it aborts if the clock changes
+	private boolean readOnly;
+	private int atomicBlockId;
+	// The blocks whose read-only attempt failed run as update transactions
+	final private BooleanArrayList updateBlocks = new BooleanArrayList();
+
 	public Context() {
 	}
 
 	@Override
 	public void init(int blockId, String metainf) {
-		readSet.clear();
-		writeSet.clear();
+		readSet.init(blockId);
+		writeSet.init(blockId);
+		deltas.clear();
 		
 		//Lock according to the transaction irrevocable state
-		if(irrevocableState)
-			irrevocableAccessLock.writeLock().lock();
-		else
-			irrevocableAccessLock.readLock().lock();
+		irrevocable.begin();
 		
 		do {
 			timeStamp = clock.get();
 		} while((timeStamp & LOCK) != 0);
+		atomicBlockId = blockId;
+		readOnly = false;
+	}
+
+	@Override
+	public void initReadOnly(int blockId, String metainf) {
+		boolean readOnly = !updateBlocks.get(blockId) && !irrevocable.isRequested();
+		init(blockId, metainf);
+		this.readOnly = readOnly;
+	}
+
+	/**
+	 * Aborts a read-only transaction, the next attempts of its block keep a read set they
+	 * can validate and a write set.
+	 */
+	private void upgrade() {
+		updateBlocks.insert(atomicBlockId, true);
+		throw READ_ONLY_FAILURE_EXCEPTION;
 	}
 
 	@Override
 	public boolean commit() {
 		try{
-			if (writeSet.isEmpty())
+			if (writeSet.isEmpty() && deltas.isEmpty())
 				return true;
 
 			// Acquire global lock (make clock odd)
@@ -77,26 +108,21 @@ final public class Context implements org.deuce.transaction.Context {
 			}
 			// Write values
 			writeSet.commit();
+			deltas.apply();
 			// Release global lock (make clock even)
-			clock.set(timeStamp + 2);
+			clock.lazySet(timeStamp + 2);
+			deltas.clear();
 
 			return true;
 		}
 		finally{
-			if(irrevocableState){
-				irrevocableState = false;
-				irrevocableAccessLock.writeLock().unlock();
-			}
-			else{
-				irrevocableAccessLock.readLock().unlock();
-			}
-
+			irrevocable.commit();
 		}
 	}
 
 	@Override
 	public void rollback() {
-		irrevocableAccessLock.readLock().unlock();
+		irrevocable.rollback();
 	}
 
 	@Override
@@ -120,179 +146,225 @@ final public class Context implements org.deuce.transaction.Context {
 		return lastClock;
 	}
 
-	private FieldAccess onReadAccess(Object obj, long field, Type type) {
+	private long onReadAccess(Object obj, long field, long bits, Type type) {
+		if (readOnly) {
+			if (timeStamp != clock.get())
+				upgrade();
+			return bits;
+		}
 		// Did we already write this field?
-		FieldAccess f = writeSet.get(obj, field);
-		if (f == null) {
-			while (timeStamp != clock.get()) {
-				timeStamp = validate();
-				if (timeStamp < 0)
-					throw VALIDATE_FAILURE_EXCEPTION;
-				f = Field.newFieldAccess(obj, field, type);
-			}
+		int w = writeSet.get(obj, field);
+		if (w >= 0)
+			return writeSet.getBits(w);
+
+		while (timeStamp != clock.get()) {
+			timeStamp = validate();
+			if (timeStamp < 0)
+				throw VALIDATE_FAILURE_EXCEPTION;
+			bits = Field.getBits(obj, field, type);
 		}
-		return f;
+		readSet.add(obj, field, bits, type);
+		return bits;
 	}
 
 	@Override
 	public Object onReadAccess(Object obj, Object value, long field) {
-		ObjectFieldAccess f = (ObjectFieldAccess) onReadAccess(obj, field, Type.OBJECT);
-		if (f != null) {
-			readSet.add(f);
-			return f.getValue();
-		} else {
-			readSet.add(obj, field, value);
+		if (readOnly) {
+			if (timeStamp != clock.get())
+				upgrade();
 			return value;
 		}
+		// Did we already write this field?
+		int w = writeSet.get(obj, field);
+		if (w >= 0)
+			return writeSet.getObject(w);
+
+		while (timeStamp != clock.get()) {
+			timeStamp = validate();
+			if (timeStamp < 0)
+				throw VALIDATE_FAILURE_EXCEPTION;
+			value = Field.getObject(obj, field);
+		}
+		readSet.add(obj, field, value);
+		return value;
 	}
 
 	@Override
 	public boolean onReadAccess(Object obj, boolean value, long field) {
-		BooleanFieldAccess f = (BooleanFieldAccess) onReadAccess(obj, field, Type.BOOLEAN);
-		if (f != null) {
-			readSet.add(f);
-			return f.getValue();
-		} else {
-			readSet.add(obj, field, value);
-			return value;
-		}
+		return onReadAccess(obj, field, value ? 1 : 0, Type.BOOLEAN) != 0;
 	}
 
 	@Override
 	public byte onReadAccess(Object obj, byte value, long field) {
-		ByteFieldAccess f = (ByteFieldAccess) onReadAccess(obj, field, Type.BYTE);
-		if (f != null) {
-			readSet.add(f);
-			return f.getValue();
-		} else {
-			readSet.add(obj, field, value);
-			return value;
-		}
+		return (byte) onReadAccess(obj, field, value, Type.BYTE);
 	}
 
 	@Override
 	public char onReadAccess(Object obj, char value, long field) {
-		CharFieldAccess f = (CharFieldAccess) onReadAccess(obj, field, Type.CHAR);
-		if (f != null) {
-			readSet.add(f);
-			return f.getValue();
-		} else {
-			readSet.add(obj, field, value);
-			return value;
-		}
+		return (char) onReadAccess(obj, field, value, Type.CHAR);
 	}
 
 	@Override
 	public short onReadAccess(Object obj, short value, long field) {
-		ShortFieldAccess f = (ShortFieldAccess) onReadAccess(obj, field, Type.SHORT);
-		if (f != null) {
-			readSet.add(f);
-			return f.getValue();
-		} else {
-			readSet.add(obj, field, value);
-			return value;
-		}
+		return (short) onReadAccess(obj, field, value, Type.SHORT);
 	}
 
 	@Override
 	public int onReadAccess(Object obj, int value, long field) {
-		IntFieldAccess f = (IntFieldAccess) onReadAccess(obj, field, Type.INT);
-		if (f != null) {
-			readSet.add(f);
-			return f.getValue();
-		} else {
-			readSet.add(obj, field, value);
-			return value;
-		}
+		return (int) onReadAccess(obj, field, value, Type.INT);
 	}
 
 	@Override
 	public long onReadAccess(Object obj, long value, long field) {
-		LongFieldAccess f = (LongFieldAccess) onReadAccess(obj, field, Type.LONG);
-		if (f != null) {
-			readSet.add(f);
-			return f.getValue();
-		} else {
-			readSet.add(obj, field, value);
-			return value;
-		}
+		return onReadAccess(obj, field, value, Type.LONG);
 	}
 
 	@Override
 	public float onReadAccess(Object obj, float value, long field) {
-		FloatFieldAccess f = (FloatFieldAccess) onReadAccess(obj, field, Type.FLOAT);
-		if (f != null) {
-			readSet.add(f);
-			return f.getValue();
-		} else {
-			readSet.add(obj, field, value);
-			return value;
-		}
+		return Float.intBitsToFloat((int) onReadAccess(obj, field, Float.floatToRawIntBits(value), Type.FLOAT));
 	}
 
 	@Override
 	public double onReadAccess(Object obj, double value, long field) {
-		DoubleFieldAccess f = (DoubleFieldAccess) onReadAccess(obj, field, Type.DOUBLE);
-		if (f != null) {
-			readSet.add(f);
-			return f.getValue();
-		} else {
-			readSet.add(obj, field, value);
-			return value;
-		}
+		return Double.longBitsToDouble(onReadAccess(obj, field, Double.doubleToRawLongBits(value), Type.DOUBLE));
 	}
 
 	@Override
 	public void onWriteAccess(Object obj, Object value, long field) {
-		writeSet.add(obj, field, value);
+		if (readOnly)
+			upgrade();
+		writeSet.add(obj, field, 0, value, Type.OBJECT);
 	}
 
 	@Override
 	public void onWriteAccess(Object obj, boolean value, long field) {
-		writeSet.add(obj, field, value);
+		if (readOnly)
+			upgrade();
+		writeSet.add(obj, field, value ? 1 : 0, null, Type.BOOLEAN);
 	}
 
 	@Override
 	public void onWriteAccess(Object obj, byte value, long field) {
-		writeSet.add(obj, field, value);
+		if (readOnly)
+			upgrade();
+		writeSet.add(obj, field, value, null, Type.BYTE);
 	}
 
 	@Override
 	public void onWriteAccess(Object obj, char value, long field) {
-		writeSet.add(obj, field, value);
+		if (readOnly)
+			upgrade();
+		writeSet.add(obj, field, value, null, Type.CHAR);
 	}
 
 	@Override
 	public void onWriteAccess(Object obj, short value, long field) {
-		writeSet.add(obj, field, value);
+		if (readOnly)
+			upgrade();
+		writeSet.add(obj, field, value, null, Type.SHORT);
 	}
 
 	@Override
 	public void onWriteAccess(Object obj, int value, long field) {
-		writeSet.add(obj, field, value);
+		if (readOnly)
+			upgrade();
+		writeSet.add(obj, field, value, null, Type.INT);
 	}
 
 	@Override
 	public void onWriteAccess(Object obj, long value, long field) {
-		writeSet.add(obj, field, value);
+		if (readOnly)
+			upgrade();
+		writeSet.add(obj, field, value, null, Type.LONG);
 	}
 
 	@Override
 	public void onWriteAccess(Object obj, float value, long field) {
-		writeSet.add(obj, field, value);
+		if (readOnly)
+			upgrade();
+		writeSet.add(obj, field, Float.floatToRawIntBits(value), null, Type.FLOAT);
 	}
 	
 	@Override
 	public void onWriteAccess(Object obj, double value, long field) {
-		writeSet.add(obj, field, value);
+		if (readOnly)
+			upgrade();
+		writeSet.add(obj, field, Double.doubleToRawLongBits(value), null, Type.DOUBLE);
+	}
+	
+	@Override
+	public void onIncrement(Object obj, long field, long delta) {
+		if (readOnly)
+			upgrade();
+		deltas.add(obj, field, delta);
+	}
+
+	@Override
+	public long getIncrement(Object obj, long field) {
+		return deltas.get(obj, field);
 	}
 	
+	@Override
+	public void requestIrrevocable() {
+		irrevocable.request();
+	}
+
+	@Override
+	public void cancelIrrevocable() {
+		irrevocable.cancel();
+	}
+
 	@Override
 	public void onIrrevocableAccess() {
-		if(irrevocableState) // already in irrevocable state so no need to restart transaction.
+		if(irrevocable.isIrrevocable()) // already in irrevocable state so no need to restart transaction.
 			return;
 
-		irrevocableState = true;
-		throw TransactionException.STATIC_TRANSACTION;
+		// A read-only transaction has no read set to validate
+		if(readOnly || !irrevocable.upgrade() || !flush())
+			throw irrevocable.restart();
+		irrevocable.onUpgrade();
+	}
+
+	/**
+	 * Commits what the transaction did so far, must run alone. The transaction then goes on
+	 * from the current time with empty read and write sets.
+	 * @return <code>false</code> if the read set is no longer valid.
+	 */
+	private boolean flush() {
+		if (writeSet.isEmpty() && deltas.isEmpty()) {
+			if (timeStamp != clock.get())
+				timeStamp = validate();
+			if (timeStamp < 0)
+				return false;
+		} else {
+			// Acquire global lock (make clock odd)
+			while (!clock.compareAndSet(timeStamp, timeStamp | LOCK)) {
+				timeStamp = validate();
+				if (timeStamp < 0)
+					return false;
+			}
+			// Write values
+			writeSet.commit();
+			deltas.apply();
+			// Release global lock (make clock even)
+			timeStamp += 2;
+			clock.lazySet(timeStamp);
+		}
+		readSet.clear();
+		writeSet.clear();
+		deltas.clear();
+		return true;
+	}
+
+	public long getFootprint() {
+		return readSet.getFootprint() + writeSet.getFootprint() + deltas.getFootprint();
+	}
+
+	public int getReadSetSize() {
+		return readSet.getSize();
+	}
+
+	public int getWriteSetSize() {
+		return writeSet.getSize() + deltas.size();
 	}
 }
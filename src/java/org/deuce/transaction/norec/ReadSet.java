@@ -1,20 +1,16 @@
 package org.deuce.transaction.norec;
 
-import java.util.ArrayList;
-
-import org.deuce.transaction.norec.field.BooleanFieldAccess;
-import org.deuce.transaction.norec.field.ByteFieldAccess;
-import org.deuce.transaction.norec.field.CharFieldAccess;
-import org.deuce.transaction.norec.field.DoubleFieldAccess;
-import org.deuce.transaction.norec.field.FieldAccess;
-import org.deuce.transaction.norec.field.FloatFieldAccess;
-import org.deuce.transaction.norec.field.IntFieldAccess;
-import org.deuce.transaction.norec.field.LongFieldAccess;
-import org.deuce.transaction.norec.field.ObjectFieldAccess;
-import org.deuce.transaction.norec.field.ShortFieldAccess;
+import java.util.Arrays;
+
+import org.deuce.transaction.norec.field.Field;
+import org.deuce.transaction.norec.field.Field.Type;
+import org.deuce.transaction.util.Capacity;
 import org.deuce.transform.Exclude;
 
 /**
+ * The read log, kept as parallel arrays so adding an entry allocates nothing and
+ * validation is a loop over the arrays.
+ *
  * @author Pascal Felber
  */
 @Exclude
@@ -22,10 +18,21 @@ public class ReadSet {
 
 	private static final int DEFAULT_CAPACITY = 1024;
 
-	private ArrayList<FieldAccess> entries;
-	
+	private Object[] references;
+	private long[] fields;
+	private long[] values;  // primitive values as raw bits
+	private Object[] objects; // reference values
+	private Type[] types;
+	private int size;
+	final private Capacity capacity;
+
 	public ReadSet(int initialCapacity) {
-		entries = new ArrayList<FieldAccess>(initialCapacity);
+		references = new Object[initialCapacity];
+		fields = new long[initialCapacity];
+		values = new long[initialCapacity];
+		objects = new Object[initialCapacity];
+		types = new Type[initialCapacity];
+		capacity = new Capacity(initialCapacity);
 	}
 
 	public ReadSet() {
@@ -33,56 +40,72 @@ public class ReadSet {
 	}
 
 	public void clear() {
-		entries.clear();
-	}
-
-	public void add(FieldAccess f) {
-		entries.add(f);
-	}
-
-	public void add(Object obj, long field, Object value) {
-		entries.add(new ObjectFieldAccess(obj, field, value));
+		// Don't keep garbage reachable
+		Arrays.fill(references, 0, size, null);
+		Arrays.fill(objects, 0, size, null);
+		int fit = capacity.fit(size, references.length);
+		if (fit < references.length)
+			resize(fit);
+		size = 0;
 	}
 
-	public void add(Object obj, long field, boolean value) {
-		entries.add(new BooleanFieldAccess(obj, field, value));
+	/**
+	 * Clears the read set and sizes it for the atomic block about to run.
+	 */
+	public void init(int atomicBlockId) {
+		clear();
+		int expected = capacity.predict(atomicBlockId);
+		if (expected > references.length)
+			resize(Capacity.grow(references.length, expected));
 	}
 
-	public void add(Object obj, long field, byte value) {
-		entries.add(new ByteFieldAccess(obj, field, value));
+	private void grow() {
+		resize(references.length << 1);
 	}
 
-	public void add(Object obj, long field, char value) {
-		entries.add(new CharFieldAccess(obj, field, value));
+	private void resize(int l) {
+		references = Arrays.copyOf(references, l);
+		fields = Arrays.copyOf(fields, l);
+		values = Arrays.copyOf(values, l);
+		objects = Arrays.copyOf(objects, l);
+		types = Arrays.copyOf(types, l);
 	}
 
-	public void add(Object obj, long field, double value) {
-		entries.add(new DoubleFieldAccess(obj, field, value));
+	public void add(Object obj, long field, long bits, Type type) {
+		if (size >= references.length)
+			grow();
+		references[size] = obj;
+		fields[size] = field;
+		values[size] = bits;
+		types[size] = type;
+		size++;
 	}
 
-	public void add(Object obj, long field, float value) {
-		entries.add(new FloatFieldAccess(obj, field, value));
-	}
-
-	public void add(Object obj, long field, int value) {
-		entries.add(new IntFieldAccess(obj, field, value));
-	}
-
-	public void add(Object obj, long field, long value) {
-		entries.add(new LongFieldAccess(obj, field, value));
+	public void add(Object obj, long field, Object value) {
+		if (size >= references.length)
+			grow();
+		references[size] = obj;
+		fields[size] = field;
+		objects[size] = value;
+		types[size] = Type.OBJECT;
+		size++;
 	}
 
-	public void add(Object obj, long field, short value) {
-		entries.add(new ShortFieldAccess(obj, field, value));
+	public int getSize() {
+		return size;
 	}
 
-	public int getSize() {
-		return entries.size();
+	/**
+	 * @return the approximate bytes held by the arrays.
+	 */
+	public long getFootprint() {
+		int l = references.length;
+		return 3 * Capacity.arrayBytes(l, Capacity.REFERENCE) + 2 * Capacity.arrayBytes(l, 8);
 	}
 
 	public boolean validate() {
-		for (FieldAccess r : entries) {
-			if (!r.validate())
+		for (int i = 0; i < size; i++) {
+			if (!Field.validate(references[i], fields[i], values[i], objects[i], types[i]))
 				return false;
 		}
 		return true;
@@ -1,19 +1,17 @@
 package org.deuce.transaction.norec;
 
-import org.deuce.transaction.norec.field.BooleanFieldAccess;
-import org.deuce.transaction.norec.field.ByteFieldAccess;
-import org.deuce.transaction.norec.field.CharFieldAccess;
-import org.deuce.transaction.norec.field.DoubleFieldAccess;
-import org.deuce.transaction.norec.field.FieldAccess;
-import org.deuce.transaction.norec.field.FloatFieldAccess;
-import org.deuce.transaction.norec.field.IntFieldAccess;
-import org.deuce.transaction.norec.field.LongFieldAccess;
-import org.deuce.transaction.norec.field.ObjectFieldAccess;
-import org.deuce.transaction.norec.field.ShortFieldAccess;
+import java.util.Arrays;
+
+import org.deuce.transaction.norec.field.Field;
+import org.deuce.transaction.norec.field.Field.Type;
+import org.deuce.transaction.util.Capacity;
 import org.deuce.transform.Exclude;
-import org.deuce.trove.THashSet;
 
 /**
+ * The write log, kept as parallel arrays that are recycled between transactions.
+ * Entries are found through an open addressing index (entry + 1, 0 for empty slot),
+ * which is cleared in the time of the entries used, not of its capacity.
+ *
  * @author Pascal Felber
  */
 @Exclude
@@ -21,11 +19,36 @@ public class WriteSet {
 
 	private static final int DEFAULT_CAPACITY = 16;
 
-	final private THashSet<FieldAccess> entries;
-	final private FieldAccess tempFieldAccess = new FieldAccess();
+	private Object[] references;
+	private long[] fields;
+	private long[] values;  // primitive values as raw bits
+	private Object[] objects; // reference values
+	private Type[] types;
+	private int[] slots;    // position of each entry in the index
+	private int size;
+
+	private int[] index;
+	private int shift;
+
+	final private Capacity capacity;
 
 	public WriteSet(int initialCapacity) {
-		entries = new THashSet<FieldAccess>(initialCapacity);
+		initialCapacity = Math.max(initialCapacity, 2);
+		references = new Object[initialCapacity];
+		fields = new long[initialCapacity];
+		values = new long[initialCapacity];
+		objects = new Object[initialCapacity];
+		types = new Type[initialCapacity];
+		slots = new int[initialCapacity];
+		newIndex(initialCapacity);
+		capacity = new Capacity(initialCapacity);
+	}
+
+	private void newIndex(int capacity) {
+		// Keep the index at most half full
+		int bits = 33 - Integer.numberOfLeadingZeros(capacity - 1);
+		index = new int[1 << bits];
+		shift = 32 - bits;
 	}
 
 	public WriteSet() {
@@ -33,76 +56,127 @@ public class WriteSet {
 	}
 
 	public void clear() {
-		entries.clear();
+		for (int i = 0; i < size; i++)
+			index[slots[i]] = 0;
+		// Don't keep garbage reachable
+		Arrays.fill(references, 0, size, null);
+		Arrays.fill(objects, 0, size, null);
+		int fit = capacity.fit(size, references.length);
+		size = 0;
+		if (fit < references.length)
+			resize(fit);
 	}
 
-	public boolean isEmpty() {
-		return entries.isEmpty();
+	/**
+	 * Clears the write set and sizes it for the atomic block about to run.
+	 */
+	public void init(int atomicBlockId) {
+		clear();
+		int expected = capacity.predict(atomicBlockId);
+		if (expected > references.length)
+			resize(Capacity.grow(references.length, expected));
 	}
 
-	public FieldAccess get(Object obj, long field) {
-		tempFieldAccess.init(obj, field);
-		return entries.get(tempFieldAccess);
+	public boolean isEmpty() {
+		return size == 0;
 	}
 
-	public void add(Object obj, long field, Object value) {
-		FieldAccess w = new ObjectFieldAccess(obj, field, value);
-		if(!entries.add(w))
-			entries.replace(w);
+	public int getSize() {
+		return size;
 	}
 
-	public void add(Object obj, long field, boolean value) {
-		FieldAccess w = new BooleanFieldAccess(obj, field, value);
-		if(!entries.add(w))
-			entries.replace(w);
+	private int slot(Object obj, long field) {
+		return ((System.identityHashCode(obj) + (int) field) * 0x9E3779B9) >>> shift;
 	}
 
-	public void add(Object obj, long field, byte value) {
-		FieldAccess w = new ByteFieldAccess(obj, field, value);
-		if(!entries.add(w))
-			entries.replace(w);
+	/**
+	 * @return the entry of the field or -1 if it wasn't written.
+	 */
+	public int get(Object obj, long field) {
+		if (size == 0)
+			return -1;
+		int mask = index.length - 1;
+		int i = slot(obj, field);
+		int e;
+		while ((e = index[i]) != 0) {
+			if (references[e - 1] == obj && fields[e - 1] == field)
+				return e - 1;
+			i = (i + 1) & mask;
+		}
+		return -1;
 	}
 
-	public void add(Object obj, long field, char value) {
-		FieldAccess w = new CharFieldAccess(obj, field, value);
-		if(!entries.add(w))
-			entries.replace(w);
+	public long getBits(int entry) {
+		return values[entry];
 	}
 
-	public void add(Object obj, long field, double value) {
-		FieldAccess w = new DoubleFieldAccess(obj, field, value);
-		if(!entries.add(w))
-			entries.replace(w);
+	public Object getObject(int entry) {
+		return objects[entry];
 	}
 
-	public void add(Object obj, long field, float value) {
-		FieldAccess w = new FloatFieldAccess(obj, field, value);
-		if(!entries.add(w))
-			entries.replace(w);
+	public void add(Object obj, long field, long bits, Object object, Type type) {
+		int mask = index.length - 1;
+		int i = slot(obj, field);
+		int e;
+		while ((e = index[i]) != 0) {
+			if (references[e - 1] == obj && fields[e - 1] == field) {
+				// Update written value
+				values[e - 1] = bits;
+				objects[e - 1] = object;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+
+		if (size >= references.length) {
+			grow();
+			add(obj, field, bits, object, type);
+			return;
+		}
+		references[size] = obj;
+		fields[size] = field;
+		values[size] = bits;
+		objects[size] = object;
+		types[size] = type;
+		slots[size] = i;
+		index[i] = ++size;
 	}
 
-	public void add(Object obj, long field, int value) {
-		FieldAccess w = new IntFieldAccess(obj, field, value);
-		if(!entries.add(w))
-			entries.replace(w);
+	private void grow() {
+		resize(references.length << 1);
 	}
 
-	public void add(Object obj, long field, long value) {
-		FieldAccess w = new LongFieldAccess(obj, field, value);
-		if(!entries.add(w))
-			entries.replace(w);
+	private void resize(int l) {
+		references = Arrays.copyOf(references, l);
+		fields = Arrays.copyOf(fields, l);
+		values = Arrays.copyOf(values, l);
+		objects = Arrays.copyOf(objects, l);
+		types = Arrays.copyOf(types, l);
+		slots = Arrays.copyOf(slots, l);
+
+		newIndex(l);
+		int mask = index.length - 1;
+		for (int e = 0; e < size; e++) {
+			int i = slot(references[e], fields[e]);
+			while (index[i] != 0)
+				i = (i + 1) & mask;
+			index[i] = e + 1;
+			slots[e] = i;
+		}
 	}
 
-	public void add(Object obj, long field, short value) {
-		FieldAccess w = new ShortFieldAccess(obj, field, value);
-		if(!entries.add(w))
-			entries.replace(w);
+	/**
+	 * @return the approximate bytes held by the arrays.
+	 */
+	public long getFootprint() {
+		int l = references.length;
+		return 3 * Capacity.arrayBytes(l, Capacity.REFERENCE) + 2 * Capacity.arrayBytes(l, 8) +
+				Capacity.arrayBytes(l, 4) + Capacity.arrayBytes(index.length, 4);
 	}
 
 	public void commit() {
 		// Write values
-		for (FieldAccess w : entries) {
-			w.writeField();
-		}
+		for (int i = 0; i < size; i++)
+			Field.putValue(references[i], fields[i], values[i], objects[i], types[i]);
 	}
 }
@@ -6,6 +6,10 @@ import org.deuce.transform.Exclude;
 import sun.misc.Unsafe;
 
 /**
+ * Reads and writes fields without boxing: primitive values travel as raw bits in a
+ * <code>long</code> (floating point values through their raw bit representation), and
+ * references as an <code>Object</code>.
+ *
  * @author Pascal Felber
  */
 @Exclude
@@ -16,90 +20,96 @@ public class Field {
 		BYTE, BOOLEAN, CHAR, SHORT, INT, LONG, FLOAT, DOUBLE, OBJECT
 	}
 
-	static public FieldAccess newFieldAccess(Object reference, long field, Type type) {
+	static public long getBits(Object reference, long field, Type type) {
 		Unsafe unsafe = UnsafeHolder.getUnsafe();
 		switch (type) {
 		case BYTE:
-			return new ByteFieldAccess(reference, field, unsafe.getByte(reference, field));
+			return unsafe.getByte(reference, field);
 		case BOOLEAN:
-			return new BooleanFieldAccess(reference, field, unsafe.getBoolean(reference, field));
+			return unsafe.getBoolean(reference, field) ? 1 : 0;
 		case CHAR:
-			return new CharFieldAccess(reference, field, unsafe.getChar(reference, field));
+			return unsafe.getChar(reference, field);
 		case SHORT:
-			return new ShortFieldAccess(reference, field, unsafe.getShort(reference, field));
+			return unsafe.getShort(reference, field);
 		case INT:
-			return new IntFieldAccess(reference, field, unsafe.getInt(reference, field));
+			return unsafe.getInt(reference, field);
 		case LONG:
-			return new LongFieldAccess(reference, field, unsafe.getLong(reference, field));
+			return unsafe.getLong(reference, field);
 		case FLOAT:
-			return new FloatFieldAccess(reference, field, unsafe.getFloat(reference, field));
+			return Float.floatToRawIntBits(unsafe.getFloat(reference, field));
 		case DOUBLE:
-			return new DoubleFieldAccess(reference, field, unsafe.getDouble(reference, field));
-		case OBJECT:
-			return new ObjectFieldAccess(reference, field, unsafe.getObject(reference, field));
+			return Double.doubleToRawLongBits(unsafe.getDouble(reference, field));
 		default:
 			throw new RuntimeException("Unknown type " + type);
 		}
 	}
 
-	static public Object getValue(Object reference, long field, Type type) {
+	static public Object getObject(Object reference, long field) {
+		return UnsafeHolder.getUnsafe().getObject(reference, field);
+	}
+
+	static public void putValue(Object reference, long field, long bits, Object object, Type type) {
 		Unsafe unsafe = UnsafeHolder.getUnsafe();
 		switch (type) {
 		case BYTE:
-			return unsafe.getByte(reference, field);
+			unsafe.putByte(reference, field, (byte) bits);
+			break;
 		case BOOLEAN:
-			return unsafe.getBoolean(reference, field);
+			unsafe.putBoolean(reference, field, bits != 0);
+			break;
 		case CHAR:
-			return unsafe.getChar(reference, field);
+			unsafe.putChar(reference, field, (char) bits);
+			break;
 		case SHORT:
-			return unsafe.getShort(reference, field);
+			unsafe.putShort(reference, field, (short) bits);
+			break;
 		case INT:
-			return unsafe.getInt(reference, field);
+			unsafe.putInt(reference, field, (int) bits);
+			break;
 		case LONG:
-			return unsafe.getLong(reference, field);
+			unsafe.putLong(reference, field, bits);
+			break;
 		case FLOAT:
-			return unsafe.getFloat(reference, field);
+			unsafe.putFloat(reference, field, Float.intBitsToFloat((int) bits));
+			break;
 		case DOUBLE:
-			return unsafe.getDouble(reference, field);
+			unsafe.putDouble(reference, field, Double.longBitsToDouble(bits));
+			break;
 		case OBJECT:
-			return unsafe.getObject(reference, field);
+			unsafe.putObject(reference, field, object);
+			break;
 		default:
 			throw new RuntimeException("Unknown type " + type);
 		}
 	}
 
-	static public void putValue(Object reference, long field, Object value, Type type) {
+	/**
+	 * @return true if the field still holds the value read.
+	 */
+	static public boolean validate(Object reference, long field, long bits, Object object, Type type) {
 		Unsafe unsafe = UnsafeHolder.getUnsafe();
 		switch (type) {
 		case BYTE:
-			unsafe.putByte(reference, field, (Byte) value);
-			break;
+			return unsafe.getByte(reference, field) == (byte) bits;
 		case BOOLEAN:
-			unsafe.putBoolean(reference, field, (Boolean) value);
-			break;
+			return unsafe.getBoolean(reference, field) == (bits != 0);
 		case CHAR:
-			unsafe.putChar(reference, field, (Character) value);
-			break;
+			return unsafe.getChar(reference, field) == (char) bits;
 		case SHORT:
-			unsafe.putShort(reference, field, (Short) value);
-			break;
+			return unsafe.getShort(reference, field) == (short) bits;
 		case INT:
-			unsafe.putInt(reference, field, (Integer) value);
-			break;
+			return unsafe.getInt(reference, field) == (int) bits;
 		case LONG:
-			unsafe.putLong(reference, field, (Long) value);
-			break;
+			return unsafe.getLong(reference, field) == bits;
 		case FLOAT:
-			unsafe.putFloat(reference, field, (Float) value);
-			break;
+			// Compare the bits, NaN is equal to itself
+			return Float.floatToRawIntBits(unsafe.getFloat(reference, field)) == (int) bits;
 		case DOUBLE:
-			unsafe.putDouble(reference, field, (Double) value);
-			break;
+			return Double.doubleToRawLongBits(unsafe.getDouble(reference, field)) == bits;
 		case OBJECT:
-			unsafe.putObject(reference, field, value);
-			break;
+			return unsafe.getObject(reference, field) == object;
 		default:
 			throw new RuntimeException("Unknown type " + type);
 		}
 	}
-}
\ No newline at end of file
+}
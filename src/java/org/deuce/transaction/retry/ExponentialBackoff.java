@@ -0,0 +1,61 @@
+package org.deuce.transaction.retry;
+
+import java.util.concurrent.locks.LockSupport;
+
+import org.deuce.transaction.Context;
+import org.deuce.transform.Exclude;
+
+/**
+ * Waits a random time between 0 and <code>min * 2^(attempt-1)</code> nanoseconds, bounded
+ * by <code>max</code> ("full jitter"). Short delays are spent spinning, longer ones parking.
+ *
+ * @since 1.4
+ */
+@Exclude
+public class ExponentialBackoff implements RetryPolicy {
+
+	// Below this delay it's cheaper to spin than to park
+	final private static long PARK_THRESHOLD = 50000;
+
+	final private long min;
+	final private long max;
+
+	public ExponentialBackoff(long min, long max) {
+		if (min <= 0 || max < min)
+			throw new IllegalArgumentException("Illegal backoff bounds: " + min + ", " + max);
+		this.min = min;
+		this.max = max;
+	}
+
+	@Override
+	public void beforeRetry(Context context, int attempt) {
+		int shift = Math.min(attempt - 1, 62 - (63 - Long.numberOfLeadingZeros(min)));
+		long bound = Math.min(max, min << shift);
+		long delay = random(attempt) % (bound + 1);
+		if (delay >= PARK_THRESHOLD)
+			LockSupport.parkNanos(delay);
+		else
+			spin(delay);
+	}
+
+	/**
+	 * Cheap pseudo random number, no state is shared between the threads.
+	 */
+	static long random(int attempt) {
+		long x = System.nanoTime() ^ (Thread.currentThread().getId() << 32) ^ attempt;
+		x ^= x << 21;
+		x ^= x >>> 35;
+		x ^= x << 4;
+		return x & Long.MAX_VALUE;
+	}
+
+	static void spin(long nanos) {
+		long end = System.nanoTime() + nanos;
+		while (System.nanoTime() < end);
+	}
+
+	@Override
+	public String getDescription() {
+		return "backoff [min=" + min + "ns, max=" + max + "ns]";
+	}
+}
@@ -0,0 +1,74 @@
+package org.deuce.transaction.retry;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * Factory for creating retry policies.
+ * <p>
+ * A policy is named <code>name[:arg[:arg]]</code>:
+ * <ul>
+ * <li><code>none</code> - retry right away (default).</li>
+ * <li><code>backoff[:min[:max]]</code> - exponential backoff with jitter, bounds in
+ * nanoseconds (default 1000:1000000).</li>
+ * <li><code>spinyield[:spins]</code> - spin for the first retries, then yield (default 8).</li>
+ * <li><code>irrevocable[:aborts]</code> - go irrevocable after that many aborts (default 8).</li>
+ * <li>the name of a class implementing {@link RetryPolicy} with a public no-arg constructor.</li>
+ * </ul>
+ * The global policy is set with the <code>org.deuce.transaction.retryPolicy</code>
+ * system property, and can be overridden per method with
+ * {@link org.deuce.Atomic#retryPolicy()}.
+ *
+ * @since 1.4
+ */
+@Exclude
+public class Factory {
+
+	final public static String RETRY_POLICY_PROPERTY = "org.deuce.transaction.retryPolicy";
+
+	final private static ConcurrentHashMap<String, RetryPolicy> policies = new ConcurrentHashMap<String, RetryPolicy>();
+	final private static RetryPolicy DEFAULT = createPolicy(System.getProperty(RETRY_POLICY_PROPERTY, "none"));
+
+	/**
+	 * @param name the policy name, empty for the global policy.
+	 */
+	public static RetryPolicy getPolicy(String name) {
+		if (name.length() == 0)
+			return DEFAULT;
+		RetryPolicy policy = policies.get(name);
+		if (policy == null) {
+			policy = createPolicy(name);
+			RetryPolicy other = policies.putIfAbsent(name, policy);
+			if (other != null)
+				policy = other;
+		}
+		return policy;
+	}
+
+	public static RetryPolicy createPolicy(String name) {
+		String[] args = name.split(":");
+		String id = args[0];
+		try {
+			if ("none".equalsIgnoreCase(id)) {
+				return new Immediate();
+			}
+			else if ("backoff".equalsIgnoreCase(id)) {
+				long min = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+				long max = args.length > 2 ? Long.parseLong(args[2]) : Math.max(min, 1000000);
+				return new ExponentialBackoff(min, max);
+			}
+			else if ("spinyield".equalsIgnoreCase(id)) {
+				return new SpinThenYield(args.length > 1 ? Integer.parseInt(args[1]) : 8);
+			}
+			else if ("irrevocable".equalsIgnoreCase(id)) {
+				return new Irrevocable(args.length > 1 ? Integer.parseInt(args[1]) : 8);
+			}
+			return (RetryPolicy) Class.forName(name).newInstance();
+		} catch (IllegalArgumentException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Unknown retry policy: " + name, e);
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package org.deuce.transaction.retry;
+
+import org.deuce.transaction.Context;
+import org.deuce.transform.Exclude;
+
+/**
+ * Retries right away, this is the default.
+ *
+ * @since 1.4
+ */
+@Exclude
+public class Immediate implements RetryPolicy {
+
+	@Override
+	public void beforeRetry(Context context, int attempt) {
+	}
+
+	@Override
+	public String getDescription() {
+		return "none";
+	}
+}
@@ -0,0 +1,37 @@
+package org.deuce.transaction.retry;
+
+import org.deuce.transaction.Context;
+import org.deuce.transaction.ContextDelegator;
+import org.deuce.transform.Exclude;
+
+/**
+ * Runs the transaction in irrevocable mode once it aborted <code>aborts</code> times,
+ * the irrevocable attempt runs alone and can't abort on a conflict. The context must be an
+ * {@link org.deuce.transaction.IrrevocableContext}, any other keeps retrying regularly.
+ *
+ * @since 1.4
+ */
+@Exclude
+public class Irrevocable implements RetryPolicy {
+
+	final private int aborts;
+
+	public Irrevocable(int aborts) {
+		if (aborts <= 0)
+			throw new IllegalArgumentException("Illegal aborts: " + aborts);
+		this.aborts = aborts;
+	}
+
+	@Override
+	public void beforeRetry(Context context, int attempt) {
+		if (attempt < aborts)
+			return;
+		// The next init() starts an irrevocable transaction
+		ContextDelegator.requestIrrevocable(context);
+	}
+
+	@Override
+	public String getDescription() {
+		return "irrevocable [aborts=" + aborts + "]";
+	}
+}
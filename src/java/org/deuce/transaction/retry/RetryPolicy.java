@@ -0,0 +1,30 @@
+package org.deuce.transaction.retry;
+
+import org.deuce.transaction.Context;
+import org.deuce.transform.Exclude;
+
+/**
+ * A retry policy is called by the atomic method loop after an aborted attempt, before
+ * the transaction is started again. It may wait, give up the processor or change the
+ * mode of the next attempt, and must not throw.
+ * <p>
+ * A policy is shared by all the threads, so it should keep no per-thread state.
+ *
+ * @since 1.4
+ */
+@Exclude
+public interface RetryPolicy {
+
+	/**
+	 * Called between two attempts of a transaction.
+	 * @param context the transaction context, already rolled back.
+	 * @param attempt how many attempts aborted so far (starting from 1).
+	 */
+	public void beforeRetry(Context context, int attempt);
+
+	/**
+	 * Gets a description of this retry policy
+	 * @return description
+	 */
+	public String getDescription();
+}
@@ -0,0 +1,37 @@
+package org.deuce.transaction.retry;
+
+import org.deuce.transaction.Context;
+import org.deuce.transform.Exclude;
+
+/**
+ * Spins for the first <code>spins</code> retries (a microsecond per aborted attempt), then
+ * yields the processor before every retry.
+ *
+ * @since 1.4
+ */
+@Exclude
+public class SpinThenYield implements RetryPolicy {
+
+	final private static long SPIN_NANOS = 1000;
+
+	final private int spins;
+
+	public SpinThenYield(int spins) {
+		if (spins < 0)
+			throw new IllegalArgumentException("Illegal spins: " + spins);
+		this.spins = spins;
+	}
+
+	@Override
+	public void beforeRetry(Context context, int attempt) {
+		if (attempt <= spins)
+			ExponentialBackoff.spin(attempt * SPIN_NANOS);
+		else
+			Thread.yield();
+	}
+
+	@Override
+	public String getDescription() {
+		return "spinyield [spins=" + spins + "]";
+	}
+}
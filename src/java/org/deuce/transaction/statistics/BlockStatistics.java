@@ -0,0 +1,193 @@
+package org.deuce.transaction.statistics;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * The counters of a single atomic block.
+ * <p>
+ * Each thread updates its own instance with plain writes, the instances are only summed
+ * by {@link Statistics} when a report is asked for. The sum is therefore a snapshot that
+ * might miss the last updates of the running threads.
+ *
+ * @since 1.4
+ */
+@Exclude
+public class BlockStatistics {
+
+	/**
+	 * Where the exception that aborted an attempt was raised.
+	 */
+	public enum AbortCause {
+		READ,        // read barrier, e.g. a locked or too new location
+		WRITE,       // write barrier, e.g. a write/write conflict on encounter time locking
+		COMMIT,      // commit time validation or locking
+		IRREVOCABLE, // restarted to run irrevocably
+		EXPLICIT     // thrown by the atomic block itself
+	}
+
+	final private static AbortCause[] CAUSES = AbortCause.values();
+
+	/**
+	 * Amount of bins of the retries histogram, bin <code>i</code> counts the commits that took
+	 * <code>(2^(i-1), 2^i]</code> attempts, the last bin counts everything above.
+	 */
+	final public static int RETRY_BINS = 12;
+
+	final private int id;
+
+	long starts;
+	long commits;
+	final long[] aborts = new long[CAUSES.length];
+	final long[] retries = new long[RETRY_BINS];
+	long reads;    // read set sizes of the committed attempts
+	long writes;   // write set sizes of the committed attempts
+	long maxReads;
+	long maxWrites;
+	long abortedNanos;
+
+	public BlockStatistics(int id) {
+		this.id = id;
+	}
+
+	static int retryBin(int attempts) {
+		if (attempts <= 1)
+			return 0;
+		int bin = 32 - Integer.numberOfLeadingZeros(attempts - 1);
+		return bin < RETRY_BINS ? bin : RETRY_BINS - 1;
+	}
+
+	void onCommit(int attempts, int reads, int writes) {
+		commits++;
+		retries[retryBin(attempts)]++;
+		this.reads += reads;
+		this.writes += writes;
+		if (reads > maxReads)
+			maxReads = reads;
+		if (writes > maxWrites)
+			maxWrites = writes;
+	}
+
+	void onAbort(AbortCause cause, long nanos) {
+		aborts[cause.ordinal()]++;
+		abortedNanos += nanos;
+	}
+
+	void add(BlockStatistics other) {
+		starts += other.starts;
+		commits += other.commits;
+		for (int i = 0; i < aborts.length; i++)
+			aborts[i] += other.aborts[i];
+		for (int i = 0; i < retries.length; i++)
+			retries[i] += other.retries[i];
+		reads += other.reads;
+		writes += other.writes;
+		maxReads = Math.max(maxReads, other.maxReads);
+		maxWrites = Math.max(maxWrites, other.maxWrites);
+		abortedNanos += other.abortedNanos;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public String getName() {
+		return Statistics.getBlockName(id);
+	}
+
+	/**
+	 * @return amount of attempts, committed or not.
+	 */
+	public long getStarts() {
+		return starts;
+	}
+
+	public long getCommits() {
+		return commits;
+	}
+
+	public long getAborts() {
+		long sum = 0;
+		for (long a : aborts)
+			sum += a;
+		return sum;
+	}
+
+	public long getAborts(AbortCause cause) {
+		return aborts[cause.ordinal()];
+	}
+
+	/**
+	 * @return amount of commits that took between <code>2^(bin-1)+1</code> and
+	 * <code>2^bin</code> attempts.
+	 */
+	public long getRetries(int bin) {
+		return retries[bin];
+	}
+
+	/**
+	 * @return the read set sizes of the committed attempts summed, as told by the context
+	 * (see {@link org.deuce.transaction.SetSizes}), <code>0</code> for a context that can't.
+	 */
+	public long getReads() {
+		return reads;
+	}
+
+	/**
+	 * @return the write set sizes of the committed attempts summed, see {@link #getReads()}.
+	 */
+	public long getWrites() {
+		return writes;
+	}
+
+	public long getMaxReads() {
+		return maxReads;
+	}
+
+	public long getMaxWrites() {
+		return maxWrites;
+	}
+
+	/**
+	 * @return time spent in attempts that ended with an abort.
+	 */
+	public long getAbortedNanos() {
+		return abortedNanos;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append('#').append(id).append(' ').append(getName());
+		sb.append(": starts=").append(starts);
+		sb.append(", commits=").append(commits);
+		sb.append(", aborts=").append(getAborts()).append(" (");
+		for (int i = 0; i < CAUSES.length; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(CAUSES[i].name().toLowerCase()).append('=').append(aborts[i]);
+		}
+		sb.append("), attempts/commit=[");
+		int last = retries.length - 1;
+		while (last > 0 && retries[last] == 0)
+			last--;
+		for (int i = 0; i <= last; i++) {
+			if (i > 0)
+				sb.append(", ");
+			if (i == 0)
+				sb.append('1');
+			else if (i == 1)
+				sb.append('2');
+			else if (i == RETRY_BINS - 1)
+				sb.append('>').append((1 << (i - 1)));
+			else
+				sb.append((1 << (i - 1)) + 1).append('-').append(1 << i);
+			sb.append(':').append(retries[i]);
+		}
+		sb.append("], reads/commit=").append(commits == 0 ? 0 : reads / commits);
+		sb.append(" (max ").append(maxReads).append(')');
+		sb.append(", writes/commit=").append(commits == 0 ? 0 : writes / commits);
+		sb.append(" (max ").append(maxWrites).append(')');
+		sb.append(", aborted time=").append(abortedNanos / 1000000).append("ms");
+		return sb.toString();
+	}
+}
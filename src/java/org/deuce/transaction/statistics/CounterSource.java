@@ -0,0 +1,35 @@
+package org.deuce.transaction.statistics;
+
+import org.deuce.transaction.Context;
+import org.deuce.transform.Exclude;
+
+/**
+ * A set of counters reported with the transaction statistics, e.g. those of a feature of
+ * some backends. The feature registers its source once with
+ * {@link Statistics#registerSource(CounterSource)}, the counters are then summed over the
+ * contexts when read, listed in the {@link Statistics#report()} and read through JMX.
+ *
+ * @since 1.4
+ */
+@Exclude
+public interface CounterSource {
+
+	/**
+	 * @return the title of the counters in the report, e.g. "Write set filter".
+	 */
+	String getTitle();
+
+	/**
+	 * @return the names of the counters, in the order {@link #addCounters} adds them.
+	 */
+	String[] getCounterNames();
+
+	/**
+	 * Adds the counters of a backend context to <code>counters</code>.
+	 * @param context a backend context, <code>null</code> for the counters shared by all the
+	 * contexts.
+	 * @param live <code>false</code> once the context won't run transactions anymore, what is
+	 * added then is kept for good.
+	 */
+	void addCounters(Context context, boolean live, long[] counters);
+}
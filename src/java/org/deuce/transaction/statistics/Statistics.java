@@ -0,0 +1,325 @@
+package org.deuce.transaction.statistics;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.ObjectName;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * Per atomic block statistics, for any backend.
+ * <p>
+ * When enabled, every thread context is wrapped by a {@link StatisticsContext} which keeps its
+ * own counters, the counters are only summed here when read. The statistics are keyed by
+ * the atomic block id handed to {@link org.deuce.transaction.Context#init(int, String)}, the
+ * instrumentation registers the name of the method behind each id with
+ * {@link #registerBlock(int, String)}. Classes instrumented offline have no name at runtime
+ * and are reported by id. The features of the backends add their own counters, see
+ * {@link CounterSource}.
+ * <p>
+ * The following system properties are used:
+ * <ul>
+ * <li><code>org.deuce.transaction.statistics</code> - <code>true</code> to collect the
+ * statistics (default <code>false</code>).</li>
+ * <li><code>org.deuce.transaction.statistics.file</code> - where to dump the statistics at
+ * shutdown (default the standard error), <code>none</code> to skip the dump.</li>
+ * </ul>
+ * The statistics can also be read through JMX once the application called
+ * {@link #registerMBean()}, see {@link StatisticsMBean}.
+ *
+ * @since 1.4
+ */
+@Exclude
+public class Statistics implements StatisticsMBean {
+
+	final public static String STATISTICS_PROPERTY = "org.deuce.transaction.statistics";
+	final public static String FILE_PROPERTY = "org.deuce.transaction.statistics.file";
+	final public static String OBJECT_NAME = "org.deuce:type=Statistics";
+
+	final public static boolean ENABLED = Boolean.getBoolean(STATISTICS_PROPERTY);
+
+	final private static ConcurrentHashMap<Integer, String> names = new ConcurrentHashMap<Integer, String>();
+
+	// All the contexts created, used to sum the counters
+	final private static ArrayList<StatisticsContext> contexts = new ArrayList<StatisticsContext>();
+	private static boolean installed;
+	private static Boolean registered; // the outcome of registerMBean()
+
+	// The counters of the terminated threads
+	final private static int RETIRE_THRESHOLD = 1024;
+	private static BlockStatistics[] retired = new BlockStatistics[0];
+	private static int retireThreshold = RETIRE_THRESHOLD;
+
+	// The counters of the features, and those the terminated threads left
+	final private static ArrayList<CounterSource> sources = new ArrayList<CounterSource>();
+	final private static ArrayList<long[]> retiredCounters = new ArrayList<long[]>();
+
+	/**
+	 * Names an atomic block, called by the instrumentation.
+	 */
+	public static void registerBlock(int atomicBlockId, String name) {
+		names.put(atomicBlockId, name);
+	}
+
+	public static String getBlockName(int atomicBlockId) {
+		String name = names.get(atomicBlockId);
+		return name != null ? name : "<unknown>";
+	}
+
+	static void register(StatisticsContext context) {
+		synchronized (contexts) {
+			if (contexts.size() >= retireThreshold) {
+				retire();
+				retireThreshold = Math.max(RETIRE_THRESHOLD, contexts.size() << 1);
+			}
+			contexts.add(context);
+			if (!installed) {
+				installed = true;
+				install();
+			}
+		}
+	}
+
+	/**
+	 * Folds the counters of the terminated threads and dropped pooled contexts, so short
+	 * lived threads don't pile up their contexts. Must hold the <code>contexts</code> lock.
+	 */
+	private static void retire() {
+		for (int i = contexts.size() - 1; i >= 0; i--) {
+			StatisticsContext context = contexts.get(i);
+			if (!context.isRetired())
+				continue;
+			int count = context.getBlockCount();
+			if (count > retired.length) {
+				BlockStatistics[] r = new BlockStatistics[count];
+				System.arraycopy(retired, 0, r, 0, retired.length);
+				retired = r;
+			}
+			for (int id = 0; id < count; id++) {
+				BlockStatistics s = context.getBlock(id);
+				if (s == null)
+					continue;
+				if (retired[id] == null)
+					retired[id] = new BlockStatistics(id);
+				retired[id].add(s);
+			}
+			for (int s = 0; s < sources.size(); s++)
+				sources.get(s).addCounters(context.getContext(), false, retiredCounters.get(s));
+			// Order doesn't matter, move the last one here
+			contexts.set(i, contexts.get(contexts.size() - 1));
+			contexts.remove(contexts.size() - 1);
+		}
+	}
+
+	// Must hold the contexts lock
+	private static BlockStatistics sum(int atomicBlockId) {
+		BlockStatistics sum = null;
+		if (atomicBlockId < retired.length && retired[atomicBlockId] != null) {
+			sum = new BlockStatistics(atomicBlockId);
+			sum.add(retired[atomicBlockId]);
+		}
+		for (StatisticsContext context : contexts) {
+			BlockStatistics s = context.getBlock(atomicBlockId);
+			if (s == null)
+				continue;
+			if (sum == null)
+				sum = new BlockStatistics(atomicBlockId);
+			sum.add(s);
+		}
+		return sum;
+	}
+
+	/**
+	 * Registers the statistics with the platform MBean server as {@link #OBJECT_NAME}. It isn't
+	 * done when the first context is created: on Java 9 and later the management classes
+	 * it loads might be instrumented and fail to link, which must not fail a transaction.
+	 * @return <code>true</code> if the MBean is registered, <code>false</code> if the
+	 * statistics are disabled or the registration failed.
+	 */
+	public static synchronized boolean registerMBean() {
+		if (registered == null) {
+			registered = Boolean.FALSE;
+			if (ENABLED) {
+				try {
+					ManagementFactory.getPlatformMBeanServer().registerMBean(new Statistics(),
+							new ObjectName(OBJECT_NAME));
+					registered = Boolean.TRUE;
+				} catch (Exception e) {
+					// No JMX, the statistics are still dumped at shutdown
+				} catch (LinkageError e) {
+					// The management classes can't run with the agent
+				}
+			}
+		}
+		return registered;
+	}
+
+	private static void install() {
+		final String file = System.getProperty(FILE_PROPERTY);
+		if ("none".equals(file))
+			return;
+		Runtime.getRuntime().addShutdownHook(new Thread("Deuce statistics") {
+			@Override
+			public void run() {
+				if (file == null) {
+					System.err.print(report());
+					return;
+				}
+				try {
+					PrintStream out = new PrintStream(new FileOutputStream(file));
+					out.print(report());
+					out.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return the counters of the atomic block summed over all the threads, <code>null</code>
+	 * if it never ran.
+	 */
+	public static BlockStatistics getBlockStatistics(int atomicBlockId) {
+		synchronized (contexts) {
+			retire();
+			return sum(atomicBlockId);
+		}
+	}
+
+	/**
+	 * @return the counters of all the atomic blocks that ran, ordered by id, plus their sum
+	 * as the last element (with id -1).
+	 */
+	public static BlockStatistics[] getAllBlockStatistics() {
+		ArrayList<BlockStatistics> blocks = new ArrayList<BlockStatistics>();
+		BlockStatistics total = new BlockStatistics(-1);
+		synchronized (contexts) {
+			retire();
+			int count = retired.length;
+			for (StatisticsContext context : contexts)
+				count = Math.max(count, context.getBlockCount());
+			for (int id = 0; id < count; id++) {
+				BlockStatistics sum = sum(id);
+				if (sum != null) {
+					blocks.add(sum);
+					total.add(sum);
+				}
+			}
+		}
+		blocks.add(total);
+		return blocks.toArray(new BlockStatistics[blocks.size()]);
+	}
+
+	/**
+	 * Adds counters to the statistics, e.g. those of a backend feature. Does nothing unless
+	 * the statistics are collected.
+	 */
+	public static void registerSource(CounterSource source) {
+		if (!ENABLED)
+			return;
+		synchronized (contexts) {
+			if (sources.contains(source))
+				return;
+			sources.add(source);
+			retiredCounters.add(new long[source.getCounterNames().length]);
+		}
+	}
+
+	/**
+	 * @return the counters of the source summed over the contexts, including those which
+	 * don't run anymore.
+	 */
+	public static long[] getCounters(CounterSource source) {
+		synchronized (contexts) {
+			retire();
+			int i = sources.indexOf(source);
+			long[] sum = i < 0 ? new long[source.getCounterNames().length] : retiredCounters.get(i).clone();
+			source.addCounters(null, true, sum);
+			for (StatisticsContext context : contexts)
+				source.addCounters(context.getContext(), true, sum);
+			return sum;
+		}
+	}
+
+	/**
+	 * @return a line per registered source whose counters aren't all 0, see
+	 * {@link CounterSource}.
+	 */
+	public static String[] getCounterLines() {
+		CounterSource[] registered;
+		synchronized (contexts) {
+			registered = sources.toArray(new CounterSource[sources.size()]);
+		}
+		ArrayList<String> lines = new ArrayList<String>();
+		for (CounterSource source : registered) {
+			long[] counters = getCounters(source);
+			String[] names = source.getCounterNames();
+			boolean any = false;
+			StringBuilder sb = new StringBuilder(source.getTitle()).append(':');
+			for (int i = 0; i < names.length; i++) {
+				any |= counters[i] != 0;
+				sb.append(i == 0 ? " " : ", ").append(names[i]).append('=').append(counters[i]);
+			}
+			if (any)
+				lines.add(sb.toString());
+		}
+		return lines.toArray(new String[lines.size()]);
+	}
+
+	private static BlockStatistics getTotal() {
+		BlockStatistics[] blocks = getAllBlockStatistics();
+		return blocks[blocks.length - 1];
+	}
+
+	public long getStarts() {
+		return getTotal().getStarts();
+	}
+
+	public long getCommits() {
+		return getTotal().getCommits();
+	}
+
+	public long getAborts() {
+		return getTotal().getAborts();
+	}
+
+	public String[] getCounters() {
+		return getCounterLines();
+	}
+
+	public String[] getBlocks() {
+		BlockStatistics[] blocks = getAllBlockStatistics();
+		String[] lines = new String[blocks.length - 1];
+		for (int i = 0; i < lines.length; i++)
+			lines[i] = blocks[i].toString();
+		return lines;
+	}
+
+	public String getReport() {
+		return report();
+	}
+
+	/**
+	 * @return the totals, a line per source of counters and a line per atomic block.
+	 */
+	public static String report() {
+		BlockStatistics[] blocks = getAllBlockStatistics();
+		BlockStatistics total = blocks[blocks.length - 1];
+		StringBuilder sb = new StringBuilder();
+		sb.append("Transaction statistics: starts=").append(total.getStarts());
+		sb.append(", commits=").append(total.getCommits());
+		sb.append(", aborts=").append(total.getAborts());
+		sb.append(", aborted time=").append(total.getAbortedNanos() / 1000000).append("ms\n");
+		for (String line : getCounterLines())
+			sb.append(line).append('\n');
+		for (int i = 0; i < blocks.length - 1; i++)
+			sb.append("  ").append(blocks[i]).append('\n');
+		return sb.toString();
+	}
+}
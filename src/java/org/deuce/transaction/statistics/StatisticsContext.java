@@ -0,0 +1,367 @@
+package org.deuce.transaction.statistics;
+
+import org.deuce.transaction.CommutativeContext;
+import org.deuce.transaction.Context;
+import org.deuce.transaction.ContextDelegator;
+import org.deuce.transaction.ReadOnlyContext;
+import org.deuce.transaction.IrrevocableContext;
+import org.deuce.transaction.SetSizes;
+import org.deuce.transaction.SnapshotContext;
+import org.deuce.transaction.TransactionException;
+import org.deuce.transaction.statistics.BlockStatistics.AbortCause;
+import org.deuce.transform.Exclude;
+
+/**
+ * A {@link Context} that counts the events of the context it wraps, per atomic block.
+ * <p>
+ * A context belongs to a single thread, so are its counters, which are plain fields
+ * written without any synchronization. The cause of an abort is the place where the
+ * {@link TransactionException} went through: a read or write barrier, the commit, the
+ * irrevocable access, or else the atomic block itself. The read and write set sizes of a
+ * committed attempt are the ones the wrapped context tells through {@link SetSizes}.
+ * <p>
+ * Installed by {@link org.deuce.transaction.ContextDelegator} on top of the configured
+ * context when the statistics are enabled, see {@link Statistics}.
+ *
+ * @since 1.4
+ */
+@Exclude
+public class StatisticsContext implements ReadOnlyContext, SnapshotContext, CommutativeContext,
+		IrrevocableContext {
+
+	final private Context context;
+	final private Thread owner;
+	private volatile boolean disposed;
+
+	private BlockStatistics[] blocks = new BlockStatistics[16];
+	private BlockStatistics block;
+	private int blockId = -1;
+
+	// The current attempt
+	private int attempts; // attempts of the current block since its last commit
+	private long startTime;
+	private AbortCause cause;
+
+	public StatisticsContext(Context context) {
+		this(context, Thread.currentThread());
+	}
+
+	/**
+	 * @param owner the thread running the context, <code>null</code> for a pooled context
+	 * whose counters are kept until it is {@link #dispose()}d.
+	 */
+	public StatisticsContext(Context context, Thread owner) {
+		this.context = context;
+		this.owner = owner;
+		Statistics.register(this);
+	}
+
+	public Context getContext() {
+		return context;
+	}
+
+	/**
+	 * Called once the context won't run transactions anymore, its counters are folded.
+	 */
+	public void dispose() {
+		disposed = true;
+	}
+
+	/**
+	 * @return <code>true</code> if the context won't run transactions anymore.
+	 */
+	boolean isRetired() {
+		return disposed || (owner != null && !owner.isAlive());
+	}
+
+	/**
+	 * @return the counters of the atomic block, <code>null</code> if it never ran on this context.
+	 */
+	BlockStatistics getBlock(int atomicBlockId) {
+		BlockStatistics[] blocks = this.blocks;
+		return atomicBlockId < blocks.length ? blocks[atomicBlockId] : null;
+	}
+
+	/**
+	 * @return the number of slots of the block array, blocks are stored by id.
+	 */
+	int getBlockCount() {
+		return blocks.length;
+	}
+
+	private BlockStatistics block(int atomicBlockId) {
+		BlockStatistics[] blocks = this.blocks;
+		if (atomicBlockId >= blocks.length) {
+			BlockStatistics[] b = new BlockStatistics[Math.max(blocks.length << 1, atomicBlockId + 1)];
+			System.arraycopy(blocks, 0, b, 0, blocks.length);
+			this.blocks = blocks = b;
+		}
+		BlockStatistics s = blocks[atomicBlockId];
+		if (s == null)
+			blocks[atomicBlockId] = s = new BlockStatistics(atomicBlockId);
+		return s;
+	}
+
+	public void init(int atomicBlockId, String metainf) {
+		start(atomicBlockId);
+		context.init(atomicBlockId, metainf);
+	}
+
+	public void initReadOnly(int atomicBlockId, String metainf) {
+		start(atomicBlockId);
+		ContextDelegator.initReadOnly(context, atomicBlockId, metainf);
+	}
+
+	public void initSnapshot(int atomicBlockId, String metainf) {
+		start(atomicBlockId);
+		ContextDelegator.initSnapshot(context, atomicBlockId, metainf);
+	}
+
+	private void start(int atomicBlockId) {
+		if (atomicBlockId != blockId) {
+			block = block(atomicBlockId);
+			blockId = atomicBlockId;
+			attempts = 0;
+		}
+		block.starts++;
+		attempts++;
+		cause = null;
+		startTime = System.nanoTime();
+	}
+
+	public boolean commit() {
+		// The sets are complete before the commit, which may clear them
+		int reads = 0;
+		int writes = 0;
+		if (context instanceof SetSizes) {
+			reads = ((SetSizes) context).getReadSetSize();
+			writes = ((SetSizes) context).getWriteSetSize();
+		}
+		boolean committed;
+		try {
+			committed = context.commit();
+		} catch (TransactionException e) {
+			onAbort(AbortCause.COMMIT);
+			throw e;
+		}
+		if (committed) {
+			block.onCommit(attempts, reads, writes);
+			attempts = 0;
+		}
+		else {
+			onAbort(AbortCause.COMMIT);
+		}
+		return committed;
+	}
+
+	public void rollback() {
+		context.rollback();
+		onAbort(cause != null ? cause : AbortCause.EXPLICIT);
+	}
+
+	private void onAbort(AbortCause cause) {
+		block.onAbort(cause, System.nanoTime() - startTime);
+		this.cause = null;
+	}
+
+	public void beforeReadAccess(Object obj, long field) {
+		try {
+			context.beforeReadAccess(obj, field);
+		} catch (TransactionException e) {
+			cause = AbortCause.READ;
+			throw e;
+		}
+	}
+
+	public Object onReadAccess(Object obj, Object value, long field) {
+		try {
+			return context.onReadAccess(obj, value, field);
+		} catch (TransactionException e) {
+			cause = AbortCause.READ;
+			throw e;
+		}
+	}
+
+	public boolean onReadAccess(Object obj, boolean value, long field) {
+		try {
+			return context.onReadAccess(obj, value, field);
+		} catch (TransactionException e) {
+			cause = AbortCause.READ;
+			throw e;
+		}
+	}
+
+	public byte onReadAccess(Object obj, byte value, long field) {
+		try {
+			return context.onReadAccess(obj, value, field);
+		} catch (TransactionException e) {
+			cause = AbortCause.READ;
+			throw e;
+		}
+	}
+
+	public char onReadAccess(Object obj, char value, long field) {
+		try {
+			return context.onReadAccess(obj, value, field);
+		} catch (TransactionException e) {
+			cause = AbortCause.READ;
+			throw e;
+		}
+	}
+
+	public short onReadAccess(Object obj, short value, long field) {
+		try {
+			return context.onReadAccess(obj, value, field);
+		} catch (TransactionException e) {
+			cause = AbortCause.READ;
+			throw e;
+		}
+	}
+
+	public int onReadAccess(Object obj, int value, long field) {
+		try {
+			return context.onReadAccess(obj, value, field);
+		} catch (TransactionException e) {
+			cause = AbortCause.READ;
+			throw e;
+		}
+	}
+
+	public long onReadAccess(Object obj, long value, long field) {
+		try {
+			return context.onReadAccess(obj, value, field);
+		} catch (TransactionException e) {
+			cause = AbortCause.READ;
+			throw e;
+		}
+	}
+
+	public float onReadAccess(Object obj, float value, long field) {
+		try {
+			return context.onReadAccess(obj, value, field);
+		} catch (TransactionException e) {
+			cause = AbortCause.READ;
+			throw e;
+		}
+	}
+
+	public double onReadAccess(Object obj, double value, long field) {
+		try {
+			return context.onReadAccess(obj, value, field);
+		} catch (TransactionException e) {
+			cause = AbortCause.READ;
+			throw e;
+		}
+	}
+
+	public void onWriteAccess(Object obj, Object value, long field) {
+		try {
+			context.onWriteAccess(obj, value, field);
+		} catch (TransactionException e) {
+			cause = AbortCause.WRITE;
+			throw e;
+		}
+	}
+
+	public void onWriteAccess(Object obj, boolean value, long field) {
+		try {
+			context.onWriteAccess(obj, value, field);
+		} catch (TransactionException e) {
+			cause = AbortCause.WRITE;
+			throw e;
+		}
+	}
+
+	public void onWriteAccess(Object obj, byte value, long field) {
+		try {
+			context.onWriteAccess(obj, value, field);
+		} catch (TransactionException e) {
+			cause = AbortCause.WRITE;
+			throw e;
+		}
+	}
+
+	public void onWriteAccess(Object obj, char value, long field) {
+		try {
+			context.onWriteAccess(obj, value, field);
+		} catch (TransactionException e) {
+			cause = AbortCause.WRITE;
+			throw e;
+		}
+	}
+
+	public void onWriteAccess(Object obj, short value, long field) {
+		try {
+			context.onWriteAccess(obj, value, field);
+		} catch (TransactionException e) {
+			cause = AbortCause.WRITE;
+			throw e;
+		}
+	}
+
+	public void onWriteAccess(Object obj, int value, long field) {
+		try {
+			context.onWriteAccess(obj, value, field);
+		} catch (TransactionException e) {
+			cause = AbortCause.WRITE;
+			throw e;
+		}
+	}
+
+	public void onWriteAccess(Object obj, long value, long field) {
+		try {
+			context.onWriteAccess(obj, value, field);
+		} catch (TransactionException e) {
+			cause = AbortCause.WRITE;
+			throw e;
+		}
+	}
+
+	public void onWriteAccess(Object obj, float value, long field) {
+		try {
+			context.onWriteAccess(obj, value, field);
+		} catch (TransactionException e) {
+			cause = AbortCause.WRITE;
+			throw e;
+		}
+	}
+
+	public void onWriteAccess(Object obj, double value, long field) {
+		try {
+			context.onWriteAccess(obj, value, field);
+		} catch (TransactionException e) {
+			cause = AbortCause.WRITE;
+			throw e;
+		}
+	}
+
+	public void onIncrement(Object obj, long field, long delta) {
+		try {
+			ContextDelegator.onIncrement(context, obj, field, delta);
+		} catch (TransactionException e) {
+			cause = AbortCause.WRITE;
+			throw e;
+		}
+	}
+
+	public long getIncrement(Object obj, long field) {
+		return ContextDelegator.getIncrement(context, obj, field);
+	}
+
+	public void requestIrrevocable() {
+		ContextDelegator.requestIrrevocable(context);
+	}
+
+	public void cancelIrrevocable() {
+		ContextDelegator.onRetriesExhausted(context);
+	}
+
+	public void onIrrevocableAccess() {
+		try {
+			context.onIrrevocableAccess();
+		} catch (TransactionException e) {
+			cause = AbortCause.IRREVOCABLE;
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package org.deuce.transaction.statistics;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * The JMX view of the transaction statistics, registered as
+ * <code>org.deuce:type=Statistics</code> by {@link Statistics#registerMBean()}.
+ *
+ * @since 1.4
+ */
+@Exclude
+public interface StatisticsMBean {
+
+	long getStarts();
+
+	long getCommits();
+
+	long getAborts();
+
+	/**
+	 * @return one line per source of counters, see {@link CounterSource}.
+	 */
+	String[] getCounters();
+
+	/**
+	 * @return one line per atomic block that ran, see {@link BlockStatistics#toString()}.
+	 */
+	String[] getBlocks();
+
+	String getReport();
+}
@@ -1,9 +1,23 @@
 package org.deuce.transaction.tl2;
 
+import java.util.Arrays;
+
+import org.deuce.transaction.Context;
+import org.deuce.transaction.FilteredWriteSet;
+import org.deuce.transaction.statistics.CounterSource;
+import org.deuce.transaction.statistics.Statistics;
+import org.deuce.transaction.util.Capacity;
 import org.deuce.transform.Exclude;
 
 /**
  * Implements Bloom filter map
+ * <p>
+ * A summary of the write set, which tells the read barrier that a field isn't written
+ * without probing the write set. The filter is blocked: both bits of a hash are in the
+ * same word, hence a lookup reads a single word and the filter is cleared one word per
+ * entry (see {@link #clear(int)}), in the time of the entries used rather than of its
+ * size. It is sized with the write set, at 16 bits per entry. The counters of the contexts
+ * using it (see {@link FilteredWriteSet}) are reported by the statistics.
  * 
  * @author Guy Korland
  * @since 1.0
@@ -12,31 +26,98 @@ import org.deuce.transform.Exclude;
 @Exclude
 public class BloomFilter {
 	
-	final private static short BLOOM_FILTER_SIZE = 1 << 10; // the array length
-	final static private byte[] EMPTY_FILTER = new byte[BLOOM_FILTER_SIZE];
+	final private static int BITS_PER_ENTRY_SHIFT = 4;
+	final private static int WORD_SHIFT = 6; // 64 bits per word
+
+	static {
+		Statistics.registerSource( new Counters());
+	}
 	
-	private byte[] bloomFilter = new byte[BLOOM_FILTER_SIZE];
+	private long[] bloomFilter;
+	private int mask; // words - 1
 
-	public boolean contains( int hash) {
+	/**
+	 * A filter of 1024 bits.
+	 */
+	public BloomFilter() {
+		this( 64);
+	}
 
-		int bit1 = hash & 0x3FF; // first 10 bits of the first part of the int
-		int bit2 = (hash >>> Short.SIZE) & 0x3FF; // first 10 bits of the second part of the int
+	/**
+	 * @param capacity the amount of entries the filter is sized for.
+	 */
+	public BloomFilter( int capacity) {
+		resize( capacity);
+	}
 
-		return ((bloomFilter[ bit1/Byte.SIZE] & (1 << bit1%Byte.SIZE)) != 0) &&
-		((bloomFilter[ bit2/Byte.SIZE] & (1 << bit2%Byte.SIZE)) != 0);
+	/**
+	 * Sizes the filter for <code>capacity</code> entries, the filter is left empty.
+	 */
+	public void resize( int capacity) {
+		int words = Math.max( 1, Capacity.roundUp( capacity) << BITS_PER_ENTRY_SHIFT >> WORD_SHIFT);
+		bloomFilter = new long[ words];
+		mask = words - 1;
 	}
 
-	public void add( int hash) {
+	private static int mix( int hash) {
+		return hash * 0x9E3779B9;
+	}
+
+	private static long bits( int h) {
+		return (1L << h) | (1L << (h >>> WORD_SHIFT)); // only the 6 lower bits of the shift count
+	}
+
+	public boolean contains( int hash) {
+		int h = mix( hash);
+		long bits = bits( h);
+		return (bloomFilter[ (h >>> 12) & mask] & bits) == bits;
+	}
 
-		int bit1 = hash & 0x3FF; // first 10 bits of the first part of the int
-		int bit2 = (hash >>> Short.SIZE) & 0x3FF; // first 10 bits of the second part of the int
+	public void add( int hash) {
+		int h = mix( hash);
+		bloomFilter[ (h >>> 12) & mask] |= bits( h);
+	}
 
-		bloomFilter[ bit1/Byte.SIZE] |= (1 << bit1%Byte.SIZE);
-		bloomFilter[ bit2/Byte.SIZE] |= (1 << bit2%Byte.SIZE);
+	/**
+	 * Clears the word of the hash, and with it the other hashes sharing the word. Clearing
+	 * the word of each hash added empties the filter.
+	 */
+	public void clear( int hash) {
+		bloomFilter[ (mix( hash) >>> 12) & mask] = 0;
 	}
 
 	public void clear() {
-		 // TODO check if can clear faster or even call new
-		System.arraycopy(EMPTY_FILTER, 0, bloomFilter, 0, BLOOM_FILTER_SIZE);
+		Arrays.fill( bloomFilter, 0);
+	}
+
+	/**
+	 * @return the approximate bytes held by the filter.
+	 */
+	public long getFootprint() {
+		return Capacity.arrayBytes( bloomFilter.length, 8);
+	}
+
+	/**
+	 * The counters of the filtered write sets, summed over the contexts.
+	 */
+	@Exclude
+	private static class Counters implements CounterSource {
+
+		public String getTitle() {
+			return "Write set filter";
+		}
+
+		public String[] getCounterNames() {
+			return new String[]{ "lookups", "passed", "false positives"};
+		}
+
+		public void addCounters( Context context, boolean live, long[] counters) {
+			if( !(context instanceof FilteredWriteSet))
+				return;
+			FilteredWriteSet filtered = (FilteredWriteSet) context;
+			counters[0] += filtered.getFilterLookups();
+			counters[1] += filtered.getFilterPasses();
+			counters[2] += filtered.getFilterFalsePositives();
+		}
 	}
 }
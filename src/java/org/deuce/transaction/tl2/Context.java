@@ -1,10 +1,16 @@
 package org.deuce.transaction.tl2;
 
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.deuce.transaction.CommutativeContext;
+import org.deuce.transaction.IrrevocableContext;
+import org.deuce.transaction.FilteredWriteSet;
+import org.deuce.transaction.MemoryFootprint;
+import org.deuce.transaction.SetSizes;
+import org.deuce.transaction.SnapshotContext;
 import org.deuce.transaction.TransactionException;
+import org.deuce.transaction.clock.Factory;
+import org.deuce.transaction.clock.GlobalClock;
 import org.deuce.transaction.tl2.field.BooleanWriteFieldAccess;
 import org.deuce.transaction.tl2.field.ByteWriteFieldAccess;
 import org.deuce.transaction.tl2.field.CharWriteFieldAccess;
@@ -18,24 +24,61 @@ import org.deuce.transaction.tl2.field.ShortWriteFieldAccess;
 import org.deuce.transaction.tl2.field.WriteFieldAccess;
 import org.deuce.transaction.tl2.pool.Pool;
 import org.deuce.transaction.tl2.pool.ResourceFactory;
+import org.deuce.transaction.util.BooleanArrayList;
+import org.deuce.transaction.util.Capacity;
+import org.deuce.transaction.util.DeltaLog;
+import org.deuce.transaction.util.Irrevocability;
 import org.deuce.transform.Exclude;
 import org.deuce.trove.TObjectProcedure;
 
 /**
  * TL2 implementation
+ * <p>
+ * With <code>-Dorg.deuce.transaction.tl2.extend=true</code> a transaction about to read a
+ * location written since it started extends its snapshot, as LSA does, instead of
+ * aborting: if the locations it read so far are unchanged, it goes on from the current
+ * time. This saves the long read transactions of workloads with a steady trickle of
+ * writers, at the cost of a read set validation per extension. A read-only transaction
+ * keeps no read set to extend, when one fails on a read its next attempt runs as an
+ * update transaction, which can.
+ * <p>
+ * A snapshot isolation transaction (see {@link SnapshotContext}) checks its reads as a
+ * read-only one and logs nothing, its commit checks the versions of the locks it takes
+ * instead of validating a read set.
+ * <p>
+ * The increments (see {@link CommutativeContext}) are locked after the write set and
+ * applied after its write-back.
  *
  * @author	Guy Korland
  * @since	1.0
  */
 @Exclude
-final public class Context implements org.deuce.transaction.Context{
+final public class Context implements org.deuce.transaction.ReadOnlyContext, SnapshotContext, CommutativeContext,
+		IrrevocableContext, MemoryFootprint, SetSizes, FilteredWriteSet{
 
-	final static AtomicInteger clock = new AtomicInteger( 0);
+	final private static TransactionException READ_ONLY_FAILURE_EXCEPTION =
+		new TransactionException( "Fail on write (read-only transaction).");
+
+	final private static AtomicInteger globalClock = new AtomicInteger( 0);
+
+	final private static boolean EXTEND = Boolean.getBoolean( "org.deuce.transaction.tl2.extend");
+
+	final private GlobalClock clock = Factory.createClock( globalClock);
 
 	final private ReadSet readSet = new ReadSet();
 	final private WriteSet writeSet = new WriteSet();
+	final private DeltaLog deltas = new DeltaLog();
 	
-	private ReadFieldAccess currentReadFieldAccess = null;
+	// The field being read, the read set only logs its lock
+	final private ReadFieldAccess readAccess = new ReadFieldAccess();
+
+	// A read-only transaction validates each read against its start time and logs nothing
+	private boolean readOnly;
+	private int atomicBlockId;
+	// The blocks whose read-only attempt tried to write, or to extend, run as update transactions
+	final private BooleanArrayList updateBlocks = new BooleanArrayList();
+	// A snapshot isolation transaction logs no read, it checks its writes on commit
+	private boolean snapshot;
 		
 	//Used by the thread to mark locks it holds.
 	final private byte[] locksMarker = new byte[LockTable.LOCKS_SIZE /8 + 1];
@@ -45,9 +88,8 @@ final public class Context implements org.deuce.transaction.Context{
 	private int localClock;
 	private int lastReadLock;
 
-	//Global lock used to allow only one irrevocable transaction solely. 
-	final private static ReentrantReadWriteLock irrevocableAccessLock = new ReentrantReadWriteLock();
-	private boolean irrevocableState = false;
+	//Used to allow only one irrevocable transaction solely. 
+	final private Irrevocability irrevocable = new Irrevocability();
 	
 	final private TObjectProcedure<WriteFieldAccess> putProcedure = new TObjectProcedure<WriteFieldAccess>(){
 		@Override
@@ -63,95 +105,137 @@ final public class Context implements org.deuce.transaction.Context{
 	
 	@Override
 	public void init(int atomicBlockId, String metainf){
-		this.currentReadFieldAccess = null;
-		this.readSet.clear(); 
-		this.writeSet.clear();
-		this.objectPool.clear();
-		this.booleanPool.clear();
-		this.bytePool.clear();
-		this.charPool.clear();
-		this.shortPool.clear();
-		this.intPool.clear();
-		this.longPool.clear();
-		this.floatPool.clear();
-		this.doublePool.clear();
+		this.readSet.init(atomicBlockId); 
+		this.writeSet.init(atomicBlockId);
+		this.deltas.clear();
+		this.objectPool.init(atomicBlockId);
+		this.booleanPool.init(atomicBlockId);
+		this.bytePool.init(atomicBlockId);
+		this.charPool.init(atomicBlockId);
+		this.shortPool.init(atomicBlockId);
+		this.intPool.init(atomicBlockId);
+		this.longPool.init(atomicBlockId);
+		this.floatPool.init(atomicBlockId);
+		this.doublePool.init(atomicBlockId);
 		
 		//Lock according to the transaction irrevocable state
-		if(irrevocableState)
-			irrevocableAccessLock.writeLock().lock();
-		else
-			irrevocableAccessLock.readLock().lock();
+		irrevocable.begin();
 		
 		this.localClock = clock.get();	
+		this.atomicBlockId = atomicBlockId;
+		this.readOnly = false;
+		this.snapshot = false;
+	}
+
+	@Override
+	public void initReadOnly(int atomicBlockId, String metainf){
+		boolean readOnly = !updateBlocks.get(atomicBlockId) && !irrevocable.isRequested();
+		init(atomicBlockId, metainf);
+		this.readOnly = readOnly;
+	}
+
+	@Override
+	public void initSnapshot(int atomicBlockId, String metainf){
+		init(atomicBlockId, metainf);
+		this.snapshot = true;
 	}
 	
 	@Override
 	public boolean commit(){
 		try
 		{
-			if (writeSet.isEmpty()) // if the writeSet is empty no need to lock a thing. 
+			if (writeSet.isEmpty() && deltas.isEmpty()) // if the writeSet is empty no need to lock a thing. 
 				return true;
 
-			try
-			{
-				// pre commit validation phase
-				writeSet.forEach(lockProcedure);
-				readSet.checkClock(localClock, locksMarker);
-			}
-			catch( TransactionException exception){
-				lockProcedure.unlockAll();
+			if( !lockAndValidate()){
+				clock.onAbort();
 				return false;
 			}
 
 			// commit new values and release locks
 			writeSet.forEach(putProcedure);
-			lockProcedure.setAndUnlockAll();
+			deltas.apply();
+			lockProcedure.setAndUnlockAll( clock.tick( localClock));
+			deltas.clear(); // applied, e.g. for an enclosing transaction reusing the context
 			return true;
 		}
 		finally{
-			if(irrevocableState){
-				irrevocableState = false;
-				irrevocableAccessLock.writeLock().unlock();
-			}
-			else{
-				irrevocableAccessLock.readLock().unlock();
-			}
-			
+			readAccess.clear();
+			irrevocable.commit();
 		}
 	}
 	
 	@Override
 	public void rollback(){
-		irrevocableAccessLock.readLock().unlock();
+		readAccess.clear();
+		clock.onAbort();
+		irrevocable.rollback();
 	}
 
 	private WriteFieldAccess onReadAccess0( Object obj, long field){
 
-		ReadFieldAccess current = currentReadFieldAccess;
+		ReadFieldAccess current = readAccess;
 		int hash = current.hashCode();
 
 		// Check the read is still valid
 		LockTable.checkLock(hash, localClock, lastReadLock);
+		if( readOnly)
+			return null;
 
 		// Check if it is already included in the write set
 		return writeSet.contains( current);
 	}
 
 	private void addWriteAccess0( WriteFieldAccess write){
+		if( readOnly){
+			updateBlocks.insert(atomicBlockId, true); // next attempts as update transactions
+			throw READ_ONLY_FAILURE_EXCEPTION;
+		}
 
 		// Add to write set
 		writeSet.put( write);
 	}
+
+	@Override
+	public void onIncrement(Object obj, long field, long delta){
+		if( readOnly){
+			updateBlocks.insert(atomicBlockId, true); // next attempts as update transactions
+			throw READ_ONLY_FAILURE_EXCEPTION;
+		}
+		deltas.add(obj, field, delta);
+	}
+
+	@Override
+	public long getIncrement(Object obj, long field){
+		return deltas.get(obj, field);
+	}
 	
 	@Override
 	public void beforeReadAccess(Object obj, long field) {
 		
-		ReadFieldAccess next = readSet.getNext();
-		currentReadFieldAccess = next;
+		ReadFieldAccess next = readAccess;
 		next.init(obj, field);
+		int hash = next.hashCode();
 
 		// Check the read is still valid
-		lastReadLock = LockTable.checkLock(next.hashCode(), localClock);
+		try{
+			lastReadLock = LockTable.checkLock(hash, localClock);
+		}
+		catch( TransactionException e){
+			// A snapshot transaction has no read set to extend, a read-only one gets one
+			// on its next attempt
+			if( !EXTEND || snapshot)
+				throw e;
+			if( readOnly){
+				updateBlocks.insert(atomicBlockId, true);
+				throw e;
+			}
+			if( !extend( hash))
+				throw e;
+			lastReadLock = LockTable.checkLock(hash, localClock);
+		}
+		if( !readOnly && !snapshot)
+			readSet.add( hash);
 	}
 	
 	@Override
@@ -379,13 +463,122 @@ final public class Context implements org.deuce.transaction.Context{
 	}
 	final private Pool<DoubleWriteFieldAccess> doublePool = new Pool<DoubleWriteFieldAccess>( new DoubleResourceFactory());
 	
+	/**
+	 * Moves the snapshot forward if the location was written since the transaction
+	 * started and the locations read so far are unchanged.
+	 * @return <code>true</code> if the snapshot moved.
+	 */
+	private boolean extend( int hash){
+		int version = LockTable.getVersion( hash);
+		if( version <= localClock) // not newer, or locked
+			return false;
+		// The clock might lag behind the version (see GlobalClock)
+		int now = clock.advance( version);
+		if( !readSet.validate( localClock))
+			return false;
+		localClock = now;
+		return true;
+	}
+
+	@Override
+	public void requestIrrevocable() {
+		irrevocable.request();
+	}
+
+	@Override
+	public void cancelIrrevocable() {
+		irrevocable.cancel();
+	}
+
 	@Override
 	public void onIrrevocableAccess() {
-		if(irrevocableState) // already in irrevocable state so no need to restart transaction.
+		if(irrevocable.isIrrevocable()) // already in irrevocable state so no need to restart transaction.
 			return;
 		
-		irrevocableState = true;
-		throw TransactionException.STATIC_TRANSACTION;
+		// A read-only transaction has no read set to validate
+		if(readOnly || !irrevocable.upgrade() || !flush())
+			throw irrevocable.restart();
+		irrevocable.onUpgrade();
+	}
+	
+	/**
+	 * Locks the write set and the increments, and validates the read set, or under
+	 * snapshot isolation the versions of the write set locks.
+	 * @return <code>false</code> if the validation failed, the locks are released.
+	 */
+	private boolean lockAndValidate(){
+		try
+		{
+			writeSet.forEach(lockProcedure);
+			if( snapshot)
+				lockProcedure.checkClock(localClock);
+			for( int i = 0; i < deltas.size(); i++)
+				lockProcedure.lock(LockTable.hash(deltas.getReference(i), deltas.getField(i)), DeltaLog.WAITS);
+			if( !snapshot)
+				readSet.checkClock(localClock, locksMarker);
+			return true;
+		}
+		catch( TransactionException exception){
+			lockProcedure.unlockAll();
+			return false;
+		}
+	}
+
+	/**
+	 * Commits what the transaction did so far, must run alone. The transaction then goes on
+	 * from the current time with empty read and write sets.
+	 * @return <code>false</code> if the read set is no longer valid.
+	 */
+	private boolean flush(){
+		if( !lockAndValidate())
+			return false;
+		
+		int version = localClock;
+		if( !writeSet.isEmpty() || !deltas.isEmpty()){
+			writeSet.forEach(putProcedure);
+			deltas.apply();
+			version = clock.tick( localClock);
+			lockProcedure.setAndUnlockAll( version);
+		}
+		this.readSet.clear();
+		this.writeSet.clear();
+		this.deltas.clear();
+		this.localClock = clock.advance( version);
+		return true;
+	}
+
+	@Override
+	public long getFootprint(){
+		// Each pooled write holds reference, field, hash and the value
+		int fields = Capacity.REFERENCE + 8 + 4;
+		long pools = objectPool.getFootprint(fields + Capacity.REFERENCE) +
+			booleanPool.getFootprint(fields + 1) + bytePool.getFootprint(fields + 1) +
+			charPool.getFootprint(fields + 2) + shortPool.getFootprint(fields + 2) +
+			intPool.getFootprint(fields + 4) + longPool.getFootprint(fields + 8) +
+			floatPool.getFootprint(fields + 4) + doublePool.getFootprint(fields + 8);
+		return readSet.getFootprint() + writeSet.getFootprint() + deltas.getFootprint() + pools + locksMarker.length;
+	}
+
+	@Override
+	public int getReadSetSize(){
+		return readSet.size();
+	}
+
+	@Override
+	public int getWriteSetSize(){
+		return writeSet.size() + deltas.size();
+	}
+
+	public long getFilterLookups(){
+		return writeSet.getLookups();
+	}
+
+	public long getFilterPasses(){
+		return writeSet.getPasses();
+	}
+
+	public long getFilterFalsePositives(){
+		return writeSet.getFalsePositives();
 	}
 	
 }
@@ -1,5 +1,6 @@
 package org.deuce.transaction.tl2;
 
+import org.deuce.transaction.TransactionException;
 import org.deuce.transaction.tl2.field.WriteFieldAccess;
 import org.deuce.trove.TIntArrayList;
 import org.deuce.trove.TIntProcedure;
@@ -38,8 +39,8 @@ public class LockProcedure implements TObjectProcedure<WriteFieldAccess>{
 				return true;
 			}
 			
-			public void retrieveNewClock(){
-				this.newClock = Context.clock.incrementAndGet();
+			public void setNewClock(int newClock){
+				this.newClock = newClock;
 			}
 		}
 		
@@ -58,13 +59,43 @@ public class LockProcedure implements TObjectProcedure<WriteFieldAccess>{
 			return true;
 		}
 		
+		/**
+		 * Checks that the locations locked weren't written since <code>clock</code>, the
+		 * write-write conflicts of a snapshot isolation transaction.
+		 * @throws TransactionException if one was.
+		 */
+		public void checkClock(int clock){
+			for( int i = 0; i < lockSet.size(); i++)
+				LockTable.checkLock( lockSet.getQuick(i), clock, locksMarker);
+		}
+		
+		/**
+		 * Locks the location of an increment, waits while another transaction holds its
+		 * lock, up to <code>waits</code> yields.
+		 * @throws TransactionException if the lock is still held.
+		 */
+		public void lock(int hash, int waits){
+			for( int i = 0; ; i++){
+				try{
+					if( LockTable.lock( hash, locksMarker))
+						lockSet.add( hash);
+					return;
+				}
+				catch( TransactionException exception){
+					if( i == waits)
+						throw exception;
+					Thread.yield();
+				}
+			}
+		}
+		
 		public void unlockAll(){
 			lockSet.forEach(unlockProcedure);
 			lockSet.resetQuick();
 		}
 		
-		public void setAndUnlockAll(){
-			setAndUnlockProcedure.retrieveNewClock();
+		public void setAndUnlockAll(int newClock){
+			setAndUnlockProcedure.setNewClock(newClock);
 			lockSet.forEach(setAndUnlockProcedure);
 			lockSet.resetQuick();
 		}
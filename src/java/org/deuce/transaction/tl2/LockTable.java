@@ -3,22 +3,45 @@ package org.deuce.transaction.tl2;
 import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import org.deuce.transaction.TransactionException;
+import org.deuce.transaction.util.LockTableLayout;
 import org.deuce.transform.Exclude;
 
+/**
+ * The versioned locks of TL2, a lock word holds the version of the locations it covers
+ * and the lock bit.
+ * <p>
+ * Memory ordering: a committing transaction takes its locks with a CAS, a full fence,
+ * writes its values back with plain stores, advances the global clock while it holds the
+ * locks, then releases each lock with an ordered store ({@link AtomicIntegerArray#lazySet})
+ * of the new version. An ordered store isn't reordered with the stores before it, hence a
+ * reader seeing the new version also sees the new values. It lacks the StoreLoad fence of
+ * a volatile store, which the protocol doesn't need: the committing thread doesn't wait on
+ * anything the other threads do once they see the lock free. Readers load the lock with
+ * volatile loads before and after the value. A failed commit puts the old version back
+ * the same way, there is nothing to publish with it.
+ */
 @Exclude
 public class LockTable {
 
 	// Failure transaction 
 	final private static TransactionException FAILURE_EXCEPTION = new TransactionException( "Faild on lock.");
-	final public static int LOCKS_SIZE = 1<<20; // amount of locks - TODO add system property
-	final public static int MASK = 0xFFFFF;
+	final private static LockTableLayout LAYOUT = new LockTableLayout( 4);
+	final public static int LOCKS_SIZE = LAYOUT.size(); // amount of locks
+	final public static int MASK = LAYOUT.mask();
 	final private static int LOCK = 1 << 31;
 	final private static int UNLOCK = ~LOCK;
 	
 	final static private int MODULE_8 = 7; //Used for %8
 	final static private int DIVIDE_8 = 3; //Used for /8
 
-	final private static AtomicIntegerArray locks =  new AtomicIntegerArray(LOCKS_SIZE); // array of 2^20 entries of 32-bit lock words
+	final private static AtomicIntegerArray locks =  new AtomicIntegerArray(LAYOUT.arrayLength()); // array of 32-bit lock words
+
+	/**
+	 * Hashes the location to a lock index.
+	 */
+	public static int hash( Object obj, long field){
+		return LAYOUT.hash(obj, field);
+	}
 
 	/**
 	 * 
@@ -26,7 +49,8 @@ public class LockTable {
 	 * @throws TransactionException incase the lock is hold by other thread.
 	 */
 	public static boolean lock( int lockIndex, byte[] contextLocks) throws TransactionException{
-		final int lock = locks.get(lockIndex); 
+		final int slot = LAYOUT.slot(lockIndex);
+		final int lock = locks.get(slot); 
 		final int selfLockIndex = lockIndex>>>DIVIDE_8;
 		final byte selfLockByte = contextLocks[selfLockIndex];
 		final byte selfLockBit = (byte)(1 << (lockIndex & MODULE_8));
@@ -37,7 +61,7 @@ public class LockTable {
 			throw FAILURE_EXCEPTION; 
 		}
 
-		boolean isLocked = locks.compareAndSet(lockIndex, lock, lock | LOCK);
+		boolean isLocked = locks.compareAndSet(slot, lock, lock | LOCK);
 		
 		if( !isLocked)
 			throw FAILURE_EXCEPTION;
@@ -47,7 +71,7 @@ public class LockTable {
 	}
 
 	public static int checkLock(int lockIndex, int clock) {
-		int lock = locks.get(lockIndex);
+		int lock = locks.get(LAYOUT.slot(lockIndex));
 
 		if( clock < (lock & UNLOCK)|| (lock & LOCK) != 0)
 			throw FAILURE_EXCEPTION;
@@ -56,7 +80,7 @@ public class LockTable {
 	}
 	
 	public static int checkLock(int lockIndex, int clock, byte[] contextLocks) {
-		int lock = locks.get(lockIndex);
+		int lock = locks.get(LAYOUT.slot(lockIndex));
 
 		if( clock < (lock & UNLOCK))
 			throw FAILURE_EXCEPTION;	
@@ -73,27 +97,40 @@ public class LockTable {
 	}
 	
 
+	/**
+	 * @return the version of the lock, -1 if it is locked.
+	 */
+	public static int getVersion(int lockIndex) {
+		int lock = locks.get(LAYOUT.slot(lockIndex));
+		return (lock & LOCK) != 0 ? -1 : lock;
+	}
+
 	public static void checkLock(int lockIndex, int clock, int expected) {
-		int lock = locks.get(lockIndex);
+		int lock = locks.get(LAYOUT.slot(lockIndex));
 		
 		if( lock != expected || clock < (lock & UNLOCK) || (lock & LOCK) != 0)
 			throw FAILURE_EXCEPTION;
 	}
 
 	public static void unLock( int lockIndex, byte[] contextLocks){
-		int lockedValue = locks.get( lockIndex);
+		int slot = LAYOUT.slot(lockIndex);
+		int lockedValue = locks.get( slot);
 		int unlockedValue = lockedValue & UNLOCK;
-		locks.set(lockIndex, unlockedValue);
+		locks.lazySet(slot, unlockedValue);
 		
 		clearSelfLock(lockIndex, contextLocks);
 	}
 
 	public static void setAndReleaseLock( int hash, int newClock, byte[] contextLocks){
 		int lockIndex = hash & MASK;
-		locks.set(lockIndex, newClock);
+		locks.lazySet(LAYOUT.slot(lockIndex), newClock); // after the write-back
 		clearSelfLock( lockIndex, contextLocks);
 	}
 	
+	public static LockTableLayout getLayout(){
+		return LAYOUT;
+	}
+
 	/**
 	* Clears lock marker from self locking array
 	*/
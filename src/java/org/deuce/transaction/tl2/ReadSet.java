@@ -1,11 +1,23 @@
 package org.deuce.transaction.tl2;
 
+import java.util.Arrays;
+
 import org.deuce.transaction.tl2.field.ReadFieldAccess;
+import org.deuce.transaction.util.Capacity;
 import org.deuce.transform.Exclude;
 
 /**
  * Represents the transaction read set.
- * And acts as a recycle pool of the {@link ReadFieldAccess}.
+ * <p>
+ * Validation only needs the lock of each read, so the read set is an array of lock indexes
+ * and keeps no reference to the objects read. A read of a lock read shortly before is
+ * mostly not logged again: the last lock indexes logged are kept in a small direct mapped
+ * table, whose entries are stamped with the transaction so it is never cleared. The
+ * memory and the commit time validation thus follow the distinct locks rather than the
+ * reads, as long as the repeated reads are not too far apart.
+ * <p>
+ * The duplicates are logged anyway with
+ * <code>-Dorg.deuce.transaction.tl2.dedupReads=false</code>.
  *  
  * @author Guy Korland
  * @since 0.7
@@ -13,39 +25,89 @@ import org.deuce.transform.Exclude;
 @Exclude
 public class ReadSet{
 	
+	final private static boolean DEDUP = !"false".equals(System.getProperty("org.deuce.transaction.tl2.dedupReads"));
+
 	private static final int DEFAULT_CAPACITY = 1024;
-	private ReadFieldAccess[] readSet = new ReadFieldAccess[DEFAULT_CAPACITY];
-	private int nextAvaliable = 0;
+	private static final int RECENT_BITS = 8; // 256 entries in the duplicates table
+	private static final int RECENT_SIZE = 1 << RECENT_BITS;
+
+	private int[] locks = new int[DEFAULT_CAPACITY];
+	private int size = 0;
+	final private Capacity capacity = new Capacity(DEFAULT_CAPACITY);
+
+	// Transaction stamp in the high int, lock index in the low int
+	final private long[] recent = DEDUP ? new long[RECENT_SIZE] : null;
+	private long stamp = 1L << 32;
 	
-	public ReadSet(){
-		fillArray( 0);
+	/**
+	 * Clears the read set and sizes it for the atomic block about to run.
+	 */
+	public void init(int atomicBlockId){
+		clear();
+		int expected = capacity.predict(atomicBlockId);
+		if( expected > locks.length)
+			locks = Arrays.copyOf(locks, Capacity.grow(locks.length, expected));
 	}
 	
 	public void clear(){
-		nextAvaliable = 0;
+		int fit = capacity.fit(size, locks.length);
+		if( fit < locks.length)
+			locks = new int[fit];
+		size = 0;
+		stamp += 1L << 32; // forget the recent locks
+		if( stamp == 0 && DEDUP){
+			// The stamps wrapped around, the old entries must not match again
+			Arrays.fill(recent, 0);
+			stamp = 1L << 32;
+		}
 	}
 
-	private void fillArray( int offset){
-		for( int i=offset ; i < readSet.length ; ++i){
-			readSet[i] = new ReadFieldAccess();
+	/**
+	 * Logs the lock of a read.
+	 */
+	public void add( int lockIndex){
+		if( DEDUP){
+			long key = stamp | lockIndex;
+			int slot = (lockIndex * 0x9E3779B9) >>> (32 - RECENT_BITS);
+			if( recent[slot] == key)
+				return;
+			recent[slot] = key;
 		}
+		if( size >= locks.length)
+			locks = Arrays.copyOf(locks, locks.length << 1);
+		locks[size++] = lockIndex;
 	}
 
-	public ReadFieldAccess getNext(){
-		if( nextAvaliable >= readSet.length){
-			int orignLength = readSet.length;
-			ReadFieldAccess[] tmpReadSet = new ReadFieldAccess[ 2*orignLength];
-			System.arraycopy(readSet, 0, tmpReadSet, 0, orignLength);
-			readSet = tmpReadSet;
-			fillArray( orignLength);
-		}
-		return readSet[ nextAvaliable++];
+	/**
+	 * @return amount of locks logged.
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * @return the approximate bytes held.
+	 */
+	public long getFootprint(){
+		return Capacity.arrayBytes(locks.length, 4) +
+				(DEDUP ? Capacity.arrayBytes(RECENT_SIZE, 8) : 0);
 	}
 	
+    /**
+     * @return <code>true</code> if no lock read is locked or newer than <code>clock</code>.
+     */
+    public boolean validate(int clock) {
+        for (int i = 0; i < size; i++) {
+        	int version = LockTable.getVersion( locks[i]);
+        	if( version < 0 || version > clock)
+        		return false;
+        }
+        return true;
+    }
+
     public void checkClock(int clock, byte[] contextLocks) {
-        for (int i = 0; i < nextAvaliable; i++) {
-        	LockTable.checkLock( readSet[i].hashCode(), clock, contextLocks);
-        	readSet[i].clear();
+        for (int i = 0; i < size; i++) {
+        	LockTable.checkLock( locks[i], clock, contextLocks);
         }
     }
     
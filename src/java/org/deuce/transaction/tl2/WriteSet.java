@@ -1,14 +1,21 @@
 package org.deuce.transaction.tl2;
 
 
+import java.util.Arrays;
+
 import org.deuce.transaction.tl2.field.ReadFieldAccess;
 import org.deuce.transaction.tl2.field.WriteFieldAccess;
+import org.deuce.transaction.util.Capacity;
 import org.deuce.transform.Exclude;
-import org.deuce.trove.THashSet;
 import org.deuce.trove.TObjectProcedure;
 
 /**
  * Represents the transaction write set.
+ * <p>
+ * The entries are kept in the order written, and found through an open addressing index
+ * (entry + 1, 0 for empty slot), which is cleared in the time of the entries used, not
+ * of its capacity. A {@link BloomFilter} of the entries rules out most of the fields read
+ * but not written before the index is probed.
  *  
  * @author Guy Korland
  * @since 0.7
@@ -16,33 +23,156 @@ import org.deuce.trove.TObjectProcedure;
 @Exclude
 public class WriteSet{
 	
-	final private THashSet<WriteFieldAccess> writeSet = new THashSet<WriteFieldAccess>( 16);
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private WriteFieldAccess[] entries = new WriteFieldAccess[DEFAULT_CAPACITY];
+	private int[] slots = new int[DEFAULT_CAPACITY]; // position of each entry in the index
+	private int size = 0;
+	// Kept at most half full
+	private int[] index = new int[DEFAULT_CAPACITY << 1];
+	final private Capacity capacity = new Capacity(DEFAULT_CAPACITY);
+	final private BloomFilter filter = new BloomFilter(DEFAULT_CAPACITY);
+
+	private long lookups;
+	private long passes;
+	private long falsePositives;
 	
+	/**
+	 * Clears the write set and sizes it for the atomic block about to run.
+	 */
+	public void init(int atomicBlockId){
+		clear();
+		int expected = capacity.predict(atomicBlockId);
+		if( expected > entries.length)
+			resize( Capacity.grow(entries.length, expected));
+	}
+
 	public void clear() {
-		writeSet.clear();
+		for( int i=0 ; i<size ; ++i){
+			index[slots[i]] = 0;
+			filter.clear( entries[i].hashCode());
+			entries[i] = null;
+		}
+		int fit = capacity.fit(size, entries.length);
+		size = 0;
+		if( fit < entries.length){
+			entries = new WriteFieldAccess[fit];
+			slots = new int[fit];
+			index = new int[fit << 1];
+			filter.resize( fit);
+		}
 	}
 
 	public boolean isEmpty() {
-		return writeSet.isEmpty();
+		return size == 0;
 	}
 
 	public boolean forEach(TObjectProcedure<WriteFieldAccess> procedure){
-		return writeSet.forEach(procedure);
+		for( int i=0 ; i<size ; ++i){
+			if( !procedure.execute(entries[i]))
+				return false;
+		}
+		return true;
 	}
 	
+	private int slot( int hash){
+		return (hash * 0x9E3779B9) & (index.length - 1);
+	}
+
 	public void put(WriteFieldAccess write) {
-		// Add to write set
-		if(!writeSet.add( write))
-			writeSet.replace(write);
+		// Add to write set, or replace the previous write of the field
+		int mask = index.length - 1;
+		int i = slot( write.hashCode());
+		int e;
+		while( (e = index[i]) != 0){
+			if( entries[e - 1].equals( write)){
+				entries[e - 1] = write;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+
+		if( size >= entries.length){
+			resize( entries.length << 1);
+			put( write);
+			return;
+		}
+		entries[size] = write;
+		slots[size] = i;
+		index[i] = ++size;
+		filter.add( write.hashCode());
 	}
 	
 	public WriteFieldAccess contains(ReadFieldAccess read) {
 		// Check if it is already included in the write set
-		return writeSet.get( read);
+		if( size == 0)
+			return null;
+		int hash = read.hashCode();
+		++lookups;
+		if( !filter.contains( hash))
+			return null;
+		++passes;
+		int mask = index.length - 1;
+		int i = slot( hash);
+		int e;
+		while( (e = index[i]) != 0){
+			WriteFieldAccess write = entries[e - 1];
+			if( write.equals( read))
+				return write;
+			i = (i + 1) & mask;
+		}
+		++falsePositives;
+		return null;
+	}
+
+	private void resize( int length){
+		entries = Arrays.copyOf(entries, length);
+		slots = Arrays.copyOf(slots, length);
+		index = new int[length << 1];
+		filter.resize( length);
+		int mask = index.length - 1;
+		for( int e=0 ; e<size ; ++e){
+			int i = slot( entries[e].hashCode());
+			while( index[i] != 0)
+				i = (i + 1) & mask;
+			index[i] = e + 1;
+			slots[e] = i;
+			filter.add( entries[e].hashCode());
+		}
 	}
 	
 	public int size() {
-		return writeSet.size();
+		return size;
+	}
+
+	/**
+	 * @return the approximate bytes held by the write set, not counting the entries.
+	 */
+	public long getFootprint(){
+		return Capacity.arrayBytes(entries.length, Capacity.REFERENCE) +
+				Capacity.arrayBytes(slots.length, 4) + Capacity.arrayBytes(index.length, 4) +
+				filter.getFootprint();
+	}
+
+	/**
+	 * @return amount of reads checked against a non empty write set.
+	 */
+	public long getLookups(){
+		return lookups;
+	}
+
+	/**
+	 * @return amount of lookups the filter let through to the index.
+	 */
+	public long getPasses(){
+		return passes;
+	}
+
+	/**
+	 * @return amount of passes whose field was not written.
+	 */
+	public long getFalsePositives(){
+		return falsePositives;
 	}
 	
 }
@@ -22,7 +22,7 @@ public class ReadFieldAccess{
 	public void init( Object reference, long field){
 		this.reference = reference;
 		this.field = field;
-		this.hash = (System.identityHashCode( reference) + (int)field) & LockTable.MASK;
+		this.hash = LockTable.hash(reference, field);
 	}
 
 	@Override
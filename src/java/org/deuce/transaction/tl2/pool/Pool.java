@@ -1,6 +1,9 @@
 package org.deuce.transaction.tl2.pool;
 
+import java.util.Arrays;
+
 import org.deuce.transaction.tl2.field.ReadFieldAccess;
+import org.deuce.transaction.util.Capacity;
 import org.deuce.transform.Exclude;
 
 /**
@@ -13,34 +16,58 @@ import org.deuce.transform.Exclude;
 @Exclude
 final public class Pool<T>{
 	
-	private static final int DEFAULT_CAPACITY = 1024;
+	// Sized up front for the atomic block, so it can start small and double
+	private static final int DEFAULT_CAPACITY = 64;
 	private T[] pool = (T[]) new Object[DEFAULT_CAPACITY];
 	private int nextAvaliable = 0;
 	final private ResourceFactory<T> factory;
+	final private Capacity capacity = new Capacity(DEFAULT_CAPACITY);
 	
 	public Pool(ResourceFactory<T> factory){
 		this.factory = factory;
 		fillArray( 0);
 	}
 	
+	/**
+	 * Recycles all the resources and sizes the pool for the atomic block about to run.
+	 */
+	public void init(int atomicBlockId){
+		clear();
+		int expected = capacity.predict(atomicBlockId);
+		if( expected > pool.length)
+			resize( Capacity.grow(pool.length, expected));
+	}
+	
 	public void clear(){
+		int fit = capacity.fit(nextAvaliable, pool.length);
+		if( fit < pool.length)
+			pool = Arrays.copyOf(pool, fit);
 		nextAvaliable = 0;
 	}
 
 	private void fillArray( int offset){
-		for( int i=offset ; i < DEFAULT_CAPACITY + offset ; ++i){
+		for( int i=offset ; i < pool.length ; ++i){
 			pool[i] = factory.newInstance();
 		}
 	}
 
+	private void resize( int length){
+		int orignLength = pool.length;
+		pool = Arrays.copyOf(pool, length);
+		fillArray( orignLength);
+	}
+
 	public T getNext(){
-		if( nextAvaliable >= pool.length){
-			int orignLength = pool.length;
-			T[] newPool = (T[]) new Object[ orignLength + DEFAULT_CAPACITY];
-			System.arraycopy(pool, 0, newPool, 0, pool.length);
-			pool = newPool;
-			fillArray( orignLength);
-		}
+		if( nextAvaliable >= pool.length)
+			resize( 2*pool.length);
 		return pool[ nextAvaliable++];
 	}
+
+	/**
+	 * @param fieldBytes the bytes of the fields of a resource.
+	 * @return the approximate bytes held, the recycled resources included.
+	 */
+	public long getFootprint(int fieldBytes){
+		return Capacity.arrayBytes(pool.length, Capacity.REFERENCE) + pool.length * Capacity.objectBytes(fieldBytes);
+	}
 }
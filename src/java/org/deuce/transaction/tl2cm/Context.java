@@ -1,9 +1,16 @@
 package org.deuce.transaction.tl2cm;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.deuce.transaction.CommutativeContext;
+import org.deuce.transaction.IrrevocableContext;
+import org.deuce.transaction.FilteredWriteSet;
+import org.deuce.transaction.MemoryFootprint;
+import org.deuce.transaction.SetSizes;
+import org.deuce.transaction.ThreadBoundContext;
 import org.deuce.transaction.TransactionException;
 import org.deuce.transaction.tl2.pool.Pool;
 import org.deuce.transaction.tl2.pool.ResourceFactory;
@@ -21,6 +28,11 @@ import org.deuce.transaction.tl2cm.field.ObjectWriteFieldAccess;
 import org.deuce.transaction.tl2cm.field.ReadFieldAccess;
 import org.deuce.transaction.tl2cm.field.ShortWriteFieldAccess;
 import org.deuce.transaction.tl2cm.field.WriteFieldAccess;
+import org.deuce.transaction.util.BooleanArrayList;
+import org.deuce.transaction.util.Capacity;
+import org.deuce.transaction.util.DeltaLog;
+import org.deuce.transaction.util.Irrevocability;
+import org.deuce.transaction.util.OwnerRegistry;
 import org.deuce.transform.Exclude;
 import org.deuce.trove.TObjectProcedure;
 
@@ -31,32 +43,43 @@ import org.deuce.trove.TObjectProcedure;
  * 
  * Based on Guy Korland's and Pascal Felber's work on <code>org.deuce.transaction.tl2.*</code> 
  * and <code>org.deuce.transaction.lsa*</code>
+ * 
+ * The increments (see {@link CommutativeContext}) join the write set on commit, their locks
+ * go through the Contention Manager, and they are not validated.
  * @author Yoav Cohen, yoav.cohen@cs.tau.ac.il
  */
 @Exclude
-final public class Context implements org.deuce.transaction.Context {
+final public class Context implements org.deuce.transaction.ReadOnlyContext, CommutativeContext, IrrevocableContext,
+		MemoryFootprint, SetSizes, ThreadBoundContext, FilteredWriteSet {
 
 	// Static members - shared by all threads
 	public static final int TX_RUNNING = 0;
 	public static final int TX_COMMITTED = 1;
 	public static final int TX_ABORTED = 2;
 	public static final TransactionException FAILURE_EXCEPTION = new TransactionException("Transaction failed");
+	public static final TransactionException READ_ONLY_FAILURE_EXCEPTION = new TransactionException("Fail on write (read-only transaction)");
 
 	private static final AtomicInteger globalClock = new AtomicInteger(0);
-	private static final AtomicInteger threadIdCounter = new AtomicInteger(1);
-	private static final Context[] threads = new Context[256];
+	// Thread ids are recycled once their threads terminated
+	private static final OwnerRegistry<Context> threads = new OwnerRegistry<Context>(LockTable.MAX_OWNER);
+
+	// The longs of the padded record, read and updated by the other threads
+	private static final int STATUS_RECORD = 0;
+	private static final int KARMA = 1;
+	private static final int KILL_KARMA = 2;
 	
-	//Global lock used to allow only one irrevocable transaction solely. 
-	final private static ReentrantReadWriteLock irrevocableAccessLock = new ReentrantReadWriteLock();
-	private boolean irrevocableState = false;
+	//Used to allow only one irrevocable transaction solely. 
+	final private Irrevocability irrevocable = new Irrevocability();
 	
 	// Instance members - specific to each thread
 	private final ContentionManager cm = Factory.createContentionManager();
 	private final ReadSet readSet = new ReadSet();
 	private final WriteSet writeSet = new WriteSet();
-	private final AtomicInteger statusRecord = new AtomicInteger(0);
-	private final AtomicInteger karma = new AtomicInteger(0);
-	private final AtomicInteger killKarma = new AtomicInteger(0);
+	private final DeltaLog deltas = new DeltaLog();
+	// The write set entries of the increments, valued once their locks are held
+	private final ArrayList<LongWriteFieldAccess> increments = new ArrayList<LongWriteFieldAccess>();
+	private final AtomicLongArray records;
+	private final int record;
 	private final UpdateAndUnlockProcedure updateAndUnlockProcedure = new UpdateAndUnlockProcedure();
 	private final TObjectProcedure<WriteFieldAccess> putProcedure = new TObjectProcedure<WriteFieldAccess>(){
 		@Override
@@ -72,6 +95,12 @@ final public class Context implements org.deuce.transaction.Context {
 	private int localClock;
 	private int attempts;
 	private final Statistics stats;	
+
+	// A read-only transaction validates each read against rv and logs nothing
+	private boolean readOnly;
+	// The blocks whose read-only attempt tried to write run as update transactions
+	private final BooleanArrayList updateBlocks = new BooleanArrayList();
+	private final ReadFieldAccess readOnlyAccess = new ReadFieldAccess();
 	
 	// Static initialization
 	static {
@@ -86,55 +115,77 @@ final public class Context implements org.deuce.transaction.Context {
 	}
 	
 	public Context() {
-		threadId = threadIdCounter.getAndIncrement();
-		int maxThreads = (int) Math.pow(2, LockTable.OWNERSIZE);
-		if (threadId > maxThreads) {
-			System.err.println("Too many threads in the system. Max number of threads allowed is " + maxThreads);
-			System.exit(1);
-		}
-		stats = new Statistics(threadId);
+		threadId = threads.register(this);
+		records = threads.records(threadId);
+		record = OwnerRegistry.recordIndex(threadId);
+		// The thread id might be recycled, start from a clean record
+		records.set(record + STATUS_RECORD, generateStatusRecord(TX_ABORTED, 0));
+		records.set(record + KARMA, 0);
+		records.set(record + KILL_KARMA, 0);
+		stats = Statistics.get(threadId);
 		this.localClock = 0;
-		threads[threadId] = this;
+	}
+
+	public void detach() {
+		threads.detach(threadId);
+	}
+
+	public void dispose() {
+		threads.release(threadId);
+	}
+
+	/**
+	 * @return the thread ids of the contexts.
+	 */
+	public static OwnerRegistry<Context> getThreads() {
+		return threads;
 	}
 	
 	public final void init(int atomicBlockId, String metainf) {
 		this.atomicBlockId = atomicBlockId;
 		this.cm.init();
-		this.readSet.clear();
-		this.writeSet.clear();
-		this.objectPool.clear();
-		this.booleanPool.clear();
-		this.bytePool.clear();
-		this.charPool.clear();
-		this.shortPool.clear();
-		this.intPool.clear();
-		this.longPool.clear();
-		this.floatPool.clear();
-		this.doublePool.clear();
+		this.readSet.init(atomicBlockId);
+		this.writeSet.init(atomicBlockId);
+		this.deltas.clear();
+		this.increments.clear();
+		this.objectPool.init(atomicBlockId);
+		this.booleanPool.init(atomicBlockId);
+		this.bytePool.init(atomicBlockId);
+		this.charPool.init(atomicBlockId);
+		this.shortPool.init(atomicBlockId);
+		this.intPool.init(atomicBlockId);
+		this.longPool.init(atomicBlockId);
+		this.floatPool.init(atomicBlockId);
+		this.doublePool.init(atomicBlockId);
 		
 		//Lock according to the transaction irrevocable state
-		if(irrevocableState)
-			irrevocableAccessLock.writeLock().lock();
-		else
-			irrevocableAccessLock.readLock().lock();
+		irrevocable.begin();
 		
 		this.rv = globalClock.get();
 		this.attempts++;
 		
 		// Reset localClock if max value reached
-		if (localClock < (1 << LockTable.OWNERCLOCK_SIZE)) {
+		if (localClock < (1 << LockTable.OWNERCLOCK_SIZE) - 1) {
 			this.localClock++;
 		}
 		else {
 			this.localClock = 0;
 		}
 		int statusRecord = generateStatusRecord(TX_RUNNING, localClock);
-		this.statusRecord.set(statusRecord);
+		records.set(record + STATUS_RECORD, statusRecord);
 		this.stats.reportTxStart();
+		this.readOnly = false;
+	}
+
+	public final void initReadOnly(int atomicBlockId, String metainf) {
+		boolean readOnly = !updateBlocks.get(atomicBlockId) && !irrevocable.isRequested();
+		init(atomicBlockId, metainf);
+		this.readOnly = readOnly;
 	}
 
 	public final boolean commit() {
 		try{
+			addIncrements();
 			this.stats.reportOnCommit(readSet.size(), writeSet.size());
 			// Read-only transactions don't have to do anything in order to commit
 			if (writeSet.isEmpty()) {
@@ -146,12 +197,13 @@ final public class Context implements org.deuce.transaction.Context {
 			// Writing transactions have to go through a different algorithm
 			int lockedCounter = lockWriteSet();
 			if (lockedCounter == writeSet.size()) {
-				boolean readSetValidated = readSet.validate(rv);
+				boolean readSetValidated = readSet.validate(rv, threadId);
 				if (readSetValidated) {
 					int expectedStatusRecord = generateStatusRecord(TX_RUNNING, localClock);
 					int newStatusRecord = generateStatusRecord(TX_COMMITTED, localClock);
-					boolean committed = statusRecord.compareAndSet(expectedStatusRecord, newStatusRecord);
+					boolean committed = records.compareAndSet(record + STATUS_RECORD, expectedStatusRecord, newStatusRecord);
 					if (committed) {
+						setIncrements();
 						// Get a new version number
 						int newClock = globalClock.incrementAndGet();
 
@@ -180,30 +232,51 @@ final public class Context implements org.deuce.transaction.Context {
 			}
 
 			// Commit did not succeed, roll-back all the changes
-			Iterator<WriteFieldAccess> iter = writeSet.iterator();
-			while (lockedCounter > 0) {
-				WriteFieldAccess field = iter.next();
-				int hash = field.hashCode();
-				LockTable.unLock(hash, threadId);
-				lockedCounter--;
-			}
+			unlockWriteSet(lockedCounter);
 			return false;
 
 		}
 		finally{
-			if(irrevocableState){
-				irrevocableState = false;
-				irrevocableAccessLock.writeLock().unlock();
-			}
-			else{
-				irrevocableAccessLock.readLock().unlock();
-			}
-
+			irrevocable.commit();
 		}
 	}
 
 	public final void rollback() {
-		irrevocableAccessLock.readLock().unlock();
+		irrevocable.rollback();
+	}
+
+	/**
+	 * Adds an entry to the write set for each increment, its value is set by
+	 * {@link #setIncrements()}.
+	 */
+	private final void addIncrements() {
+		for (int i = 0; i < deltas.size(); i++) {
+			LongWriteFieldAccess next = longPool.getNext();
+			next.set(0, deltas.getReference(i), deltas.getField(i));
+			writeSet.put(next);
+			increments.add(next);
+		}
+	}
+
+	/**
+	 * Sets the values of the increments, once the write set is locked and the transaction
+	 * can no longer be killed.
+	 */
+	private final void setIncrements() {
+		for (int i = 0; i < increments.size(); i++)
+			increments.get(i).set(deltas.getValue(i), deltas.getReference(i), deltas.getField(i));
+		increments.clear();
+		deltas.clear();
+	}
+
+	private final void unlockWriteSet(int lockedCounter) {
+		Iterator<WriteFieldAccess> iter = writeSet.iterator();
+		while (lockedCounter > 0) {
+			WriteFieldAccess field = iter.next();
+			int hash = field.hashCode();
+			LockTable.unLock(hash, threadId);
+			lockedCounter--;
+		}
 	}
 	
 	public final boolean kill(int clockValue) {
@@ -211,13 +284,13 @@ final public class Context implements org.deuce.transaction.Context {
 			// The transaction killed itself. No need to CAS - if someone else killed
 			// me before I can just override the variable
 			int newStatusRecord = generateStatusRecord(TX_ABORTED, 0);
-			statusRecord.set(newStatusRecord);
+			records.set(record + STATUS_RECORD, newStatusRecord);
 			return true;
 		}
 		else {
 			int expectedStatusRecord = generateStatusRecord(TX_RUNNING, clockValue);
 			int newStatusRecord = generateStatusRecord(TX_ABORTED, clockValue);
-			return statusRecord.compareAndSet(expectedStatusRecord, newStatusRecord);
+			return records.compareAndSet(record + STATUS_RECORD, expectedStatusRecord, newStatusRecord);
 		}
 	}
 	
@@ -236,19 +309,19 @@ final public class Context implements org.deuce.transaction.Context {
 	 * @return thread's priority
 	 */
 	public final int getPriority() {
-		return karma.get();
+		return (int) records.get(record + KARMA);
 	}
 
 	public final void changePriority(int delta) {
-		karma.addAndGet(delta);
+		records.addAndGet(record + KARMA, delta);
 	}
 	
 	public final int getKillPriority() {
-		return killKarma.get();
+		return (int) records.get(record + KILL_KARMA);
 	}
 
 	public final void changeKillPriority(int delta) {
-		killKarma.addAndGet(delta);
+		records.addAndGet(record + KILL_KARMA, delta);
 	}
 	
 	public final Statistics getStatistics() {
@@ -276,17 +349,16 @@ final public class Context implements org.deuce.transaction.Context {
 
 	private final void resetPriorities() {
 		if (cm.requiresPriorities()) {
-			karma.set(0);
+			records.set(record + KARMA, 0);
 		}
 		if (cm.requiresKillPriorities()) {
-			killKarma.set(0);
+			records.set(record + KILL_KARMA, 0);
 		}
 		attempts = 0;
 	}
 	
 	private final boolean isStillAlive() {
-		int statusRecord = this.statusRecord.get();
-		return getTxStatus(statusRecord) == TX_RUNNING;
+		return getTxStatus(getStatusRecord()) == TX_RUNNING;
 	}
 	
 	private final int lockWriteSet() {
@@ -309,8 +381,11 @@ final public class Context implements org.deuce.transaction.Context {
 				}
 				else if (res[0] == 1) {
 					// Lock was not acquired, but the owner of the lock is known
-					int lockOwner = LockTable.getOwner(originalLock);
-					Context otherCtx = threads[lockOwner];
+					Context otherCtx = getLockOwner(originalLock);
+					if (otherCtx == null) {
+						// The transaction which took the lock is over, it lets go of it
+						continue;
+					}
 					Action action = cm.resolveWriteConflict(writeField, this, otherCtx);
 					if (action.equals(Action.RESTART)) {
 						killedByCM = true;
@@ -331,7 +406,7 @@ final public class Context implements org.deuce.transaction.Context {
 				if (res[0] == 0 || lockedByForce){
 					lockedCounter++;
 					if (cm.requiresPriorities()) {
-						karma.addAndGet(10);
+						changePriority(10);
 					}
 					break;	// continue to next lock
 				}
@@ -342,14 +417,18 @@ final public class Context implements org.deuce.transaction.Context {
 
 	
 	private final WriteFieldAccess onReadAccess0(Object obj, long field) {
-		ReadFieldAccess current = readSet.getCurrent();
+		ReadFieldAccess current = readOnly ? readOnlyAccess : readSet.getCurrent();
 		int hash = current.hashCode();
 		long lock = LockTable.getLock(hash);
 		// We want to make sure the lock hasn't changed
 		// to be sure we read a consistent value from memory 
 		while (LockTable.isLocked(lock)) {
-			int lockOwner = LockTable.getOwner(lock);
-			Context ownerCtx = threads[lockOwner];
+			Context ownerCtx = getLockOwner(lock);
+			if (ownerCtx == null) {
+				// The transaction which took the lock is over, it lets go of it
+				lock = LockTable.getLock(hash);
+				continue;
+			}
 			Action action = cm.resolveReadConflict(current, this, ownerCtx);
 			if (action.equals(Action.RESTART)) {
 				stats.reportAbort(AbortType.SPECULATION_LOCATION_LOCKED);
@@ -369,13 +448,19 @@ final public class Context implements org.deuce.transaction.Context {
 			throw FAILURE_EXCEPTION;
 		}
 		if (cm.requiresPriorities()) {
-			karma.incrementAndGet();
+			changePriority(1);
 		}
 		cm.init();
+		if (readOnly)
+			return null;
 		return writeSet.contains(current);
 	}
 
 	private final void addWriteAccess0(WriteFieldAccess write) {
+		if (readOnly) {
+			updateBlocks.insert(atomicBlockId, true); // next attempts as update transactions
+			throw READ_ONLY_FAILURE_EXCEPTION;
+		}
 		writeSet.put(write);
 	}
 
@@ -393,12 +478,30 @@ final public class Context implements org.deuce.transaction.Context {
 		return statusRecord & ((1<<LockTable.OWNERCLOCK_SIZE)-1);
 	}
 	
+	/**
+	 * Looks up the context whose transaction took a lock. The thread id in the lock might
+	 * have been recycled since, the transaction must still be the one of the lock's clock.
+	 * The contention manager reads the status record again before killing the owner, so
+	 * an owner whose transaction ends meanwhile might have its next transaction aborted,
+	 * or be waited for: a spurious abort or delay, the locks are never taken from a
+	 * transaction which doesn't own them (see {@link LockTable#forceLock}).
+	 * @param lock a lock word with an owner.
+	 * @return the owner, <code>null</code> if its transaction is over.
+	 */
+	private static Context getLockOwner(long lock) {
+		Context owner = threads.get(LockTable.getOwner(lock));
+		if (owner == null || getTxLocalClock(owner.getStatusRecord()) != LockTable.getOwnerClock(lock)) {
+			return null;
+		}
+		return owner;
+	}
+
 	public final int getStatusRecord() {
-		return this.statusRecord.get();
+		return (int) records.get(record + STATUS_RECORD);
 	}
 	
 	public final void beforeReadAccess(Object obj, long field) {
-		ReadFieldAccess current = readSet.getNext();
+		ReadFieldAccess current = readOnly ? readOnlyAccess : readSet.getNext();
 		current.init(obj, field);
 		// Check that the location's version is consistent with 
 		// localClock. If not, throw an exception
@@ -546,13 +649,25 @@ final public class Context implements org.deuce.transaction.Context {
 		addWriteAccess0(next);
 	}
 
+	public void onIncrement(Object obj, long field, long delta) {
+		if (readOnly) {
+			updateBlocks.insert(atomicBlockId, true); // next attempts as update transactions
+			throw READ_ONLY_FAILURE_EXCEPTION;
+		}
+		deltas.add(obj, field, delta);
+	}
+
+	public long getIncrement(Object obj, long field) {
+		return deltas.get(obj, field);
+	}
+
 	private class UpdateAndUnlockProcedure implements TObjectProcedure<WriteFieldAccess>{
 	
 		private int newClock;
 	
 		@Override
 		public boolean execute(WriteFieldAccess writeField) {
-			LockTable.updateAndUnlock(writeField.hashCode(), newClock);
+			LockTable.updateAndUnlock(writeField.hashCode(), newClock, threadId);
 			return true;
 		}
 		
@@ -634,12 +749,84 @@ final public class Context implements org.deuce.transaction.Context {
 	}
 	final private Pool<DoubleWriteFieldAccess> doublePool = new Pool<DoubleWriteFieldAccess>( new DoubleResourceFactory());
 	
+	@Override
+	public void requestIrrevocable() {
+		irrevocable.request();
+	}
+
+	@Override
+	public void cancelIrrevocable() {
+		irrevocable.cancel();
+	}
+
 	@Override
 	public void onIrrevocableAccess() {
-		if(irrevocableState) // already in irrevocable state so no need to restart transaction.
+		if(irrevocable.isIrrevocable()) // already in irrevocable state so no need to restart transaction.
 			return;
 
-		irrevocableState = true;
-		throw TransactionException.STATIC_TRANSACTION;
+		// A read-only transaction has no read set to validate
+		if(readOnly || !irrevocable.upgrade() || !flush())
+			throw irrevocable.restart();
+		irrevocable.onUpgrade();
+	}
+
+	/**
+	 * Commits what the transaction did so far, must run alone. The transaction then goes on
+	 * from the current time with empty read and write sets.
+	 * @return <code>false</code> if the transaction was killed or its read set is no longer valid.
+	 */
+	private boolean flush() {
+		// No other transaction runs, the read set can be validated before locking
+		if (!isStillAlive() || !readSet.validate(rv, threadId))
+			return false;
+		addIncrements();
+
+		if (!writeSet.isEmpty()) {
+			int lockedCounter = lockWriteSet();
+			if (lockedCounter != writeSet.size()) {
+				unlockWriteSet(lockedCounter);
+				return false;
+			}
+			setIncrements();
+			int newClock = globalClock.incrementAndGet();
+			writeSet.forEach(putProcedure);
+			updateAndUnlockProcedure.setNewClock(newClock);
+			writeSet.forEach(updateAndUnlockProcedure);
+		}
+		this.readSet.clear();
+		this.writeSet.clear();
+		this.rv = globalClock.get();
+		return true;
+	}
+
+	public long getFootprint() {
+		// Each pooled write holds reference, field, hash and the value
+		int fields = Capacity.REFERENCE + 8 + 4;
+		long pools = objectPool.getFootprint(fields + Capacity.REFERENCE) +
+			booleanPool.getFootprint(fields + 1) + bytePool.getFootprint(fields + 1) +
+			charPool.getFootprint(fields + 2) + shortPool.getFootprint(fields + 2) +
+			intPool.getFootprint(fields + 4) + longPool.getFootprint(fields + 8) +
+			floatPool.getFootprint(fields + 4) + doublePool.getFootprint(fields + 8);
+		return readSet.getFootprint() + writeSet.getFootprint() + deltas.getFootprint() + pools;
+	}
+
+	public int getReadSetSize() {
+		return readSet.size();
+	}
+
+	public int getWriteSetSize() {
+		return writeSet.size() + deltas.size();
+	}
+
+	public long getFilterLookups() {
+		return writeSet.getLookups();
+	}
+
+	public long getFilterPasses() {
+		return writeSet.getPasses();
+	}
+
+	public long getFilterFalsePositives() {
+		return writeSet.getFalsePositives();
 	}
 }
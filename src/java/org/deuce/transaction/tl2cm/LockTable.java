@@ -2,6 +2,7 @@ package org.deuce.transaction.tl2cm;
 
 import java.util.concurrent.atomic.AtomicLongArray;
 
+import org.deuce.transaction.util.Granularity;
 import org.deuce.transform.Exclude;
 
 /**
@@ -9,6 +10,14 @@ import org.deuce.transform.Exclude;
  * a version counter, the thread Id of the lock owner and the local clock value of the lock owner. * 
  * The lock is unlocked if and only if the owner field equals </code>NO_OWNER</code>.
  * 
+ * <p>Memory ordering: the locks are taken with a CAS, possibly stolen from a transaction
+ * which is no longer running. A transaction can only write back once it CASed its status
+ * to committed, after which its locks can't be stolen, so {@link #updateAndUnlock} releases
+ * a lock with an ordered store ({@link AtomicLongArray#lazySet}), which isn't reordered
+ * with the write-back before it, rather than with a volatile store and its full fence.
+ * {@link #unLock}, on a failed commit, keeps its CAS since the lock might have been stolen
+ * meanwhile.</p>
+ *
  * <p>Based on Guy Korland's and Pascal Felber's work on <code>org.deuce.transaction.tl2.*</code> 
  * and <code>org.deuce.transaction.lsa*</code></p>
  * 
@@ -17,12 +26,14 @@ import org.deuce.transform.Exclude;
 @Exclude
 public class LockTable {
 
-	public static final int OWNERSIZE = 8;	// Allowing for 2^OWNERSIZE threads in the system
+	public static final int OWNERSIZE = 14;	// Allowing for 2^OWNERSIZE-1 threads alive at once
 	public static final int OWNERCLOCK_SIZE = 31 - OWNERSIZE;
+	public static final int MAX_OWNER = (1 << OWNERSIZE) - 1;
 	private static final int NO_OWNER = 0;
 	private static final int SIZE = 1 << 20;
 	private static final int HASH_MASK = 0xFFFFF;
 	private static AtomicLongArray locks;
+	private static final Granularity GRANULARITY = Granularity.getDefault();
 	
 	static {
 		long[] array = new long[SIZE];
@@ -121,14 +132,18 @@ public class LockTable {
 	}
 	
 	/**
-	 * Updates the locks version and unlock it
+	 * Updates the locks version and unlock it, unless it was released already for another
+	 * location of the write set under the same lock
 	 * @param hash hash code of the location to lock
 	 * @param updatedVersion new version to put on lock
+	 * @param threadId thread Id of the calling thread
 	 */
-	public static final void updateAndUnlock(int hash, int updatedVersion) {
+	public static final void updateAndUnlock(int hash, int updatedVersion, int threadId) {
 		long newLock = generateLock(NO_OWNER, 0, updatedVersion);
 		int lockIndex = hash & HASH_MASK;
-		locks.set(lockIndex, newLock);
+		// Nobody else releases a lock of a committed transaction
+		if (getOwner(locks.get(lockIndex)) == threadId)
+			locks.lazySet(lockIndex, newLock);
 	}
 	
 	public static final boolean isLocked(long lock) {
@@ -156,7 +171,7 @@ public class LockTable {
 	}
 	
 	public static final int hash(Object obj, long field) {
-		int hash = System.identityHashCode(obj) + (int) field;
+		int hash = System.identityHashCode(obj) + (int) GRANULARITY.stripe(obj, field);
 		return hash & HASH_MASK;
 	}
 	
@@ -1,6 +1,9 @@
 package org.deuce.transaction.tl2cm;
 
+import java.util.Arrays;
+
 import org.deuce.transaction.tl2cm.field.ReadFieldAccess;
+import org.deuce.transaction.util.Capacity;
 import org.deuce.transform.Exclude;
 
 /**
@@ -15,16 +18,36 @@ public class ReadSet{
 	private ReadFieldAccess[] readSet = new ReadFieldAccess[DEFAULT_CAPACITY];
 	private int nextAvaliable = 0;
 	private ReadFieldAccess currentReadFieldAccess = null;
+	private final Capacity capacity = new Capacity(DEFAULT_CAPACITY);
 	
 	
 	public ReadSet(){
 		fillArray( 0);
 	}
 	
+	/**
+	 * Clears the read set and sizes it for the atomic block about to run.
+	 */
+	public void init(int atomicBlockId) {
+		clear();
+		int expected = capacity.predict(atomicBlockId);
+		if (expected > readSet.length)
+			resize(Capacity.grow(readSet.length, expected));
+	}
+	
 	public void clear() {
+		int fit = capacity.fit(nextAvaliable, readSet.length);
+		if (fit < readSet.length)
+			readSet = Arrays.copyOf(readSet, fit);
 		nextAvaliable = 0;
 	}
 
+	private void resize(int length) {
+		int orignLength = readSet.length;
+		readSet = Arrays.copyOf(readSet, length);
+		fillArray(orignLength);
+	}
+
 	private void fillArray( int offset){
 		for( int i=offset ; i < readSet.length ; ++i){
 			readSet[i] = new ReadFieldAccess();
@@ -32,13 +55,8 @@ public class ReadSet{
 	}
 
 	public ReadFieldAccess getNext() {
-		if( nextAvaliable >= readSet.length){
-			int orignLength = readSet.length;
-			ReadFieldAccess[] tmpReadSet = new ReadFieldAccess[ 2*orignLength];
-			System.arraycopy(readSet, 0, tmpReadSet, 0, orignLength);
-			readSet = tmpReadSet;
-			fillArray( orignLength);
-		}
+		if( nextAvaliable >= readSet.length)
+			resize( 2*readSet.length);
 		currentReadFieldAccess = readSet[ nextAvaliable++];
 		return currentReadFieldAccess;
 	}
@@ -47,13 +65,16 @@ public class ReadSet{
 		return currentReadFieldAccess;
 	}
 	
-    public boolean validate(int version) {
+    /**
+     * @param owner the thread id of the transaction, the locations it locked itself are valid.
+     */
+    public boolean validate(int version, int owner) {
         for (int i = 0; i < nextAvaliable; i++) {
         	ReadFieldAccess field = readSet[i];
 			int hash = field.hashCode();
         	long lock = LockTable.getLock(hash);
         	int lockVersion = LockTable.getVersion(lock);
-        	if (lockVersion > version || LockTable.isLocked(lock)) {
+        	if (lockVersion > version || (LockTable.isLocked(lock) && LockTable.getOwner(lock) != owner)) {
         		return false;
         	}
         }
@@ -63,6 +84,14 @@ public class ReadSet{
     public int size() {
     	return nextAvaliable;
     }
+
+	/**
+	 * @return the approximate bytes held, the recycled entries included.
+	 */
+	public long getFootprint() {
+		return Capacity.arrayBytes(readSet.length, Capacity.REFERENCE) +
+				readSet.length * Capacity.objectBytes(Capacity.REFERENCE + 8 + 4);
+	}
     
     public interface ReadSetListener{
     	void execute( ReadFieldAccess read);
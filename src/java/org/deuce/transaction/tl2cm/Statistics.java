@@ -222,11 +222,24 @@ public class Statistics {
 	private int writeSetSizeOnCommitSum = 0;
 	private int writeSetSizeOnCommitCounter = 0;
 	
-	public Statistics(int threadId) {
-		statsMap.put(threadId, this);
+	private Statistics() {
 		txAttemptsHistCounters = new int[txAttemptsHistBins.length];
 	}
 
+	/**
+	 * @return the statistics of the thread id, shared by the threads the id is recycled for.
+	 */
+	public static Statistics get(int threadId) {
+		synchronized (statsMap) {
+			Statistics statistics = statsMap.get(threadId);
+			if (statistics == null) {
+				statistics = new Statistics();
+				statsMap.put(threadId, statistics);
+			}
+			return statistics;
+		}
+	}
+
 	public void reportTxStart() {
 		this.starts++;
 		this.startTime = System.currentTimeMillis();
@@ -1,54 +1,199 @@
 package org.deuce.transaction.tl2cm;
 
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
+import org.deuce.transaction.tl2.BloomFilter;
 import org.deuce.transaction.tl2cm.field.ReadFieldAccess;
 import org.deuce.transaction.tl2cm.field.WriteFieldAccess;
+import org.deuce.transaction.util.Capacity;
 import org.deuce.transform.Exclude;
-import org.deuce.trove.THashMap;
 import org.deuce.trove.TObjectProcedure;
 
 /**
  * Represents the transaction write set. Based on Guy Korland's work on <code>org.deuce.transaction.tl2.*</code>
+ * <p>
+ * The entries are kept in the order written, which is the order they are locked and unlocked,
+ * and found through an open addressing index (entry + 1, 0 for empty slot) cleared in the
+ * time of the entries used. A {@link BloomFilter} of the entries rules out most of the
+ * fields read but not written before the index is probed.
  * 
  * @author Yoav Cohen, yoav.cohen@cs.tau.ac.il
  */
 @Exclude
 public class WriteSet implements Iterable<WriteFieldAccess>{
 	
-	final private THashMap<WriteFieldAccess,WriteFieldAccess> writeSet = 
-		new THashMap<WriteFieldAccess,WriteFieldAccess>( 16);
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private WriteFieldAccess[] entries = new WriteFieldAccess[DEFAULT_CAPACITY];
+	private int[] slots = new int[DEFAULT_CAPACITY]; // position of each entry in the index
+	private int size = 0;
+	// Kept at most half full
+	private int[] index = new int[DEFAULT_CAPACITY << 1];
+	private final Capacity capacity = new Capacity(DEFAULT_CAPACITY);
+	private final BloomFilter filter = new BloomFilter(DEFAULT_CAPACITY);
+
+	private long lookups;
+	private long passes;
+	private long falsePositives;
 	
+	/**
+	 * Clears the write set and sizes it for the atomic block about to run.
+	 */
+	public void init(int atomicBlockId) {
+		clear();
+		int expected = capacity.predict(atomicBlockId);
+		if (expected > entries.length)
+			resize(Capacity.grow(entries.length, expected));
+	}
+
 	public void clear() {
-		writeSet.clear();
+		for (int i = 0; i < size; i++) {
+			index[slots[i]] = 0;
+			filter.clear(entries[i].hashCode());
+			entries[i] = null;
+		}
+		int fit = capacity.fit(size, entries.length);
+		size = 0;
+		if (fit < entries.length) {
+			entries = new WriteFieldAccess[fit];
+			slots = new int[fit];
+			index = new int[fit << 1];
+			filter.resize(fit);
+		}
 	}
 
 	public boolean isEmpty() {
-		return writeSet.isEmpty();
+		return size == 0;
 	}
 
 	public Iterator<WriteFieldAccess> iterator() {
-		// Use the value and not the key since the key might hold old key.
-		// Might happen if the same field was update more than once.
-		return writeSet.values().iterator();
+		return new Iterator<WriteFieldAccess>() {
+			private int next = 0;
+
+			public boolean hasNext() {
+				return next < size;
+			}
+
+			public WriteFieldAccess next() {
+				if (next >= size)
+					throw new NoSuchElementException();
+				return entries[next++];
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
 	}
 
 	public boolean forEach(TObjectProcedure<WriteFieldAccess> procedure){
-		return writeSet.forEach(procedure);
+		for (int i = 0; i < size; i++) {
+			if (!procedure.execute(entries[i]))
+				return false;
+		}
+		return true;
 	}
 	
+	private int slot(int hash) {
+		return (hash * 0x9E3779B9) & (index.length - 1);
+	}
+
 	public void put(WriteFieldAccess write) {
-		// Add to write set
-		writeSet.put( write, write);
+		// Add to write set, or replace the previous write of the field
+		int mask = index.length - 1;
+		int i = slot(write.hashCode());
+		int e;
+		while ((e = index[i]) != 0) {
+			if (entries[e - 1].equals(write)) {
+				entries[e - 1] = write;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+
+		if (size >= entries.length) {
+			resize(entries.length << 1);
+			put(write);
+			return;
+		}
+		entries[size] = write;
+		slots[size] = i;
+		index[i] = ++size;
+		filter.add(write.hashCode());
 	}
 	
 	public WriteFieldAccess contains(ReadFieldAccess read) {
 		// Check if it is already included in the write set
-		return writeSet.get( read);
+		if (size == 0)
+			return null;
+		int hash = read.hashCode();
+		lookups++;
+		if (!filter.contains(hash))
+			return null;
+		passes++;
+		int mask = index.length - 1;
+		int i = slot(hash);
+		int e;
+		while ((e = index[i]) != 0) {
+			WriteFieldAccess write = entries[e - 1];
+			if (write.equals(read))
+				return write;
+			i = (i + 1) & mask;
+		}
+		falsePositives++;
+		return null;
+	}
+
+	private void resize(int length) {
+		entries = Arrays.copyOf(entries, length);
+		slots = Arrays.copyOf(slots, length);
+		index = new int[length << 1];
+		filter.resize(length);
+		int mask = index.length - 1;
+		for (int e = 0; e < size; e++) {
+			int i = slot(entries[e].hashCode());
+			while (index[i] != 0)
+				i = (i + 1) & mask;
+			index[i] = e + 1;
+			slots[e] = i;
+			filter.add(entries[e].hashCode());
+		}
 	}
 	
 	public int size() {
-		return writeSet.size();
+		return size;
+	}
+
+	/**
+	 * @return the approximate bytes held by the write set, not counting the entries.
+	 */
+	public long getFootprint() {
+		return Capacity.arrayBytes(entries.length, Capacity.REFERENCE) +
+				Capacity.arrayBytes(slots.length, 4) + Capacity.arrayBytes(index.length, 4) +
+				filter.getFootprint();
+	}
+
+	/**
+	 * @return amount of reads checked against a non empty write set.
+	 */
+	public long getLookups() {
+		return lookups;
+	}
+
+	/**
+	 * @return amount of lookups the filter let through to the index.
+	 */
+	public long getPasses() {
+		return passes;
+	}
+
+	/**
+	 * @return amount of passes whose field was not written.
+	 */
+	public long getFalsePositives() {
+		return falsePositives;
 	}
 	
 }
@@ -0,0 +1,412 @@
+package org.deuce.transaction.tl2obj;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.deuce.transaction.CommutativeContext;
+import org.deuce.transaction.IrrevocableContext;
+import org.deuce.transaction.MemoryFootprint;
+import org.deuce.transaction.SetSizes;
+import org.deuce.transaction.ThreadBoundContext;
+import org.deuce.transaction.TransactionException;
+import org.deuce.transaction.clock.Factory;
+import org.deuce.transaction.clock.GlobalClock;
+import org.deuce.transaction.lsa.field.Field.Type;
+import org.deuce.transaction.util.DeltaLog;
+import org.deuce.transaction.util.Irrevocability;
+import org.deuce.transaction.util.OwnerRegistry;
+import org.deuce.transform.Exclude;
+
+/**
+ * TL2 implementation keeping the versioned locks in the objects.
+ * <p>
+ * With this context the transformer adds a lock word to each instrumented class declaring
+ * instance fields, and the address of such a field also names the lock word (see
+ * {@link org.deuce.reflection.AddressUtil#METADATA_FIELD}). A read checks the lock next to
+ * the data, which is likely on the same cache line, instead of a lock of a global table,
+ * and two objects never share a lock. The fields a class declares share its lock word. The
+ * arrays and the static fields, and the classes instrumented with an external fields
+ * holder, fall back to a hashed lock table as in TL2 (see {@link LockTable}).
+ * <p>
+ * As in TL2, a transaction reads from the snapshot of its start time, buffers its writes
+ * and takes the locks of its write set at commit time. A lock word names its owner, the
+ * transaction recognizes the locks it already holds without a lock marker. The increments
+ * (see {@link CommutativeContext}) are locked after the write set, waiting for a while if
+ * another transaction holds the lock, and aren't validated.
+ *
+ * @since 1.4
+ */
+@Exclude
+final public class Context implements CommutativeContext, IrrevocableContext, MemoryFootprint, SetSizes,
+		ThreadBoundContext {
+
+	final private static TransactionException READ_FAILURE_EXCEPTION =
+		new TransactionException("Fail on read (newer or locked version).");
+
+	final private static AtomicInteger globalClock = new AtomicInteger(0);
+
+	// Owner ids are recycled once their threads terminated
+	final private static OwnerRegistry<Context> threads = new OwnerRegistry<Context>(LockTable.MAX_OWNER);
+
+	final private GlobalClock clock = Factory.createClock(globalClock);
+
+	final private ReadSet readSet = new ReadSet();
+	final private WriteSet writeSet = new WriteSet();
+	final private DeltaLog deltas = new DeltaLog();
+
+	final private int owner;
+
+	private int localClock;
+
+	// Marked on beforeRead, used for the double lock check
+	private Object readBase;
+	private long readOffset;
+	private long readLock;
+
+	//Used to allow only one irrevocable transaction solely.
+	final private Irrevocability irrevocable = new Irrevocability();
+
+	public Context() {
+		owner = threads.register(this);
+		localClock = clock.get();
+	}
+
+	public void detach() {
+		threads.detach(owner);
+	}
+
+	public void dispose() {
+		threads.release(owner);
+	}
+
+	@Override
+	public void init(int atomicBlockId, String metainf) {
+		readSet.init(atomicBlockId);
+		writeSet.init(atomicBlockId);
+		deltas.clear();
+		readBase = null;
+
+		//Lock according to the transaction irrevocable state
+		irrevocable.begin();
+
+		localClock = clock.get();
+	}
+
+	@Override
+	public boolean commit() {
+		try {
+			if (writeSet.isEmpty() && deltas.isEmpty()) // a read-only transaction read a consistent snapshot
+				return true;
+			if (!writeBack()) {
+				clock.onAbort();
+				return false;
+			}
+			return true;
+		}
+		finally {
+			readBase = null;
+			irrevocable.commit();
+		}
+	}
+
+	@Override
+	public void rollback() {
+		readBase = null;
+		clock.onAbort();
+		irrevocable.rollback();
+	}
+
+	/**
+	 * Locks the write set, validates the read set and writes the values back.
+	 * @return <code>false</code> if a lock is held by another transaction or the read set
+	 * is no longer valid, nothing was written.
+	 */
+	private boolean writeBack() {
+		int size = writeSet.getSize();
+		for (int i = 0; i < size; i++) {
+			if (!lock(writeSet.getLockBase(i), writeSet.getLockOffset(i))) {
+				release(i);
+				return false;
+			}
+		}
+
+		int increments = deltas.size();
+		for (int i = 0; i < increments; i++) {
+			if (!lockDelta(deltas.getReference(i), deltas.getField(i))) {
+				releaseDeltas(i, -1);
+				release(size);
+				return false;
+			}
+		}
+
+		int version = clock.tick(localClock);
+		if (!clock.canSkipValidation(localClock, version) && !readSet.validate(localClock, owner)) {
+			releaseDeltas(increments, -1);
+			release(size);
+			return false;
+		}
+
+		writeSet.commit();
+		deltas.apply();
+		for (int i = 0; i < size; i++) {
+			Object base = writeSet.getLockBase(i);
+			long offset = writeSet.getLockOffset(i);
+			if (isOwned(LockTable.get(base, offset)))
+				LockTable.release(base, offset, version);
+		}
+		releaseDeltas(increments, version);
+		deltas.clear();
+		localClock = version;
+		return true;
+	}
+
+	/**
+	 * Takes the lock of an incremented location, waits up to {@link DeltaLog#WAITS} yields
+	 * while another transaction holds it.
+	 * @return <code>false</code> if the lock stayed held.
+	 */
+	private boolean lockDelta(Object obj, long field) {
+		Object base = LockTable.base(obj, field);
+		long offset = LockTable.offset(obj, field);
+		for (int waits = 0; !lock(base, offset); waits++) {
+			if (waits == DeltaLog.WAITS)
+				return false;
+			Thread.yield();
+		}
+		return true;
+	}
+
+	/**
+	 * Releases the locks of the first increments with the given version, or with their old
+	 * version if it is negative.
+	 */
+	private void releaseDeltas(int entries, long version) {
+		for (int i = 0; i < entries; i++) {
+			Object base = LockTable.base(deltas.getReference(i), deltas.getField(i));
+			long offset = LockTable.offset(deltas.getReference(i), deltas.getField(i));
+			long lock = LockTable.get(base, offset);
+			if (isOwned(lock))
+				LockTable.release(base, offset, version < 0 ? LockTable.getVersion(lock) : version);
+		}
+	}
+
+	/**
+	 * @return <code>false</code> if the lock is held by another transaction.
+	 */
+	private boolean lock(Object base, long offset) {
+		while (true) {
+			long lock = LockTable.get(base, offset);
+			if (LockTable.isLocked(lock))
+				return LockTable.getOwner(lock) == owner; // the entries might share a lock
+			if (LockTable.lock(base, offset, lock, owner))
+				return true;
+		}
+	}
+
+	/**
+	 * Releases the locks of the first entries of the write set with their old version.
+	 */
+	private void release(int entries) {
+		for (int i = 0; i < entries; i++) {
+			Object base = writeSet.getLockBase(i);
+			long offset = writeSet.getLockOffset(i);
+			long lock = LockTable.get(base, offset);
+			if (isOwned(lock))
+				LockTable.release(base, offset, LockTable.getVersion(lock));
+		}
+	}
+
+	private boolean isOwned(long lock) {
+		return LockTable.isLocked(lock) && LockTable.getOwner(lock) == owner;
+	}
+
+	@Override
+	public void beforeReadAccess(Object obj, long field) {
+		Object base = LockTable.base(obj, field);
+		long offset = LockTable.offset(obj, field);
+		long lock = LockTable.get(base, offset);
+		if (LockTable.isLocked(lock) || LockTable.getVersion(lock) > localClock)
+			throw READ_FAILURE_EXCEPTION;
+		readBase = base;
+		readOffset = offset;
+		readLock = lock;
+	}
+
+	/**
+	 * @return the entry of the write set holding the location, -1 if the value read is
+	 * valid and the location not written.
+	 */
+	private int onReadAccess0(Object obj, long field) {
+		int w = writeSet.get(obj, field);
+		if (w >= 0)
+			return w;
+
+		// Check the read is still valid
+		if (LockTable.get(readBase, readOffset) != readLock)
+			throw READ_FAILURE_EXCEPTION;
+		readSet.add(readBase, readOffset);
+		return -1;
+	}
+
+	private long readBits(Object obj, long field, long bits) {
+		int w = onReadAccess0(obj, field);
+		return w < 0 ? bits : writeSet.getBits(w);
+	}
+
+	@Override
+	public Object onReadAccess(Object obj, Object value, long field) {
+		int w = onReadAccess0(obj, field);
+		return w < 0 ? value : writeSet.getObject(w);
+	}
+
+	@Override
+	public boolean onReadAccess(Object obj, boolean value, long field) {
+		return readBits(obj, field, value ? 1 : 0) != 0;
+	}
+
+	@Override
+	public byte onReadAccess(Object obj, byte value, long field) {
+		return (byte) readBits(obj, field, value);
+	}
+
+	@Override
+	public char onReadAccess(Object obj, char value, long field) {
+		return (char) readBits(obj, field, value);
+	}
+
+	@Override
+	public short onReadAccess(Object obj, short value, long field) {
+		return (short) readBits(obj, field, value);
+	}
+
+	@Override
+	public int onReadAccess(Object obj, int value, long field) {
+		return (int) readBits(obj, field, value);
+	}
+
+	@Override
+	public long onReadAccess(Object obj, long value, long field) {
+		return readBits(obj, field, value);
+	}
+
+	@Override
+	public float onReadAccess(Object obj, float value, long field) {
+		return Float.intBitsToFloat((int) readBits(obj, field, Float.floatToRawIntBits(value)));
+	}
+
+	@Override
+	public double onReadAccess(Object obj, double value, long field) {
+		return Double.longBitsToDouble(readBits(obj, field, Double.doubleToRawLongBits(value)));
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, Object value, long field) {
+		writeSet.add(obj, field, 0, value, Type.OBJECT);
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, boolean value, long field) {
+		writeSet.add(obj, field, value ? 1 : 0, null, Type.BOOLEAN);
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, byte value, long field) {
+		writeSet.add(obj, field, value, null, Type.BYTE);
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, char value, long field) {
+		writeSet.add(obj, field, value, null, Type.CHAR);
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, short value, long field) {
+		writeSet.add(obj, field, value, null, Type.SHORT);
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, int value, long field) {
+		writeSet.add(obj, field, value, null, Type.INT);
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, long value, long field) {
+		writeSet.add(obj, field, value, null, Type.LONG);
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, float value, long field) {
+		writeSet.add(obj, field, Float.floatToRawIntBits(value), null, Type.FLOAT);
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, double value, long field) {
+		writeSet.add(obj, field, Double.doubleToRawLongBits(value), null, Type.DOUBLE);
+	}
+
+	@Override
+	public void onIncrement(Object obj, long field, long delta) {
+		deltas.add(obj, field, delta);
+	}
+
+	@Override
+	public long getIncrement(Object obj, long field) {
+		return deltas.get(obj, field);
+	}
+
+	@Override
+	public void requestIrrevocable() {
+		irrevocable.request();
+	}
+
+	@Override
+	public void cancelIrrevocable() {
+		irrevocable.cancel();
+	}
+
+	@Override
+	public void onIrrevocableAccess() {
+		if(irrevocable.isIrrevocable()) // already in irrevocable state so no need to restart transaction.
+			return;
+
+		if(!irrevocable.upgrade() || !flush())
+			throw irrevocable.restart();
+		irrevocable.onUpgrade();
+	}
+
+	/**
+	 * Commits what the transaction did so far, must run alone. The transaction then goes on
+	 * from the current time with empty read and write sets.
+	 * @return <code>false</code> if the read set is no longer valid.
+	 */
+	private boolean flush() {
+		if (writeSet.isEmpty() && deltas.isEmpty()) {
+			if (!readSet.validate(localClock, owner))
+				return false;
+		} else if (!writeBack()) {
+			return false;
+		}
+		readSet.clear();
+		writeSet.clear();
+		localClock = clock.advance(localClock);
+		return true;
+	}
+
+	/**
+	 * @return the owner ids of the contexts.
+	 */
+	public static OwnerRegistry<Context> getThreads() {
+		return threads;
+	}
+
+	public long getFootprint() {
+		return readSet.getFootprint() + writeSet.getFootprint() + deltas.getFootprint();
+	}
+
+	public int getReadSetSize() {
+		return readSet.size();
+	}
+
+	public int getWriteSetSize() {
+		return writeSet.getSize() + deltas.size();
+	}
+}
@@ -0,0 +1,87 @@
+package org.deuce.transaction.tl2obj;
+
+import org.deuce.reflection.AddressUtil;
+import org.deuce.reflection.UnsafeHolder;
+import org.deuce.transaction.util.LockTableLayout;
+import org.deuce.transform.Exclude;
+
+import sun.misc.Unsafe;
+
+/**
+ * The versioned locks of the object based TL2, a lock word is a <code>long</code> holding
+ * the lock bit, the owner of the lock and the version of the locations it covers.
+ * <p>
+ * A lock word is named by a base and an offset, as a field is. The instance fields of an
+ * instrumented class share the {@link AddressUtil#METADATA_FIELD} the transformer added to
+ * the class that declares them, hence the lock sits next to the data and no two objects
+ * share a lock. The arrays, the static fields and the fields of the classes without a
+ * metadata field (e.g. the classes instrumented with an external fields holder) fall back
+ * to a hashed table of lock words, as in TL2.
+ * <p>
+ * Memory ordering: as in TL2, a lock is taken with a CAS and released with an ordered
+ * store of the new version once the values are written back.
+ *
+ * @since 1.4
+ */
+@Exclude
+public class LockTable {
+
+	final private static Unsafe unsafe = UnsafeHolder.getUnsafe();
+
+	final private static long LOCK = 1L << 63;
+	final private static int OWNER_SHIFT = 48;
+	final private static long VERSION = (1L << OWNER_SHIFT) - 1;
+	final public static int MAX_OWNER = (1 << (63 - OWNER_SHIFT)) - 1;
+
+	final private static LockTableLayout LAYOUT = new LockTableLayout( 8);
+	final private static long[] TABLE = new long[LAYOUT.arrayLength()];
+	final private static long BASE = unsafe.arrayBaseOffset( long[].class);
+
+	/**
+	 * @return the object holding the lock word of the location.
+	 */
+	public static Object base( Object obj, long field){
+		return AddressUtil.getMetadataOffset( field) != 0 ? obj : TABLE;
+	}
+
+	/**
+	 * @return the offset of the lock word of the location in its {@link #base(Object, long)}.
+	 */
+	public static long offset( Object obj, long field){
+		long metadata = AddressUtil.getMetadataOffset( field);
+		if( metadata != 0)
+			return metadata;
+		return BASE + ((long)LAYOUT.slot( LAYOUT.hash( obj, field)) << 3);
+	}
+
+	public static long get( Object base, long offset){
+		return unsafe.getLongVolatile( base, offset);
+	}
+
+	/**
+	 * Takes an unlocked lock.
+	 * @return <code>false</code> if the lock changed since it read <code>lock</code>.
+	 */
+	public static boolean lock( Object base, long offset, long lock, int owner){
+		return unsafe.compareAndSwapLong( base, offset, lock, LOCK | ((long)owner << OWNER_SHIFT) | lock);
+	}
+
+	/**
+	 * Releases a held lock with the given version.
+	 */
+	public static void release( Object base, long offset, long version){
+		unsafe.putOrderedLong( base, offset, version);
+	}
+
+	public static boolean isLocked( long lock){
+		return lock < 0;
+	}
+
+	public static int getOwner( long lock){
+		return (int)((lock & ~LOCK) >>> OWNER_SHIFT);
+	}
+
+	public static long getVersion( long lock){
+		return lock & VERSION;
+	}
+}
@@ -0,0 +1,95 @@
+package org.deuce.transaction.tl2obj;
+
+import java.util.Arrays;
+
+import org.deuce.transaction.util.Capacity;
+import org.deuce.transform.Exclude;
+
+/**
+ * The locks read by the transaction, named by base and offset (see {@link LockTable}).
+ * The consecutive reads of locations sharing a lock, e.g. the fields of an object, log
+ * the lock once.
+ *
+ * @since 1.4
+ */
+@Exclude
+public class ReadSet {
+
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	private Object[] bases;
+	private long[] offsets;
+	private int size;
+
+	final private Capacity capacity;
+
+	public ReadSet(int initialCapacity) {
+		bases = new Object[initialCapacity];
+		offsets = new long[initialCapacity];
+		capacity = new Capacity(initialCapacity);
+	}
+
+	public ReadSet() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public void clear() {
+		// Don't keep garbage reachable
+		Arrays.fill(bases, 0, size, null);
+		int fit = capacity.fit(size, bases.length);
+		size = 0;
+		if (fit < bases.length)
+			resize(fit);
+	}
+
+	/**
+	 * Clears the read set and sizes it for the atomic block about to run.
+	 */
+	public void init(int atomicBlockId) {
+		clear();
+		int expected = capacity.predict(atomicBlockId);
+		if (expected > bases.length)
+			resize(Capacity.grow(bases.length, expected));
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void add(Object base, long offset) {
+		if (size > 0 && bases[size - 1] == base && offsets[size - 1] == offset)
+			return;
+		if (size >= bases.length)
+			resize(bases.length << 1);
+		bases[size] = base;
+		offsets[size] = offset;
+		size++;
+	}
+
+	private void resize(int l) {
+		bases = Arrays.copyOf(bases, l);
+		offsets = Arrays.copyOf(offsets, l);
+	}
+
+	/**
+	 * @return <code>false</code> if a lock read got a version newer than the clock or is
+	 * held by another owner.
+	 */
+	public boolean validate(long clock, int owner) {
+		for (int i = 0; i < size; i++) {
+			long lock = LockTable.get(bases[i], offsets[i]);
+			if (LockTable.getVersion(lock) > clock ||
+					(LockTable.isLocked(lock) && LockTable.getOwner(lock) != owner))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the approximate bytes held by the arrays.
+	 */
+	public long getFootprint() {
+		int l = bases.length;
+		return Capacity.arrayBytes(l, Capacity.REFERENCE) + Capacity.arrayBytes(l, 8);
+	}
+}
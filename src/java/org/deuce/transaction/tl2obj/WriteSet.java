@@ -0,0 +1,200 @@
+package org.deuce.transaction.tl2obj;
+
+import java.util.Arrays;
+
+import org.deuce.reflection.AddressUtil;
+import org.deuce.transaction.lsa.field.Field;
+import org.deuce.transaction.lsa.field.Field.Type;
+import org.deuce.transaction.util.Capacity;
+import org.deuce.transform.Exclude;
+
+/**
+ * The write log, kept as parallel arrays that are recycled between transactions, as in
+ * NOrec. Each entry also holds the lock of its location (see {@link LockTable}), which the
+ * commit takes and releases.
+ *
+ * @since 1.4
+ */
+@Exclude
+public class WriteSet {
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private Object[] references;
+	private long[] fields;
+	private long[] values;  // primitive values as raw bits
+	private Object[] objects; // reference values
+	private Type[] types;
+	private Object[] lockBases;
+	private long[] lockOffsets;
+	private int[] slots;    // position of each entry in the index
+	private int size;
+
+	private int[] index;
+	private int shift;
+
+	final private Capacity capacity;
+
+	public WriteSet(int initialCapacity) {
+		initialCapacity = Math.max(initialCapacity, 2);
+		references = new Object[initialCapacity];
+		fields = new long[initialCapacity];
+		values = new long[initialCapacity];
+		objects = new Object[initialCapacity];
+		types = new Type[initialCapacity];
+		lockBases = new Object[initialCapacity];
+		lockOffsets = new long[initialCapacity];
+		slots = new int[initialCapacity];
+		newIndex(initialCapacity);
+		capacity = new Capacity(initialCapacity);
+	}
+
+	private void newIndex(int capacity) {
+		// Keep the index at most half full
+		int bits = 33 - Integer.numberOfLeadingZeros(capacity - 1);
+		index = new int[1 << bits];
+		shift = 32 - bits;
+	}
+
+	public WriteSet() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public void clear() {
+		for (int i = 0; i < size; i++)
+			index[slots[i]] = 0;
+		// Don't keep garbage reachable
+		Arrays.fill(references, 0, size, null);
+		Arrays.fill(objects, 0, size, null);
+		Arrays.fill(lockBases, 0, size, null);
+		int fit = capacity.fit(size, references.length);
+		size = 0;
+		if (fit < references.length)
+			resize(fit);
+	}
+
+	/**
+	 * Clears the write set and sizes it for the atomic block about to run.
+	 */
+	public void init(int atomicBlockId) {
+		clear();
+		int expected = capacity.predict(atomicBlockId);
+		if (expected > references.length)
+			resize(Capacity.grow(references.length, expected));
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	private int slot(Object obj, long field) {
+		return ((System.identityHashCode(obj) + (int) field) * 0x9E3779B9) >>> shift;
+	}
+
+	/**
+	 * @return the entry of the field or -1 if it wasn't written.
+	 */
+	public int get(Object obj, long field) {
+		if (size == 0)
+			return -1;
+		int mask = index.length - 1;
+		int i = slot(obj, field);
+		int e;
+		while ((e = index[i]) != 0) {
+			if (references[e - 1] == obj && fields[e - 1] == field)
+				return e - 1;
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	public long getBits(int entry) {
+		return values[entry];
+	}
+
+	public Object getObject(int entry) {
+		return objects[entry];
+	}
+
+	public Object getLockBase(int entry) {
+		return lockBases[entry];
+	}
+
+	public long getLockOffset(int entry) {
+		return lockOffsets[entry];
+	}
+
+	public void add(Object obj, long field, long bits, Object object, Type type) {
+		int mask = index.length - 1;
+		int i = slot(obj, field);
+		int e;
+		while ((e = index[i]) != 0) {
+			if (references[e - 1] == obj && fields[e - 1] == field) {
+				// Update written value
+				values[e - 1] = bits;
+				objects[e - 1] = object;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+
+		if (size >= references.length) {
+			grow();
+			add(obj, field, bits, object, type);
+			return;
+		}
+		references[size] = obj;
+		fields[size] = field;
+		values[size] = bits;
+		objects[size] = object;
+		types[size] = type;
+		lockBases[size] = LockTable.base(obj, field);
+		lockOffsets[size] = LockTable.offset(obj, field);
+		slots[size] = i;
+		index[i] = ++size;
+	}
+
+	private void grow() {
+		resize(references.length << 1);
+	}
+
+	private void resize(int l) {
+		references = Arrays.copyOf(references, l);
+		fields = Arrays.copyOf(fields, l);
+		values = Arrays.copyOf(values, l);
+		objects = Arrays.copyOf(objects, l);
+		types = Arrays.copyOf(types, l);
+		lockBases = Arrays.copyOf(lockBases, l);
+		lockOffsets = Arrays.copyOf(lockOffsets, l);
+		slots = Arrays.copyOf(slots, l);
+
+		newIndex(l);
+		int mask = index.length - 1;
+		for (int e = 0; e < size; e++) {
+			int i = slot(references[e], fields[e]);
+			while (index[i] != 0)
+				i = (i + 1) & mask;
+			index[i] = e + 1;
+			slots[e] = i;
+		}
+	}
+
+	/**
+	 * @return the approximate bytes held by the arrays.
+	 */
+	public long getFootprint() {
+		int l = references.length;
+		return 4 * Capacity.arrayBytes(l, Capacity.REFERENCE) + 3 * Capacity.arrayBytes(l, 8) +
+				Capacity.arrayBytes(l, 4) + Capacity.arrayBytes(index.length, 4);
+	}
+
+	public void commit() {
+		// Write values, the address of a field also holds the offset of its lock
+		for (int i = 0; i < size; i++)
+			Field.putValue(references[i], AddressUtil.getOffset(fields[i]), values[i], objects[i], types[i]);
+	}
+}
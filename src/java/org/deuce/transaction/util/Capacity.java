@@ -0,0 +1,157 @@
+package org.deuce.transaction.util;
+
+import java.util.Arrays;
+
+import org.deuce.transaction.Context;
+import org.deuce.transaction.MemoryFootprint;
+import org.deuce.transaction.statistics.CounterSource;
+import org.deuce.transaction.statistics.Statistics;
+import org.deuce.transform.Exclude;
+
+/**
+ * Sizes a transaction log, e.g. a read set or a write set, after the transactions using it.
+ * <p>
+ * The log learns how many entries each atomic block (see
+ * {@link org.deuce.transaction.Context#init(int, String)}) uses, so it is sized for the block
+ * when the block starts ({@link #predict(int)}) instead of growing step by step. When it is
+ * cleared it hands over the entries the transaction used ({@link #fit(int, int)}), and gives
+ * back its capacity once a few transactions in a row used at most a quarter of it. Hence a
+ * single huge transaction doesn't leave a context holding its logs for good.
+ * <p>
+ * The amount of transactions in a row is set by
+ * <code>org.deuce.transaction.capacity.shrinkAfter</code> (default 16), 0 never shrinks.
+ * <p>
+ * The memory held by the logs of the live contexts (see {@link MemoryFootprint}) is
+ * reported by the statistics.
+ *
+ * @since 1.4
+ */
+@Exclude
+final public class Capacity {
+
+	final public static String SHRINK_AFTER_PROPERTY = "org.deuce.transaction.capacity.shrinkAfter";
+	final public static int SHRINK_AFTER = Integer.getInteger(SHRINK_AFTER_PROPERTY, 16);
+
+	// Rough object sizes, assuming compressed references
+	final public static int HEADER = 12;
+	final public static int REFERENCE = 4;
+
+	static {
+		Statistics.registerSource(new Footprints());
+	}
+
+	final private int min;
+	private int[] predictions = new int[16]; // per atomic block
+	private int block = -1; // the running block, -1 once its use was recorded
+	private int peak; // largest use of the small transactions in a row
+	private int small; // transactions in a row that used at most a quarter of the capacity
+
+	/**
+	 * @param min the log never shrinks below this capacity.
+	 */
+	public Capacity(int min) {
+		this.min = min;
+	}
+
+	/**
+	 * Called when a transaction of the atomic block starts.
+	 * @return the amount of entries the transaction is expected to use.
+	 */
+	public int predict(int atomicBlockId) {
+		block = atomicBlockId;
+		return atomicBlockId >= 0 && atomicBlockId < predictions.length ? predictions[atomicBlockId] : 0;
+	}
+
+	/**
+	 * Called when the log is cleared, only the first clear after {@link #predict(int)} counts.
+	 * @param used the amount of entries the transaction used.
+	 * @param capacity the amount of entries the log holds.
+	 * @return the capacity to shrink the log to, or <code>capacity</code> to keep it.
+	 */
+	public int fit(int used, int capacity) {
+		int block = this.block;
+		if (block < 0)
+			return capacity;
+		this.block = -1;
+
+		if (block >= predictions.length)
+			predictions = Arrays.copyOf(predictions, Math.max(block + 1, predictions.length << 1));
+		int prediction = predictions[block];
+		// Follow a growth at once, a decline gradually
+		predictions[block] = used >= prediction ? used : prediction - ((prediction - used + 3) >> 2);
+
+		if (capacity <= min || used > capacity >> 2) {
+			small = 0;
+			peak = 0;
+			return capacity;
+		}
+		if (used > peak)
+			peak = used;
+		if (SHRINK_AFTER == 0 || ++small < SHRINK_AFTER)
+			return capacity;
+		int target = Math.max(min, roundUp(peak << 1));
+		small = 0;
+		peak = 0;
+		return Math.min(target, capacity);
+	}
+
+	/**
+	 * @return the smallest power of 2 not below <code>n</code>.
+	 */
+	public static int roundUp(int n) {
+		return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+	}
+
+	/**
+	 * @return <code>capacity</code> doubled until it holds <code>needed</code> entries.
+	 */
+	public static int grow(int capacity, int needed) {
+		capacity = Math.max(capacity, 1);
+		while (capacity < needed)
+			capacity <<= 1;
+		return capacity;
+	}
+
+	/**
+	 * @return the approximate bytes of an array.
+	 */
+	public static long arrayBytes(int length, int elementBytes) {
+		return align(HEADER + 4 + (long) length * elementBytes);
+	}
+
+	/**
+	 * @return the approximate bytes of an object with the given fields.
+	 */
+	public static long objectBytes(int fieldBytes) {
+		return align(HEADER + fieldBytes);
+	}
+
+	private static long align(long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+
+	/**
+	 * The bytes held by the logs of the live contexts, the contexts which don't run anymore
+	 * are left out.
+	 */
+	@Exclude
+	private static class Footprints implements CounterSource {
+
+		public String getTitle() {
+			return "Context memory";
+		}
+
+		public String[] getCounterNames() {
+			return new String[] { "contexts", "bytes", "max bytes" };
+		}
+
+		public void addCounters(Context context, boolean live, long[] counters) {
+			if (!live || !(context instanceof MemoryFootprint))
+				return;
+			long footprint = ((MemoryFootprint) context).getFootprint();
+			counters[0]++;
+			counters[1] += footprint;
+			counters[2] = Math.max(counters[2], footprint);
+		}
+	}
+}
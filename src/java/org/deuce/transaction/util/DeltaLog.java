@@ -0,0 +1,111 @@
+package org.deuce.transaction.util;
+
+import java.util.Arrays;
+
+import org.deuce.reflection.AddressUtil;
+import org.deuce.reflection.UnsafeHolder;
+import org.deuce.transform.Exclude;
+
+import sun.misc.Unsafe;
+
+/**
+ * The increments a transaction logged (see {@link org.deuce.transaction.CommutativeContext}),
+ * one entry per location holding the sum of its increments.
+ * <p>
+ * A transaction increments a handful of counters, the entries are looked up with a linear
+ * scan. The context locks the locations of the entries when it commits, then calls
+ * {@link #apply()}. A lock held by another committing transaction is waited for, up to
+ * {@link #WAITS} yields, as that transaction won't hold it for long.
+ *
+ * @since 1.4
+ */
+@Exclude
+final public class DeltaLog {
+
+	final public static String WAITS_PROPERTY = "org.deuce.transaction.delta.waits";
+	final public static int WAITS = Integer.getInteger(WAITS_PROPERTY, 64);
+
+	final private static Unsafe unsafe = UnsafeHolder.getUnsafe();
+
+	private Object[] references = new Object[4];
+	private long[] fields = new long[4];
+	private long[] deltas = new long[4];
+	private int size;
+
+	public void clear() {
+		Arrays.fill(references, 0, size, null);
+		size = 0;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Object getReference(int entry) {
+		return references[entry];
+	}
+
+	public long getField(int entry) {
+		return fields[entry];
+	}
+
+	public long getDelta(int entry) {
+		return deltas[entry];
+	}
+
+	public void add(Object obj, long field, long delta) {
+		for (int i = 0; i < size; i++) {
+			if (references[i] == obj && fields[i] == field) {
+				deltas[i] += delta;
+				return;
+			}
+		}
+		if (size == references.length) {
+			references = Arrays.copyOf(references, size << 1);
+			fields = Arrays.copyOf(fields, size << 1);
+			deltas = Arrays.copyOf(deltas, size << 1);
+		}
+		references[size] = obj;
+		fields[size] = field;
+		deltas[size] = delta;
+		size++;
+	}
+
+	/**
+	 * @return the sum of the increments of the location, 0 if it has none.
+	 */
+	public long get(Object obj, long field) {
+		for (int i = 0; i < size; i++) {
+			if (references[i] == obj && fields[i] == field)
+				return deltas[i];
+		}
+		return 0;
+	}
+
+	/**
+	 * @return the value of the location once incremented, its lock must be held.
+	 */
+	public long getValue(int entry) {
+		return unsafe.getLong(references[entry], AddressUtil.getOffset(fields[entry])) + deltas[entry];
+	}
+
+	/**
+	 * Increments the locations in place, their locks must be held.
+	 */
+	public void apply() {
+		for (int i = 0; i < size; i++)
+			unsafe.putLong(references[i], AddressUtil.getOffset(fields[i]), getValue(i));
+	}
+
+	/**
+	 * @return the approximate bytes held by the arrays.
+	 */
+	public long getFootprint() {
+		int l = references.length;
+		return Capacity.arrayBytes(l, Capacity.REFERENCE) + 2 * Capacity.arrayBytes(l, 8);
+	}
+}
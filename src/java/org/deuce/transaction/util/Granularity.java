@@ -0,0 +1,177 @@
+package org.deuce.transaction.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.deuce.reflection.AddressUtil;
+import org.deuce.transform.Exclude;
+
+/**
+ * The conflict detection granularity, i.e. which locations of an object share a lock.
+ * <p>
+ * A lock table hashes a location (object, field offset) to a lock. The granularity first
+ * maps the field offset to a <em>stripe</em> of the object, all the locations of a stripe
+ * get the same lock:
+ * <ul>
+ * <li><code>field</code> - each field and each array element on its own (the original
+ * behavior).</li>
+ * <li><code>object</code> - a single stripe per object, or per class for the static
+ * fields.</li>
+ * <li><code>line</code> - a stripe per 64 bytes of the object.</li>
+ * <li><code>block</code> - a stripe per block of elements of an array, the fields of the
+ * other objects on their own.</li>
+ * </ul>
+ * A coarser granularity takes fewer locks and logs fewer reads for the transactions that
+ * access most of an object or a range of an array, at the cost of false conflicts between
+ * the transactions accessing different parts of it.
+ * <p>
+ * The configuration is read from the following system properties:
+ * <ul>
+ * <li><code>org.deuce.transaction.granularity</code> - <code>field</code>,
+ * <code>object</code>, <code>line</code> or <code>block</code> (default
+ * <code>field</code>).</li>
+ * <li><code>org.deuce.transaction.granularity.block</code> - elements per block, rounded
+ * up to a power of 2 (default 16).</li>
+ * <li><code>org.deuce.transaction.granularity.classes</code> - per class granularity,
+ * e.g. <code>org.foo.Matrix=object,int[]=block</code>. A class is named as by
+ * {@link Class#getName()} or {@link Class#getCanonicalName()}, the static fields follow
+ * the default granularity.</li>
+ * </ul>
+ *
+ * @since 1.4
+ */
+@Exclude
+public class Granularity {
+
+	final public static String PROPERTY = "org.deuce.transaction.granularity";
+	final public static String BLOCK_PROPERTY = "org.deuce.transaction.granularity.block";
+	final public static String CLASSES_PROPERTY = "org.deuce.transaction.granularity.classes";
+
+	final public static int FIELD = 0;
+	final public static int OBJECT = 1;
+	final public static int LINE = 2;
+	final public static int BLOCK = 3;
+
+	final public static int DEFAULT_BLOCK = 16; // elements
+
+	final private static String[] NAMES = { "field", "object", "line", "block"};
+
+	final private static int LINE_SHIFT = Integer.numberOfTrailingZeros( LockTableLayout.CACHE_LINE_SIZE);
+	final private static int REFERENCE_SHIFT = Integer.numberOfTrailingZeros( AddressUtil.arrayIndexScale( Object[].class));
+
+	final private static Granularity DEFAULT = new Granularity( parse( System.getProperty( PROPERTY)),
+			Integer.getInteger( BLOCK_PROPERTY, DEFAULT_BLOCK), parseClasses( System.getProperty( CLASSES_PROPERTY)));
+
+	final private int granularity;
+	final private int blockShift; // log2 of elements per block
+	// Per class granularity by class name, null if none
+	final private Map<String, Integer> classes;
+	final private ConcurrentHashMap<Class<?>, Integer> resolved = new ConcurrentHashMap<Class<?>, Integer>();
+
+	/**
+	 * @param classes per class granularity by class name, <code>null</code> if none.
+	 */
+	public Granularity( int granularity, int blockSize, Map<String, Integer> classes){
+		if( granularity < FIELD || granularity > BLOCK)
+			throw new IllegalArgumentException( "Illegal granularity: " + granularity);
+		if( blockSize <= 0)
+			throw new IllegalArgumentException( "Illegal block size: " + blockSize);
+		this.granularity = granularity;
+		this.blockShift = 32 - Integer.numberOfLeadingZeros( blockSize - 1);
+		this.classes = classes == null || classes.isEmpty() ? null : new HashMap<String, Integer>( classes);
+	}
+
+	/**
+	 * @return the granularity configured by the system properties.
+	 */
+	public static Granularity getDefault(){
+		return DEFAULT;
+	}
+
+	public static int parse( String value){
+		if( value == null)
+			return FIELD;
+		for( int i=0 ; i<NAMES.length ; ++i){
+			if( NAMES[i].equalsIgnoreCase( value.trim()))
+				return i;
+		}
+		throw new IllegalArgumentException( "Unknown " + PROPERTY + " value: " + value);
+	}
+
+	private static Map<String, Integer> parseClasses( String value){
+		if( value == null)
+			return null;
+		Map<String, Integer> classes = new HashMap<String, Integer>();
+		for( String entry : value.split( ",")){
+			if( entry.trim().length() == 0)
+				continue;
+			int separator = entry.indexOf( '=');
+			if( separator < 0)
+				throw new IllegalArgumentException( "Illegal " + CLASSES_PROPERTY + " entry: " + entry);
+			classes.put( entry.substring( 0, separator).trim(), parse( entry.substring( separator + 1)));
+		}
+		return classes;
+	}
+
+	/**
+	 * Maps the field offset of a location to its stripe of the object, the lock tables hash
+	 * the stripe in place of the field.
+	 */
+	public long stripe( Object obj, long field){
+		int granularity = classes == null ? this.granularity : granularity( obj.getClass());
+		switch( granularity){
+		case OBJECT:
+			return 0;
+		case LINE:
+			return field >>> LINE_SHIFT;
+		case BLOCK:
+			int shift = elementShift( obj);
+			return shift < 0 ? field : field >>> (shift + blockShift);
+		default:
+			return field;
+		}
+	}
+
+	/**
+	 * @return the granularity of the instances of the class.
+	 */
+	public int granularity( Class<?> type){
+		if( classes == null)
+			return granularity;
+		Integer resolved = this.resolved.get( type);
+		if( resolved == null){
+			resolved = classes.get( type.getName());
+			String canonical = type.getCanonicalName();
+			if( resolved == null && canonical != null)
+				resolved = classes.get( canonical);
+			if( resolved == null)
+				resolved = granularity;
+			this.resolved.put( type, resolved);
+		}
+		return resolved;
+	}
+
+	/**
+	 * @return log2 of the element size of an array, -1 if the object isn't an array.
+	 */
+	private static int elementShift( Object obj){
+		if( obj instanceof Object[])
+			return REFERENCE_SHIFT;
+		if( obj instanceof int[] || obj instanceof float[])
+			return 2;
+		if( obj instanceof long[] || obj instanceof double[])
+			return 3;
+		if( obj instanceof char[] || obj instanceof short[])
+			return 1;
+		if( obj instanceof byte[] || obj instanceof boolean[])
+			return 0;
+		return -1;
+	}
+
+	@Override
+	public String toString(){
+		return NAMES[granularity] + (granularity == BLOCK ? "/" + (1 << blockShift) : "") +
+				(classes == null ? "" : ", per class " + classes.keySet());
+	}
+}
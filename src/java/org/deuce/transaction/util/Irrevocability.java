@@ -0,0 +1,143 @@
+package org.deuce.transaction.util;
+
+import org.deuce.transaction.TransactionException;
+import org.deuce.transform.Exclude;
+
+/**
+ * The irrevocable state of a single context, its side of the {@link IrrevocabilityGuard}.
+ * <p>
+ * A transaction that reaches an irrevocable access first tries to {@link #upgrade()} in
+ * place: it waits to run alone, then the context validates what it read and writes back
+ * what it wrote so far. The transaction goes on irrevocably from there, without running
+ * its block again. Only when the validation fails, or when the context has nothing to
+ * validate against (e.g. a read-only transaction), the transaction {@link #restart()}s and
+ * its next attempt runs irrevocably from the start.
+ * <p>
+ * The writes made visible by an upgrade can't be undone, an upgraded transaction must not
+ * abort.
+ *
+ * @since 1.4
+ */
+@Exclude
+public class Irrevocability {
+
+	final private static int IDLE = 0;
+	final private static int SHARED = 1;
+	final private static int EXCLUSIVE = 2;
+
+	final private IrrevocabilityGuard guard;
+	final private int slot;
+
+	private int held = IDLE;
+	// The current or next attempt runs irrevocably
+	private boolean requested;
+
+	public Irrevocability(IrrevocabilityGuard guard) {
+		this.guard = guard;
+		this.slot = guard.newSlot();
+	}
+
+	public Irrevocability() {
+		this(IrrevocabilityGuard.getInstance());
+	}
+
+	/**
+	 * Called when the transaction starts, waits while another transaction runs irrevocably.
+	 */
+	public void begin() {
+		if (requested) {
+			guard.beginIrrevocable();
+			held = EXCLUSIVE;
+		} else {
+			guard.begin(slot);
+			held = SHARED;
+		}
+	}
+
+	/**
+	 * Called when the transaction committed, or failed to, the next attempt runs regularly.
+	 */
+	public void commit() {
+		release();
+		requested = false;
+	}
+
+	/**
+	 * Called when the transaction aborts, an irrevocable transaction stays so on its retry.
+	 */
+	public void rollback() {
+		release();
+	}
+
+	private void release() {
+		if (held == EXCLUSIVE)
+			guard.endIrrevocable();
+		else if (held == SHARED)
+			guard.end(slot);
+		held = IDLE;
+	}
+
+	/**
+	 * @return <code>true</code> if the running transaction runs alone.
+	 */
+	public boolean isIrrevocable() {
+		return held == EXCLUSIVE;
+	}
+
+	/**
+	 * @return <code>true</code> if the transaction about to start will run irrevocably.
+	 */
+	public boolean isRequested() {
+		return requested;
+	}
+
+	/**
+	 * Waits for the running transaction to run alone, the context must then validate it
+	 * and write back its writes, see {@link #onUpgrade()}.
+	 * @return <code>false</code> if no transaction is running, nothing to upgrade.
+	 */
+	public boolean upgrade() {
+		requested = true;
+		if (held != SHARED)
+			return false;
+		// Another transaction might become irrevocable in between, the validation tells
+		guard.end(slot);
+		held = IDLE;
+		guard.beginIrrevocable();
+		held = EXCLUSIVE;
+		return true;
+	}
+
+	/**
+	 * Called once the upgraded transaction was validated and goes on irrevocably.
+	 */
+	public void onUpgrade() {
+		guard.onUpgrade();
+	}
+
+	/**
+	 * Marks the next attempt as irrevocable, called between two attempts. Unlike
+	 * {@link #restart()} it isn't counted as a restart.
+	 */
+	public void request() {
+		requested = true;
+	}
+
+	/**
+	 * Called when the transaction gave up after its last attempt, the next transaction
+	 * runs regularly.
+	 */
+	public void cancel() {
+		requested = false;
+	}
+
+	/**
+	 * Marks the next attempt as irrevocable.
+	 * @return the exception to throw in order to restart the transaction.
+	 */
+	public TransactionException restart() {
+		requested = true;
+		guard.onRestart();
+		return TransactionException.STATIC_TRANSACTION;
+	}
+}
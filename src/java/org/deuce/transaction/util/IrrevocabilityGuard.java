@@ -0,0 +1,182 @@
+package org.deuce.transaction.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.deuce.transaction.Context;
+import org.deuce.transaction.statistics.CounterSource;
+import org.deuce.transaction.statistics.Statistics;
+import org.deuce.transform.Exclude;
+
+/**
+ * Lets a single irrevocable transaction run alone, a reader-writer lock whose read side
+ * scales.
+ * <p>
+ * The regular transactions are the readers, they announce themselves on a striped
+ * counter (a read indicator), each stripe on its own cache lines. A context gets a stripe
+ * with {@link #newSlot()} once, so as long as there are no more threads than stripes a
+ * transaction start only touches its own stripe and reads the <code>writer</code> word,
+ * which is shared by all the processors and written only by irrevocable transactions.
+ * <p>
+ * The irrevocable transaction sets <code>writer</code> and waits for all the stripes to
+ * drain. A reader that finds <code>writer</code> set leaves its stripe and waits for the
+ * irrevocable transaction to end, so the irrevocable transaction can't starve.
+ * <p>
+ * The amount of stripes is read from the
+ * <code>org.deuce.transaction.irrevocable.stripes</code> system property, rounded up to a
+ * power of 2 (default 4 times the processors, at least 16).
+ * <p>
+ * The backends share a single guard, see {@link #getInstance()}, which also counts how
+ * the transactions became irrevocable (see {@link Irrevocability}).
+ *
+ * @since 1.4
+ */
+@Exclude
+public class IrrevocabilityGuard {
+
+	final public static String STRIPES_PROPERTY = "org.deuce.transaction.irrevocable.stripes";
+
+	final private static IrrevocabilityGuard instance = new IrrevocabilityGuard();
+
+	static {
+		Statistics.registerSource(new Counters());
+	}
+
+	// Two cache lines per stripe, the adjacent line might be prefetched
+	final private static int STRIDE_SHIFT = 5;
+
+	final private AtomicIntegerArray readers;
+	final private int mask;
+	final private AtomicInteger nextSlot = new AtomicInteger();
+
+	// 1 while an irrevocable transaction runs or waits for the readers to drain
+	final private AtomicInteger writer = new AtomicInteger();
+
+	final private AtomicLong upgrades = new AtomicLong();
+	final private AtomicLong restarts = new AtomicLong();
+
+	/**
+	 * @return the guard of all the backends.
+	 */
+	public static IrrevocabilityGuard getInstance(){
+		return instance;
+	}
+
+	public IrrevocabilityGuard(){
+		this( Integer.getInteger( STRIPES_PROPERTY,
+				Math.max( 16, 4 * Runtime.getRuntime().availableProcessors())));
+	}
+
+	public IrrevocabilityGuard( int stripes){
+		if( stripes <= 0)
+			throw new IllegalArgumentException( "Illegal stripes: " + stripes);
+		int size = Integer.highestOneBit( stripes - 1) << 1;
+		if( size == 0)
+			size = 1;
+		this.mask = size - 1;
+		this.readers = new AtomicIntegerArray( (size + 1) << STRIDE_SHIFT); // padded at both ends
+	}
+
+	/**
+	 * @return the amount of stripes, a power of 2.
+	 */
+	public int stripes(){
+		return mask + 1;
+	}
+
+	/**
+	 * @return a stripe for a new context, the stripes are handed out round-robin.
+	 */
+	public int newSlot(){
+		return ((nextSlot.getAndIncrement() & mask) + 1) << STRIDE_SHIFT;
+	}
+
+	/**
+	 * Starts a regular transaction, waits while an irrevocable transaction runs.
+	 * @param slot the context stripe.
+	 */
+	public void begin( int slot){
+		AtomicIntegerArray readers = this.readers;
+		while( true){
+			readers.getAndIncrement( slot);
+			if( writer.get() == 0)
+				return;
+			readers.getAndDecrement( slot);
+			while( writer.get() != 0)
+				Thread.yield();
+		}
+	}
+
+	/**
+	 * Ends a transaction started by {@link #begin(int)}.
+	 */
+	public void end( int slot){
+		readers.getAndDecrement( slot);
+	}
+
+	/**
+	 * Starts an irrevocable transaction, returns once it runs alone.
+	 */
+	public void beginIrrevocable(){
+		while( !writer.compareAndSet( 0, 1))
+			Thread.yield();
+		AtomicIntegerArray readers = this.readers;
+		int last = stripes() << STRIDE_SHIFT;
+		for( int slot = 1 << STRIDE_SHIFT ; slot <= last ; slot += 1 << STRIDE_SHIFT){
+			while( readers.get( slot) != 0)
+				Thread.yield();
+		}
+	}
+
+	/**
+	 * Ends a transaction started by {@link #beginIrrevocable()}.
+	 */
+	public void endIrrevocable(){
+		writer.set( 0);
+	}
+
+	void onUpgrade(){
+		upgrades.incrementAndGet();
+	}
+
+	void onRestart(){
+		restarts.incrementAndGet();
+	}
+
+	/**
+	 * @return amount of transactions that became irrevocable in place.
+	 */
+	public long getUpgrades(){
+		return upgrades.get();
+	}
+
+	/**
+	 * @return amount of transactions restarted in order to run irrevocably.
+	 */
+	public long getRestarts(){
+		return restarts.get();
+	}
+
+	/**
+	 * The counters of the shared guard reported by the statistics.
+	 */
+	@Exclude
+	private static class Counters implements CounterSource {
+
+		public String getTitle(){
+			return "Irrevocable transactions";
+		}
+
+		public String[] getCounterNames(){
+			return new String[]{ "upgrades", "restarts"};
+		}
+
+		public void addCounters( Context context, boolean live, long[] counters){
+			if( context != null)
+				return;
+			counters[0] += instance.getUpgrades();
+			counters[1] += instance.getRestarts();
+		}
+	}
+}
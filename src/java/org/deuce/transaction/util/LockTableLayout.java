@@ -0,0 +1,172 @@
+package org.deuce.transaction.util;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * Describes how a lock table maps an accessed location (object, field) to a lock word.
+ * <p>
+ * A location is first hashed to a <em>logical</em> lock index in <code>[0, size)</code>.
+ * The logical index is what the transaction keeps in its read/write sets and
+ * self-lock markers. The lock table translates it to the <em>physical</em> slot of the
+ * backing array with {@link #slot(int)}, this is where the layout takes place:
+ * <ul>
+ * <li><code>compact</code> - one lock word next to the other (the original layout).</li>
+ * <li><code>padded</code> - each lock word sits alone on its own cache line.</li>
+ * <li><code>striped</code> - same memory as <code>compact</code>, but neighbouring logical
+ * indexes are spread on different cache lines.</li>
+ * </ul>
+ * The configuration is read from the following system properties:
+ * <ul>
+ * <li><code>org.deuce.transaction.locktable.size</code> - amount of locks, rounded up to
+ * a power of 2 (default 2^20). The backing array holds at most 2^30 words, that is 2^26
+ * locks with the <code>padded</code> layout of 4 byte lock words.</li>
+ * <li><code>org.deuce.transaction.locktable.layout</code> - <code>compact</code>,
+ * <code>padded</code> or <code>striped</code> (default <code>compact</code>).</li>
+ * <li><code>org.deuce.transaction.locktable.hash</code> - <code>sum</code> (identity hash
+ * plus field offset), <code>murmur</code> or <code>fibonacci</code> (default <code>sum</code>).</li>
+ * </ul>
+ * Which locations of an object share a lock is up to the {@link Granularity}.
+ *
+ * @since 1.4
+ */
+@Exclude
+public class LockTableLayout {
+
+	final public static String SIZE_PROPERTY = "org.deuce.transaction.locktable.size";
+	final public static String LAYOUT_PROPERTY = "org.deuce.transaction.locktable.layout";
+	final public static String HASH_PROPERTY = "org.deuce.transaction.locktable.hash";
+
+	final public static int DEFAULT_SIZE = 1 << 20;
+	final public static int CACHE_LINE_SIZE = 64; // bytes
+	final private static int MAX_ARRAY_BITS = 30; // the backing array can't exceed 2^30 words
+
+	final public static int COMPACT = 0;
+	final public static int PADDED = 1;
+	final public static int STRIPED = 2;
+
+	final public static int SUM_HASH = 0;
+	final public static int MURMUR_HASH = 1;
+	final public static int FIBONACCI_HASH = 2;
+
+	final private static String[] LAYOUT_NAMES = { "compact", "padded", "striped"};
+	final private static String[] HASH_NAMES = { "sum", "murmur", "fibonacci"};
+
+	final private int size;
+	final private int mask;
+	final private int sizeBits;
+	final private int layout;
+	final private int hashFunction;
+	final private int lineShift; // log2 of lock words per cache line
+	final private int lineMask;  // used by the striped layout
+	final private int linesShift;
+	final private Granularity granularity;
+
+	/**
+	 * Creates a layout from the system properties.
+	 * @param wordSize the size in bytes of a single lock word (4 or 8).
+	 */
+	public LockTableLayout( int wordSize){
+		this( Integer.getInteger( SIZE_PROPERTY, DEFAULT_SIZE),
+				parse( System.getProperty( LAYOUT_PROPERTY), LAYOUT_NAMES, LAYOUT_PROPERTY),
+				parse( System.getProperty( HASH_PROPERTY), HASH_NAMES, HASH_PROPERTY),
+				wordSize);
+	}
+
+	public LockTableLayout( int size, int layout, int hashFunction, int wordSize){
+		this( size, layout, hashFunction, wordSize, Granularity.getDefault());
+	}
+
+	public LockTableLayout( int size, int layout, int hashFunction, int wordSize, Granularity granularity){
+		int lineShift = Integer.numberOfTrailingZeros( CACHE_LINE_SIZE / wordSize);
+		int bits = 32 - Integer.numberOfLeadingZeros( size - 1);
+		// The padded layout takes a cache line per lock
+		if( size <= 0 || bits + (layout == PADDED ? lineShift : 0) > MAX_ARRAY_BITS)
+			throw new IllegalArgumentException( "Illegal lock table size: " + size);
+
+		this.sizeBits = bits;
+		this.size = 1 << bits;
+		this.mask = this.size - 1;
+		this.layout = layout;
+		this.hashFunction = hashFunction;
+		this.granularity = granularity;
+		this.lineShift = lineShift;
+
+		// A table smaller than a single cache line can't be striped
+		int linesShift = bits - lineShift;
+		if( linesShift < 0)
+			linesShift = 0;
+		this.linesShift = linesShift;
+		this.lineMask = (1 << linesShift) - 1;
+	}
+
+	private static int parse( String value, String[] names, String property){
+		if( value == null)
+			return 0;
+		for( int i=0 ; i<names.length ; ++i){
+			if( names[i].equalsIgnoreCase( value))
+				return i;
+		}
+		throw new IllegalArgumentException( "Unknown " + property + " value: " + value);
+	}
+
+	/**
+	 * @return amount of logical locks, always a power of 2.
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * @return mask that can be used to fold a hash into a logical lock index.
+	 */
+	public int mask(){
+		return mask;
+	}
+
+	/**
+	 * @return the length of the array that should back the lock table.
+	 */
+	public int arrayLength(){
+		return layout == PADDED ? size << lineShift : size;
+	}
+
+	/**
+	 * Hashes the location to a logical lock index.
+	 */
+	public int hash( Object obj, long field){
+		int hash = System.identityHashCode( obj) + (int) granularity.stripe( obj, field);
+		switch( hashFunction){
+		case MURMUR_HASH:
+			hash ^= hash >>> 16;
+			hash *= 0x85ebca6b;
+			hash ^= hash >>> 13;
+			hash *= 0xc2b2ae35;
+			hash ^= hash >>> 16;
+			return hash & mask;
+		case FIBONACCI_HASH:
+			return sizeBits == 0 ? 0 : (hash * 0x9E3779B9) >>> (32 - sizeBits);
+		default:
+			return hash & mask;
+		}
+	}
+
+	/**
+	 * Translates a logical lock index to the physical slot in the backing array.
+	 */
+	public int slot( int index){
+		switch( layout){
+		case PADDED:
+			return index << lineShift;
+		case STRIPED:
+			return ((index & lineMask) << lineShift) | (index >>> linesShift);
+		default:
+			return index;
+		}
+	}
+
+	@Override
+	public String toString(){
+		return LAYOUT_NAMES[layout] + ", size=" + size + ", hash=" + HASH_NAMES[hashFunction] +
+				", granularity=" + granularity;
+	}
+}
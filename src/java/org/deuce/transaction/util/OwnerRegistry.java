@@ -0,0 +1,193 @@
+package org.deuce.transaction.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * Hands out the small ids a backend packs in its lock words to name the owner of a lock,
+ * and finds the owner (its context) of an id back for contention management.
+ * <p>
+ * The ids are recycled. An id is bound to the thread that registered it and is taken back
+ * once that thread terminated, so an application churning through short lived threads
+ * keeps reusing the same few ids, the limit is on the threads alive at once. An owner that
+ * outlives its thread, e.g. a pooled context (see
+ * {@link org.deuce.transaction.ThreadBoundContext}), is {@link #detach(int)}ed from it and
+ * gives its id back with {@link #release(int)}. The terminated threads are looked for once
+ * the ids handed out so far are used up, before the registry grows.
+ * <p>
+ * Each id also has a record of a few longs, e.g. the status and the priority of the
+ * running transaction, which the other threads read and CAS while resolving conflicts.
+ * Each record sits on its own cache lines, so the updates of a thread don't slow down
+ * the threads whose records are next to it. The registry grows by chunks of ids and a
+ * chunk never moves, hence the records can be updated while the registry grows. A
+ * recycled id keeps the record of its previous owner, the new owner resets what it needs.
+ *
+ * @since 1.4
+ */
+@Exclude
+final public class OwnerRegistry<T> {
+
+	final public static int NO_OWNER = 0;
+
+	final private static int CHUNK_SHIFT = 6; // ids per chunk
+	final private static int CHUNK = 1 << CHUNK_SHIFT;
+	// Two cache lines per record, the adjacent line might be prefetched
+	final private static int RECORD_SHIFT = 4;
+	final public static int RECORD_LONGS = 1 << RECORD_SHIFT;
+
+	@Exclude
+	final private static class Chunk<T> {
+		final AtomicReferenceArray<T> owners = new AtomicReferenceArray<T>(CHUNK);
+		final AtomicLongArray records = new AtomicLongArray((CHUNK + 1) << RECORD_SHIFT); // padded ahead
+		// The thread each id is bound to, null once detached, guarded by the registry
+		final Thread[] threads = new Thread[CHUNK];
+	}
+
+	final private int maxId;
+	private volatile Chunk<T>[] chunks;
+
+	// Guarded by this
+	private int next = NO_OWNER + 1; // the lowest id never handed out
+	private int[] free = new int[CHUNK];
+	private int freeCount;
+	private int live;
+	private long recycled;
+
+	/**
+	 * @param maxId the largest id, e.g. the largest owner a lock word holds.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public OwnerRegistry(int maxId) {
+		if (maxId <= NO_OWNER)
+			throw new IllegalArgumentException("Illegal max id: " + maxId);
+		this.maxId = maxId;
+		this.chunks = new Chunk[] { new Chunk<T>() };
+	}
+
+	/**
+	 * Gives an id to an owner created by the current thread, the id is recycled once the
+	 * thread terminated.
+	 * @return an id between 1 and the max id.
+	 * @throws IllegalStateException if all the ids are used by live threads.
+	 */
+	public synchronized int register(T owner) {
+		int id = allocate();
+		Chunk<T> chunk = chunks[id >>> CHUNK_SHIFT];
+		chunk.threads[id & (CHUNK - 1)] = Thread.currentThread();
+		chunk.owners.set(id & (CHUNK - 1), owner);
+		live++;
+		return id;
+	}
+
+	/**
+	 * The owner of the id is no longer bound to the thread which registered it, it keeps
+	 * the id until it is {@link #release(int)}d.
+	 */
+	public synchronized void detach(int id) {
+		chunks[id >>> CHUNK_SHIFT].threads[id & (CHUNK - 1)] = null;
+	}
+
+	/**
+	 * Gives an id back, its owner won't run transactions anymore.
+	 */
+	public synchronized void release(int id) {
+		Chunk<T> chunk = chunks[id >>> CHUNK_SHIFT];
+		if (chunk.owners.get(id & (CHUNK - 1)) != null)
+			free(chunk, id);
+	}
+
+	/**
+	 * @return the owner of the id, <code>null</code> if the id isn't in use.
+	 */
+	public T get(int id) {
+		return chunks[id >>> CHUNK_SHIFT].owners.get(id & (CHUNK - 1));
+	}
+
+	/**
+	 * @return the array holding the record of the id, at {@link #recordIndex(int)}.
+	 */
+	public AtomicLongArray records(int id) {
+		return chunks[id >>> CHUNK_SHIFT].records;
+	}
+
+	/**
+	 * @return the index of the first of the {@link #RECORD_LONGS} longs of the record.
+	 */
+	public static int recordIndex(int id) {
+		return ((id & (CHUNK - 1)) + 1) << RECORD_SHIFT;
+	}
+
+	private int allocate() {
+		int capacity = chunks.length << CHUNK_SHIFT;
+		if (freeCount == 0 && next >= capacity) {
+			// Out of fresh ids, take back the ids of the terminated threads, and grow as
+			// well unless it gave back enough ids for a while
+			int recycled = recycle();
+			if (recycled < capacity >> 2 && next <= maxId)
+				grow();
+		}
+		if (freeCount > 0)
+			return free[--freeCount];
+		if (next > maxId)
+			throw new IllegalStateException("More than " + maxId + " threads run transactions at once");
+		return next++;
+	}
+
+	private int recycle() {
+		int recycled = 0;
+		Chunk<T>[] chunks = this.chunks;
+		for (int id = NO_OWNER + 1; id < next; id++) {
+			Chunk<T> chunk = chunks[id >>> CHUNK_SHIFT];
+			Thread thread = chunk.threads[id & (CHUNK - 1)];
+			if (thread != null && !thread.isAlive()) {
+				free(chunk, id);
+				recycled++;
+			}
+		}
+		this.recycled += recycled;
+		return recycled;
+	}
+
+	private void free(Chunk<T> chunk, int id) {
+		chunk.threads[id & (CHUNK - 1)] = null;
+		chunk.owners.set(id & (CHUNK - 1), null);
+		if (freeCount == free.length)
+			free = Arrays.copyOf(free, free.length << 1);
+		free[freeCount++] = id;
+		live--;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void grow() {
+		Chunk<T>[] chunks = this.chunks;
+		int length = Math.min(chunks.length << 1, (maxId >>> CHUNK_SHIFT) + 1);
+		Chunk<T>[] grown = Arrays.copyOf(chunks, length);
+		for (int i = chunks.length; i < length; i++)
+			grown[i] = new Chunk<T>();
+		this.chunks = grown;
+	}
+
+	/**
+	 * @return the amount of ids in use.
+	 */
+	public synchronized int size() {
+		return live;
+	}
+
+	/**
+	 * @return the amount of ids the registry holds records for.
+	 */
+	public int getCapacity() {
+		return chunks.length << CHUNK_SHIFT;
+	}
+
+	/**
+	 * @return the amount of ids taken back from terminated threads so far.
+	 */
+	public synchronized long getRecycled() {
+		return recycled;
+	}
+}
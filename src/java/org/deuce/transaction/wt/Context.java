@@ -0,0 +1,381 @@
+package org.deuce.transaction.wt;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.deuce.reflection.UnsafeHolder;
+import org.deuce.transaction.IrrevocableContext;
+import org.deuce.transaction.MemoryFootprint;
+import org.deuce.transaction.SetSizes;
+import org.deuce.transaction.ThreadBoundContext;
+import org.deuce.transaction.TransactionException;
+import org.deuce.transaction.clock.Factory;
+import org.deuce.transaction.clock.GlobalClock;
+import org.deuce.transaction.lsa.field.Field.Type;
+import org.deuce.transaction.util.Capacity;
+import org.deuce.transaction.util.Irrevocability;
+import org.deuce.transaction.util.OwnerRegistry;
+import org.deuce.transform.Exclude;
+
+import sun.misc.Unsafe;
+
+/**
+ * Write-through STM implementation, in the style of TinySTM.
+ * <p>
+ * A transaction locks a location when it first writes it (encounter time locking), logs
+ * its old value in an {@link UndoLog} and writes the new value in place. A read of a
+ * location the transaction locked is a plain read, there is no write set to look up, and
+ * a commit only validates the read set and releases the locks with its commit time. An
+ * abort pays instead: it restores the old values through <code>Unsafe</code>, the newest
+ * first, then releases the locks (see {@link LockTable#restore(int, long)}).
+ * <p>
+ * The reads are checked as in LSA: a transaction reading a location locked by another
+ * transaction aborts, and one meeting a newer version extends its snapshot if the
+ * locations read so far are unchanged. A write to a location locked by another
+ * transaction aborts right away, the retry policy backs off.
+ * <p>
+ * Suits the write heavy, low contention blocks. A location is locked from its first write
+ * to the end of the transaction, longer than with commit time locking, and the code
+ * outside the transactions may see the values of a transaction that will abort.
+ *
+ * @since 1.4
+ */
+@Exclude
+final public class Context implements IrrevocableContext, MemoryFootprint, SetSizes, ThreadBoundContext {
+
+	final private static TransactionException READ_FAILURE_EXCEPTION =
+		new TransactionException("Fail on read (locked or newer version).");
+
+	final private static TransactionException WRITE_FAILURE_EXCEPTION =
+		new TransactionException("Fail on write (locked by other transaction).");
+
+	final private static Unsafe unsafe = UnsafeHolder.getUnsafe();
+
+	final private static AtomicInteger globalClock = new AtomicInteger(0);
+
+	// Owner ids are recycled once their threads terminated
+	final private static OwnerRegistry<Context> threads = new OwnerRegistry<Context>(LockTable.MAX_OWNER);
+
+	final private GlobalClock clock = Factory.createClock(globalClock);
+
+	final private ReadSet readSet = new ReadSet();
+	final private UndoLog undoLog = new UndoLog();
+
+	// The locks taken by the transaction
+	private int[] locks = new int[16];
+	private int lockCount;
+
+	final private int owner;
+
+	private int localClock;
+
+	// Marked on beforeRead, used for the double lock check
+	private int readHash;
+	private long readLock;
+	private boolean readOwned; // the location read is locked by the transaction
+
+	//Used to allow only one irrevocable transaction solely.
+	final private Irrevocability irrevocable = new Irrevocability();
+
+	public Context() {
+		owner = threads.register(this);
+		localClock = clock.get();
+	}
+
+	public void detach() {
+		threads.detach(owner);
+	}
+
+	public void dispose() {
+		threads.release(owner);
+	}
+
+	@Override
+	public void init(int atomicBlockId, String metainf) {
+		readSet.init(atomicBlockId);
+		undoLog.init(atomicBlockId);
+		lockCount = 0;
+
+		//Lock according to the transaction irrevocable state
+		irrevocable.begin();
+
+		localClock = clock.get();
+	}
+
+	@Override
+	public boolean commit() {
+		try {
+			if (lockCount == 0) // nothing written, the reads were checked on the way
+				return true;
+			int version = clock.tick(localClock);
+			if (!clock.canSkipValidation(localClock, version) && !readSet.validate(localClock, owner)) {
+				undo();
+				clock.onAbort();
+				return false;
+			}
+			for (int i = 0; i < lockCount; i++)
+				LockTable.release(locks[i], version);
+			// Nothing to undo anymore, e.g. by an enclosing transaction reusing the context
+			undoLog.clear();
+			lockCount = 0;
+			return true;
+		}
+		finally {
+			irrevocable.commit();
+		}
+	}
+
+	@Override
+	public void rollback() {
+		undo();
+		clock.onAbort();
+		irrevocable.rollback();
+	}
+
+	/**
+	 * Restores the old values and releases the locks.
+	 */
+	private void undo() {
+		undoLog.undo();
+		undoLog.clear();
+		for (int i = 0; i < lockCount; i++)
+			LockTable.restore(locks[i], LockTable.get(locks[i]));
+		lockCount = 0;
+	}
+
+	/**
+	 * Moves the snapshot forward if the locations read so far are unchanged.
+	 */
+	private void extend(long version) {
+		// The clock might lag behind the version (see GlobalClock)
+		int now = clock.advance((int) version);
+		if (!readSet.validate(localClock, owner))
+			throw READ_FAILURE_EXCEPTION;
+		localClock = now;
+	}
+
+	@Override
+	public void beforeReadAccess(Object obj, long field) {
+		int hash = LockTable.hash(obj, field);
+		long lock = LockTable.get(hash);
+		if (LockTable.isLocked(lock)) {
+			if (LockTable.getOwner(lock) != owner)
+				throw READ_FAILURE_EXCEPTION;
+			readOwned = true; // the value in place is ours
+			return;
+		}
+		if (LockTable.getVersion(lock) > localClock) {
+			extend(LockTable.getVersion(lock));
+			if (LockTable.get(hash) != lock)
+				throw READ_FAILURE_EXCEPTION;
+		}
+		readOwned = false;
+		readHash = hash;
+		readLock = lock;
+	}
+
+	private void onReadAccess0() {
+		if (readOwned)
+			return;
+		// Check the read is still valid
+		if (LockTable.get(readHash) != readLock)
+			throw READ_FAILURE_EXCEPTION;
+		readSet.add(readHash);
+	}
+
+	@Override
+	public Object onReadAccess(Object obj, Object value, long field) {
+		onReadAccess0();
+		return value;
+	}
+
+	@Override
+	public boolean onReadAccess(Object obj, boolean value, long field) {
+		onReadAccess0();
+		return value;
+	}
+
+	@Override
+	public byte onReadAccess(Object obj, byte value, long field) {
+		onReadAccess0();
+		return value;
+	}
+
+	@Override
+	public char onReadAccess(Object obj, char value, long field) {
+		onReadAccess0();
+		return value;
+	}
+
+	@Override
+	public short onReadAccess(Object obj, short value, long field) {
+		onReadAccess0();
+		return value;
+	}
+
+	@Override
+	public int onReadAccess(Object obj, int value, long field) {
+		onReadAccess0();
+		return value;
+	}
+
+	@Override
+	public long onReadAccess(Object obj, long value, long field) {
+		onReadAccess0();
+		return value;
+	}
+
+	@Override
+	public float onReadAccess(Object obj, float value, long field) {
+		onReadAccess0();
+		return value;
+	}
+
+	@Override
+	public double onReadAccess(Object obj, double value, long field) {
+		onReadAccess0();
+		return value;
+	}
+
+	/**
+	 * Locks the location unless the transaction holds its lock already, then logs its
+	 * current value.
+	 */
+	private void beforeWrite(Object obj, long field, Type type) {
+		int hash = LockTable.hash(obj, field);
+		while (true) {
+			long lock = LockTable.get(hash);
+			if (LockTable.isLocked(lock)) {
+				if (LockTable.getOwner(lock) != owner)
+					throw WRITE_FAILURE_EXCEPTION;
+				break;
+			}
+			long version = LockTable.getVersion(lock);
+			if (version > localClock) {
+				extend(version);
+				continue;
+			}
+			if (LockTable.lock(hash, lock, owner)) {
+				if (lockCount == locks.length)
+					locks = Arrays.copyOf(locks, lockCount << 1);
+				locks[lockCount++] = hash;
+				break;
+			}
+		}
+		undoLog.add(obj, field, type);
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, Object value, long field) {
+		beforeWrite(obj, field, Type.OBJECT);
+		unsafe.putObject(obj, field, value);
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, boolean value, long field) {
+		beforeWrite(obj, field, Type.BOOLEAN);
+		unsafe.putBoolean(obj, field, value);
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, byte value, long field) {
+		beforeWrite(obj, field, Type.BYTE);
+		unsafe.putByte(obj, field, value);
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, char value, long field) {
+		beforeWrite(obj, field, Type.CHAR);
+		unsafe.putChar(obj, field, value);
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, short value, long field) {
+		beforeWrite(obj, field, Type.SHORT);
+		unsafe.putShort(obj, field, value);
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, int value, long field) {
+		beforeWrite(obj, field, Type.INT);
+		unsafe.putInt(obj, field, value);
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, long value, long field) {
+		beforeWrite(obj, field, Type.LONG);
+		unsafe.putLong(obj, field, value);
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, float value, long field) {
+		beforeWrite(obj, field, Type.FLOAT);
+		unsafe.putFloat(obj, field, value);
+	}
+
+	@Override
+	public void onWriteAccess(Object obj, double value, long field) {
+		beforeWrite(obj, field, Type.DOUBLE);
+		unsafe.putDouble(obj, field, value);
+	}
+
+	@Override
+	public void requestIrrevocable() {
+		irrevocable.request();
+	}
+
+	@Override
+	public void cancelIrrevocable() {
+		irrevocable.cancel();
+	}
+
+	@Override
+	public void onIrrevocableAccess() {
+		if(irrevocable.isIrrevocable()) // already in irrevocable state so no need to restart transaction.
+			return;
+
+		if(!irrevocable.upgrade() || !flush())
+			throw irrevocable.restart();
+		irrevocable.onUpgrade();
+	}
+
+	/**
+	 * Commits what the transaction did so far, must run alone. The transaction then goes on
+	 * from the current time with an empty read set and undo log.
+	 * @return <code>false</code> if the read set is no longer valid.
+	 */
+	private boolean flush() {
+		if (!readSet.validate(localClock, owner))
+			return false;
+		int version = localClock;
+		if (lockCount != 0) {
+			version = clock.tick(localClock);
+			for (int i = 0; i < lockCount; i++)
+				LockTable.release(locks[i], version);
+			lockCount = 0;
+		}
+		readSet.clear();
+		undoLog.clear();
+		localClock = clock.advance(version);
+		return true;
+	}
+
+	/**
+	 * @return the owner ids of the contexts.
+	 */
+	public static OwnerRegistry<Context> getThreads() {
+		return threads;
+	}
+
+	public long getFootprint() {
+		return readSet.getFootprint() + undoLog.getFootprint() + Capacity.arrayBytes(locks.length, 4);
+	}
+
+	public int getReadSetSize() {
+		return readSet.size();
+	}
+
+	public int getWriteSetSize() {
+		return undoLog.size();
+	}
+}
@@ -0,0 +1,84 @@
+package org.deuce.transaction.wt;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.deuce.transaction.util.LockTableLayout;
+import org.deuce.transform.Exclude;
+
+/**
+ * The versioned locks of the write-through STM. A lock word holds the lock bit, the owner
+ * of the lock, an incarnation number and the version of the locations it covers.
+ * <p>
+ * A lock is held from the first write of a location until the transaction ends, while the
+ * location holds values no other transaction may see. A commit releases it with its commit
+ * time. An abort restores the values and releases it with its old version and the next
+ * incarnation: a reader that read a value written by the aborted transaction, between its
+ * two loads of a lock word, sees a different word even though the version didn't change.
+ * <p>
+ * Memory ordering: a lock is taken with a CAS, a full fence, before the location is
+ * written. It is released with an ordered store ({@link AtomicLongArray#lazySet}), which
+ * isn't reordered with the writes, or the restores, before it.
+ *
+ * @since 1.4
+ */
+@Exclude
+public class LockTable {
+
+	final private static long LOCK = 1L << 63;
+	final private static int OWNER_SHIFT = 48;
+	final private static int INCARNATION_SHIFT = 40;
+	final private static long VERSION = (1L << INCARNATION_SHIFT) - 1;
+	final private static long INCARNATION = ((1L << OWNER_SHIFT) - 1) & ~VERSION;
+	final public static int MAX_OWNER = (1 << (63 - OWNER_SHIFT)) - 1;
+
+	final private static LockTableLayout LAYOUT = new LockTableLayout(8);
+
+	// Array of 64-bit lock words
+	final private static AtomicLongArray locks = new AtomicLongArray(LAYOUT.arrayLength());
+
+	/**
+	 * Hashes the location to a lock index.
+	 */
+	public static int hash(Object obj, long field) {
+		return LAYOUT.hash(obj, field);
+	}
+
+	public static long get(int hash) {
+		return locks.get(LAYOUT.slot(hash));
+	}
+
+	/**
+	 * Takes an unlocked lock.
+	 * @return <code>false</code> if the lock changed since it read <code>lock</code>.
+	 */
+	public static boolean lock(int hash, long lock, int owner) {
+		return locks.compareAndSet(LAYOUT.slot(hash), lock, LOCK | ((long) owner << OWNER_SHIFT) | lock);
+	}
+
+	/**
+	 * Releases a held lock with a new version.
+	 */
+	public static void release(int hash, long version) {
+		locks.lazySet(LAYOUT.slot(hash), version);
+	}
+
+	/**
+	 * Releases a held lock with its old version and the next incarnation.
+	 */
+	public static void restore(int hash, long lock) {
+		long incarnation = (lock + (1L << INCARNATION_SHIFT)) & INCARNATION;
+		locks.lazySet(LAYOUT.slot(hash), incarnation | (lock & VERSION));
+	}
+
+	public static boolean isLocked(long lock) {
+		return lock < 0;
+	}
+
+	public static int getOwner(long lock) {
+		return (int) ((lock & ~LOCK) >>> OWNER_SHIFT);
+	}
+
+	public static long getVersion(long lock) {
+		return lock & VERSION;
+	}
+}
@@ -0,0 +1,86 @@
+package org.deuce.transaction.wt;
+
+import java.util.Arrays;
+
+import org.deuce.transaction.util.Capacity;
+import org.deuce.transform.Exclude;
+
+/**
+ * The locks read by the transaction. The consecutive reads of locations sharing a
+ * lock log the lock once.
+ *
+ * @since 1.4
+ */
+@Exclude
+public class ReadSet {
+
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	private int[] hashes;
+	private int size;
+
+	final private Capacity capacity;
+
+	public ReadSet(int initialCapacity) {
+		hashes = new int[initialCapacity];
+		capacity = new Capacity(initialCapacity);
+	}
+
+	public ReadSet() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public void clear() {
+		int fit = capacity.fit(size, hashes.length);
+		size = 0;
+		if (fit < hashes.length)
+			resize(fit);
+	}
+
+	/**
+	 * Clears the read set and sizes it for the atomic block about to run.
+	 */
+	public void init(int atomicBlockId) {
+		clear();
+		int expected = capacity.predict(atomicBlockId);
+		if (expected > hashes.length)
+			resize(Capacity.grow(hashes.length, expected));
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void add(int hash) {
+		if (size > 0 && hashes[size - 1] == hash)
+			return;
+		if (size >= hashes.length)
+			resize(hashes.length << 1);
+		hashes[size++] = hash;
+	}
+
+	private void resize(int l) {
+		hashes = Arrays.copyOf(hashes, l);
+	}
+
+	/**
+	 * @return <code>false</code> if a lock read got a version newer than the clock or is
+	 * held by another owner.
+	 */
+	public boolean validate(long clock, int owner) {
+		for (int i = 0; i < size; i++) {
+			long lock = LockTable.get(hashes[i]);
+			if (LockTable.getVersion(lock) > clock ||
+					(LockTable.isLocked(lock) && LockTable.getOwner(lock) != owner))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the approximate bytes held by the arrays.
+	 */
+	public long getFootprint() {
+		return Capacity.arrayBytes(hashes.length, 4);
+	}
+}
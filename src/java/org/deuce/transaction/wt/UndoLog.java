@@ -0,0 +1,112 @@
+package org.deuce.transaction.wt;
+
+import java.util.Arrays;
+
+import org.deuce.transaction.lsa.field.Field;
+import org.deuce.transaction.lsa.field.Field.Type;
+import org.deuce.transaction.util.Capacity;
+import org.deuce.transform.Exclude;
+
+/**
+ * The undo log, the old values of the locations written in place, kept as parallel arrays
+ * that are recycled between transactions. Primitive values are kept as raw bits, so
+ * logging a write doesn't allocate.
+ *
+ * @since 1.4
+ */
+@Exclude
+public class UndoLog {
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private Object[] references;
+	private long[] fields;
+	private long[] values;  // primitive values as raw bits
+	private Object[] objects; // reference values
+	private Type[] types;
+	private int size;
+
+	final private Capacity capacity;
+
+	public UndoLog(int initialCapacity) {
+		references = new Object[initialCapacity];
+		fields = new long[initialCapacity];
+		values = new long[initialCapacity];
+		objects = new Object[initialCapacity];
+		types = new Type[initialCapacity];
+		capacity = new Capacity(initialCapacity);
+	}
+
+	public UndoLog() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public void clear() {
+		// Don't keep garbage reachable
+		Arrays.fill(references, 0, size, null);
+		Arrays.fill(objects, 0, size, null);
+		int fit = capacity.fit(size, references.length);
+		size = 0;
+		if (fit < references.length)
+			resize(fit);
+	}
+
+	/**
+	 * Clears the undo log and sizes it for the atomic block about to run.
+	 */
+	public void init(int atomicBlockId) {
+		clear();
+		int expected = capacity.predict(atomicBlockId);
+		if (expected > references.length)
+			resize(Capacity.grow(references.length, expected));
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Logs the current value of a location about to be written.
+	 */
+	public void add(Object obj, long field, Type type) {
+		if (size >= references.length)
+			resize(references.length << 1);
+		references[size] = obj;
+		fields[size] = field;
+		if (type == Type.OBJECT)
+			objects[size] = Field.getObject(obj, field);
+		else
+			values[size] = Field.getBits(obj, field, type);
+		types[size] = type;
+		size++;
+	}
+
+	private void resize(int l) {
+		references = Arrays.copyOf(references, l);
+		fields = Arrays.copyOf(fields, l);
+		values = Arrays.copyOf(values, l);
+		objects = Arrays.copyOf(objects, l);
+		types = Arrays.copyOf(types, l);
+	}
+
+	/**
+	 * Restores the old values, the newest first so a location written twice gets the value
+	 * it had before the transaction.
+	 */
+	public void undo() {
+		for (int i = size - 1; i >= 0; i--)
+			Field.putValue(references[i], fields[i], values[i], objects[i], types[i]);
+	}
+
+	/**
+	 * @return the approximate bytes held by the arrays.
+	 */
+	public long getFootprint() {
+		int l = references.length;
+		return 3 * Capacity.arrayBytes(l, Capacity.REFERENCE) + 2 * Capacity.arrayBytes(l, 8);
+	}
+}
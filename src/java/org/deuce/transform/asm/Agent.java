@@ -44,7 +44,7 @@ public class Agent implements ClassFileTransformer {
 		try {
 			// Don't transform classes from the boot classLoader.
 			if (loader != null)
-				return transform(className, classfileBuffer, false).get(0).getBytecode();
+				return transform(className, classfileBuffer, false, loader).get(0).getBytecode();
 		}
 		catch(Exception e) {
 			logger.log( Level.SEVERE, "Fail on class transform: " + className, e);
@@ -54,8 +54,9 @@ public class Agent implements ClassFileTransformer {
 	
 	/**
 	 * @param offline <code>true</code> if this is an offline transform.
+	 * @param loader the class loader of the class, <code>null</code> if unknown.
 	 */
-	private List<ClassByteCode> transform(String className, byte[] classfileBuffer, boolean offline)
+	private List<ClassByteCode> transform(String className, byte[] classfileBuffer, boolean offline, ClassLoader loader)
 	throws IllegalClassFormatException {
 
 		ArrayList<ClassByteCode> byteCodes = new ArrayList<ClassByteCode>();
@@ -79,9 +80,13 @@ public class Agent implements ClassFileTransformer {
 			if(offline) {
 				fieldsHolder = new ExternalFieldsHolder(className);
 			}
-			ByteCodeVisitor cv = new org.deuce.transform.asm.ClassTransformer( className, fieldsHolder);
+			ClassTransformer cv = new ClassTransformer( className, fieldsHolder, loader);
 			byte[] bytecode = cv.visit(classfileBuffer);
 			byteCodes.add(new ClassByteCode( className, bytecode));
+			if( VERBOSE && cv.getRemovedBarriers() > 0){
+				logger.info("Redundant barriers: Class=" + className + " removed=" + cv.getRemovedBarriers() +
+						" hoisted=" + cv.getHoistedBarriers());
+			}
 			if(offline) {
 				byteCodes.add(fieldsHolder.getClassByteCode());
 			}
@@ -176,7 +181,7 @@ public class Agent implements ClassFileTransformer {
 							logger.fine("Transalating " + nextName);
 						}
 						String className = nextName.substring(0, nextName.length() - ".class".length());
-						List<ClassByteCode> transformBytecodes = transform( className, bytecode, true);
+						List<ClassByteCode> transformBytecodes = transform( className, bytecode, true, null);
 						for(ClassByteCode byteCode : transformBytecodes){
 							JarEntry transformedEntry = new JarEntry(byteCode.getClassName() + ".class");
 							jarOS.putNextEntry( transformedEntry); 
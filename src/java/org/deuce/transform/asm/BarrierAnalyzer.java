@@ -0,0 +1,909 @@
+package org.deuce.transform.asm;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.deuce.Irrevocable;
+import org.deuce.Unsafe;
+import org.deuce.objectweb.asm.Opcodes;
+import org.deuce.objectweb.asm.Type;
+import org.deuce.objectweb.asm.tree.AbstractInsnNode;
+import org.deuce.objectweb.asm.tree.AnnotationNode;
+import org.deuce.objectweb.asm.tree.ClassNode;
+import org.deuce.objectweb.asm.tree.FieldInsnNode;
+import org.deuce.objectweb.asm.tree.JumpInsnNode;
+import org.deuce.objectweb.asm.tree.LabelNode;
+import org.deuce.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.deuce.objectweb.asm.tree.MethodInsnNode;
+import org.deuce.objectweb.asm.tree.MethodNode;
+import org.deuce.objectweb.asm.tree.TableSwitchInsnNode;
+import org.deuce.objectweb.asm.tree.TryCatchBlockNode;
+import org.deuce.objectweb.asm.tree.analysis.Analyzer;
+import org.deuce.objectweb.asm.tree.analysis.AnalyzerException;
+import org.deuce.objectweb.asm.tree.analysis.BasicInterpreter;
+import org.deuce.objectweb.asm.tree.analysis.BasicValue;
+import org.deuce.objectweb.asm.tree.analysis.Frame;
+import org.deuce.objectweb.asm.tree.analysis.Interpreter;
+import org.deuce.objectweb.asm.tree.analysis.Value;
+import org.deuce.transform.Exclude;
+import org.deuce.transform.asm.CaptureAnalyzer.Captures;
+
+/**
+ * Finds the field read barriers whose value is already known to the method, these are replaced
+ * by a load of the value kept in a local variable.
+ * <p>
+ * Inside a transaction a field keeps its value until the transaction itself writes it: a second
+ * read either returns the value of the first one or aborts. This doesn't hold for the elastic
+ * transactions of {@link #ELASTIC_CONTEXT}, the pass is off for that backend. So a read of <code>o.f</code> is
+ * redundant if on every path to it the method already read or wrote <code>o.f</code> through a
+ * barrier, and nothing on the way might have written it: a write to a field with the same name,
+ * a call to an instrumented method or a monitor. The objects are told apart by the instruction
+ * that produced them (their value number), an object that might come from two instructions is
+ * never matched. Calls to excluded classes are not instrumented and don't write through the
+ * barriers.
+ * <p>
+ * A read of a field of <code>this</code>, or of a static field of the class, inside a loop that
+ * never writes it nor calls an instrumented method is hoisted: read once before the loop and
+ * reused by every iteration. The loop must only be entered by falling into its first
+ * instruction, as compiled by <code>javac</code>.
+ * <p>
+ * The accesses are numbered as in {@link CaptureAnalyzer}, the cached values are kept in the
+ * local variables that follow the ones of the instrumented method.
+ * <p>
+ * Can be turned off with <code>-Dorg.deuce.transform.barriers=false</code>. The backend is taken
+ * from <code>org.deuce.transaction.contextClass</code> when the classes are instrumented.
+ *
+ * @since 1.4
+ */
+@Exclude
+public class BarrierAnalyzer {
+
+	/**
+	 * The backend of the elastic transactions, see {@link #isEnabled(String)}.
+	 */
+	final public static String ELASTIC_CONTEXT = "org.deuce.transaction.estm.Context";
+
+	final private static boolean TURNED_ON = !"false".equals(System.getProperty("org.deuce.transform.barriers"));
+
+	final public static boolean ENABLED = isEnabled(System.getProperty("org.deuce.transaction.contextClass"));
+
+	/**
+	 * @param contextClass the backend the classes are instrumented for.
+	 * @return <code>false</code> if the pass is turned off or the backend runs elastic
+	 * transactions: these only validate their last reads, so a second read might return a
+	 * value written since the first one.
+	 */
+	public static boolean isEnabled(String contextClass) {
+		return TURNED_ON && !ELASTIC_CONTEXT.equals(contextClass);
+	}
+
+	final private static int NONE = -1; // unknown object
+	final private static int STATIC = -2; // the "object" of the static fields
+
+	// Local variable words used for the cached values of a method
+	final private static int MAX_LOCALS = 32;
+
+	final private static String UNSAFE_DESC = Type.getDescriptor(Unsafe.class);
+	final private static String IRREVOCABLE_DESC = Type.getDescriptor(Irrevocable.class);
+
+	/**
+	 * The result for a single method.
+	 */
+	@Exclude
+	public static class Barriers {
+
+		final public static Barriers EMPTY = new Barriers(0);
+
+		final private HashMap<Integer, Integer> loads = new HashMap<Integer, Integer>();
+		final private HashMap<Integer, Integer> stores = new HashMap<Integer, Integer>();
+		final private ArrayList<Preload> preloads = new ArrayList<Preload>();
+		final private int firstLocal;
+		private int locals = 0;
+
+		private Barriers(int firstLocal) {
+			this.firstLocal = firstLocal;
+		}
+
+		/**
+		 * @param access the number of the field or array access in the method.
+		 * @return the local variable holding the value of the access, -1 if it needs a barrier.
+		 */
+		public int getLoad(int access) {
+			Integer local = loads.get(access);
+			return local == null ? -1 : local;
+		}
+
+		/**
+		 * @param access the number of the field or array access in the method.
+		 * @return the local variable the value read or written by the barrier should be kept in,
+		 * -1 if none.
+		 */
+		public int getStore(int access) {
+			Integer local = stores.get(access);
+			return local == null ? -1 : local;
+		}
+
+		/**
+		 * @return the reads to add before the loops, ordered by {@link Preload#getInstruction()}.
+		 */
+		public List<Preload> getPreloads() {
+			return Collections.unmodifiableList(preloads);
+		}
+
+		/**
+		 * @return the number of local variable words used, starting after the ones of the
+		 * instrumented method.
+		 */
+		public int getLocals() {
+			return locals;
+		}
+
+		/**
+		 * @return the number of read barriers removed, including the hoisted ones.
+		 */
+		public int getRemovedCount() {
+			return loads.size();
+		}
+
+		/**
+		 * @return the number of reads hoisted out of loops.
+		 */
+		public int getHoistedCount() {
+			return preloads.size();
+		}
+
+		private int allocate(String desc) {
+			int local = firstLocal + locals;
+			locals += Type.getType(desc).getSize();
+			return local;
+		}
+	}
+
+	/**
+	 * A field read to add before a loop, its value is kept in a local variable.
+	 */
+	@Exclude
+	public static class Preload {
+		final private int instruction;
+		final private FieldInsnNode field;
+		final private int local;
+
+		private Preload(int instruction, FieldInsnNode field, int local) {
+			this.instruction = instruction;
+			this.field = field;
+			this.local = local;
+		}
+
+		/**
+		 * @return the number of instructions of the method before the read.
+		 */
+		public int getInstruction() {
+			return instruction;
+		}
+
+		/**
+		 * @return {@link Opcodes#GETFIELD} on <code>this</code> or {@link Opcodes#GETSTATIC}.
+		 */
+		public int getOpcode() {
+			return field.getOpcode();
+		}
+
+		public String getOwner() {
+			return field.owner;
+		}
+
+		public String getName() {
+			return field.name;
+		}
+
+		public String getDesc() {
+			return field.desc;
+		}
+
+		public int getLocal() {
+			return local;
+		}
+	}
+
+	/**
+	 * @param captures the captures of the class, see {@link CaptureAnalyzer#analyze(ClassNode)}.
+	 * @return the barriers of the methods that have redundant ones, by <code>name + desc</code>.
+	 */
+	public static HashMap<String, Barriers> analyze(ClassNode classNode, Map<String, Captures> captures) {
+		HashMap<String, Barriers> result = new HashMap<String, Barriers>();
+		for (MethodNode method : classNode.methods) {
+			if (!hasCandidates(method))
+				continue;
+			Captures methodCaptures = captures.get(method.name + method.desc);
+			try {
+				Barriers barriers = new MethodAnalysis(classNode.name, method,
+						methodCaptures == null ? Captures.EMPTY : methodCaptures).analyze();
+				if (barriers != null)
+					result.put(method.name + method.desc, barriers);
+			} catch (AnalyzerException e) {
+				// Keep all the barriers
+			} catch (RuntimeException e) {
+				// Keep all the barriers
+			}
+		}
+		return result;
+	}
+
+	// Only instrumented methods with a field read and another field access
+	private static boolean hasCandidates(MethodNode method) {
+		if ((method.access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) != 0
+				|| method.name.equals("<clinit>")
+				|| isAnnotated(method, UNSAFE_DESC) || isAnnotated(method, IRREVOCABLE_DESC)) // not instrumented
+			return false;
+		boolean read = false;
+		int fields = 0;
+		for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+			int opcode = insn.getOpcode();
+			if (isGet(opcode)) {
+				read = true;
+				fields++;
+			} else if (isPut(opcode)) {
+				fields++;
+			}
+		}
+		return read && fields > 1;
+	}
+
+	private static boolean isAnnotated(MethodNode method, String desc) {
+		return isAnnotated(method.visibleAnnotations, desc) || isAnnotated(method.invisibleAnnotations, desc);
+	}
+
+	private static boolean isAnnotated(List<AnnotationNode> annotations, String desc) {
+		if (annotations == null)
+			return false;
+		for (AnnotationNode annotation : annotations) {
+			if (annotation.desc.equals(desc))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean isGet(int opcode) {
+		return opcode == Opcodes.GETFIELD || opcode == Opcodes.GETSTATIC;
+	}
+
+	private static boolean isPut(int opcode) {
+		return opcode == Opcodes.PUTFIELD || opcode == Opcodes.PUTSTATIC;
+	}
+
+	// Might be written by another access with a different owner
+	private static boolean sameField(FieldInsnNode a, FieldInsnNode b) {
+		return a.name.equals(b.name) && a.desc.equals(b.desc);
+	}
+
+	// A write of these stores the int value without narrowing it first
+	private static boolean isSubword(String desc) {
+		switch (desc.charAt(0)) {
+		case 'Z':
+		case 'B':
+		case 'C':
+		case 'S':
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * A field of an object, cached by the method.
+	 */
+	@Exclude
+	private static class Pair {
+		final int object; // value number
+		final FieldInsnNode field;
+
+		Pair(int object, FieldInsnNode field) {
+			this.object = object;
+			this.field = field;
+		}
+	}
+
+	/**
+	 * The state of the analysis of a single method.
+	 */
+	@Exclude
+	private static class MethodAnalysis {
+
+		final String owner;
+		final MethodNode method;
+		final int size;
+		final int thisObject; // value number of this, NONE if static or a constructor
+
+		final int[] accesses; // access number by instruction, -1 if none
+		final boolean[] barriers; // field access through a barrier
+		final ArrayList<Pair> pairs = new ArrayList<Pair>();
+		final HashMap<String, Integer> pairIndex = new HashMap<String, Integer>();
+		final HashMap<Integer, BitSet> preloads = new HashMap<Integer, BitSet>(); // by instruction
+
+		MethodAnalysis(String owner, MethodNode method, Captures captures) {
+			this.owner = owner;
+			this.method = method;
+			this.size = method.instructions.size();
+			boolean instance = (method.access & Opcodes.ACC_STATIC) == 0 && !method.name.equals("<init>");
+			this.thisObject = instance ? size : NONE;
+
+			accesses = new int[size];
+			barriers = new boolean[size];
+			int access = 0;
+			for (int i = 0; i < size; i++) {
+				AbstractInsnNode insn = method.instructions.get(i);
+				accesses[i] = CaptureAnalyzer.target(insn) == CaptureAnalyzer.NO_ACCESS ? -1 : access++;
+				if (insn instanceof FieldInsnNode) {
+					FieldInsnNode field = (FieldInsnNode) insn;
+					// Same filter as DuplicateMethod
+					barriers[i] = !ExcludeIncludeStore.exclude(field.owner) && !field.name.contains("$")
+							&& !captures.isCaptured(accesses[i]);
+				}
+			}
+		}
+
+		int pair(int object, FieldInsnNode field) {
+			Integer index = findPair(object, field);
+			if (index == null) {
+				index = pairs.size();
+				pairs.add(new Pair(object, field));
+				pairIndex.put(key(object, field), index);
+			}
+			return index;
+		}
+
+		Integer findPair(int object, FieldInsnNode field) {
+			return pairIndex.get(key(object, field));
+		}
+
+		// The value number of the value read before the loop
+		int preloaded(int pair) {
+			return size + method.maxLocals + pair;
+		}
+
+		private String key(int object, FieldInsnNode field) {
+			return object + " " + field.owner + '.' + field.name + field.desc;
+		}
+
+		// The value number of the object of the field access
+		int object(Frame<BarrierValue> frame, AbstractInsnNode insn) {
+			switch (insn.getOpcode()) {
+			case Opcodes.GETFIELD:
+				return frame.getStack(frame.getStackSize() - 1).id;
+			case Opcodes.PUTFIELD:
+				return frame.getStack(frame.getStackSize() - 2).id;
+			default:
+				return STATIC;
+			}
+		}
+
+		Frame<BarrierValue>[] run() throws AnalyzerException {
+			return new BarrierFrameAnalyzer(new BarrierInterpreter(this)).analyze(owner, method);
+		}
+
+		Barriers analyze() throws AnalyzerException {
+			Frame<BarrierValue>[] frames = run();
+			if (findPreloads(frames))
+				frames = run();
+
+			// The reads whose value is known
+			Barriers result = new Barriers(method.maxLocals + 1); // after the context
+			TreeMap<Integer, Integer> loads = new TreeMap<Integer, Integer>(); // instruction -> pair
+			HashMap<Integer, Integer> locals = new HashMap<Integer, Integer>(); // pair -> local
+			for (int i = 0; i < size; i++) {
+				AbstractInsnNode insn = method.instructions.get(i);
+				BarrierFrame frame = (BarrierFrame) frames[i];
+				if (!barriers[i] || !isGet(insn.getOpcode()) || frame == null)
+					continue;
+				Integer pair = findPair(object(frame, insn), (FieldInsnNode) insn);
+				if (pair == null)
+					continue;
+				BitSet preloaded = preloads.get(i);
+				if (frame.isAvailable(pair) || (preloaded != null && preloaded.get(pair))) {
+					if (!locals.containsKey(pair)) {
+						if (result.locals >= MAX_LOCALS)
+							continue;
+						locals.put(pair, result.allocate(((FieldInsnNode) insn).desc));
+					}
+					loads.put(i, pair);
+				}
+			}
+			if (loads.isEmpty())
+				return null;
+
+			// The barriers that keep the value, and the hoisted reads
+			int instructions = 0;
+			for (int i = 0; i < size; i++) {
+				AbstractInsnNode insn = method.instructions.get(i);
+				BitSet preloaded = preloads.get(i);
+				if (preloaded != null) {
+					for (int pair = preloaded.nextSetBit(0); pair >= 0; pair = preloaded.nextSetBit(pair + 1)) {
+						Integer local = locals.get(pair);
+						if (local != null)
+							result.preloads.add(new Preload(instructions, pairs.get(pair).field, local));
+					}
+				}
+				if (insn.getOpcode() >= 0)
+					instructions++;
+				Integer pair = loads.get(i);
+				if (pair != null) {
+					result.loads.put(accesses[i], locals.get(pair));
+					continue;
+				}
+				if (!barriers[i] || frames[i] == null)
+					continue;
+				FieldInsnNode field = (FieldInsnNode) insn;
+				if (isPut(insn.getOpcode()) && isSubword(field.desc))
+					continue;
+				pair = findPair(object(frames[i], insn), field);
+				Integer local = pair == null ? null : locals.get(pair);
+				if (local != null)
+					result.stores.put(accesses[i], local);
+			}
+			return result;
+		}
+
+		/**
+		 * Finds the reads of <code>this</code> and static fields to hoist out of the loops.
+		 * @return <code>true</code> if any.
+		 */
+		boolean findPreloads(Frame<BarrierValue>[] frames) {
+			// The loops by first instruction, up to their last back edge
+			TreeMap<Integer, Integer> loops = new TreeMap<Integer, Integer>();
+			for (int i = 0; i < size; i++) {
+				AbstractInsnNode insn = method.instructions.get(i);
+				if (!(insn instanceof JumpInsnNode) || frames[i] == null)
+					continue;
+				int target = method.instructions.indexOf(((JumpInsnNode) insn).label);
+				if (target > i)
+					continue;
+				int start = previous(target) + 1; // the labels of the head
+				if (start == 0)
+					continue;
+				Integer end = loops.get(start);
+				loops.put(start, end == null ? i : Math.max(end, i));
+			}
+
+			// The outer loops first
+			ArrayList<Integer> starts = new ArrayList<Integer>(loops.keySet());
+			for (int i = 1; i < starts.size(); i++) {
+				for (int j = i; j > 0 && size(loops, starts.get(j)) > size(loops, starts.get(j - 1)); j--)
+					Collections.swap(starts, j, j - 1);
+			}
+
+			BitSet hoisted = new BitSet();
+			for (int start : starts) {
+				int end = loops.get(start);
+				int first = start;
+				while (first <= end && method.instructions.get(first).getOpcode() < 0)
+					first++;
+				if (first > end || !isHoistable(start, end, frames))
+					continue;
+				for (int i = first; i <= end; i++) {
+					AbstractInsnNode insn = method.instructions.get(i);
+					BarrierFrame frame = (BarrierFrame) frames[i];
+					if (!barriers[i] || !isGet(insn.getOpcode()) || frame == null)
+						continue;
+					FieldInsnNode field = (FieldInsnNode) insn;
+					int object = object(frame, insn);
+					// this is never null, and the class is initialized already
+					if (insn.getOpcode() == Opcodes.GETFIELD ? object != thisObject || object == NONE
+							: !field.owner.equals(owner))
+						continue;
+					int pair = pair(object, field);
+					if (hoisted.get(pair) || frame.isAvailable(pair) || isWritten(field, start, end))
+						continue;
+					hoisted.set(pair);
+					BitSet preloaded = preloads.get(first);
+					if (preloaded == null) {
+						preloaded = new BitSet();
+						preloads.put(first, preloaded);
+					}
+					preloaded.set(pair);
+				}
+			}
+			return !preloads.isEmpty();
+		}
+
+		private int size(TreeMap<Integer, Integer> loops, int start) {
+			return loops.get(start) - start;
+		}
+
+		// The last instruction before index, -1 if none
+		private int previous(int index) {
+			int i = index - 1;
+			while (i >= 0 && method.instructions.get(i).getOpcode() < 0)
+				i--;
+			return i;
+		}
+
+		/**
+		 * @return <code>true</code> if the loop is only entered by falling from the previous
+		 * instruction, and doesn't call instrumented code.
+		 */
+		private boolean isHoistable(int start, int end, Frame<BarrierValue>[] frames) {
+			AbstractInsnNode previous = method.instructions.get(start - 1);
+			switch (previous.getOpcode()) {
+			case Opcodes.GOTO:
+			case Opcodes.JSR:
+			case Opcodes.RET:
+			case Opcodes.TABLESWITCH:
+			case Opcodes.LOOKUPSWITCH:
+			case Opcodes.IRETURN:
+			case Opcodes.LRETURN:
+			case Opcodes.FRETURN:
+			case Opcodes.DRETURN:
+			case Opcodes.ARETURN:
+			case Opcodes.RETURN:
+			case Opcodes.ATHROW:
+				return false;
+			}
+			if (frames[start] == null || frames[start].getStackSize() != 0)
+				return false;
+
+			for (int i = 0; i < size; i++) {
+				AbstractInsnNode insn = method.instructions.get(i);
+				if (i >= start && i <= end) {
+					if (writesAll(insn))
+						return false;
+				}
+				else if (jumpsInto(insn, start, end)) {
+					return false;
+				}
+			}
+			for (TryCatchBlockNode block : method.tryCatchBlocks) {
+				int handler = method.instructions.indexOf(block.handler);
+				if (handler >= start && handler <= end
+						&& (method.instructions.indexOf(block.start) < start
+								|| method.instructions.indexOf(block.end) > end + 1))
+					return false;
+			}
+			return true;
+		}
+
+		private boolean jumpsInto(AbstractInsnNode insn, int start, int end) {
+			ArrayList<LabelNode> targets = new ArrayList<LabelNode>();
+			if (insn instanceof JumpInsnNode) {
+				targets.add(((JumpInsnNode) insn).label);
+			}
+			else if (insn instanceof TableSwitchInsnNode) {
+				targets.add(((TableSwitchInsnNode) insn).dflt);
+				targets.addAll(((TableSwitchInsnNode) insn).labels);
+			}
+			else if (insn instanceof LookupSwitchInsnNode) {
+				targets.add(((LookupSwitchInsnNode) insn).dflt);
+				targets.addAll(((LookupSwitchInsnNode) insn).labels);
+			}
+			for (LabelNode target : targets) {
+				int index = method.instructions.indexOf(target);
+				if (index >= start && index <= end)
+					return true;
+			}
+			return false;
+		}
+
+		private boolean isWritten(FieldInsnNode field, int start, int end) {
+			for (int i = start; i <= end; i++) {
+				AbstractInsnNode insn = method.instructions.get(i);
+				if (isPut(insn.getOpcode()) && sameField(field, (FieldInsnNode) insn))
+					return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the instruction might write any field.
+	 */
+	private static boolean writesAll(AbstractInsnNode insn) {
+		switch (insn.getOpcode()) {
+		case Opcodes.INVOKEVIRTUAL:
+		case Opcodes.INVOKESPECIAL:
+		case Opcodes.INVOKESTATIC:
+		case Opcodes.INVOKEINTERFACE:
+			return !ExcludeIncludeStore.exclude(((MethodInsnNode) insn).owner);
+		case Opcodes.INVOKEDYNAMIC:
+		case Opcodes.MONITORENTER:
+		case Opcodes.MONITOREXIT:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * A value and the number of the instruction that produced it, for the references.
+	 */
+	@Exclude
+	private static class BarrierValue implements Value {
+		final BasicValue value;
+		final int id;
+
+		BarrierValue(BasicValue value, int id) {
+			this.value = value;
+			this.id = id;
+		}
+
+		public int getSize() {
+			return value.getSize();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof BarrierValue))
+				return false;
+			BarrierValue other = (BarrierValue) o;
+			return id == other.id && value.equals(other.value);
+		}
+
+		@Override
+		public int hashCode() {
+			return value.hashCode() * 31 + id;
+		}
+	}
+
+	/**
+	 * A frame that also knows the fields whose value was read or written on every path to it,
+	 * and the value number of that value if the same on every path.
+	 */
+	@Exclude
+	private static class BarrierFrame extends Frame<BarrierValue> {
+		// Set by init(), which the super constructor might call before the initializers run
+		HashMap<Integer, Integer> available; // pair -> value number
+
+		BarrierFrame(int nLocals, int nStack) {
+			super(nLocals, nStack);
+			available = new HashMap<Integer, Integer>();
+		}
+
+		BarrierFrame(Frame<? extends BarrierValue> src) {
+			super(src);
+		}
+
+		boolean isAvailable(int pair) {
+			return available.containsKey(pair);
+		}
+
+		@Override
+		public Frame<BarrierValue> init(Frame<? extends BarrierValue> src) {
+			super.init(src);
+			if (available == null)
+				available = new HashMap<Integer, Integer>();
+			else
+				available.clear();
+			available.putAll(((BarrierFrame) src).available);
+			return this;
+		}
+
+		/**
+		 * Only called by the {@link Analyzer} for the frame of an exception handler, the
+		 * instruction that threw might have written anything.
+		 */
+		@Override
+		public void clearStack() {
+			super.clearStack();
+			available.clear();
+		}
+
+		@Override
+		public void execute(AbstractInsnNode insn, Interpreter<BarrierValue> interpreter)
+				throws AnalyzerException {
+			MethodAnalysis analysis = ((BarrierInterpreter) interpreter).analysis;
+			int index = analysis.method.instructions.indexOf(insn);
+			forget(index, analysis);
+			BitSet preloaded = analysis.preloads.get(index);
+			if (preloaded != null) {
+				for (int pair = preloaded.nextSetBit(0); pair >= 0; pair = preloaded.nextSetBit(pair + 1))
+					available.put(pair, analysis.preloaded(pair));
+			}
+
+			int opcode = insn.getOpcode();
+			if (!(insn instanceof FieldInsnNode)) {
+				super.execute(insn, interpreter);
+				if (writesAll(insn))
+					available.clear();
+				return;
+			}
+
+			FieldInsnNode field = (FieldInsnNode) insn;
+			int object = analysis.object(this, insn);
+			int value = isPut(opcode) ? getStack(getStackSize() - 1).id : NONE;
+			super.execute(insn, interpreter);
+			if (isPut(opcode)) {
+				Iterator<Integer> pairs = available.keySet().iterator();
+				while (pairs.hasNext()) {
+					if (sameField(field, analysis.pairs.get(pairs.next()).field))
+						pairs.remove();
+				}
+			}
+			if (!analysis.barriers[index] || object == NONE || (isPut(opcode) && isSubword(field.desc)))
+				return;
+
+			int pair = analysis.pair(object, field);
+			if (isGet(opcode)) {
+				// A read of a known field returns the same object
+				Integer known = available.get(pair);
+				BarrierValue result = pop();
+				if (known != null && known != NONE)
+					result = new BarrierValue(result.value, known);
+				push(result);
+				value = result.id;
+			}
+			available.put(pair, value);
+		}
+
+		/**
+		 * The instruction produces a new object, the values and fields of the object it produced
+		 * before are of another one.
+		 */
+		private void forget(int index, MethodAnalysis analysis) {
+			for (int i = 0; i < getLocals(); i++) {
+				BarrierValue value = getLocal(i);
+				if (value.id == index)
+					setLocal(i, new BarrierValue(value.value, NONE));
+			}
+			int stack = getStackSize();
+			if (stack > 0) {
+				BarrierValue[] values = new BarrierValue[stack];
+				for (int i = stack - 1; i >= 0; i--)
+					values[i] = pop();
+				for (BarrierValue value : values)
+					push(value.id == index ? new BarrierValue(value.value, NONE) : value);
+			}
+			Iterator<Map.Entry<Integer, Integer>> entries = available.entrySet().iterator();
+			while (entries.hasNext()) {
+				Map.Entry<Integer, Integer> entry = entries.next();
+				if (analysis.pairs.get(entry.getKey()).object == index)
+					entries.remove();
+				else if (entry.getValue() == index)
+					entry.setValue(NONE);
+			}
+		}
+
+		@Override
+		public boolean merge(Frame<? extends BarrierValue> frame, Interpreter<BarrierValue> interpreter)
+				throws AnalyzerException {
+			return super.merge(frame, interpreter) | mergeAvailable((BarrierFrame) frame);
+		}
+
+		@Override
+		public boolean merge(Frame<? extends BarrierValue> frame, boolean[] access) {
+			return super.merge(frame, access) | mergeAvailable((BarrierFrame) frame);
+		}
+
+		private boolean mergeAvailable(BarrierFrame frame) {
+			boolean changes = false;
+			Iterator<Map.Entry<Integer, Integer>> entries = available.entrySet().iterator();
+			while (entries.hasNext()) {
+				Map.Entry<Integer, Integer> entry = entries.next();
+				Integer value = frame.available.get(entry.getKey());
+				if (value == null) {
+					entries.remove();
+					changes = true;
+				}
+				else if (!value.equals(entry.getValue()) && entry.getValue() != NONE) {
+					entry.setValue(NONE);
+					changes = true;
+				}
+			}
+			return changes;
+		}
+	}
+
+	@Exclude
+	private static class BarrierFrameAnalyzer extends Analyzer<BarrierValue> {
+
+		BarrierFrameAnalyzer(BarrierInterpreter interpreter) {
+			super(interpreter);
+		}
+
+		@Override
+		protected void init(String owner, MethodNode m) {
+			// The arguments are numbered after the instructions
+			Frame<BarrierValue> first = getFrames()[0];
+			for (int i = 0; i < first.getLocals(); i++) {
+				BarrierValue value = first.getLocal(i);
+				if (value.value.isReference())
+					first.setLocal(i, new BarrierValue(value.value, m.instructions.size() + i));
+			}
+		}
+
+		@Override
+		protected Frame<BarrierValue> newFrame(int nLocals, int nStack) {
+			return new BarrierFrame(nLocals, nStack);
+		}
+
+		@Override
+		protected Frame<BarrierValue> newFrame(Frame<? extends BarrierValue> src) {
+			return new BarrierFrame(src);
+		}
+	}
+
+	/**
+	 * Numbers the references on top of the {@link BasicInterpreter}.
+	 */
+	@Exclude
+	private static class BarrierInterpreter extends Interpreter<BarrierValue> {
+
+		final private BasicInterpreter basic = new BasicInterpreter();
+		final MethodAnalysis analysis;
+
+		BarrierInterpreter(MethodAnalysis analysis) {
+			super(Opcodes.ASM5);
+			this.analysis = analysis;
+		}
+
+		private BarrierValue value(BasicValue value, AbstractInsnNode insn) {
+			if (value == null)
+				return null;
+			return new BarrierValue(value, value.isReference() ? analysis.method.instructions.indexOf(insn) : NONE);
+		}
+
+		@Override
+		public BarrierValue newValue(Type type) {
+			BasicValue value = basic.newValue(type);
+			return value == null ? null : new BarrierValue(value, NONE);
+		}
+
+		@Override
+		public BarrierValue newOperation(AbstractInsnNode insn) throws AnalyzerException {
+			return value(basic.newOperation(insn), insn);
+		}
+
+		@Override
+		public BarrierValue copyOperation(AbstractInsnNode insn, BarrierValue value)
+				throws AnalyzerException {
+			return value;
+		}
+
+		@Override
+		public BarrierValue unaryOperation(AbstractInsnNode insn, BarrierValue value)
+				throws AnalyzerException {
+			BasicValue result = basic.unaryOperation(insn, value.value);
+			if (insn.getOpcode() == Opcodes.CHECKCAST)
+				return new BarrierValue(result, value.id);
+			return value(result, insn);
+		}
+
+		@Override
+		public BarrierValue binaryOperation(AbstractInsnNode insn, BarrierValue value1,
+				BarrierValue value2) throws AnalyzerException {
+			return value(basic.binaryOperation(insn, value1.value, value2.value), insn);
+		}
+
+		@Override
+		public BarrierValue ternaryOperation(AbstractInsnNode insn, BarrierValue value1,
+				BarrierValue value2, BarrierValue value3) throws AnalyzerException {
+			return value(basic.ternaryOperation(insn, value1.value, value2.value, value3.value), insn);
+		}
+
+		@Override
+		public BarrierValue naryOperation(AbstractInsnNode insn, List<? extends BarrierValue> values)
+				throws AnalyzerException {
+			ArrayList<BasicValue> basicValues = new ArrayList<BasicValue>(values.size());
+			for (BarrierValue value : values)
+				basicValues.add(value.value);
+			return value(basic.naryOperation(insn, basicValues), insn);
+		}
+
+		@Override
+		public void returnOperation(AbstractInsnNode insn, BarrierValue value, BarrierValue expected)
+				throws AnalyzerException {
+		}
+
+		@Override
+		public BarrierValue merge(BarrierValue v, BarrierValue w) {
+			BasicValue value = basic.merge(v.value, w.value);
+			int id = v.id == w.id ? v.id : NONE;
+			if (value.equals(v.value) && id == v.id)
+				return v;
+			return new BarrierValue(value, id);
+		}
+	}
+}
@@ -0,0 +1,451 @@
+package org.deuce.transform.asm;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+import org.deuce.objectweb.asm.Opcodes;
+import org.deuce.objectweb.asm.Type;
+import org.deuce.objectweb.asm.tree.AbstractInsnNode;
+import org.deuce.objectweb.asm.tree.ClassNode;
+import org.deuce.objectweb.asm.tree.MethodInsnNode;
+import org.deuce.objectweb.asm.tree.MethodNode;
+import org.deuce.objectweb.asm.tree.analysis.Analyzer;
+import org.deuce.objectweb.asm.tree.analysis.AnalyzerException;
+import org.deuce.objectweb.asm.tree.analysis.BasicInterpreter;
+import org.deuce.objectweb.asm.tree.analysis.BasicValue;
+import org.deuce.objectweb.asm.tree.analysis.Frame;
+import org.deuce.objectweb.asm.tree.analysis.Interpreter;
+import org.deuce.objectweb.asm.tree.analysis.Value;
+import org.deuce.transform.Exclude;
+
+/**
+ * Finds the field and array accesses on objects allocated by the transaction itself (captured
+ * objects), these don't need a barrier since no other thread can see the object before the
+ * transaction commits.
+ * <p>
+ * The analysis is intra-procedural: a value is captured if it was created in the method by a
+ * <code>NEW</code> or an array allocation, or is <code>this</code> in a constructor (the
+ * instrumented constructors only run on objects allocated by the transaction). A captured
+ * object stays so until it escapes: stored in a field or an array, or passed to an
+ * instrumented method (including its constructor) which would access it through barriers.
+ * Once escaped, writes through the barriers might be buffered, so all the following accesses
+ * go through the barriers too. Calls to excluded classes (e.g. <code>Object.&lt;init&gt;</code>)
+ * access the memory directly and are not escapes.
+ * <p>
+ * The accesses are numbered in the order they appear in the method, the field instructions
+ * and the array loads and stores, see {@link Captures}.
+ * <p>
+ * Can be turned off with <code>-Dorg.deuce.transform.capture=false</code>.
+ *
+ * @since 1.4
+ */
+@Exclude
+public class CaptureAnalyzer {
+
+	final public static boolean ENABLED = !"false".equals(System.getProperty("org.deuce.transform.capture"));
+
+	final private static int NONE = -1; // not allocated by the method
+
+	/**
+	 * The result for a single method.
+	 */
+	@Exclude
+	public static class Captures {
+
+		final public static Captures EMPTY = new Captures();
+
+		final private BitSet accesses = new BitSet();
+		final private BitSet allocations = new BitSet();
+
+		/**
+		 * @param access the number of the field or array access in the method.
+		 * @return <code>true</code> if the access is on a captured object and needs no barrier.
+		 */
+		public boolean isCaptured(int access) {
+			return accesses.get(access);
+		}
+
+		/**
+		 * @param allocation the number of the array allocation in the method.
+		 * @return <code>true</code> if the array might escape, and should be registered with the
+		 * context (see {@link org.deuce.transaction.capture.CaptureContext}).
+		 */
+		public boolean isEscaping(int allocation) {
+			return allocations.get(allocation);
+		}
+
+		public int getCapturedCount() {
+			return accesses.cardinality();
+		}
+	}
+
+	/**
+	 * @return the captures of the methods that have some, by <code>name + desc</code>.
+	 */
+	public static HashMap<String, Captures> analyze(ClassNode classNode) {
+		HashMap<String, Captures> result = new HashMap<String, Captures>();
+		for (MethodNode method : classNode.methods) {
+			if (!hasCandidates(method))
+				continue;
+			try {
+				Captures captures = analyze(classNode.name, method);
+				if (captures != null)
+					result.put(method.name + method.desc, captures);
+			} catch (AnalyzerException e) {
+				// Keep all the barriers
+			} catch (RuntimeException e) {
+				// Keep all the barriers
+			}
+		}
+		return result;
+	}
+
+	// Only methods that allocate or constructors can have captured objects
+	private static boolean hasCandidates(MethodNode method) {
+		if ((method.access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) != 0)
+			return false;
+		if (method.name.equals("<init>"))
+			return true;
+		for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+			if (allocates(insn))
+				return true;
+		}
+		return false;
+	}
+
+	private static Captures analyze(String owner, MethodNode method) throws AnalyzerException {
+		CaptureInterpreter interpreter = new CaptureInterpreter();
+		Frame<CaptureValue>[] frames = new CaptureFrameAnalyzer(interpreter).analyze(owner, method);
+
+		// The allocation sites that escape somewhere
+		BitSet escaping = new BitSet();
+		boolean all = false;
+		for (Frame<CaptureValue> frame : frames) {
+			if (frame != null) {
+				escaping.or(((CaptureFrame) frame).escaped);
+				all |= ((CaptureFrame) frame).all;
+			}
+		}
+
+		Captures captures = new Captures();
+		int access = 0;
+		int allocation = 0;
+		AbstractInsnNode insn = method.instructions.getFirst();
+		for (int i = 0; insn != null; insn = insn.getNext(), i++) {
+			CaptureFrame frame = (CaptureFrame) frames[i];
+			int target = target(insn);
+			if (target >= 0) {
+				// Target is the depth of the object in the stack
+				if (frame != null && frame.isCaptured(frame.getStack(frame.getStackSize() - 1 - target)))
+					captures.accesses.set(access);
+				access++;
+			}
+			else if (target == ACCESS) {
+				access++;
+			}
+			if (allocates(insn) && insn.getOpcode() != Opcodes.NEW) {
+				if (all || escaping.get(i))
+					captures.allocations.set(allocation);
+				allocation++;
+			}
+		}
+		return captures.accesses.isEmpty() && captures.allocations.isEmpty() ? null : captures;
+	}
+
+	final static int NO_ACCESS = -2;
+	final static int ACCESS = -1; // counted but never captured (static fields)
+
+	/**
+	 * @return the depth in the stack of the accessed object, {@link #ACCESS} for a static field
+	 * access or {@link #NO_ACCESS}.
+	 */
+	static int target(AbstractInsnNode insn) {
+		switch (insn.getOpcode()) {
+		case Opcodes.GETFIELD:
+			return 0;
+		case Opcodes.PUTFIELD:
+			return 1;
+		case Opcodes.GETSTATIC:
+		case Opcodes.PUTSTATIC:
+			return ACCESS;
+		case Opcodes.IALOAD:
+		case Opcodes.LALOAD:
+		case Opcodes.FALOAD:
+		case Opcodes.DALOAD:
+		case Opcodes.AALOAD:
+		case Opcodes.BALOAD:
+		case Opcodes.CALOAD:
+		case Opcodes.SALOAD:
+			return 1;
+		case Opcodes.IASTORE:
+		case Opcodes.LASTORE:
+		case Opcodes.FASTORE:
+		case Opcodes.DASTORE:
+		case Opcodes.AASTORE:
+		case Opcodes.BASTORE:
+		case Opcodes.CASTORE:
+		case Opcodes.SASTORE:
+			return 2;
+		default:
+			return NO_ACCESS;
+		}
+	}
+
+	private static boolean allocates(AbstractInsnNode insn) {
+		switch (insn.getOpcode()) {
+		case Opcodes.NEW:
+		case Opcodes.NEWARRAY:
+		case Opcodes.ANEWARRAY:
+		case Opcodes.MULTIANEWARRAY:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * A value and the allocation site (instruction index) it comes from.
+	 */
+	@Exclude
+	private static class CaptureValue implements Value {
+		final BasicValue value;
+		final int site;
+
+		CaptureValue(BasicValue value, int site) {
+			this.value = value;
+			this.site = site;
+		}
+
+		public int getSize() {
+			return value.getSize();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof CaptureValue))
+				return false;
+			CaptureValue other = (CaptureValue) o;
+			return site == other.site && value.equals(other.value);
+		}
+
+		@Override
+		public int hashCode() {
+			return value.hashCode() * 31 + site;
+		}
+	}
+
+	/**
+	 * A frame that also knows the allocation sites which escaped on the way to it.
+	 */
+	@Exclude
+	private static class CaptureFrame extends Frame<CaptureValue> {
+		// Set by init(), which the super constructor might call before the initializers run
+		BitSet escaped;
+		boolean all; // everything escaped
+
+		CaptureFrame(int nLocals, int nStack) {
+			super(nLocals, nStack);
+			escaped = new BitSet();
+		}
+
+		CaptureFrame(Frame<? extends CaptureValue> src) {
+			super(src);
+		}
+
+		boolean isCaptured(CaptureValue value) {
+			return value.site != NONE && !all && !escaped.get(value.site);
+		}
+
+		void escape(CaptureValue value) {
+			if (value.site != NONE)
+				escaped.set(value.site);
+		}
+
+		@Override
+		public Frame<CaptureValue> init(Frame<? extends CaptureValue> src) {
+			super.init(src);
+			if (escaped == null)
+				escaped = new BitSet();
+			else
+				escaped.clear();
+			escaped.or(((CaptureFrame) src).escaped);
+			all = ((CaptureFrame) src).all;
+			return this;
+		}
+
+		/**
+		 * Only called by the {@link Analyzer} for the frame of an exception handler, the
+		 * instruction that threw might have let anything escape.
+		 */
+		@Override
+		public void clearStack() {
+			super.clearStack();
+			all = true;
+		}
+
+		@Override
+		public void execute(AbstractInsnNode insn, Interpreter<CaptureValue> interpreter)
+				throws AnalyzerException {
+			((CaptureInterpreter) interpreter).frame = this;
+			super.execute(insn, interpreter);
+		}
+
+		@Override
+		public boolean merge(Frame<? extends CaptureValue> frame, Interpreter<CaptureValue> interpreter)
+				throws AnalyzerException {
+			return super.merge(frame, interpreter) | mergeEscaped((CaptureFrame) frame);
+		}
+
+		@Override
+		public boolean merge(Frame<? extends CaptureValue> frame, boolean[] access) {
+			return super.merge(frame, access) | mergeEscaped((CaptureFrame) frame);
+		}
+
+		private boolean mergeEscaped(CaptureFrame frame) {
+			int before = escaped.cardinality();
+			escaped.or(frame.escaped);
+			boolean changes = before != escaped.cardinality() || (frame.all && !all);
+			all |= frame.all;
+			return changes;
+		}
+	}
+
+	@Exclude
+	private static class CaptureFrameAnalyzer extends Analyzer<CaptureValue> {
+
+		final private CaptureInterpreter interpreter;
+
+		CaptureFrameAnalyzer(CaptureInterpreter interpreter) {
+			super(interpreter);
+			this.interpreter = interpreter;
+		}
+
+		@Override
+		protected void init(String owner, MethodNode m) {
+			// The instrumented constructors run on objects allocated by the transaction
+			if (m.name.equals("<init>")) {
+				Frame<CaptureValue> first = getFrames()[0];
+				first.setLocal(0, new CaptureValue(first.getLocal(0).value, m.instructions.size()));
+			}
+			interpreter.method = m;
+		}
+
+		@Override
+		protected Frame<CaptureValue> newFrame(int nLocals, int nStack) {
+			return new CaptureFrame(nLocals, nStack);
+		}
+
+		@Override
+		protected Frame<CaptureValue> newFrame(Frame<? extends CaptureValue> src) {
+			return new CaptureFrame(src);
+		}
+	}
+
+	/**
+	 * Tracks the allocation sites on top of the {@link BasicInterpreter}, and records the escapes
+	 * in the frame being executed.
+	 */
+	@Exclude
+	private static class CaptureInterpreter extends Interpreter<CaptureValue> {
+
+		final private BasicInterpreter basic = new BasicInterpreter();
+		MethodNode method;
+		CaptureFrame frame; // being executed
+
+		CaptureInterpreter() {
+			super(Opcodes.ASM5);
+		}
+
+		private CaptureValue value(BasicValue value) {
+			return value == null ? null : new CaptureValue(value, NONE);
+		}
+
+		private CaptureValue allocated(BasicValue value, AbstractInsnNode insn) {
+			return new CaptureValue(value, method.instructions.indexOf(insn));
+		}
+
+		@Override
+		public CaptureValue newValue(Type type) {
+			return value(basic.newValue(type));
+		}
+
+		@Override
+		public CaptureValue newOperation(AbstractInsnNode insn) throws AnalyzerException {
+			BasicValue value = basic.newOperation(insn);
+			return insn.getOpcode() == Opcodes.NEW ? allocated(value, insn) : value(value);
+		}
+
+		@Override
+		public CaptureValue copyOperation(AbstractInsnNode insn, CaptureValue value)
+				throws AnalyzerException {
+			return value;
+		}
+
+		@Override
+		public CaptureValue unaryOperation(AbstractInsnNode insn, CaptureValue value)
+				throws AnalyzerException {
+			BasicValue result = basic.unaryOperation(insn, value.value);
+			switch (insn.getOpcode()) {
+			case Opcodes.NEWARRAY:
+			case Opcodes.ANEWARRAY:
+				return allocated(result, insn);
+			case Opcodes.CHECKCAST:
+				return new CaptureValue(result, value.site);
+			case Opcodes.PUTSTATIC:
+				frame.escape(value);
+				break;
+			}
+			return value(result);
+		}
+
+		@Override
+		public CaptureValue binaryOperation(AbstractInsnNode insn, CaptureValue value1,
+				CaptureValue value2) throws AnalyzerException {
+			if (insn.getOpcode() == Opcodes.PUTFIELD)
+				frame.escape(value2);
+			return value(basic.binaryOperation(insn, value1.value, value2.value));
+		}
+
+		@Override
+		public CaptureValue ternaryOperation(AbstractInsnNode insn, CaptureValue value1,
+				CaptureValue value2, CaptureValue value3) throws AnalyzerException {
+			if (insn.getOpcode() == Opcodes.AASTORE)
+				frame.escape(value3);
+			return value(basic.ternaryOperation(insn, value1.value, value2.value, value3.value));
+		}
+
+		@Override
+		public CaptureValue naryOperation(AbstractInsnNode insn, List<? extends CaptureValue> values)
+				throws AnalyzerException {
+			ArrayList<BasicValue> basicValues = new ArrayList<BasicValue>(values.size());
+			for (CaptureValue value : values)
+				basicValues.add(value.value);
+			BasicValue result = basic.naryOperation(insn, basicValues);
+			if (insn.getOpcode() == Opcodes.MULTIANEWARRAY)
+				return allocated(result, insn);
+
+			// Uninstrumented code accesses the memory directly, like the captured accesses
+			if (!(insn instanceof MethodInsnNode) || !ExcludeIncludeStore.exclude(((MethodInsnNode) insn).owner)) {
+				for (CaptureValue value : values)
+					frame.escape(value);
+			}
+			return value(result);
+		}
+
+		@Override
+		public void returnOperation(AbstractInsnNode insn, CaptureValue value, CaptureValue expected)
+				throws AnalyzerException {
+		}
+
+		@Override
+		public CaptureValue merge(CaptureValue v, CaptureValue w) {
+			BasicValue value = basic.merge(v.value, w.value);
+			int site = v.site == w.site ? v.site : NONE;
+			if (value.equals(v.value) && site == v.site)
+				return v;
+			return new CaptureValue(value, site);
+		}
+	}
+}
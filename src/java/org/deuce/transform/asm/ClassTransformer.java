@@ -1,18 +1,25 @@
 package org.deuce.transform.asm;
 
 import java.lang.annotation.Annotation;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 
 import org.deuce.objectweb.asm.AnnotationVisitor;
+import org.deuce.objectweb.asm.ClassReader;
 import org.deuce.objectweb.asm.ClassVisitor;
 import org.deuce.objectweb.asm.FieldVisitor;
 import org.deuce.objectweb.asm.MethodVisitor;
 import org.deuce.objectweb.asm.Opcodes;
 import org.deuce.objectweb.asm.Type;
 import org.deuce.objectweb.asm.commons.Method;
+import org.deuce.objectweb.asm.tree.ClassNode;
+import org.deuce.reflection.AddressUtil;
 import org.deuce.transaction.Context;
 import org.deuce.transaction.ContextDelegator;
 import org.deuce.transform.Exclude;
+import org.deuce.transform.asm.BarrierAnalyzer.Barriers;
+import org.deuce.transform.asm.CaptureAnalyzer.Captures;
 import org.deuce.transform.asm.method.MethodTransformer;
 import org.deuce.transform.asm.method.StaticMethodTransformer;
 import org.deuce.transform.asm.type.TypeCodeResolver;
@@ -28,6 +35,7 @@ public class ClassTransformer extends ByteCodeVisitor implements FieldsHolder{
 	private boolean visitclinit = false;
 	final private LinkedList<Field> fields = new LinkedList<Field>();
 	private String staticField = null;
+	private boolean instanceField = false;
 	
 	final static public String EXCLUDE_DESC = Type.getDescriptor(Exclude.class);
 	final static private String ANNOTATION_NAME = Type.getInternalName(Annotation.class);
@@ -36,10 +44,54 @@ public class ClassTransformer extends ByteCodeVisitor implements FieldsHolder{
 	private MethodVisitor staticMethod;
 	private boolean addFrames;
 	private final FieldsHolder fieldsHolder;
+	private final ClassLoader loader;
+	private HashSet<String> readOnlyMethods = new HashSet<String>();
+	private HashMap<String, Captures> captures = new HashMap<String, Captures>();
+	private HashMap<String, Barriers> barriers = new HashMap<String, Barriers>();
 
 	public ClassTransformer( String className, FieldsHolder fieldsHolder){
+		this( className, fieldsHolder, null);
+	}
+
+	/**
+	 * @param loader used to look for the methods called by the atomic methods, see {@link ReadOnlyAnalyzer}.
+	 */
+	public ClassTransformer( String className, FieldsHolder fieldsHolder, ClassLoader loader){
 		super(className);
 		this.fieldsHolder = fieldsHolder == null ? this : fieldsHolder;
+		this.loader = loader;
+	}
+
+	@Override
+	public byte[] visit( byte[] bytes){
+		ClassNode classNode = new ClassNode();
+		new ClassReader(bytes).accept(classNode, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+		readOnlyMethods = ReadOnlyAnalyzer.analyze( className, classNode, loader);
+		if( CaptureAnalyzer.ENABLED)
+			captures = CaptureAnalyzer.analyze( classNode);
+		if( BarrierAnalyzer.ENABLED)
+			barriers = BarrierAnalyzer.analyze( classNode, captures);
+		return super.visit( bytes);
+	}
+
+	/**
+	 * @return the number of read barriers removed by {@link BarrierAnalyzer}.
+	 */
+	public int getRemovedBarriers(){
+		int removed = 0;
+		for( Barriers methodBarriers : barriers.values())
+			removed += methodBarriers.getRemovedCount();
+		return removed;
+	}
+
+	/**
+	 * @return the number of reads hoisted out of loops by {@link BarrierAnalyzer}.
+	 */
+	public int getHoistedBarriers(){
+		int hoisted = 0;
+		for( Barriers methodBarriers : barriers.values())
+			hoisted += methodBarriers.getHoistedCount();
+		return hoisted;
 	}
 
 	@Override
@@ -92,6 +144,8 @@ public class ClassTransformer extends ByteCodeVisitor implements FieldsHolder{
 			fields.add( field);
 			if(isStatic)
 				staticField = name;
+			else
+				instanceField = true;
 			fieldsHolder.addField( fieldAccess, addressFieldName, Type.LONG_TYPE.getDescriptor(), null);
 		}else{
 			// If this field is final mark with a negative address.
@@ -137,8 +191,12 @@ public class ClassTransformer extends ByteCodeVisitor implements FieldsHolder{
 		MethodVisitor copyMethod =  super.visitMethod((access | Opcodes.ACC_SYNTHETIC) & ~Opcodes.ACC_FINAL, name, newMethod.getDescriptor(),
 				null, exceptions);
 
+		Captures methodCaptures = captures.get( name + desc);
+		Barriers methodBarriers = barriers.get( name + desc);
 		return new MethodTransformer( originalMethod, copyMethod, className,
-				access, name, desc, newMethod, fieldsHolder, addFrames);
+				access, name, desc, newMethod, fieldsHolder, addFrames, readOnlyMethods.contains( name + desc),
+				methodCaptures == null ? Captures.EMPTY : methodCaptures,
+				methodBarriers == null ? Barriers.EMPTY : methodBarriers);
 	}
 
 	/**
@@ -204,6 +262,12 @@ public class ClassTransformer extends ByteCodeVisitor implements FieldsHolder{
 				method.visitEnd();
 
 			}
+			// The lock word of the fields of the class, the fields of an external holder
+			// live in classes we can't add fields to
+			if( instanceField && !isInterface && fieldsHolder == this && AddressUtil.isMetadataEnabled()){
+				int metadataAccess = Opcodes.ACC_PRIVATE | Opcodes.ACC_VOLATILE | Opcodes.ACC_TRANSIENT | Opcodes.ACC_SYNTHETIC;
+				super.visitField( metadataAccess, AddressUtil.METADATA_FIELD, Type.LONG_TYPE.getDescriptor(), null, null).visitEnd();
+			}
 			if(isEnum){ // Build a dummy ordinal() method
 				MethodVisitor ordinalMethod = 
 					super.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_SYNTHETIC, "ordinal", "(Lorg/deuce/transaction/Context;)I", null, null);
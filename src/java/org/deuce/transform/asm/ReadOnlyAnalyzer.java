@@ -0,0 +1,263 @@
+package org.deuce.transform.asm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.deuce.TxCounter;
+import org.deuce.objectweb.asm.ClassReader;
+import org.deuce.objectweb.asm.Opcodes;
+import org.deuce.objectweb.asm.tree.AbstractInsnNode;
+import org.deuce.objectweb.asm.tree.AnnotationNode;
+import org.deuce.objectweb.asm.tree.ClassNode;
+import org.deuce.objectweb.asm.tree.FieldInsnNode;
+import org.deuce.objectweb.asm.tree.MethodInsnNode;
+import org.deuce.objectweb.asm.tree.MethodNode;
+import org.deuce.transform.Exclude;
+import org.deuce.transform.asm.method.AtomicMethod;
+
+/**
+ * Finds the atomic methods that can't reach a write barrier, these can run as read-only
+ * transactions.
+ * <p>
+ * A method is read-only if neither it nor any method it might call has a PUTFIELD,
+ * PUTSTATIC or array store that the instrumentation turns into a write barrier. Calls to
+ * excluded classes are not instrumented and are therefore fine. The callees are looked up
+ * in the bytecode of their class, loaded from the class loader of the transformed class.
+ * Anything that can't be resolved (interface calls, invokedynamic, missing classes) makes the
+ * method read-write.
+ * <p>
+ * A virtual call is resolved to the method of the static type, an override in a subclass is
+ * not seen. This is safe: a write in a read-only transaction makes the context restart it as
+ * an update transaction (see {@link org.deuce.transaction.ReadOnlyContext}).
+ *
+ * @since 1.4
+ */
+@Exclude
+public class ReadOnlyAnalyzer {
+
+	// Give up on large call graphs
+	final private static int MAX_METHODS = 1000;
+
+	final private static String EXCLUDE_DESC = ClassTransformer.EXCLUDE_DESC;
+
+	// Summaries of the analyzed classes, MISSING if the class could not be read
+	final private static ConcurrentHashMap<String, ClassSummary> summaries = new ConcurrentHashMap<String, ClassSummary>();
+	final private static ClassSummary MISSING = new ClassSummary(null, false);
+
+	@Exclude
+	private static class ClassSummary {
+		final String superName;
+		final boolean excluded; // marked @Exclude, never instrumented
+		final HashMap<String, MethodSummary> methods = new HashMap<String, MethodSummary>();
+
+		ClassSummary(String superName, boolean excluded) {
+			this.superName = superName;
+			this.excluded = excluded;
+		}
+	}
+
+	@Exclude
+	private static class MethodSummary {
+		boolean writes; // has a write barrier or an unresolvable call
+		final ArrayList<Call> calls = new ArrayList<Call>();
+	}
+
+	// Keeps the summaries apart from the instructions
+	@Exclude
+	private static class Call {
+		final String owner;
+		final String method; // name + desc
+		final boolean special;
+
+		Call(MethodInsnNode insn) {
+			this.owner = insn.owner;
+			this.method = insn.name + insn.desc;
+			this.special = insn.getOpcode() == Opcodes.INVOKESPECIAL;
+		}
+	}
+
+	/**
+	 * @param className the internal name of the class.
+	 * @param bytecode the class being transformed.
+	 * @param loader where to look for the callees, might be <code>null</code>.
+	 * @return the <code>name + desc</code> of the atomic methods that are read-only.
+	 */
+	public static HashSet<String> analyze(String className, byte[] bytecode, ClassLoader loader) {
+		ClassNode classNode = new ClassNode();
+		new ClassReader(bytecode).accept(classNode, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+		return analyze(className, classNode, loader);
+	}
+
+	/**
+	 * @see #analyze(String, byte[], ClassLoader)
+	 */
+	public static HashSet<String> analyze(String className, ClassNode classNode, ClassLoader loader) {
+		HashSet<String> readOnly = new HashSet<String>();
+
+		ArrayList<MethodNode> atomics = new ArrayList<MethodNode>();
+		for (MethodNode method : classNode.methods) {
+			if (isAnnotated(method.invisibleAnnotations, AtomicMethod.ATOMIC_DESCRIPTOR)
+					|| isAnnotated(method.visibleAnnotations, AtomicMethod.ATOMIC_DESCRIPTOR))
+				atomics.add(method);
+		}
+		if (atomics.isEmpty())
+			return readOnly;
+
+		// Use the bytecode at hand, it might differ from the one of the class loader
+		HashMap<String, ClassSummary> local = new HashMap<String, ClassSummary>();
+		local.put(className, summarize(classNode));
+		for (MethodNode method : atomics) {
+			if (isReadOnly(className, method.name, method.desc, local, loader))
+				readOnly.add(method.name + method.desc);
+		}
+		return readOnly;
+	}
+
+	private static boolean isReadOnly(String className, String name, String desc,
+			HashMap<String, ClassSummary> local, ClassLoader loader) {
+		HashSet<String> visited = new HashSet<String>();
+		LinkedList<MethodSummary> pending = new LinkedList<MethodSummary>();
+		pending.add(getClass(className, local, loader).methods.get(name + desc));
+		visited.add(className + '.' + name + desc);
+
+		while (!pending.isEmpty()) {
+			MethodSummary method = pending.removeFirst();
+			if (method == null || method.writes)
+				return false;
+			for (Call call : method.calls) {
+				if (!visited.add(call.owner + '.' + call.method))
+					continue;
+				if (visited.size() > MAX_METHODS)
+					return false;
+				pending.add(resolve(call, local, loader));
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the called method, <code>null</code> if unknown.
+	 */
+	private static MethodSummary resolve(Call call, HashMap<String, ClassSummary> local,
+			ClassLoader loader) {
+		String owner = call.owner;
+		String key = call.method;
+		while (owner != null) {
+			ClassSummary summary = getClass(owner, local, loader);
+			if (summary == MISSING || summary.excluded)
+				return null;
+			MethodSummary method = summary.methods.get(key);
+			if (method != null || call.special)
+				return method;
+			owner = summary.superName; // inherited
+			if (owner != null && ExcludeIncludeStore.exclude(owner))
+				return null; // e.g. inherited from java.lang, can't tell
+		}
+		return null;
+	}
+
+	private static ClassSummary getClass(String className, HashMap<String, ClassSummary> local,
+			ClassLoader loader) {
+		ClassSummary summary = local.get(className);
+		if (summary != null)
+			return summary;
+		summary = summaries.get(className);
+		if (summary != null)
+			return summary;
+
+		summary = MISSING;
+		if (loader == null)
+			loader = ClassLoader.getSystemClassLoader();
+		InputStream in = loader.getResourceAsStream(className + ".class");
+		if (in != null) {
+			try {
+				ClassNode classNode = new ClassNode();
+				new ClassReader(in).accept(classNode, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+				summary = summarize(classNode);
+			} catch (IOException e) {
+				// Unknown class
+			} finally {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		summaries.put(className, summary);
+		return summary;
+	}
+
+	private static ClassSummary summarize(ClassNode classNode) {
+		boolean excluded = isAnnotated(classNode.invisibleAnnotations, EXCLUDE_DESC)
+				|| isAnnotated(classNode.visibleAnnotations, EXCLUDE_DESC);
+		ClassSummary summary = new ClassSummary(classNode.superName, excluded);
+		for (MethodNode method : classNode.methods)
+			summary.methods.put(method.name + method.desc, summarize(method));
+		return summary;
+	}
+
+	private static MethodSummary summarize(MethodNode method) {
+		MethodSummary summary = new MethodSummary();
+		if ((method.access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) != 0) {
+			summary.writes = true; // nothing to analyze
+			return summary;
+		}
+		for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+			switch (insn.getOpcode()) {
+			case Opcodes.PUTFIELD:
+			case Opcodes.PUTSTATIC:
+				FieldInsnNode field = (FieldInsnNode) insn;
+				// Same filter as DuplicateMethod
+				if (!ExcludeIncludeStore.exclude(field.owner) && !field.name.contains("$"))
+					summary.writes = true;
+				break;
+			case Opcodes.IASTORE:
+			case Opcodes.LASTORE:
+			case Opcodes.FASTORE:
+			case Opcodes.DASTORE:
+			case Opcodes.AASTORE:
+			case Opcodes.BASTORE:
+			case Opcodes.CASTORE:
+			case Opcodes.SASTORE:
+			case Opcodes.INVOKEDYNAMIC:
+				summary.writes = true;
+				break;
+			case Opcodes.INVOKEINTERFACE:
+			case Opcodes.INVOKEVIRTUAL:
+			case Opcodes.INVOKESPECIAL:
+			case Opcodes.INVOKESTATIC:
+				MethodInsnNode call = (MethodInsnNode) insn;
+				if (call.owner.equals(TxCounter.COUNTER_INTERNAL) && !call.name.equals("get")) {
+					summary.writes = true; // an increment, see DuplicateMethod
+					break;
+				}
+				if (ExcludeIncludeStore.exclude(call.owner))
+					break; // not instrumented
+				if (insn.getOpcode() == Opcodes.INVOKEINTERFACE)
+					summary.writes = true; // any implementation
+				else
+					summary.calls.add(new Call(call));
+				break;
+			}
+			if (summary.writes)
+				break;
+		}
+		return summary;
+	}
+
+	private static boolean isAnnotated(List<AnnotationNode> annotations, String desc) {
+		if (annotations == null)
+			return false;
+		for (AnnotationNode annotation : annotations) {
+			if (annotation.desc.equals(desc))
+				return true;
+		}
+		return false;
+	}
+}
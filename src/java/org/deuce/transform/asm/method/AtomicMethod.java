@@ -5,6 +5,7 @@ import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.deuce.Atomic;
+import org.deuce.Isolation;
 import org.deuce.objectweb.asm.AnnotationVisitor;
 import org.deuce.objectweb.asm.Label;
 import org.deuce.objectweb.asm.MethodVisitor;
@@ -17,6 +18,7 @@ import org.deuce.transaction.AbortTransactionException;
 import org.deuce.transaction.Context;
 import org.deuce.transaction.ContextDelegator;
 import org.deuce.transaction.TransactionException;
+import org.deuce.transaction.statistics.Statistics;
 import org.deuce.transform.asm.type.TypeCodeResolver;
 import org.deuce.transform.asm.type.TypeCodeResolverFactory;
 import static org.deuce.objectweb.asm.Opcodes.*;
@@ -35,6 +37,9 @@ public class AtomicMethod extends MethodVisitor {
 	
 	private Integer retries = Integer.getInteger("org.deuce.transaction.retries", Integer.MAX_VALUE);
 	private String metainf = "";//Integer.getInteger("org.deuce.transaction.retries", Integer.MAX_VALUE);
+	private String retryPolicy = "";
+	private boolean readOnly;
+	private boolean snapshot;
 	
 	final private String className;
 	final private String methodName;
@@ -46,9 +51,13 @@ public class AtomicMethod extends MethodVisitor {
 	private boolean addFrames;
 	private String methodDescriptor;
 	
+	/**
+	 * @param readOnly <code>true</code> if the method was proven not to write.
+	 */
 	public AtomicMethod(MethodVisitor mv, String className, String methodName,
-			String descriptor, Method newMethod, boolean isStatic, boolean addFrames) {
+			String descriptor, Method newMethod, boolean isStatic, boolean addFrames, boolean readOnly) {
 		super(Opcodes.ASM5, mv);
+		this.readOnly = readOnly;
 		this.className = className;
 		this.methodName = methodName;
 		this.newMethod = newMethod;
@@ -84,6 +93,12 @@ public class AtomicMethod extends MethodVisitor {
 					if( name.equals("metainf"))
 						AtomicMethod.this.metainf = (String)value;
 					
+					if( name.equals("retryPolicy"))
+						AtomicMethod.this.retryPolicy = (String)value;
+					
+					if( name.equals("readOnly") && (Boolean)value)
+						AtomicMethod.this.readOnly = true;
+					
 					visitAnnotation.visit(name, value);
 				}
 				public AnnotationVisitor visitAnnotation(String name, String desc) {
@@ -96,6 +111,9 @@ public class AtomicMethod extends MethodVisitor {
 					visitAnnotation.visitEnd();				
 				}
 				public void visitEnum(String name, String desc, String value) {
+					if( name.equals("isolation") && value.equals(Isolation.SNAPSHOT.name()))
+						AtomicMethod.this.snapshot = true;
+					
 					visitAnnotation.visitEnum(name, desc, value);
 				}
 			};
@@ -107,7 +125,7 @@ public class AtomicMethod extends MethodVisitor {
 	public static boolean foo(Object s) throws IOException{
 
 		Throwable throwable = null;
-		Context context = ContextDelegator.getInstance();
+		Context context = ContextDelegator.lease();
 		boolean commit = true;
 		boolean result = true;
 		for( int i=10 ; i>0 ; --i)
@@ -120,6 +138,7 @@ public class AtomicMethod extends MethodVisitor {
 			catch( AbortTransactionException ex)
 			{
 				context.rollback(); 
+				ContextDelegator.release(context);
 				throw ex;
 			}
 			catch( TransactionException ex)
@@ -134,6 +153,7 @@ public class AtomicMethod extends MethodVisitor {
 			if( commit )
 			{
 				if( context.commit()){
+					ContextDelegator.release(context);
 					if( throwable != null)
 						throw (IOException)throwable;
 					return result;
@@ -144,7 +164,11 @@ public class AtomicMethod extends MethodVisitor {
 				context.rollback(); 
 				commit = true;
 			}
+			if( i > 1)
+				ContextDelegator.beforeRetry(retries - i + 1, retryPolicy, context);
 		}
+		ContextDelegator.onRetriesExhausted(context);
+		ContextDelegator.release(context);
 		throw new TransactionException();
 
 	}
@@ -197,7 +221,7 @@ public class AtomicMethod extends MethodVisitor {
 		an.visitInsn(ACONST_NULL);
 		an.visitVarInsn(ASTORE, throwableIndex);
 		
-		Label l5 = getContext(contextIndex,an); // Context context = ContextDelegator.getInstance();
+		Label l5 = getContext(contextIndex,an); // Context context = ContextDelegator.lease();
 			
 		Label l6 = new Label(); // boolean commit = true;
 		an.visitLabel(l6);
@@ -228,9 +252,18 @@ public class AtomicMethod extends MethodVisitor {
 		if(addFrames)
 			withNoStack.accept(an);
 		an.visitVarInsn(ALOAD, contextIndex);
-		an.visitLdcInsn(ATOMIC_BLOCK_COUNTER.getAndIncrement());
+		int atomicBlockId = ATOMIC_BLOCK_COUNTER.getAndIncrement();
+		Statistics.registerBlock(atomicBlockId, className.replace('/', '.') + "." + methodName);
+		an.visitLdcInsn(atomicBlockId);
 		an.visitLdcInsn(metainf);
-		an.visitMethodInsn(INVOKEINTERFACE, Context.CONTEXT_INTERNAL, "init", "(ILjava/lang/String;)V", true);
+		if( snapshot) // ContextDelegator.initSnapshot(context, atomicBlockId, metainf);
+			an.visitMethodInsn(INVOKESTATIC, ContextDelegator.CONTEXT_DELEGATOR_INTERNAL,
+					ContextDelegator.SNAPSHOT_INIT_METHOD_NAME, ContextDelegator.SNAPSHOT_INIT_METHOD_DESC, false);
+		else if( readOnly) // ContextDelegator.initReadOnly(context, atomicBlockId, metainf);
+			an.visitMethodInsn(INVOKESTATIC, ContextDelegator.CONTEXT_DELEGATOR_INTERNAL,
+					ContextDelegator.READ_ONLY_INIT_METHOD_NAME, ContextDelegator.READ_ONLY_INIT_METHOD_DESC, false);
+		else
+			an.visitMethodInsn(INVOKEINTERFACE, Context.CONTEXT_INTERNAL, "init", "(ILjava/lang/String;)V", true);
 
 		/* result = foo( context, ...)  */ 
 		an.visitLabel(l0);
@@ -272,6 +305,7 @@ public class AtomicMethod extends MethodVisitor {
 		an.visitVarInsn(ALOAD, contextIndex);
 		an.visitMethodInsn(INVOKEINTERFACE, Context.CONTEXT_INTERNAL, "rollback", "()V", true);
 		an.visitLabel(l27);
+		releaseContext(contextIndex, an); // ContextDelegator.release(context);
 		an.visitVarInsn(ALOAD, exceptionIndex);
 		an.visitInsn(ATHROW);
 		Label l28 = new Label();
@@ -313,6 +347,7 @@ public class AtomicMethod extends MethodVisitor {
 		 * if( commit )
 			{
 				if( context.commit()){
+					ContextDelegator.release(context);
 					if( throwable != null)
 						throw (IOException)throwable;
 					return result;
@@ -342,6 +377,7 @@ public class AtomicMethod extends MethodVisitor {
 		//			throw throwable;
 		Label l19 = new Label();
 		an.visitLabel(l19);
+		releaseContext(contextIndex, an); // ContextDelegator.release(context);
 		an.visitVarInsn(ALOAD, throwableIndex);
 		Label l20 = new Label();
 		an.visitJumpInsn(IFNULL, l20);
@@ -376,11 +412,30 @@ public class AtomicMethod extends MethodVisitor {
 		an.visitInsn(ICONST_1); // commit = true;
 		an.visitVarInsn(ISTORE, commitIndex);
 		
-		an.visitLabel(l18);  // for( ... ; i>0 ; --i) 
+		an.visitLabel(l18);
 		if(addFrames)
 			preL12.accept(an);
 
-		an.visitIincInsn(indexIndex, -1);
+		// if( i > 1) // no retry follows the last attempt
+		//	ContextDelegator.beforeRetry(retries - i + 1, retryPolicy, context);
+		Label l22 = new Label();
+		an.visitVarInsn(ILOAD, indexIndex);
+		an.visitInsn(ICONST_1);
+		an.visitJumpInsn(IF_ICMPLE, l22);
+		an.visitLdcInsn( retries);
+		an.visitVarInsn(ILOAD, indexIndex);
+		an.visitInsn(ISUB);
+		an.visitInsn(ICONST_1);
+		an.visitInsn(IADD);
+		an.visitLdcInsn( retryPolicy);
+		an.visitVarInsn(ALOAD, contextIndex);
+		an.visitMethodInsn(INVOKESTATIC, ContextDelegator.CONTEXT_DELEGATOR_INTERNAL, 
+				ContextDelegator.RETRY_METHOD_NAME, ContextDelegator.RETRY_METHOD_DESC, false);
+		an.visitLabel(l22);
+		if(addFrames)
+			preL12.accept(an);
+
+		an.visitIincInsn(indexIndex, -1); // for( ... ; i>0 ; --i) 
 		an.visitLabel(l10);
 		if(addFrames)
 			preL12.accept(an);
@@ -389,7 +444,7 @@ public class AtomicMethod extends MethodVisitor {
 		an.visitJumpInsn(IFGT, l11);
 		
 		// throw new TransactionException("Failed to commit ...");
-		Label l23 = throwTransactionException();
+		Label l23 = throwTransactionException(contextIndex);
 		
 		/* locals */
 		Label l24 = new Label();
@@ -410,15 +465,26 @@ public class AtomicMethod extends MethodVisitor {
 
 	private Label getContext(final int contextIndex, AnalyzerAdapter an) {
 		Label label = new Label();
-		an.visitLabel(label); // Context context = ContextDelegator.getInstance();
-		an.visitMethodInsn(INVOKESTATIC, ContextDelegator.CONTEXT_DELEGATOR_INTERNAL, "getInstance", "()Lorg/deuce/transaction/Context;", false);
+		an.visitLabel(label); // Context context = ContextDelegator.lease();
+		an.visitMethodInsn(INVOKESTATIC, ContextDelegator.CONTEXT_DELEGATOR_INTERNAL, 
+				ContextDelegator.LEASE_METHOD_NAME, ContextDelegator.LEASE_METHOD_DESC, false);
 		an.visitVarInsn(ASTORE, contextIndex);
 		return label;
 	}
 
-	private Label throwTransactionException() {
+	private void releaseContext(final int contextIndex, MethodVisitor visitor) {
+		visitor.visitVarInsn(ALOAD, contextIndex);
+		visitor.visitMethodInsn(INVOKESTATIC, ContextDelegator.CONTEXT_DELEGATOR_INTERNAL, 
+				ContextDelegator.RELEASE_METHOD_NAME, ContextDelegator.RELEASE_METHOD_DESC, false);
+	}
+
+	private Label throwTransactionException(final int contextIndex) {
 		Label label = new Label();
 		mv.visitLabel(label);
+		mv.visitVarInsn(ALOAD, contextIndex); // ContextDelegator.onRetriesExhausted(context);
+		mv.visitMethodInsn(INVOKESTATIC, ContextDelegator.CONTEXT_DELEGATOR_INTERNAL, 
+				ContextDelegator.RETRIES_EXHAUSTED_METHOD_NAME, ContextDelegator.RETRIES_EXHAUSTED_METHOD_DESC, false);
+		releaseContext(contextIndex, mv); // ContextDelegator.release(context);
 		mv.visitTypeInsn(NEW, "org/deuce/transaction/TransactionException");
 		mv.visitInsn(DUP);
 		mv.visitLdcInsn("Failed to commit the transaction in the defined retries.");
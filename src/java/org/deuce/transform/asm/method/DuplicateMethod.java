@@ -1,5 +1,7 @@
 package org.deuce.transform.asm.method;
 
+import org.deuce.TxCounter;
+import org.deuce.objectweb.asm.Handle;
 import org.deuce.objectweb.asm.Label;
 import org.deuce.objectweb.asm.MethodVisitor;
 import org.deuce.objectweb.asm.Opcodes;
@@ -9,6 +11,10 @@ import org.deuce.objectweb.asm.commons.Method;
 import org.deuce.objectweb.asm.tree.FrameNode;
 import org.deuce.transaction.Context;
 import org.deuce.transaction.ContextDelegator;
+import org.deuce.transaction.capture.CaptureContext;
+import org.deuce.transform.asm.BarrierAnalyzer.Barriers;
+import org.deuce.transform.asm.BarrierAnalyzer.Preload;
+import org.deuce.transform.asm.CaptureAnalyzer.Captures;
 import org.deuce.transform.asm.ClassTransformer;
 import org.deuce.transform.asm.ExcludeIncludeStore;
 import org.deuce.transform.asm.FieldsHolder;
@@ -39,11 +45,30 @@ public class DuplicateMethod extends MethodVisitor {
 	private AnalyzerAdapter analyzerAdapter;
 	private final boolean addFrames;
 	
+	// Accesses on captured objects don't need barriers, see CaptureAnalyzer
+	private final Captures captures;
+	private int accesses = 0; // field and array accesses visited
+	private int allocations = 0; // arrays allocated
+	
+	// Reads whose value is already kept in a local, see BarrierAnalyzer
+	private final Barriers barriers;
+	private final List<Preload> preloads;
+	private int preloaded = 0; // preloads added
+	private int instructions = 0; // instructions visited
+	
 	public DuplicateMethod(MethodVisitor mv, boolean isstatic, Method newMethod, FieldsHolder fieldsHolder, boolean addFrames) {
+		this(mv, isstatic, newMethod, fieldsHolder, addFrames, Captures.EMPTY, Barriers.EMPTY);
+	}
+
+	public DuplicateMethod(MethodVisitor mv, boolean isstatic, Method newMethod, FieldsHolder fieldsHolder, boolean addFrames,
+			Captures captures, Barriers barriers) {
 		super(Opcodes.ASM5, mv);
 		this.fieldsHolder = fieldsHolder;
 		this.argumentsSize = Util.calcArgumentsSize( isstatic, newMethod); 
 		this.addFrames = addFrames;
+		this.captures = captures;
+		this.barriers = barriers;
+		this.preloads = barriers.getPreloads();
 	}
 	
 	public void setAnalyzer(AnalyzerAdapter analyzerAdapter) {
@@ -54,9 +79,18 @@ public class DuplicateMethod extends MethodVisitor {
 	public void visitMethodInsn(int opcode, String owner, String name,
 			String desc, boolean isItfc) 
 	{
+		instructions++;
+		if( owner.equals(TxCounter.COUNTER_INTERNAL) && addCounterCall(name, desc))
+			return;
 		if( ExcludeIncludeStore.exclude(owner))
 		{
+			boolean superConstructor = opcode == INVOKESPECIAL && isUninitializedThis(desc);
 			super.visitMethodInsn(opcode, owner, name, desc, isItfc); // ... = foo( ...
+			if( superConstructor && CaptureContext.ENABLED){
+				// The first instrumented constructor, this is allocated by the transaction
+				super.visitVarInsn(ALOAD, 0);
+				addAllocationCall();
+			}
 		}
 		else
 		{
@@ -65,6 +99,82 @@ public class DuplicateMethod extends MethodVisitor {
 			super.visitMethodInsn(opcode, owner, name, newMethod.getDescriptor(), isItfc); // ... = foo( ...
 		}
 	}
+	/**
+	 * Replaces a call updating or reading a {@link TxCounter} with a call to the context,
+	 * see {@link org.deuce.transaction.CommutativeContext}.
+	 * @return <code>false</code> if the method is called as any other.
+	 */
+	private boolean addCounterCall(String name, String desc) {
+		if( name.equals("get") && desc.equals("()J")){
+			super.visitVarInsn(ALOAD, argumentsSize - 1); // load context
+			super.visitMethodInsn( INVOKESTATIC, ContextDelegator.CONTEXT_DELEGATOR_INTERNAL,
+					ContextDelegator.COUNTER_GET_METHOD_NAME, ContextDelegator.COUNTER_GET_METHOD_DESC, false);
+			return true;
+		}
+		if( name.equals("increment") && desc.equals("()V"))
+			super.visitInsn(LCONST_1);
+		else if( name.equals("decrement") && desc.equals("()V"))
+			super.visitLdcInsn(-1L);
+		else if( !name.equals("add") || !desc.equals("(J)V"))
+			return false;
+		super.visitVarInsn(ALOAD, argumentsSize - 1); // load context
+		super.visitMethodInsn( INVOKESTATIC, ContextDelegator.CONTEXT_DELEGATOR_INTERNAL,
+				ContextDelegator.COUNTER_ADD_METHOD_NAME, ContextDelegator.COUNTER_ADD_METHOD_DESC, false);
+		return true;
+	}
+
+	/**
+	 * @return <code>true</code> if the receiver of the constructor call is <code>this</code>,
+	 * called from a constructor before the object is initialized.
+	 */
+	private boolean isUninitializedThis(String desc) {
+		List<Object> stack = analyzerAdapter.stack;
+		if( stack == null)
+			return false;
+		int receiver = stack.size() - (Type.getArgumentsAndReturnSizes(desc) >> 2);
+		return receiver >= 0 && stack.get(receiver) == Opcodes.UNINITIALIZED_THIS;
+	}
+
+	/**
+	 * Registers the object on top of the stack with the context, pops it. Only emitted for
+	 * the runtime filter, when it is enabled at instrumentation time (see {@link CaptureContext}).
+	 */
+	private void addAllocationCall() {
+		super.visitVarInsn(ALOAD, argumentsSize - 1); // load context
+		super.visitMethodInsn( INVOKESTATIC, ContextDelegator.CONTEXT_DELEGATOR_INTERNAL,
+				ContextDelegator.ALLOCATION_METHOD_NAME, ContextDelegator.ALLOCATION_METHOD_DESC, false);
+	}
+
+	@Override
+	public void visitIntInsn(int opcode, int operand) {
+		instructions++;
+		super.visitIntInsn(opcode, operand);
+		if( opcode == NEWARRAY)
+			visitArrayAllocation();
+	}
+
+	@Override
+	public void visitTypeInsn(int opcode, String type) {
+		instructions++;
+		super.visitTypeInsn(opcode, type);
+		if( opcode == ANEWARRAY)
+			visitArrayAllocation();
+	}
+
+	@Override
+	public void visitMultiANewArrayInsn(String desc, int dims) {
+		instructions++;
+		super.visitMultiANewArrayInsn(desc, dims);
+		visitArrayAllocation();
+	}
+
+	private void visitArrayAllocation() {
+		if( captures.isEscaping(allocations++) && CaptureContext.ENABLED){
+			super.visitInsn(DUP);
+			addAllocationCall();
+		}
+	}
+
 	public static Object[] removeLongsDoubleTopVal(List<Object> in, Object extra) {
 		ArrayList<Object> ret = new ArrayList<Object>();
 		boolean lastWas2Word = false;
@@ -119,13 +229,70 @@ public class DuplicateMethod extends MethodVisitor {
 	 */
 	@Override
 	public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+		instructions++;
+		int access = accesses++;
 		if( ExcludeIncludeStore.exclude( owner) || 
-				name.contains("$")){ // Syntactic TODO remove this limitation
+				name.contains("$") || // Syntactic TODO remove this limitation
+				captures.isCaptured(access)){
 			super.visitFieldInsn(opcode, owner, name, desc); // ... = foo( ...
 			return;
 		}
 
-		FrameNode topFn = getCurrentFrameNode();
+		int load = barriers.getLoad(access);
+		if( load >= 0){ // the value is known already
+			if( opcode == GETFIELD)
+				super.visitInsn(POP);
+			loadValue(load, desc);
+			return;
+		}
+		int store = barriers.getStore(access);
+		if( store >= 0 && (opcode == PUTFIELD || opcode == PUTSTATIC))
+			storeValue(store, desc);
+		addFieldBarrier(opcode, owner, name, desc, getCurrentFrameNode());
+		if( store >= 0 && (opcode == GETFIELD || opcode == GETSTATIC))
+			storeValue(store, desc);
+	}
+
+	/**
+	 * Keeps a copy of the value on top of the stack in a local.
+	 */
+	private void storeValue(int local, String desc) {
+		Type type = Type.getType(desc);
+		super.visitInsn(type.getSize() == 2 ? DUP2 : DUP);
+		super.visitVarInsn(type.getOpcode(ISTORE), local);
+	}
+
+	private void loadValue(int local, String desc) {
+		Type type = Type.getType(desc);
+		super.visitVarInsn(type.getOpcode(ILOAD), local);
+		if( type.getSort() >= Type.ARRAY) // non primitive
+			super.visitTypeInsn( CHECKCAST, type.getInternalName());
+	}
+
+	/**
+	 * Reads the fields hoisted out of the loop that starts here, see {@link Preload}.
+	 */
+	private void addPreloads() {
+		while( preloaded < preloads.size() && preloads.get(preloaded).getInstruction() == instructions){
+			Preload preload = preloads.get(preloaded++);
+			FrameNode topFn = getCurrentFrameNode();
+			if( preload.getOpcode() == GETFIELD){
+				super.visitVarInsn(ALOAD, 0); // this
+				if( addFrames){
+					ArrayList<Object> stack = new ArrayList<Object>(topFn.stack);
+					stack.add(preload.getOwner());
+					topFn = new FrameNode(F_NEW, topFn.local.size(), topFn.local.toArray(), stack.size(), stack.toArray());
+				}
+			}
+			addFieldBarrier(preload.getOpcode(), preload.getOwner(), preload.getName(), preload.getDesc(), topFn);
+			super.visitVarInsn(Type.getType(preload.getDesc()).getOpcode(ISTORE), preload.getLocal());
+		}
+	}
+
+	/**
+	 * @param topFn the frame before the field instruction.
+	 */
+	private void addFieldBarrier(int opcode, String owner, String name, String desc, FrameNode topFn) {
 		LinkedList<Object> stackWhenDone = new LinkedList<Object>(topFn.stack);
 		String fieldsHolderName = fieldsHolder.getFieldsHolderName(owner);
 		mv.visitFieldInsn(GETSTATIC, fieldsHolderName, Util.getAddressField(name), "J");
@@ -222,6 +389,7 @@ public class DuplicateMethod extends MethodVisitor {
 	 */
 	@Override
 	public void visitInsn(int opcode) {
+		instructions++;
 		boolean load = false;
 		boolean store = false;
 		String desc = null;
@@ -301,7 +469,11 @@ public class DuplicateMethod extends MethodVisitor {
 			break;
 		}
 			
-		if( load)
+		if( (load || store) && captures.isCaptured(accesses++))
+		{
+			super.visitInsn(opcode); // captured array
+		}
+		else if( load)
 		{
 			super.visitVarInsn(ALOAD, argumentsSize - 1); // load context
 			super.visitMethodInsn( INVOKESTATIC, ContextDelegator.CONTEXT_DELEGATOR_INTERNAL,
@@ -324,11 +496,43 @@ public class DuplicateMethod extends MethodVisitor {
 
 	@Override
 	public void visitIincInsn(int var, int increment) {
+		instructions++;
 		super.visitIincInsn( newIndex(var), increment); // increase index due to context
 	}
 
+	@Override
+	public void visitJumpInsn(int opcode, Label label) {
+		instructions++;
+		super.visitJumpInsn(opcode, label);
+	}
+
+	@Override
+	public void visitLdcInsn(Object cst) {
+		instructions++;
+		super.visitLdcInsn(cst);
+	}
+
+	@Override
+	public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
+		instructions++;
+		super.visitInvokeDynamicInsn(name, desc, bsm, bsmArgs);
+	}
+
+	@Override
+	public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+		instructions++;
+		super.visitTableSwitchInsn(min, max, dflt, labels);
+	}
+
+	@Override
+	public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+		instructions++;
+		super.visitLookupSwitchInsn(dflt, keys, labels);
+	}
+
 	@Override
 	public void visitLabel(Label label) {
+		addPreloads(); // before the first label of a loop
 		if( firstLabel == null)
 			firstLabel = label;
 		lastLabel = label;
@@ -358,11 +562,12 @@ public class DuplicateMethod extends MethodVisitor {
 
 	@Override
 	public void visitMaxs(int maxStack, int maxLocals) {
-		super.visitMaxs(maxStack + 3, maxLocals + 1);
+		super.visitMaxs(maxStack + 3, maxLocals + 1 + barriers.getLocals());
 	}
 
 	@Override
 	public void visitVarInsn(int opcode, int var) {	
+		instructions++;
 		// increase the local variable index by 1
 		super.visitVarInsn(opcode, newIndex(var));  
 	}
@@ -14,6 +14,8 @@ import org.deuce.objectweb.asm.Type;
 import org.deuce.objectweb.asm.commons.AnalyzerAdapter;
 import org.deuce.objectweb.asm.commons.Method;
 import org.deuce.transaction.ContextDelegator;
+import org.deuce.transform.asm.BarrierAnalyzer.Barriers;
+import org.deuce.transform.asm.CaptureAnalyzer.Captures;
 import org.deuce.transform.asm.FieldsHolder;
 import org.deuce.transform.util.Util;
 
@@ -37,11 +39,14 @@ public class MethodTransformer extends MethodVisitor{
 	private boolean isIrrevocable;
 	final private Method newMethod;
 	final boolean addFrames;
+	final private boolean readOnly;
 
 	public MethodTransformer(MethodVisitor originalMethod, MethodVisitor copyMethod, 
 			String className, int access, String methodName, String descriptor, Method newMethod,
-			FieldsHolder fieldsHolder, boolean addFrames) {
+			FieldsHolder fieldsHolder, boolean addFrames, boolean readOnly, Captures captures,
+			Barriers barriers) {
 		super(Opcodes.ASM5, originalMethod);
+		this.readOnly = readOnly;
 		this.originalMethod = originalMethod;
 		this.newMethod = newMethod;
 		this.isStatic = (access & ACC_STATIC) != 0;
@@ -50,7 +55,7 @@ public class MethodTransformer extends MethodVisitor{
 		
 		// The AnalyzerAdapter delegates the call to the DuplicateMethod, while the DuplicateMethod uses
 		// the analyzer for stack state in the original method.
-		DuplicateMethod duplicateMethod = new DuplicateMethod( copyMethod, isStatic, newMethod, fieldsHolder, addFrames);
+		DuplicateMethod duplicateMethod = new DuplicateMethod( copyMethod, isStatic, newMethod, fieldsHolder, addFrames, captures, barriers);
 		AnalyzerAdapter analyzerAdapter = new AnalyzerAdapter( className, access, methodName, descriptor, duplicateMethod);
 		duplicateMethod.setAnalyzer( analyzerAdapter);
 		
@@ -79,7 +84,7 @@ public class MethodTransformer extends MethodVisitor{
 		// need to create an atomic method from the original method
 		if( AtomicMethod.ATOMIC_DESCRIPTOR.equals(desc) && !(originalMethod instanceof AtomicMethod))
 			originalMethod = new AtomicMethod( originalMethod, className, methodName,
-					descriptor, newMethod, isStatic, addFrames);
+					descriptor, newMethod, isStatic, addFrames, readOnly);
 
 		if( UNSAFE_DESCRIPTOR.equals(desc)) // if marked as Unsafe no just duplicate the method as is.
 			copyMethod = originalCopyMethod;
@@ -0,0 +1,65 @@
+package org.deuce.benchmark.jmh;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.deuce.benchmark.bank.Account;
+import org.deuce.benchmark.bank.CheckingAccount;
+import org.deuce.benchmark.bank.OverdraftException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The bank workload of {@link org.deuce.benchmark.bank.Benchmark}: short update transactions
+ * moving money between two accounts, and a long read-only one summing all the accounts.
+ *
+ * @since 1.4
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BankBenchmark {
+
+	@Param({ "64", "1024" })
+	public int accounts;
+
+	private Account[] bank;
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+		final Random random = new Random();
+	}
+
+	@Setup
+	public void setup() {
+		bank = new Account[accounts];
+		for (int i = 0; i < bank.length; i++) {
+			bank[i] = new CheckingAccount("" + i);
+			bank[i].deposit(10000);
+		}
+	}
+
+	@Benchmark
+	public boolean transfer(ThreadState state) {
+		Random random = state.random;
+		int src = random.nextInt(bank.length);
+		int dst = random.nextInt(bank.length);
+		try {
+			Account.transfer(bank[src], bank[dst], random.nextInt(10) + 1);
+			return true;
+		} catch (OverdraftException e) {
+			return false;
+		}
+	}
+
+	@Benchmark
+	public double total() {
+		return Account.computeTotal(bank);
+	}
+}
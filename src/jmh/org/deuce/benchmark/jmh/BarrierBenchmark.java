@@ -0,0 +1,123 @@
+package org.deuce.benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.deuce.reflection.AddressUtil;
+import org.deuce.transaction.Context;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Drives a {@link Context} directly, without the instrumentation, to measure the cost of
+ * the barriers and of the commit. A transaction accesses <code>size</code> distinct
+ * locations, the per-barrier cost is the score divided by the size, the commit cost
+ * shows with a size of 1.
+ * <p>
+ * Each thread works on its own locations, so the transactions never conflict.
+ *
+ * @since 1.4
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BarrierBenchmark {
+
+	public static class Cell {
+		public int value;
+	}
+
+	final private static long VALUE = AddressUtil.getAddress(field(Cell.class, "value"));
+
+	/**
+	 * The backend, a package of <code>org.deuce.transaction</code> or a context class name.
+	 */
+	@Param({ "tl2", "tl2cm", "lsa", "lsacm", "norec", "estm" })
+	public String context;
+
+	@Param({ "1", "10", "100", "1000", "10000" })
+	public int size;
+
+	private Context tx;
+	private Cell[] cells;
+
+	@Setup
+	public void setup() throws Exception {
+		tx = (Context) Class.forName(Main.contextClass(context)).newInstance();
+		cells = new Cell[size];
+		for (int i = 0; i < size; i++)
+			cells[i] = new Cell();
+	}
+
+	private static java.lang.reflect.Field field(Class<?> c, String name) {
+		try {
+			return c.getDeclaredField(name);
+		} catch (NoSuchFieldException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void commit() {
+		if (!tx.commit())
+			throw new IllegalStateException("Conflict in a private transaction");
+	}
+
+	@Benchmark
+	public int readOnly() {
+		Context tx = this.tx;
+		Cell[] cells = this.cells;
+		int sum = 0;
+		tx.init(0, "");
+		for (Cell cell : cells) {
+			tx.beforeReadAccess(cell, VALUE);
+			sum += tx.onReadAccess(cell, cell.value, VALUE);
+		}
+		commit();
+		return sum;
+	}
+
+	@Benchmark
+	public void update() {
+		Context tx = this.tx;
+		Cell[] cells = this.cells;
+		tx.init(0, "");
+		for (Cell cell : cells) {
+			tx.beforeReadAccess(cell, VALUE);
+			int value = tx.onReadAccess(cell, cell.value, VALUE);
+			tx.onWriteAccess(cell, value + 1, VALUE);
+		}
+		commit();
+	}
+
+	@Benchmark
+	public void writeOnly() {
+		Context tx = this.tx;
+		Cell[] cells = this.cells;
+		tx.init(0, "");
+		for (int i = 0; i < cells.length; i++)
+			tx.onWriteAccess(cells[i], i, VALUE);
+		commit();
+	}
+
+	/**
+	 * Reads the same location <code>size</code> times after writing it, hitting the write set.
+	 */
+	@Benchmark
+	public void readAfterWrite(Blackhole bh) {
+		Context tx = this.tx;
+		Cell cell = cells[0];
+		tx.init(0, "");
+		tx.onWriteAccess(cell, 1, VALUE);
+		for (int i = 0; i < size; i++) {
+			tx.beforeReadAccess(cell, VALUE);
+			bh.consume(tx.onReadAccess(cell, cell.value, VALUE));
+		}
+		commit();
+	}
+}
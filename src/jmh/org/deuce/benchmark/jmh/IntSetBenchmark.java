@@ -0,0 +1,83 @@
+package org.deuce.benchmark.jmh;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.deuce.benchmark.intset.IntSet;
+import org.deuce.benchmark.intset.IntSetLinkedList;
+import org.deuce.benchmark.intset.IntSetSkipList;
+import org.deuce.benchmark.intset.RBTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The integer set workload of {@link org.deuce.benchmark.intset.Benchmark}, all the threads
+ * share the set. An update adds a random value then removes it on the next update, so
+ * the size stays around its initial value.
+ *
+ * @since 1.4
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class IntSetBenchmark {
+
+	@Param({ "LinkedList", "SkipList", "RBTree" })
+	public String set;
+
+	@Param({ "256" })
+	public int initial;
+
+	@Param({ "65536" })
+	public int range;
+
+	/**
+	 * Percentage of updates.
+	 */
+	@Param({ "0", "20" })
+	public int rate;
+
+	private IntSet intSet;
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+		final Random random = new Random();
+		int last = -1;
+	}
+
+	@Setup
+	public void setup() {
+		if ("LinkedList".equals(set))
+			intSet = new IntSetLinkedList();
+		else if ("SkipList".equals(set))
+			intSet = new IntSetSkipList();
+		else if ("RBTree".equals(set))
+			intSet = new RBTree();
+		else
+			throw new IllegalArgumentException("Unknown set: " + set);
+		Random random = new Random();
+		for (int i = 0; i < initial; i++)
+			intSet.add(random.nextInt(range));
+	}
+
+	@Benchmark
+	public boolean operation(ThreadState state) {
+		Random random = state.random;
+		if (random.nextInt(100) < rate) {
+			if (state.last < 0) {
+				state.last = random.nextInt(range);
+				return intSet.add(state.last);
+			}
+			boolean removed = intSet.remove(state.last);
+			state.last = -1;
+			return removed;
+		}
+		return intSet.contains(random.nextInt(range));
+	}
+}
@@ -0,0 +1,89 @@
+package org.deuce.benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.deuce.transaction.Context;
+import org.deuce.transaction.util.IrrevocabilityGuard;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures how transaction starts scale with the threads, run once per thread count.
+ * <p>
+ * <code>beginEnd</code> compares the read side of the {@link IrrevocabilityGuard} with the
+ * <code>ReentrantReadWriteLock</code> the backends used to take, whose state word is
+ * written by every start. <code>transaction</code> runs an empty transaction of each
+ * backend, where the guard is all the shared state touched.
+ *
+ * @since 1.4
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IrrevocabilityBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Lock {
+		@Param({ "guard", "rwlock" })
+		public String lock;
+
+		final IrrevocabilityGuard guard = new IrrevocabilityGuard();
+		final ReentrantReadWriteLock rwlock = new ReentrantReadWriteLock();
+		boolean useGuard;
+
+		@Setup
+		public void setup() {
+			useGuard = lock.equals("guard");
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Slot {
+		int slot;
+
+		@Setup
+		public void setup(Lock lock) {
+			slot = lock.guard.newSlot();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Transaction {
+		/**
+		 * The backend, a package of <code>org.deuce.transaction</code> or a context class name.
+		 */
+		@Param({ "tl2", "tl2cm", "lsa", "lsacm", "norec", "estm" })
+		public String context;
+
+		Context tx;
+
+		@Setup
+		public void setup() throws Exception {
+			tx = (Context) Class.forName(Main.contextClass(context)).newInstance();
+		}
+	}
+
+	@Benchmark
+	public void beginEnd(Lock lock, Slot slot) {
+		if (lock.useGuard) {
+			lock.guard.begin(slot.slot);
+			lock.guard.end(slot.slot);
+		} else {
+			lock.rwlock.readLock().lock();
+			lock.rwlock.readLock().unlock();
+		}
+	}
+
+	@Benchmark
+	public boolean transaction(Transaction transaction) {
+		Context tx = transaction.tx;
+		tx.init(0, "");
+		return tx.commit();
+	}
+}
@@ -0,0 +1,108 @@
+package org.deuce.benchmark.jmh;
+
+import java.util.ArrayList;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks, must be started with the Deuce agent (see the <code>jmh</code>
+ * target of <code>build.xml</code>). The forked benchmark JVMs inherit the agent.
+ * <p>
+ * The barrier benchmarks run single threaded, the backend being a JMH parameter. The
+ * workloads go through the instrumented code, whose backend is fixed per JVM, so they are
+ * run once per backend and thread count. The <code>irrevocable</code> benchmarks measure
+ * the transaction starts, they are run once per thread count. All the runs have the GC profiler on, which
+ * reports the allocated bytes per operation (<code>gc.alloc.rate.norm</code>).
+ * <p>
+ * The following system properties are used:
+ * <ul>
+ * <li><code>jmh.benchmarks</code> - among <code>barrier,irrevocable,intset,bank</code> (default all).</li>
+ * <li><code>jmh.contexts</code> - the backends (default <code>tl2,tl2cm,lsa,lsacm,norec,estm</code>).</li>
+ * <li><code>jmh.threads</code> - the thread counts of the workloads (default 1, 2, 4... up
+ * to the number of processors).</li>
+ * </ul>
+ * The arguments are the usual JMH command line options, e.g. <code>-f 1 -wi 3 -i 5</code>.
+ *
+ * @since 1.4
+ */
+public class Main {
+
+	final private static String DEFAULT_CONTEXTS = "tl2,tl2cm,lsa,lsacm,norec,estm";
+
+	/**
+	 * @return the context class name of a backend, e.g. <code>tl2</code>.
+	 */
+	static String contextClass(String context) {
+		return context.indexOf('.') < 0 ? "org.deuce.transaction." + context + ".Context" : context;
+	}
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		String benchmarks = "," + System.getProperty("jmh.benchmarks", "barrier,irrevocable,intset,bank") + ",";
+		String[] contexts = System.getProperty("jmh.contexts", DEFAULT_CONTEXTS).split(",");
+		int[] threads = threads(System.getProperty("jmh.threads"));
+
+		if (benchmarks.contains(",barrier,")) {
+			new Runner(options(cmd)
+					.include(BarrierBenchmark.class.getName())
+					.param("context", contexts)
+					.threads(1)
+					.build()).run();
+		}
+
+		if (benchmarks.contains(",irrevocable,")) {
+			for (int t : threads) {
+				new Runner(options(cmd)
+						.include(IrrevocabilityBenchmark.class.getName())
+						.param("context", contexts)
+						.threads(t)
+						.build()).run();
+			}
+		}
+
+		ArrayList<String> workloads = new ArrayList<String>();
+		if (benchmarks.contains(",intset,"))
+			workloads.add(IntSetBenchmark.class.getName());
+		if (benchmarks.contains(",bank,"))
+			workloads.add(BankBenchmark.class.getName());
+		if (workloads.isEmpty())
+			return;
+		for (String context : contexts) {
+			for (int t : threads) {
+				ChainedOptionsBuilder options = options(cmd)
+						.jvmArgsAppend("-Dorg.deuce.transaction.contextClass=" + contextClass(context))
+						.threads(t);
+				for (String workload : workloads)
+					options.include(workload);
+				new Runner(options.build()).run();
+			}
+		}
+	}
+
+	private static ChainedOptionsBuilder options(CommandLineOptions cmd) {
+		return new OptionsBuilder().parent(cmd).addProfiler(GCProfiler.class);
+	}
+
+	private static int[] threads(String list) {
+		if (list != null) {
+			String[] values = list.split(",");
+			int[] threads = new int[values.length];
+			for (int i = 0; i < values.length; i++)
+				threads[i] = Integer.parseInt(values[i].trim());
+			return threads;
+		}
+		int max = Runtime.getRuntime().availableProcessors();
+		ArrayList<Integer> counts = new ArrayList<Integer>();
+		for (int t = 1; t < max; t <<= 1)
+			counts.add(t);
+		counts.add(max);
+		int[] threads = new int[counts.size()];
+		for (int i = 0; i < threads.length; i++)
+			threads[i] = counts.get(i);
+		return threads;
+	}
+}
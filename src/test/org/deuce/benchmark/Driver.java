@@ -1,5 +1,12 @@
 package org.deuce.benchmark;
 
+import java.lang.reflect.Method;
+
+import org.deuce.transaction.ContextDelegator;
+import org.deuce.transaction.ContextPool;
+import org.deuce.transaction.clock.Factory;
+import org.deuce.transaction.clock.GlobalClock;
+import org.deuce.transaction.util.LockTableLayout;
 import org.deuce.transform.Exclude;
 
 /**
@@ -14,6 +21,7 @@ public class Driver {
 		int duration = 10000;
 		int warmup = 2000;
 		String benchmark = null;
+		boolean virtual = false;
 		boolean error = false;
 		int arg;
 
@@ -33,6 +41,8 @@ public class Driver {
 					warmup = Integer.parseInt(args[arg]);
 				else
 					error = true;
+			} else if (args[arg].equals("-v")) {
+				virtual = true;
 			} else
 				break;
 		}
@@ -45,7 +55,8 @@ public class Driver {
 			error = true;
 
 		if (error) {
-			System.out.println("Usage: java Driver [-n nb-threads] [-d duration-ms] [-w warmup-ms] benchmark [args...]");
+			System.out.println("Usage: java Driver [-n nb-threads] [-d duration-ms] [-w warmup-ms] [-v] benchmark [args...]");
+			System.out.println("  -v runs the benchmark on virtual threads (Java 21+)");
 			System.exit(1);
 		}
 
@@ -59,6 +70,10 @@ public class Driver {
 		}
 
 		b.init(args);
+		System.out.println("Lock table          = " + new LockTableLayout(4));
+		System.out.println("Global clock        = " + Factory.getDescription());
+		System.out.println("Threads             = " + (virtual ? "virtual" : "platform"));
+		System.out.println();
 
 		BenchmarkThread[] bt = new BenchmarkThread[nb_threads];
 		for (int i = 0; i < bt.length; i++)
@@ -66,7 +81,7 @@ public class Driver {
 
 		Thread[] t = new Thread[bt.length];
 		for (int i = 0; i < t.length; i++)
-			t[i] = new Thread(bt[i]);
+			t[i] = newThread(bt[i], virtual);
 
 		System.out.print("Starting threads...");
 		for (int i = 0; i < t.length; i++) {
@@ -122,8 +137,33 @@ public class Driver {
 		System.out.println("  Test duration (ms)   = " + (tend - tstart));
 		System.out.println("  Nb iterations        = " + steps);
 		System.out.println("  Stats                = " + b.getStats(bt));
+		System.out.println("  Clock                = " + GlobalClock.getStatistics());
+		ContextPool pool = ContextDelegator.getContextPool();
+		if (pool != null)
+			System.out.println("  Context pool         = size=" + pool.size() +
+					", created=" + pool.getCreated() + ", dropped=" + pool.getDropped());
 		for (int i = 0; i < bt.length; i++)
 			System.out.println("    " + i + " : " + bt[i].getSteps() +
 					" (" + bt[i].getStats() + ")");
 	}
+
+	/**
+	 * Virtual threads are not preempted, a benchmark with more threads than carriers only
+	 * runs as many of them at once. Best combined with the context pool, see
+	 * {@link ContextPool}.
+	 */
+	private static Thread newThread(Runnable runnable, boolean virtual) {
+		if (!virtual)
+			return new Thread(runnable);
+		try {
+			// Thread.ofVirtual().unstarted(runnable), through reflection to build on older JDKs
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+			return (Thread)unstarted.invoke(builder, runnable);
+		} catch(Exception e) {
+			System.err.println("Virtual threads are not supported by this JVM: " + e);
+			System.exit(1);
+			return null;
+		}
+	}
 }
@@ -0,0 +1,71 @@
+package org.deuce.benchmark.alloc;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * Measures the bytes allocated per transaction by the STM (the transaction itself
+ * doesn't allocate). Relies on <code>com.sun.management.ThreadMXBean</code>.
+ * <p>
+ * <code>java -javaagent:bin/deuceAgent.jar -cp bin/tests org.deuce.benchmark.Driver -n 1
+ * org.deuce.benchmark.alloc.Benchmark -r 16 -w 4</code>
+ *
+ * @since 1.4
+ */
+@Exclude
+public class Benchmark implements org.deuce.benchmark.Benchmark {
+
+	Cell[] m_cells;
+	int m_reads = 16;
+	int m_writes = 4;
+
+	public void init(String[] args) {
+		int nb = 1024;
+		boolean error = false;
+
+		for (int i = 0; i < args.length && !error; i++) {
+			if (args[i].equals("-n")) {
+				if (++i < args.length)
+					nb = Integer.parseInt(args[i]);
+				else
+					error = true;
+			} else if (args[i].equals("-r")) {
+				if (++i < args.length)
+					m_reads = Integer.parseInt(args[i]);
+				else
+					error = true;
+			} else if (args[i].equals("-w")) {
+				if (++i < args.length)
+					m_writes = Integer.parseInt(args[i]);
+				else
+					error = true;
+			} else
+				error = true;
+		}
+		if (error) {
+			System.out.println("Benchmark arguments: [-n nb-cells] [-r reads] [-w writes]");
+			System.exit(1);
+		}
+
+		m_cells = new Cell[nb];
+		for (int i = 0; i < nb; i++)
+			m_cells[i] = new Cell();
+
+		System.out.println("Nb cells            = " + nb);
+		System.out.println("Reads               = " + m_reads);
+		System.out.println("Writes              = " + m_writes);
+	}
+
+	public org.deuce.benchmark.BenchmarkThread createThread(int i, int nb) {
+		return new BenchmarkThread(i, m_cells, m_reads, m_writes);
+	}
+
+	public String getStats(org.deuce.benchmark.BenchmarkThread[] threads) {
+		long bytes = 0;
+		long steps = 0;
+		for (int i = 0; i < threads.length; i++) {
+			bytes += ((BenchmarkThread) threads[i]).getAllocatedBytes();
+			steps += threads[i].getSteps();
+		}
+		return "B=" + bytes + ", B/tx=" + (steps == 0 ? 0 : (double) bytes / steps);
+	}
+}
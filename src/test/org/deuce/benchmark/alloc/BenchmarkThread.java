@@ -0,0 +1,53 @@
+package org.deuce.benchmark.alloc;
+
+import java.lang.management.ManagementFactory;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * @since 1.4
+ */
+@Exclude
+public class BenchmarkThread extends org.deuce.benchmark.BenchmarkThread {
+
+	final private static com.sun.management.ThreadMXBean s_bean =
+		(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	final private Cell[] m_cells;
+	final private int m_reads;
+	final private int m_writes;
+	private int m_seed;
+	private long m_start = -1;
+	private long m_end;
+
+	BenchmarkThread(int id, Cell[] cells, int reads, int writes) {
+		m_cells = cells;
+		m_reads = reads;
+		m_writes = writes;
+		m_seed = id + 1;
+	}
+
+	private static long allocatedBytes() {
+		return s_bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	public void run() {
+		super.run();
+		m_end = allocatedBytes();
+	}
+
+	protected void step(int phase) {
+		if (phase == Benchmark.TEST_PHASE && m_start < 0)
+			m_start = allocatedBytes();
+		m_seed ^= m_seed << 13; m_seed ^= m_seed >>> 17; m_seed ^= m_seed << 5;
+		Cell.transaction(m_cells, m_seed, m_reads, m_writes);
+	}
+
+	public long getAllocatedBytes() {
+		return m_start < 0 ? 0 : m_end - m_start;
+	}
+
+	public String getStats() {
+		return "B=" + getAllocatedBytes();
+	}
+}
@@ -0,0 +1,42 @@
+package org.deuce.benchmark.alloc;
+
+import org.deuce.Atomic;
+
+/**
+ * A memory cell with a field of each kind, accessed by the allocation benchmark.
+ *
+ * @since 1.4
+ */
+public class Cell {
+
+	int i;
+	long l;
+	double d;
+	boolean b;
+	Object o;
+
+	/**
+	 * Reads <code>reads</code> cells and updates <code>writes</code> of them, the cells are
+	 * picked from <code>seed</code> which must not be 0.
+	 */
+	@Atomic
+	static public long transaction(Cell[] cells, int seed, int reads, int writes) {
+		long sum = 0;
+		int x = seed;
+		for (int n = 0; n < reads; n++) {
+			x ^= x << 13; x ^= x >>> 17; x ^= x << 5;
+			Cell c = cells[(x & 0x7fffffff) % cells.length];
+			sum += c.i + c.l + (long) c.d + (c.b ? 1 : 0) + (c.o == null ? 0 : 1);
+		}
+		for (int n = 0; n < writes; n++) {
+			x ^= x << 13; x ^= x >>> 17; x ^= x << 5;
+			Cell c = cells[(x & 0x7fffffff) % cells.length];
+			c.i++;
+			c.l += c.i;
+			c.d += 0.5;
+			c.b = !c.b;
+			c.o = cells[n % cells.length];
+		}
+		return sum;
+	}
+}
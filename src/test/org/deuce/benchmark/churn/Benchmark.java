@@ -0,0 +1,93 @@
+package org.deuce.benchmark.churn;
+
+import org.deuce.transaction.util.OwnerRegistry;
+import org.deuce.transform.Exclude;
+
+/**
+ * Creates and destroys threads which run a few transactions each, as a server churning
+ * through thread pools does. Each step of the driver threads starts a new thread and waits
+ * for it to terminate, hence a run of 15 seconds goes through over 100k threads. Checks
+ * that the backends recycle what they keep per thread, e.g. the owner ids of TL2CM and
+ * LSACM (see {@link OwnerRegistry}), and that no update got lost.
+ * <p>
+ * <code>java -javaagent:bin/deuceAgent.jar -Dorg.deuce.transaction.contextClass=org.deuce.transaction.tl2cm.Context
+ * -cp bin/tests org.deuce.benchmark.Driver -n 8 -d 15000 org.deuce.benchmark.churn.Benchmark -t 4</code>
+ *
+ * @since 1.4
+ */
+@Exclude
+public class Benchmark implements org.deuce.benchmark.Benchmark {
+
+	Counter[] m_counters;
+	int m_reads = 4;
+	int m_transactions = 1;
+
+	public void init(String[] args) {
+		int nb = 256;
+		boolean error = false;
+
+		for (int i = 0; i < args.length && !error; i++) {
+			if (args[i].equals("-n")) {
+				if (++i < args.length)
+					nb = Integer.parseInt(args[i]);
+				else
+					error = true;
+			} else if (args[i].equals("-r")) {
+				if (++i < args.length)
+					m_reads = Integer.parseInt(args[i]);
+				else
+					error = true;
+			} else if (args[i].equals("-t")) {
+				if (++i < args.length)
+					m_transactions = Integer.parseInt(args[i]);
+				else
+					error = true;
+			} else
+				error = true;
+		}
+		if (error || nb <= 0 || m_reads <= 0) {
+			System.out.println("Benchmark arguments: [-n nb-counters] [-r reads] [-t transactions-per-thread]");
+			System.exit(1);
+		}
+
+		m_counters = new Counter[nb];
+		for (int i = 0; i < nb; i++)
+			m_counters[i] = new Counter();
+
+		System.out.println("Nb counters         = " + nb);
+		System.out.println("Reads               = " + m_reads);
+		System.out.println("Transactions/thread = " + m_transactions);
+	}
+
+	public org.deuce.benchmark.BenchmarkThread createThread(int i, int nb) {
+		return new BenchmarkThread(i, m_counters, m_reads, m_transactions);
+	}
+
+	public String getStats(org.deuce.benchmark.BenchmarkThread[] threads) {
+		long created = 0;
+		long transactions = 0;
+		for (int i = 0; i < threads.length; i++) {
+			created += ((BenchmarkThread) threads[i]).getCreated();
+			transactions += ((BenchmarkThread) threads[i]).getTransactions();
+		}
+		long sum = 0;
+		for (Counter counter : m_counters)
+			sum += counter.value;
+		String stats = "Threads=" + created + ", Transactions=" + transactions +
+			(sum == transactions ? "" : ", LOST UPDATES=" + (transactions - sum));
+		OwnerRegistry<?> owners = getOwners();
+		if (owners != null)
+			stats += ", Owner ids: live=" + owners.size() + ", capacity=" + owners.getCapacity() +
+				", recycled=" + owners.getRecycled();
+		return stats;
+	}
+
+	private static OwnerRegistry<?> getOwners() {
+		String context = System.getProperty("org.deuce.transaction.contextClass", "");
+		if (context.equals(org.deuce.transaction.tl2cm.Context.class.getName()))
+			return org.deuce.transaction.tl2cm.Context.getThreads();
+		if (context.equals(org.deuce.transaction.lsacm.Context.class.getName()))
+			return org.deuce.transaction.lsacm.Context.getThreads();
+		return null;
+	}
+}
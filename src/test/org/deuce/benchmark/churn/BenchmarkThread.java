@@ -0,0 +1,55 @@
+package org.deuce.benchmark.churn;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * @since 1.4
+ */
+@Exclude
+public class BenchmarkThread extends org.deuce.benchmark.BenchmarkThread {
+
+	final private Counter[] m_counters;
+	final private int m_reads;
+	final private int m_transactions;
+	private int m_seed;
+	private long m_created;
+	private long m_committed;
+
+	BenchmarkThread(int id, Counter[] counters, int reads, int transactions) {
+		m_counters = counters;
+		m_reads = reads;
+		m_transactions = transactions;
+		m_seed = id + 1;
+	}
+
+	protected void step(int phase) {
+		m_seed ^= m_seed << 13; m_seed ^= m_seed >>> 17; m_seed ^= m_seed << 5;
+		final int first = m_seed & 0x7fffffff;
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i < m_transactions; i++)
+					Counter.increment(m_counters, first + i, m_reads);
+			}
+		};
+		thread.start();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+		}
+		m_created++;
+		m_committed += m_transactions;
+	}
+
+	public long getCreated() {
+		return m_created;
+	}
+
+	public long getTransactions() {
+		return m_committed;
+	}
+
+	public String getStats() {
+		return "T=" + m_created;
+	}
+}
@@ -0,0 +1,29 @@
+package org.deuce.benchmark.churn;
+
+import org.deuce.Atomic;
+
+/**
+ * A counter updated by the threads of the thread churn benchmark.
+ *
+ * @since 1.4
+ */
+public class Counter {
+
+	int value;
+
+	/**
+	 * Reads <code>counters</code> from <code>first</code> and increments the last of them.
+	 * @return the sum of the counters read.
+	 */
+	@Atomic
+	static public long increment(Counter[] counters, int first, int reads) {
+		long sum = 0;
+		Counter c = null;
+		for (int n = 0; n < reads; n++) {
+			c = counters[(first + n) % counters.length];
+			sum += c.value;
+		}
+		c.value++;
+		return sum;
+	}
+}
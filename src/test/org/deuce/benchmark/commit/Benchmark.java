@@ -0,0 +1,54 @@
+package org.deuce.benchmark.commit;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * Measures the cost of a commit: each thread writes a few locations of its own in each
+ * transaction, hence the transactions never conflict and the run time goes to locking,
+ * writing back and releasing the locations. The commit latency is the duration times the
+ * threads over the amount of transactions.
+ * <p>
+ * <code>java -javaagent:bin/deuceAgent.jar -Dorg.deuce.transaction.contextClass=org.deuce.transaction.tl2.Context
+ * -cp bin/tests org.deuce.benchmark.Driver -n 1 -d 5000 org.deuce.benchmark.commit.Benchmark -w 16</code>
+ *
+ * @since 1.4
+ */
+@Exclude
+public class Benchmark implements org.deuce.benchmark.Benchmark {
+
+	int m_writes = 16;
+
+	public void init(String[] args) {
+		boolean error = false;
+
+		for (int i = 0; i < args.length && !error; i++) {
+			if (args[i].equals("-w")) {
+				if (++i < args.length)
+					m_writes = Integer.parseInt(args[i]);
+				else
+					error = true;
+			} else
+				error = true;
+		}
+		if (error || m_writes <= 0) {
+			System.out.println("Benchmark arguments: [-w writes-per-transaction]");
+			System.exit(1);
+		}
+
+		System.out.println("Writes/transaction  = " + m_writes);
+	}
+
+	public org.deuce.benchmark.BenchmarkThread createThread(int i, int nb) {
+		return new BenchmarkThread(new Cells(m_writes));
+	}
+
+	public String getStats(org.deuce.benchmark.BenchmarkThread[] threads) {
+		long commits = 0;
+		boolean valid = true;
+		for (int i = 0; i < threads.length; i++) {
+			commits += threads[i].getSteps();
+			valid &= ((BenchmarkThread) threads[i]).check(m_writes);
+		}
+		return "Commits=" + commits + ", Writes=" + commits * m_writes + (valid ? "" : ", INCONSISTENT CELLS");
+	}
+}
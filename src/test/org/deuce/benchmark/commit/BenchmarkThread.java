@@ -0,0 +1,32 @@
+package org.deuce.benchmark.commit;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * @since 1.4
+ */
+@Exclude
+public class BenchmarkThread extends org.deuce.benchmark.BenchmarkThread {
+
+	final private Cells m_cells;
+	private int m_value;
+
+	BenchmarkThread(Cells cells) {
+		m_cells = cells;
+	}
+
+	protected void step(int phase) {
+		m_cells.write(++m_value);
+	}
+
+	/**
+	 * @return <code>true</code> if the cells hold the last value written.
+	 */
+	public boolean check(int nb) {
+		return m_cells.sum() == m_value * nb;
+	}
+
+	public String getStats() {
+		return "V=" + m_value;
+	}
+}
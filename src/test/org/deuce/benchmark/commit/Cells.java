@@ -0,0 +1,39 @@
+package org.deuce.benchmark.commit;
+
+import org.deuce.Atomic;
+
+/**
+ * The cells a thread of the commit benchmark writes, no other thread accesses them.
+ *
+ * @since 1.4
+ */
+public class Cells {
+
+	static class Cell {
+		int value;
+	}
+
+	final private Cell[] m_cells;
+
+	Cells(int nb) {
+		m_cells = new Cell[nb];
+		for (int i = 0; i < nb; i++)
+			m_cells[i] = new Cell();
+	}
+
+	/**
+	 * Writes <code>value</code> to all the cells.
+	 */
+	@Atomic
+	public void write(int value) {
+		for (int i = 0; i < m_cells.length; i++)
+			m_cells[i].value = value;
+	}
+
+	public int sum() {
+		int sum = 0;
+		for (Cell cell : m_cells)
+			sum += cell.value;
+		return sum;
+	}
+}
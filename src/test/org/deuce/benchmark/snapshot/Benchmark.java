@@ -0,0 +1,74 @@
+package org.deuce.benchmark.snapshot;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * Compares the aborts of serializable and snapshot isolation transactions on a workload
+ * that tolerates write skew: each transaction aggregates a window of counters into the
+ * one it increments, as statistics do. Two transactions conflict on a read-write basis as
+ * soon as one writes a counter in the window of the other, they conflict on a write-write
+ * basis only when they increment the same counter. Run it with and without
+ * <code>-s</code> and compare the abort rates.
+ * <p>
+ * <code>java -javaagent:bin/deuceAgent.jar -Dorg.deuce.transaction.contextClass=org.deuce.transaction.lsa.Context
+ * -cp bin/tests org.deuce.benchmark.Driver -n 4 -d 5000 org.deuce.benchmark.snapshot.Benchmark -n 256 -r 32 -s</code>
+ *
+ * @since 1.4
+ */
+@Exclude
+public class Benchmark implements org.deuce.benchmark.Benchmark {
+
+	Counters m_counters;
+	int m_reads = 32;
+	boolean m_snapshot;
+
+	public void init(String[] args) {
+		int nb = 256;
+		boolean error = false;
+
+		for (int i = 0; i < args.length && !error; i++) {
+			if (args[i].equals("-n")) {
+				if (++i < args.length)
+					nb = Integer.parseInt(args[i]);
+				else
+					error = true;
+			} else if (args[i].equals("-r")) {
+				if (++i < args.length)
+					m_reads = Integer.parseInt(args[i]);
+				else
+					error = true;
+			} else if (args[i].equals("-s")) {
+				m_snapshot = true;
+			} else
+				error = true;
+		}
+		if (error || nb <= 0 || m_reads < 0 || m_reads >= nb) {
+			System.out.println("Benchmark arguments: [-n nb-counters] [-r reads] [-s (snapshot isolation)]");
+			System.exit(1);
+		}
+
+		m_counters = new Counters(nb);
+
+		System.out.println("Nb counters         = " + nb);
+		System.out.println("Reads               = " + m_reads);
+		System.out.println("Isolation           = " + (m_snapshot ? "snapshot" : "serializable"));
+	}
+
+	public org.deuce.benchmark.BenchmarkThread createThread(int i, int nb) {
+		return new BenchmarkThread(m_counters, m_reads, m_snapshot);
+	}
+
+	public String getStats(org.deuce.benchmark.BenchmarkThread[] threads) {
+		long commits = 0;
+		long attempts = 0;
+		for (int i = 0; i < threads.length; i++) {
+			commits += ((BenchmarkThread) threads[i]).getCommits();
+			attempts += ((BenchmarkThread) threads[i]).getAttempts();
+		}
+		long aborts = attempts - commits;
+		long sum = m_counters.sum();
+		return "Commits=" + commits + ", Aborts=" + aborts +
+			", Abort rate=" + (attempts == 0 ? 0 : aborts * 10000 / attempts / 100.0) + "%" +
+			(sum == commits ? "" : ", LOST UPDATES=" + (commits - sum));
+	}
+}
@@ -0,0 +1,50 @@
+package org.deuce.benchmark.snapshot;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.deuce.transform.Exclude;
+
+/**
+ * @since 1.4
+ */
+@Exclude
+public class BenchmarkThread extends org.deuce.benchmark.BenchmarkThread {
+
+	final private Counters m_counters;
+	final private int m_reads;
+	final private boolean m_snapshot;
+	final private Random m_random;
+
+	// Incremented by each attempt, aborted or not, warmup included
+	final private AtomicLong m_attempts = new AtomicLong();
+	private long m_commits;
+
+	BenchmarkThread(Counters counters, int reads, boolean snapshot) {
+		m_counters = counters;
+		m_reads = reads;
+		m_snapshot = snapshot;
+		m_random = new Random();
+	}
+
+	protected void step(int phase) {
+		int i = m_random.nextInt(m_counters.size());
+		if (m_snapshot)
+			m_counters.aggregateSnapshot(i, m_reads, m_attempts);
+		else
+			m_counters.aggregate(i, m_reads, m_attempts);
+		m_commits++;
+	}
+
+	public long getAttempts() {
+		return m_attempts.get();
+	}
+
+	public long getCommits() {
+		return m_commits;
+	}
+
+	public String getStats() {
+		return "C=" + m_commits + ", A=" + (m_attempts.get() - m_commits);
+	}
+}
@@ -0,0 +1,59 @@
+package org.deuce.benchmark.snapshot;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.deuce.Atomic;
+import org.deuce.Isolation;
+
+/**
+ * The counters of the snapshot benchmark, each keeps the sum of the window of counters
+ * that follows it, as seen by its last increment.
+ *
+ * @since 1.4
+ */
+public class Counters {
+
+	static class Counter {
+		long value;
+		long window;
+	}
+
+	final private Counter[] m_counters;
+
+	Counters(int nb) {
+		m_counters = new Counter[nb];
+		for (int i = 0; i < nb; i++)
+			m_counters[i] = new Counter();
+	}
+
+	public int size() {
+		return m_counters.length;
+	}
+
+	@Atomic
+	public void aggregate(int i, int reads, AtomicLong attempts) {
+		aggregate0(i, reads, attempts);
+	}
+
+	@Atomic(isolation = Isolation.SNAPSHOT)
+	public void aggregateSnapshot(int i, int reads, AtomicLong attempts) {
+		aggregate0(i, reads, attempts);
+	}
+
+	private void aggregate0(int i, int reads, AtomicLong attempts) {
+		attempts.incrementAndGet(); // not rolled back
+		long window = 0;
+		for (int k = 1; k <= reads; k++)
+			window += m_counters[(i + k) % m_counters.length].value;
+		Counter counter = m_counters[i];
+		counter.value++;
+		counter.window = window;
+	}
+
+	public long sum() {
+		long sum = 0;
+		for (Counter counter : m_counters)
+			sum += counter.value;
+		return sum;
+	}
+}
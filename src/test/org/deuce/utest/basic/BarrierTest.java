@@ -0,0 +1,227 @@
+package org.deuce.utest.basic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.deuce.Atomic;
+import org.deuce.objectweb.asm.ClassReader;
+import org.deuce.objectweb.asm.tree.ClassNode;
+import org.deuce.transform.asm.BarrierAnalyzer;
+import org.deuce.transform.asm.BarrierAnalyzer.Barriers;
+import org.deuce.transform.asm.CaptureAnalyzer;
+
+/**
+ * Tests that the reads whose barrier is removed or hoisted still see the values written by the
+ * transaction.
+ */
+public class BarrierTest extends TestCase {
+
+	public static class Account {
+		int balance;
+		Account next;
+	}
+
+	private Account a = new Account();
+	private Account b = new Account();
+	private int count = 0;
+	private static int total = 0;
+
+	static void deposit(Account account, int amount) {
+		account.balance += amount;
+	}
+
+	static void fail(Account account) {
+		account.balance = -1;
+		throw new IllegalStateException();
+	}
+
+	@Atomic
+	private int readTwice() {
+		return a.balance + a.balance;
+	}
+
+	@Atomic
+	private int readAfterWrite(int balance) {
+		a.balance = balance;
+		return a.balance + 1;
+	}
+
+	@Atomic
+	private int readAfterCall() {
+		int balance = a.balance;
+		deposit(a, 10);
+		return balance + a.balance;
+	}
+
+	@Atomic
+	private int readAlias(Account p, Account q) {
+		int balance = p.balance;
+		q.balance = balance + 7;
+		return p.balance;
+	}
+
+	@Atomic
+	private int readAfterCatch() {
+		int balance = a.balance;
+		try {
+			fail(a);
+		} catch (IllegalStateException e) {
+			return balance + a.balance;
+		}
+		return balance;
+	}
+
+	@Atomic
+	private int sumCount(int n) {
+		int sum = 0;
+		for (int i = 0; i < n; i++)
+			sum += count + total;
+		return sum;
+	}
+
+	@Atomic
+	private int incrementCount(int n) {
+		for (int i = 0; i < n; i++)
+			count++;
+		return count;
+	}
+
+	@Atomic
+	private int sumList() {
+		int sum = 0;
+		for (Account n = a; n != null; n = n.next)
+			sum += n.balance;
+		return sum;
+	}
+
+	@Atomic
+	private void transfer(int amount) {
+		a.balance -= amount;
+		b.balance += amount;
+	}
+
+	@Atomic
+	private int sumTwice() {
+		int sum = a.balance + b.balance;
+		return sum - (a.balance + b.balance);
+	}
+
+	@Atomic
+	private void add(Account account, int amount) {
+		account.balance += amount;
+	}
+
+	@Atomic(metainf = "elastic")
+	private int elasticReread(Account p, Account q, Account r, Thread writer, AtomicBoolean started) {
+		int first = p.balance;
+		// Only the last reads are validated by an elastic transaction
+		int others = q.balance + r.balance;
+		if (started.compareAndSet(false, true)) {
+			writer.start();
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		return p.balance - first + others;
+	}
+
+	public void testReads() {
+		a.balance = 3;
+		Assert.assertEquals(6, readTwice());
+		Assert.assertEquals(6, readAfterWrite(5));
+		Assert.assertEquals(5, a.balance);
+		Assert.assertEquals(5 + 15, readAfterCall());
+		Assert.assertEquals(15 + 7, readAlias(a, a));
+		Assert.assertEquals(22, readAlias(a, b));
+		Assert.assertEquals(29, b.balance);
+		Assert.assertEquals(22 - 1, readAfterCatch());
+	}
+
+	public void testLoops() {
+		count = 2;
+		total = 1;
+		Assert.assertEquals(30, sumCount(10));
+		Assert.assertEquals(12, incrementCount(10));
+		Assert.assertEquals(12, count);
+
+		a.balance = 1;
+		b.balance = 2;
+		a.next = b;
+		b.next = null;
+		Assert.assertEquals(3, sumList());
+		a.next = null;
+	}
+
+	public void testConcurrent() throws InterruptedException {
+		final int iterations = 10000;
+		a.balance = 100;
+		b.balance = 0;
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i < iterations; i++)
+					transfer((i & 1) == 0 ? 3 : -3);
+			}
+		};
+		writer.start();
+		for (int i = 0; i < iterations; i++)
+			Assert.assertEquals(0, sumTwice());
+		writer.join();
+		Assert.assertEquals(100, a.balance + b.balance);
+	}
+
+	public void testElastic() throws InterruptedException {
+		final Account p = new Account();
+		Account q = new Account();
+		Account r = new Account();
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				add(p, 10);
+			}
+		};
+		// An elastic read sees the value written since the first read, the other backends
+		// abort and read it again on the next attempt
+		boolean elastic = BarrierAnalyzer.ELASTIC_CONTEXT.equals(
+				System.getProperty("org.deuce.transaction.contextClass"));
+		Assert.assertEquals(elastic ? 10 : 0, elasticReread(p, q, r, writer, new AtomicBoolean()));
+		Assert.assertEquals(10, p.balance);
+		Assert.assertTrue(BarrierAnalyzer.isEnabled("org.deuce.transaction.tl2.Context"));
+		Assert.assertFalse(BarrierAnalyzer.isEnabled(BarrierAnalyzer.ELASTIC_CONTEXT));
+	}
+
+	public void testAnalysis() throws IOException {
+		InputStream in = getClass().getClassLoader().getResourceAsStream(
+				BarrierTest.class.getName().replace('.', '/') + ".class");
+		ClassNode classNode = new ClassNode();
+		try {
+			new ClassReader(in).accept(classNode, 0);
+		} finally {
+			in.close();
+		}
+		HashMap<String, Barriers> barriers = BarrierAnalyzer.analyze(classNode,
+				CaptureAnalyzer.analyze(classNode));
+
+		// this.a and a.balance
+		Assert.assertEquals(2, barriers.get("readTwice()I").getRemovedCount());
+		Assert.assertEquals(2, barriers.get("readAfterWrite(I)I").getRemovedCount());
+		// this.a only, deposit() might write a.balance
+		Assert.assertEquals(1, barriers.get("readAfterCall()I").getRemovedCount());
+		Assert.assertNull(barriers.get("readAlias(Lorg/deuce/utest/basic/BarrierTest$Account;"
+				+ "Lorg/deuce/utest/basic/BarrierTest$Account;)I"));
+		Assert.assertEquals(4, barriers.get("sumTwice()I").getRemovedCount());
+
+		Barriers sumCount = barriers.get("sumCount(I)I");
+		Assert.assertEquals(2, sumCount.getHoistedCount());
+		Assert.assertEquals(2, sumCount.getRemovedCount());
+		// Written by the loop
+		Assert.assertNull(barriers.get("incrementCount(I)I"));
+	}
+}
@@ -0,0 +1,161 @@
+package org.deuce.utest.basic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.deuce.Atomic;
+import org.deuce.objectweb.asm.ClassReader;
+import org.deuce.objectweb.asm.tree.ClassNode;
+import org.deuce.transaction.TransactionException;
+import org.deuce.transform.asm.CaptureAnalyzer;
+import org.deuce.transform.asm.CaptureAnalyzer.Captures;
+
+/**
+ * Tests that the objects allocated by a transaction keep the right values when their
+ * barriers are removed or filtered.
+ */
+public class CaptureTest extends TestCase {
+
+	public static class Node {
+		int value;
+		Node next;
+		int[] data;
+
+		Node(int value, Node next) {
+			this.value = value;
+			this.next = next;
+			this.data = new int[] { value, value + 1 };
+		}
+
+		// Escapes this before writing it again
+		Node(int value) {
+			set(this, value);
+			this.value += 1;
+			int[] data = new int[1];
+			data[0] = this.value;
+			this.data = data;
+		}
+	}
+
+	private Node head = null;
+	final private AtomicInteger attempts = new AtomicInteger();
+
+	static void set(Node node, int value) {
+		node.value = value;
+	}
+
+	@Atomic
+	private void push(int value) {
+		Node node = new Node(value, head);
+		node.value += 10;
+		node.data[1] += 10;
+		head = node;
+	}
+
+	@Atomic
+	private int pushEscaped(int value) {
+		Node node = new Node(value);
+		set(node, node.value + 100); // buffered unless filtered
+		int v = node.value;
+		head = node;
+		return v;
+	}
+
+	@Atomic
+	private int sumArray(int n) {
+		int[] a = new int[n];
+		for (int i = 0; i < n; i++)
+			a[i] = i;
+		int[] b = copy(a); // a escapes
+		a[0] = 100;
+		return a[0] + b[0] + b[n - 1];
+	}
+
+	private static int[] copy(int[] a) {
+		int[] b = new int[a.length];
+		for (int i = 0; i < a.length; i++)
+			b[i] = a[i];
+		return b;
+	}
+
+	@Atomic
+	private void pushThenAbort(int value) {
+		Node node = new Node(value, head);
+		head = node;
+		node.value = -1;
+		if (attempts.getAndIncrement() == 0)
+			throw new TransactionException();
+		node.value = value;
+	}
+
+	@Atomic
+	private int sum() {
+		int sum = 0;
+		for (Node n = head; n != null; n = n.next)
+			sum += n.value + n.data[n.data.length - 1];
+		return sum;
+	}
+
+	public void testConstructor() {
+		head = null;
+		push(1);
+		push(2);
+		Assert.assertEquals(2 + 10, head.value);
+		Assert.assertEquals(3 + 10, head.data[1]);
+		Assert.assertEquals(1 + 10, head.next.value);
+		Assert.assertEquals((11 + 12) + (12 + 13), sum());
+	}
+
+	public void testEscape() {
+		head = null;
+		Assert.assertEquals(106, pushEscaped(5));
+		Assert.assertEquals(106, head.value);
+		Assert.assertEquals(6, head.data[0]);
+	}
+
+	public void testArray() {
+		Assert.assertEquals(100 + 0 + 9, sumArray(10));
+	}
+
+	public void testAbort() {
+		head = null;
+		attempts.set(0);
+		pushThenAbort(7);
+		Assert.assertEquals(2, attempts.get());
+		Assert.assertEquals(7, head.value);
+		Assert.assertNull(head.next);
+	}
+
+	public void testAnalysis() throws IOException {
+		HashMap<String, Captures> captures = analyze(Node.class);
+		Captures constructor = captures.get("<init>(ILorg/deuce/utest/basic/CaptureTest$Node;)V");
+		Assert.assertNotNull(constructor);
+		// value, next, data, the array stores
+		Assert.assertEquals(5, constructor.getCapturedCount());
+		// this.data[0] = ... only, after set(this, value)
+		Assert.assertEquals(1, captures.get("<init>(I)V").getCapturedCount());
+
+		captures = analyze(CaptureTest.class);
+		Assert.assertNull(captures.get("sum()I"));
+		Captures sumArray = captures.get("sumArray(I)I");
+		Assert.assertEquals(1, sumArray.getCapturedCount()); // a[i] = i
+		Assert.assertTrue(sumArray.isEscaping(0));
+		Assert.assertFalse(captures.get("copy([I)[I").isEscaping(0));
+	}
+
+	private static HashMap<String, Captures> analyze(Class<?> c) throws IOException {
+		InputStream in = c.getClassLoader().getResourceAsStream(c.getName().replace('.', '/') + ".class");
+		try {
+			ClassNode classNode = new ClassNode();
+			new ClassReader(in).accept(classNode, 0);
+			return CaptureAnalyzer.analyze(classNode);
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package org.deuce.utest.basic;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.deuce.Atomic;
+import org.deuce.Irrevocable;
+import org.deuce.transaction.util.IrrevocabilityGuard;
+
+/**
+ * Tests that a transaction reaching an irrevocable method goes on in place, with the
+ * writes it did so far visible to the irrevocable method.
+ */
+public class IrrevocableUpgradeTest extends TestCase {
+
+	private int[] source = { 1, 2, 3 };
+	private int[] target = new int[3];
+	private int counter = 0;
+	private int copies = 0;
+	final private AtomicInteger attempts = new AtomicInteger();
+
+	@Atomic
+	private int lookupThenCopy(int value) {
+		attempts.incrementAndGet();
+		int sum = 0;
+		for (int i = 0; i < source.length; i++)
+			sum += source[i];
+		source[0] = value;
+		copy();
+		return sum + target[0];
+	}
+
+	@Irrevocable
+	private void copy() {
+		// Reads the memory directly, the write of source[0] must be there
+		System.arraycopy(source, 0, target, 0, source.length);
+		copies++;
+	}
+
+	@Atomic
+	private void incrementThenCopy() {
+		counter++;
+		copy();
+		counter++;
+	}
+
+	public void testUpgrade() {
+		IrrevocabilityGuard guard = IrrevocabilityGuard.getInstance();
+		long upgrades = guard.getUpgrades();
+		attempts.set(0);
+		Assert.assertEquals(6 + 7, lookupThenCopy(7));
+		Assert.assertEquals(1, attempts.get());
+		Assert.assertEquals(7, target[0]);
+		Assert.assertEquals(3, target[2]);
+		Assert.assertEquals(upgrades + 1, guard.getUpgrades());
+	}
+
+	public void testConcurrent() throws InterruptedException {
+		final int iterations = 1000;
+		counter = 0;
+		copies = 0;
+		Thread[] threads = new Thread[3];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < iterations; j++)
+						incrementThenCopy();
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		Assert.assertEquals(2 * threads.length * iterations, counter);
+		Assert.assertEquals(threads.length * iterations, copies);
+	}
+}
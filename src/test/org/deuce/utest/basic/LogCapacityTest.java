@@ -0,0 +1,44 @@
+package org.deuce.utest.basic;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.deuce.Atomic;
+import org.deuce.transaction.Context;
+import org.deuce.transaction.ContextDelegator;
+import org.deuce.transaction.MemoryFootprint;
+import org.deuce.transaction.util.Capacity;
+
+/**
+ * Tests that the logs of a context give back their capacity after a large transaction.
+ */
+public class LogCapacityTest extends TestCase {
+
+	private int[] array = new int[20000];
+
+	@Atomic
+	private void writeAll(int count) {
+		for (int i = 0; i < count; i++)
+			array[i] = i;
+	}
+
+	public void testShrinksAfterLargeTransaction() {
+		Context context = ContextDelegator.getInstance();
+		if (!(context instanceof MemoryFootprint) || ContextDelegator.getContextPool() != null
+				|| Capacity.SHRINK_AFTER == 0)
+			return; // Can't tell which context runs, or never shrinks
+		MemoryFootprint footprint = (MemoryFootprint) context;
+
+		writeAll(1);
+		long small = footprint.getFootprint();
+		writeAll(array.length);
+		long large = footprint.getFootprint();
+		Assert.assertTrue("grown " + small + " -> " + large, large > small + array.length);
+
+		for (int i = 0; i < 2 * Capacity.SHRINK_AFTER; i++)
+			writeAll(1);
+		long shrunk = footprint.getFootprint();
+		Assert.assertTrue("shrunk " + large + " -> " + shrunk, shrunk < large / 2);
+		Assert.assertEquals(array.length - 1, array[array.length - 1]);
+	}
+}
@@ -0,0 +1,117 @@
+package org.deuce.utest.basic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.deuce.Atomic;
+import org.deuce.transform.asm.ReadOnlyAnalyzer;
+
+/**
+ * Tests the detection of the read-only atomic blocks and their execution.
+ */
+public class ReadOnlyTest extends TestCase {
+
+	public static class Pair {
+		int a = 100;
+		int b = 0;
+
+		int sum() {
+			return a + b;
+		}
+
+		void move(int amount) {
+			a -= amount;
+			b += amount;
+		}
+	}
+
+	final private Pair pair = new Pair();
+	final private AtomicInteger attempts = new AtomicInteger();
+
+	@Atomic
+	private int sum() {
+		return pair.sum();
+	}
+
+	@Atomic
+	private void move(int amount) {
+		pair.move(amount);
+	}
+
+	@Atomic
+	private int moveAndSum(int amount) {
+		move0(amount);
+		return pair.sum();
+	}
+
+	private void move0(int amount) {
+		pair.move(amount);
+	}
+
+	@Atomic(readOnly = true)
+	private void hintedMove(int amount) {
+		attempts.incrementAndGet();
+		pair.move(amount);
+	}
+
+	public void testAnalysis() throws IOException {
+		String name = ReadOnlyTest.class.getName().replace('.', '/');
+		HashSet<String> readOnly = ReadOnlyAnalyzer.analyze(name, bytecode(name), getClass().getClassLoader());
+		Assert.assertTrue(readOnly.contains("sum()I"));
+		Assert.assertFalse(readOnly.contains("move(I)V"));
+		Assert.assertFalse(readOnly.contains("moveAndSum(I)I"));
+		Assert.assertFalse(readOnly.contains("hintedMove(I)V"));
+	}
+
+	public void testWrongHint() {
+		int a = pair.a;
+		attempts.set(0);
+		hintedMove(10);
+		Assert.assertEquals(a - 10, pair.a);
+		Assert.assertEquals(100, sum());
+		// At most one read-only attempt before the update
+		Assert.assertTrue(attempts.get() <= 2);
+
+		// The context remembers that the block writes, it starts as an update now
+		attempts.set(0);
+		hintedMove(-10);
+		Assert.assertEquals(a, pair.a);
+		Assert.assertEquals(1, attempts.get());
+	}
+
+	public void testConcurrent() throws InterruptedException {
+		final int iterations = 10000;
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i < iterations; i++)
+					move((i & 1) == 0 ? 3 : -3);
+			}
+		};
+		writer.start();
+		for (int i = 0; i < iterations; i++)
+			Assert.assertEquals(100, sum());
+		writer.join();
+		Assert.assertEquals(100, sum());
+		Assert.assertEquals(100, moveAndSum(1));
+	}
+
+	private static byte[] bytecode(String name) throws IOException {
+		InputStream in = ReadOnlyTest.class.getClassLoader().getResourceAsStream(name + ".class");
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for (int n; (n = in.read(buffer)) > 0;)
+				out.write(buffer, 0, n);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package org.deuce.utest.basic;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.deuce.Atomic;
+import org.deuce.Irrevocable;
+import org.deuce.transaction.Context;
+import org.deuce.transaction.TransactionException;
+import org.deuce.transaction.retry.Factory;
+import org.deuce.transaction.retry.RetryPolicy;
+import org.deuce.transaction.util.IrrevocabilityGuard;
+import org.deuce.transform.Exclude;
+
+/**
+ * Tests that the retry policy is called between the attempts.
+ */
+public class RetryPolicyTest extends TestCase {
+
+	@Exclude
+	public static class Counting implements RetryPolicy {
+		final static AtomicInteger calls = new AtomicInteger();
+		final static AtomicInteger lastAttempt = new AtomicInteger();
+
+		public void beforeRetry(Context context, int attempt) {
+			calls.incrementAndGet();
+			lastAttempt.set(attempt);
+		}
+
+		public String getDescription() {
+			return "counting";
+		}
+	}
+
+	final private AtomicInteger attempts = new AtomicInteger();
+	private int value = 0;
+
+	public void testCalledBetweenAttempts() {
+		try{
+			alwaysAbort();
+			Assert.fail("Should get TransactionException");
+		}catch(TransactionException ex){
+			// Not after the last attempt, no retry follows
+			Assert.assertEquals(4, Counting.calls.get());
+			Assert.assertEquals(4, Counting.lastAttempt.get());
+		}
+	}
+
+	@Atomic(retries=5, retryPolicy="org.deuce.utest.basic.RetryPolicyTest$Counting")
+	private void alwaysAbort(){
+		throw new TransactionException();
+	}
+
+	public void testPolicies() {
+		attempts.set(0);
+		long restarts = IrrevocabilityGuard.getInstance().getRestarts();
+		abortTwiceIrrevocable();
+		Assert.assertEquals(3, attempts.get());
+		Assert.assertEquals(1, value);
+		// Asking for irrevocability between attempts isn't a restart
+		Assert.assertEquals(restarts, IrrevocabilityGuard.getInstance().getRestarts());
+
+		attempts.set(0);
+		abortTwiceBackoff();
+		Assert.assertEquals(3, attempts.get());
+		Assert.assertEquals(2, value);
+
+		attempts.set(0);
+		abortTwiceSpinYield();
+		Assert.assertEquals(3, attempts.get());
+		Assert.assertEquals(3, value);
+	}
+
+	@Atomic(retryPolicy="irrevocable:2")
+	private void abortTwiceIrrevocable(){
+		++value;
+		if( attempts.incrementAndGet() < 3)
+			throw new TransactionException();
+	}
+
+	@Atomic(retryPolicy="backoff:100:10000")
+	private void abortTwiceBackoff(){
+		++value;
+		if( attempts.incrementAndGet() < 3)
+			throw new TransactionException();
+	}
+
+	@Atomic(retryPolicy="spinyield:1")
+	private void abortTwiceSpinYield(){
+		++value;
+		if( attempts.incrementAndGet() < 3)
+			throw new TransactionException();
+	}
+
+	public void testIrrevocableNotCarriedOver() {
+		try{
+			alwaysAbortIrrevocable();
+			Assert.fail("Should get TransactionException");
+		}catch(TransactionException ex){
+		}
+		// The next transaction of the context doesn't start irrevocably, so its
+		// irrevocable access upgrades or restarts it
+		IrrevocabilityGuard guard = IrrevocabilityGuard.getInstance();
+		long switches = guard.getUpgrades() + guard.getRestarts();
+		writeThenIrrevocable();
+		Assert.assertEquals(switches + 1, guard.getUpgrades() + guard.getRestarts());
+	}
+
+	@Atomic(retries=2, retryPolicy="irrevocable:1")
+	private void alwaysAbortIrrevocable(){
+		throw new TransactionException();
+	}
+
+	@Atomic
+	private void writeThenIrrevocable(){
+		++value;
+		irrevocable();
+	}
+
+	@Irrevocable
+	private void irrevocable(){
+	}
+
+	public void testUnknownPolicy() {
+		try{
+			Factory.createPolicy("no.such.Policy");
+			Assert.fail();
+		}catch(IllegalArgumentException ex){
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package org.deuce.utest.basic;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.deuce.Atomic;
+import org.deuce.Isolation;
+import org.deuce.transaction.SnapshotContext;
+
+/**
+ * Tests the atomic blocks under snapshot isolation: write skew is allowed, lost updates
+ * aren't. The backends without snapshot isolation run them as serializable.
+ */
+public class SnapshotIsolationTest extends TestCase {
+
+	public static class Cell {
+		int value;
+	}
+
+	final private Cell x = new Cell();
+	final private Cell y = new Cell();
+	final private Cell counter = new Cell();
+	final private AtomicInteger attempts = new AtomicInteger();
+
+	// Tells when the writer is done
+	final private CountDownLatch read = new CountDownLatch(1);
+	final private CountDownLatch written = new CountDownLatch(1);
+
+	/**
+	 * Reads y, waits for the other transaction to write it, then writes x.
+	 */
+	@Atomic(isolation = Isolation.SNAPSHOT)
+	private void readYWriteX() throws InterruptedException {
+		attempts.incrementAndGet();
+		int value = y.value;
+		read.countDown();
+		written.await(10, TimeUnit.SECONDS);
+		x.value = value + 1;
+	}
+
+	@Atomic(isolation = Isolation.SNAPSHOT)
+	private void readXWriteY() {
+		y.value = x.value + 1;
+	}
+
+	@Atomic(isolation = Isolation.SNAPSHOT)
+	private void increment() {
+		counter.value++;
+	}
+
+	@Atomic
+	private int sum() {
+		return x.value + y.value;
+	}
+
+	public void testWriteSkew() throws Exception {
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					readYWriteX();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		thread.start();
+		Assert.assertTrue(read.await(10, TimeUnit.SECONDS));
+		readXWriteY();
+		written.countDown();
+		thread.join();
+
+		if (snapshotIsolation()) {
+			// Both read the initial values, no serial order gives this
+			Assert.assertEquals(1, attempts.get());
+			Assert.assertEquals(2, sum());
+		} else {
+			// The first transaction read a stale y, it ran again
+			Assert.assertTrue(attempts.get() > 1);
+			Assert.assertEquals(3, sum());
+		}
+	}
+
+	public void testNoLostUpdate() throws InterruptedException {
+		final int iterations = 10000;
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < iterations; i++)
+						increment();
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		Assert.assertEquals(threads.length * iterations, counter.value);
+	}
+
+	private static boolean snapshotIsolation() throws ClassNotFoundException {
+		String className = System.getProperty("org.deuce.transaction.contextClass");
+		return className != null && !"false".equals(System.getProperty("org.deuce.transaction.snapshot")) &&
+			SnapshotContext.class.isAssignableFrom(Class.forName(className));
+	}
+}
@@ -0,0 +1,181 @@
+package org.deuce.utest.basic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.deuce.Atomic;
+import org.deuce.TxCounter;
+import org.deuce.transaction.AbortTransactionException;
+import org.deuce.transaction.CommutativeContext;
+import org.deuce.transform.asm.ReadOnlyAnalyzer;
+
+/**
+ * Tests the commutative updates of {@link TxCounter}.
+ */
+public class TxCounterTest extends TestCase {
+
+	final private TxCounter counter = new TxCounter();
+	final private AtomicInteger attempts = new AtomicInteger();
+
+	final private CountDownLatch incremented = new CountDownLatch(1);
+	final private CountDownLatch committed = new CountDownLatch(1);
+
+	@Atomic
+	private void increment() {
+		counter.increment();
+	}
+
+	@Atomic
+	private long addAndGet(long delta) {
+		counter.add(delta);
+		counter.decrement();
+		counter.increment();
+		return counter.get();
+	}
+
+	@Atomic
+	private void addAndAbort(long delta) {
+		counter.add(delta);
+		throw new AbortTransactionException();
+	}
+
+	@Atomic
+	private TxCounter create(long delta) {
+		TxCounter counter = new TxCounter(1);
+		counter.add(delta);
+		return counter;
+	}
+
+	/**
+	 * Increments the counter, then waits for another transaction to increment it.
+	 */
+	@Atomic
+	private void incrementAndWait() throws InterruptedException {
+		attempts.incrementAndGet();
+		counter.increment();
+		incremented.countDown();
+		committed.await(10, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Reads the counter, waits for another transaction to increment it, then increments it.
+	 */
+	@Atomic
+	private long getAndIncrement() throws InterruptedException {
+		attempts.incrementAndGet();
+		long value = counter.get();
+		incremented.countDown();
+		committed.await(10, TimeUnit.SECONDS);
+		counter.increment();
+		return value;
+	}
+
+	public void testIncrements() throws InterruptedException {
+		final int iterations = 10000;
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < iterations; i++)
+						increment();
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		Assert.assertEquals(threads.length * iterations, counter.get());
+	}
+
+	public void testReadOwnIncrements() {
+		counter.add(10);
+		Assert.assertEquals(15, addAndGet(5));
+		Assert.assertEquals(15, counter.get());
+		Assert.assertEquals(3, create(2).get());
+	}
+
+	public void testAbort() {
+		counter.add(10);
+		try {
+			addAndAbort(5);
+			Assert.fail();
+		} catch (AbortTransactionException e) {
+		}
+		Assert.assertEquals(10, counter.get());
+	}
+
+	public void testNoConflict() throws Exception {
+		if (!commutative())
+			return; // the increments conflict, the waiting one would run again
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					incrementAndWait();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		thread.start();
+		Assert.assertTrue(incremented.await(10, TimeUnit.SECONDS));
+		increment();
+		committed.countDown();
+		thread.join();
+		Assert.assertEquals(1, attempts.get());
+		Assert.assertEquals(2, counter.get());
+	}
+
+	public void testReadConflicts() throws Exception {
+		final AtomicLong read = new AtomicLong(-1);
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					read.set(getAndIncrement());
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		thread.start();
+		Assert.assertTrue(incremented.await(10, TimeUnit.SECONDS));
+		increment();
+		committed.countDown();
+		thread.join();
+		// The read conflicts with the increment committed since, it runs again after it
+		Assert.assertTrue(attempts.get() > 1);
+		Assert.assertEquals(1, read.get());
+		Assert.assertEquals(2, counter.get());
+	}
+
+	public void testAnalysis() throws IOException {
+		String name = TxCounterTest.class.getName().replace('.', '/');
+		InputStream in = TxCounterTest.class.getClassLoader().getResourceAsStream(name + ".class");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			byte[] buffer = new byte[4096];
+			for (int n; (n = in.read(buffer)) > 0;)
+				out.write(buffer, 0, n);
+		} finally {
+			in.close();
+		}
+		// An increment is a write
+		Assert.assertFalse(ReadOnlyAnalyzer.analyze(name, out.toByteArray(), getClass().getClassLoader())
+				.contains("increment()V"));
+	}
+
+	private static boolean commutative() throws ClassNotFoundException {
+		String className = System.getProperty("org.deuce.transaction.contextClass");
+		return className != null && CommutativeContext.class.isAssignableFrom(Class.forName(className));
+	}
+}
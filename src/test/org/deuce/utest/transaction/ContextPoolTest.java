@@ -0,0 +1,68 @@
+package org.deuce.utest.transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.deuce.transaction.Context;
+import org.deuce.transaction.ContextPool;
+
+/**
+ * Checks that the {@link ContextPool} reuses the contexts it is given back and drops the
+ * ones it has no room for.
+ */
+public class ContextPoolTest extends TestCase {
+
+	private static class Pool extends ContextPool {
+		final List<Context> disposed = new ArrayList<Context>();
+
+		Pool(int size) {
+			super(size);
+		}
+
+		@Override
+		protected Context create() {
+			return new org.deuce.transaction.norec.Context();
+		}
+
+		@Override
+		protected void dispose(Context context) {
+			disposed.add(context);
+		}
+	}
+
+	public void testSizeRoundedToStripes(){
+		Assert.assertEquals(8, new Pool(1).size());
+		Assert.assertEquals(16, new Pool(16).size());
+		Assert.assertEquals(32, new Pool(17).size());
+	}
+
+	public void testReuse(){
+		Pool pool = new Pool(8);
+		Context context = pool.lease();
+		pool.release(context);
+		Assert.assertSame(context, pool.lease());
+		Assert.assertNotSame(context, pool.lease());
+		Assert.assertEquals(2, pool.getCreated());
+	}
+
+	public void testDropsWhenFull(){
+		Pool pool = new Pool(8);
+		Context[] contexts = new Context[pool.size() + 1];
+		for( int i=0 ; i<contexts.length ; ++i)
+			contexts[i] = pool.lease();
+		for( Context context : contexts)
+			pool.release(context);
+		Assert.assertEquals(contexts.length, pool.getCreated());
+		Assert.assertEquals(1, pool.getDropped());
+		Assert.assertEquals(1, pool.disposed.size());
+		Assert.assertSame(contexts[contexts.length - 1], pool.disposed.get(0));
+
+		// The pooled contexts are leased again, no new one is created
+		for( int i=0 ; i<pool.size() ; ++i)
+			pool.lease();
+		Assert.assertEquals(contexts.length, pool.getCreated());
+	}
+}
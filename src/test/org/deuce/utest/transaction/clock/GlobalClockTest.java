@@ -0,0 +1,118 @@
+package org.deuce.utest.transaction.clock;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.deuce.transaction.clock.Factory;
+import org.deuce.transaction.clock.GV6;
+import org.deuce.transaction.clock.GlobalClock;
+
+/**
+ * Checks the {@link GlobalClock} schemes.
+ */
+public class GlobalClockTest extends TestCase {
+
+	public void testGV1(){
+		AtomicInteger word = new AtomicInteger(10);
+		GlobalClock clock = Factory.createClock("GV1", word);
+		Assert.assertEquals(11, clock.tick(10));
+		Assert.assertTrue(clock.canSkipValidation(10, 11));
+		Assert.assertEquals(12, clock.tick(10));
+		Assert.assertFalse(clock.canSkipValidation(10, 12));
+		Assert.assertEquals(12, word.get());
+	}
+
+	public void testGV4(){
+		AtomicInteger word = new AtomicInteger(10);
+		GlobalClock clock = Factory.createClock("GV4", word);
+		Assert.assertEquals(11, clock.tick(10));
+		Assert.assertTrue(clock.canSkipValidation(10, 11));
+		Assert.assertEquals(11, word.get());
+	}
+
+	public void testGV5(){
+		AtomicInteger word = new AtomicInteger(10);
+		GlobalClock clock = Factory.createClock("GV5", word);
+
+		// Commit doesn't write the clock
+		Assert.assertEquals(11, clock.tick(10));
+		Assert.assertEquals(10, word.get());
+		Assert.assertFalse(clock.canSkipValidation(10, 11));
+
+		// Unless the transaction saw a newer version
+		Assert.assertEquals(12, clock.tick(11));
+		Assert.assertEquals(11, word.get());
+
+		Assert.assertEquals(11, clock.advance(5));
+		Assert.assertEquals(15, clock.advance(15));
+		Assert.assertEquals(15, word.get());
+
+		// An aborted transaction catches up with the versions written
+		clock.onAbort();
+		Assert.assertEquals(16, word.get());
+	}
+
+	public void testGV6(){
+		AtomicInteger word = new AtomicInteger(0);
+		GlobalClock clock = Factory.createClock("GV6", word);
+		int increments = 0;
+		for( int i=0 ; i<1000 ; ++i){
+			int before = word.get();
+			int version = clock.tick(before);
+			Assert.assertTrue(version > before);
+			Assert.assertTrue(version <= word.get() + 1);
+			if( word.get() != before)
+				++increments;
+		}
+		Assert.assertTrue(increments > 0 && increments < 1000);
+	}
+
+	public void testGV6NeverSkipsValidation(){
+		AtomicInteger word = new AtomicInteger(10);
+		GlobalClock gv5Mode = new GV6(word, 2);   // first commit doesn't write the clock
+		GlobalClock periodTick = new GV6(word, 1); // every commit increments the clock
+
+		// T1 and T2 start at 10, T2 commits first in GV5 mode
+		int startTime = word.get();
+		Assert.assertEquals(11, gv5Mode.tick(startTime));
+		Assert.assertEquals(10, word.get());
+
+		// T1 commits with a period tick and gets the same version, yet T2 committed
+		// since its snapshot
+		Assert.assertEquals(11, periodTick.tick(startTime));
+		Assert.assertFalse(periodTick.canSkipValidation(startTime, 11));
+	}
+
+	public void testDroppedClocksFolded() throws InterruptedException{
+		AtomicInteger word = new AtomicInteger();
+		long commits = getCommits();
+		int count = GlobalClock.getClockCount();
+		for( int i=0 ; i<10000 ; ++i)
+			Factory.createClock("GV1", word).tick(word.get());
+		Assert.assertEquals(commits + 10000, getCommits());
+
+		// The collection can't be forced, only check the counters survive it if it happens
+		long deadline = System.currentTimeMillis() + 10000;
+		while( GlobalClock.getClockCount() >= count + 10000 && System.currentTimeMillis() < deadline){
+			System.gc();
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(commits + 10000, getCommits());
+	}
+
+	private static long getCommits(){
+		String s = GlobalClock.getStatistics();
+		return Long.parseLong(s.substring(s.indexOf("commits=") + 8, s.indexOf(',')));
+	}
+
+	public void testUnknownClock(){
+		try{
+			Factory.createClock("GV2", new AtomicInteger());
+			fail();
+		}
+		catch( IllegalArgumentException e){
+		}
+	}
+}
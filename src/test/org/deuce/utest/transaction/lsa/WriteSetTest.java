@@ -0,0 +1,58 @@
+package org.deuce.utest.transaction.lsa;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.deuce.transaction.lsa.WriteSet;
+import org.deuce.transaction.lsa.field.WriteFieldAccess;
+import org.deuce.transaction.lsa.field.Field.Type;
+
+/**
+ * Checks the recycled {@link WriteSet} and its index.
+ */
+public class WriteSetTest extends TestCase {
+
+	public void testAddGet(){
+		WriteSet writeSet = new WriteSet(4);
+		Object[] objects = new Object[1000];
+		for( int i=0 ; i<objects.length ; ++i){
+			objects[i] = new Object();
+			writeSet.add(i * 7, objects[i], 8, i, null, Type.INT, 0);
+		}
+		Assert.assertEquals(objects.length, writeSet.getSize());
+		for( int i=0 ; i<objects.length ; ++i){
+			WriteFieldAccess w = writeSet.get(i * 7, objects[i], 8);
+			Assert.assertNotNull(w);
+			Assert.assertEquals(i, w.getBits());
+			Assert.assertNull(writeSet.get(i * 7, objects[i], 16));
+		}
+	}
+
+	public void testAppend(){
+		WriteSet writeSet = new WriteSet();
+		Object obj = new Object();
+		Object value = new Object();
+		writeSet.add(5, obj, 8, 1, null, Type.LONG, 0);
+		writeSet.append(5, obj, 16, 0, value, Type.OBJECT);
+		Assert.assertEquals(2, writeSet.getSize());
+		Assert.assertSame(value, writeSet.get(5, obj, 16).getObject());
+
+		// Update in place
+		writeSet.append(5, obj, 8, 2, null, Type.LONG);
+		Assert.assertEquals(2, writeSet.getSize());
+		Assert.assertEquals(2, writeSet.get(5, obj, 8).getBits());
+	}
+
+	public void testClear(){
+		WriteSet writeSet = new WriteSet(4);
+		Object obj = new Object();
+		for( int round=0 ; round<3 ; ++round){
+			for( int i=0 ; i<100 ; ++i)
+				writeSet.add(i, obj, i, i, null, Type.INT, 0);
+			writeSet.clear();
+			Assert.assertTrue(writeSet.isEmpty());
+			for( int i=0 ; i<100 ; ++i)
+				Assert.assertNull(writeSet.get(i, obj, i));
+		}
+	}
+}
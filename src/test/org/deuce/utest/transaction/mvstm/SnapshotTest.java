@@ -0,0 +1,102 @@
+package org.deuce.utest.transaction.mvstm;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.deuce.Atomic;
+import org.deuce.transaction.ContextDelegator;
+import org.deuce.transaction.mvstm.Context;
+import org.deuce.transaction.mvstm.LockTable;
+import org.deuce.transaction.mvstm.Version;
+
+/**
+ * Checks the version histories of the multi-version STM, and that its read-only
+ * transactions read a consistent snapshot without aborting.
+ */
+public class SnapshotTest extends TestCase {
+
+	private static final int CELLS = 64;
+	private static final int TOTAL = CELLS * 100;
+
+	final private int[] cells = new int[CELLS];
+	final private AtomicInteger attempts = new AtomicInteger();
+
+	public void testFindsSnapshotVersion() {
+		Object obj = new Object();
+		int hash = LockTable.hash(obj, 8);
+		// Each version holds the value overwritten at its time
+		for (int time = 10; time <= 30; time += 10)
+			Assert.assertEquals(1, LockTable.push(hash, obj, 8, time, null, time, 0, 0));
+
+		Assert.assertEquals(10, LockTable.find(hash, obj, 8, 5).getBits());
+		Assert.assertEquals(20, LockTable.find(hash, obj, 8, 15).getBits());
+		Assert.assertEquals(30, LockTable.find(hash, obj, 8, 20).getBits());
+		Assert.assertNull(LockTable.find(hash, obj, 8, 30));
+		Assert.assertNull(LockTable.find(hash, new Object(), 8, 5));
+	}
+
+	public void testTruncatedHistory() {
+		Object obj = new Object();
+		int hash = LockTable.hash(obj, 16);
+		Assert.assertEquals(1, LockTable.push(hash, obj, 16, 1, null, 40, 2, 0));
+		Assert.assertEquals(1, LockTable.push(hash, obj, 16, 2, null, 50, 2, 0));
+		Assert.assertEquals(0, LockTable.push(hash, obj, 16, 3, null, 60, 2, 0));
+
+		Version dropped = LockTable.find(hash, obj, 16, 35);
+		Assert.assertTrue(dropped.isTruncated());
+		Assert.assertEquals(2, LockTable.find(hash, obj, 16, 45).getBits());
+		Assert.assertEquals(3, LockTable.find(hash, obj, 16, 55).getBits());
+
+		// No snapshot older than 55 runs, the older versions go
+		Assert.assertEquals(0, LockTable.push(hash, obj, 16, 4, null, 70, 0, 55));
+		Assert.assertEquals(3, LockTable.find(hash, obj, 16, 55).getBits());
+		Assert.assertNull(LockTable.find(hash, obj, 16, 70));
+	}
+
+	@Atomic
+	private void transfer(int from, int to, int amount) {
+		cells[from] -= amount;
+		cells[to] += amount;
+	}
+
+	@Atomic(readOnly = true)
+	private int scan() {
+		attempts.incrementAndGet();
+		int sum = 0;
+		for (int i = 0; i < CELLS; i++)
+			sum += cells[i];
+		return sum;
+	}
+
+	public void testScanUnderWriters() throws InterruptedException {
+		if (!(ContextDelegator.getInstance() instanceof Context))
+			return; // Other backends may abort the scans
+		Context context = (Context) ContextDelegator.getInstance();
+		for (int i = 0; i < CELLS; i++)
+			cells[i] = TOTAL / CELLS;
+
+		final AtomicBoolean done = new AtomicBoolean();
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; !done.get(); i++)
+					transfer(i % CELLS, (i * 7 + 3) % CELLS, i % 5);
+			}
+		};
+		long misses = context.getSnapshotMisses();
+		writer.start();
+		int scans = 2000;
+		attempts.set(0);
+		for (int i = 0; i < scans; i++)
+			Assert.assertEquals(TOTAL, scan());
+		done.set(true);
+		writer.join();
+
+		// Only a version dropped from a full history aborts a scan
+		Assert.assertEquals(scans, attempts.get() - (context.getSnapshotMisses() - misses));
+		Assert.assertTrue(context.getVersions() > 0);
+	}
+}
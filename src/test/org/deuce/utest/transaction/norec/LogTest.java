@@ -0,0 +1,73 @@
+package org.deuce.utest.transaction.norec;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.deuce.reflection.AddressUtil;
+import org.deuce.transaction.norec.ReadSet;
+import org.deuce.transaction.norec.WriteSet;
+import org.deuce.transaction.norec.field.Field.Type;
+import org.deuce.transform.Exclude;
+
+/**
+ * Checks the NOrec read and write logs.
+ */
+public class LogTest extends TestCase {
+
+	@Exclude
+	static class Cell {
+		int i;
+		double d;
+		Object o;
+	}
+
+	final private static long I = field("i");
+	final private static long D = field("d");
+	final private static long O = field("o");
+
+	private static long field(String name) {
+		try {
+			return AddressUtil.getAddress(Cell.class.getDeclaredField(name));
+		} catch (NoSuchFieldException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public void testWriteSet(){
+		WriteSet writeSet = new WriteSet(2);
+		Cell[] cells = new Cell[100];
+		for( int i=0 ; i<cells.length ; ++i){
+			cells[i] = new Cell();
+			writeSet.add(cells[i], I, i, null, Type.INT);
+			writeSet.add(cells[i], O, 0, cells[i], Type.OBJECT);
+		}
+		writeSet.add(cells[0], I, 42, null, Type.INT); // update in place
+		Assert.assertEquals(200, writeSet.getSize());
+		Assert.assertEquals(42, writeSet.getBits(writeSet.get(cells[0], I)));
+		Assert.assertEquals(-1, writeSet.get(cells[0], D));
+
+		writeSet.commit();
+		Assert.assertEquals(42, cells[0].i);
+		Assert.assertEquals(99, cells[99].i);
+		Assert.assertSame(cells[7], cells[7].o);
+
+		writeSet.clear();
+		Assert.assertTrue(writeSet.isEmpty());
+		Assert.assertEquals(-1, writeSet.get(cells[1], I));
+	}
+
+	public void testReadSetValidate(){
+		ReadSet readSet = new ReadSet(1);
+		Cell cell = new Cell();
+		cell.d = Double.NaN;
+		readSet.add(cell, I, 0, Type.INT);
+		readSet.add(cell, D, Double.doubleToRawLongBits(Double.NaN), Type.DOUBLE);
+		readSet.add(cell, O, null);
+		Assert.assertTrue(readSet.validate());
+
+		cell.o = cell;
+		Assert.assertFalse(readSet.validate());
+		readSet.clear();
+		Assert.assertTrue(readSet.validate());
+	}
+}
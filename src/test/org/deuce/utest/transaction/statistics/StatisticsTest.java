@@ -0,0 +1,378 @@
+package org.deuce.utest.transaction.statistics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.util.HashSet;
+
+import javax.management.ObjectName;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.deuce.Atomic;
+import org.deuce.transaction.Context;
+import org.deuce.transaction.ContextDelegator;
+import org.deuce.transaction.SetSizes;
+import org.deuce.transaction.TransactionException;
+import org.deuce.transaction.statistics.BlockStatistics;
+import org.deuce.transaction.statistics.BlockStatistics.AbortCause;
+import org.deuce.transaction.statistics.CounterSource;
+import org.deuce.transaction.statistics.Statistics;
+import org.deuce.transaction.statistics.StatisticsContext;
+
+/**
+ * Checks the counters kept by {@link StatisticsContext} and their aggregation.
+ */
+public class StatisticsTest extends TestCase {
+
+	// Far from the ids handed out by the instrumentation
+	private static int nextId = 4000;
+
+	private static synchronized int newBlockId() {
+		return nextId++;
+	}
+
+	public void testCommitsAndRetries() {
+		int id = newBlockId();
+		MockContext mock = new MockContext();
+		StatisticsContext context = new StatisticsContext(mock);
+
+		// Fails to commit
+		context.init(id, "");
+		context.onReadAccess(this, 1, 0);
+		context.onWriteAccess(this, 1, 0);
+		mock.commit = false;
+		Assert.assertFalse(context.commit());
+
+		// Fails to read
+		context.init(id, "");
+		mock.failRead = true;
+		try {
+			context.onReadAccess(this, 1L, 0);
+			fail();
+		} catch (TransactionException e) {
+			context.rollback();
+		}
+
+		// Commits
+		mock.failRead = false;
+		mock.commit = true;
+		context.init(id, "");
+		context.onReadAccess(this, "a", 0);
+		context.onReadAccess(this, 1.0, 8);
+		context.onReadAccess(this, "a", 0); // already in the read set
+		context.onWriteAccess(this, 'c', 0);
+		context.onWriteAccess(this, 'd', 0);
+		Assert.assertTrue(context.commit());
+
+		// Commits on first attempt
+		context.init(id, "");
+		context.onReadAccess(this, true, 0);
+		Assert.assertTrue(context.commit());
+
+		BlockStatistics s = Statistics.getBlockStatistics(id);
+		Assert.assertEquals(4, s.getStarts());
+		Assert.assertEquals(2, s.getCommits());
+		Assert.assertEquals(2, s.getAborts());
+		Assert.assertEquals(1, s.getAborts(AbortCause.COMMIT));
+		Assert.assertEquals(1, s.getAborts(AbortCause.READ));
+		Assert.assertEquals(1, s.getRetries(0)); // 1 attempt
+		Assert.assertEquals(0, s.getRetries(1)); // 2 attempts
+		Assert.assertEquals(1, s.getRetries(2)); // 3-4 attempts
+		Assert.assertEquals(3, s.getReads());
+		Assert.assertEquals(1, s.getWrites());
+		Assert.assertEquals(2, s.getMaxReads());
+		Assert.assertEquals(1, s.getMaxWrites());
+		Assert.assertTrue(s.getAbortedNanos() >= 0);
+	}
+
+	public void testAbortCauses() {
+		int id = newBlockId();
+		MockContext mock = new MockContext();
+		StatisticsContext context = new StatisticsContext(mock);
+
+		context.init(id, "");
+		context.rollback();
+
+		context.init(id, "");
+		mock.failWrite = true;
+		try {
+			context.onWriteAccess(this, 1, 0);
+			fail();
+		} catch (TransactionException e) {
+			context.rollback();
+		}
+		mock.failWrite = false;
+
+		context.init(id, "");
+		mock.failIrrevocable = true;
+		try {
+			context.onIrrevocableAccess();
+			fail();
+		} catch (TransactionException e) {
+			context.rollback();
+		}
+
+		BlockStatistics s = Statistics.getBlockStatistics(id);
+		Assert.assertEquals(3, s.getStarts());
+		Assert.assertEquals(0, s.getCommits());
+		Assert.assertEquals(1, s.getAborts(AbortCause.EXPLICIT));
+		Assert.assertEquals(1, s.getAborts(AbortCause.WRITE));
+		Assert.assertEquals(1, s.getAborts(AbortCause.IRREVOCABLE));
+		Assert.assertEquals(0, s.getReads());
+	}
+
+	public void testSumOverThreads() throws Exception {
+		final int id = newBlockId();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					StatisticsContext context = new StatisticsContext(new MockContext());
+					for (int j = 0; j < 10; j++) {
+						context.init(id, "");
+						context.onReadAccess(this, 1, 0);
+						context.commit();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+
+		BlockStatistics s = Statistics.getBlockStatistics(id);
+		Assert.assertEquals(40, s.getCommits());
+		Assert.assertEquals(40, s.getReads());
+		// Still counted once the contexts of the terminated threads are folded
+		Assert.assertEquals(40, Statistics.getBlockStatistics(id).getCommits());
+		Assert.assertTrue(Statistics.report().contains("#" + id + " "));
+	}
+
+	public void testCounterSource() throws Exception {
+		final CountedSource source = new CountedSource();
+		Statistics.registerSource(source);
+		new StatisticsContext(new CountedContext(2));
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				new StatisticsContext(new CountedContext(5));
+			}
+		};
+		thread.start();
+		thread.join();
+
+		long[] counters = Statistics.getCounters(source);
+		// The context of the terminated thread is only kept by a registered source
+		Assert.assertEquals(Statistics.ENABLED ? 7 : 2, counters[0]);
+		Assert.assertEquals(Statistics.ENABLED ? 7 : 2, Statistics.getCounters(source)[0]);
+		Assert.assertEquals(1, counters[1]);
+		Assert.assertEquals(Statistics.ENABLED, Statistics.report().contains("Counted: count=7, shared=1"));
+	}
+
+	public void testRegisterMBean() throws Exception {
+		// Never throws, even where the management classes can't run with the agent
+		boolean registered = Statistics.registerMBean();
+		Assert.assertEquals(registered, Statistics.registerMBean());
+		if (registered)
+			Assert.assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(
+					new ObjectName(Statistics.OBJECT_NAME)));
+		else
+			Assert.assertFalse(Statistics.ENABLED && "1.8".equals(System.getProperty("java.specification.version")));
+	}
+
+	public void testBlockName() throws Exception {
+		Field declaredField = ContextDelegator.class.getDeclaredField("THREAD_CONTEXT");
+		declaredField.setAccessible(true);
+		@SuppressWarnings("unchecked")
+		ThreadLocal<Context> threadLocal = (ThreadLocal<Context>) declaredField.get(null);
+		Context original = threadLocal.get();
+		MockContext mock = new MockContext();
+		threadLocal.set(mock);
+		try {
+			block();
+		} finally {
+			threadLocal.set(original);
+		}
+		Assert.assertEquals(StatisticsTest.class.getName() + ".block", Statistics.getBlockName(mock.atomicBlockId));
+	}
+
+	@Atomic
+	private void block() {
+	}
+
+	/**
+	 * Keeps the fields read and written as its sets, a field accessed twice is in once.
+	 */
+	public static class MockContext implements Context, SetSizes {
+
+		boolean commit = true;
+		boolean failRead;
+		boolean failWrite;
+		boolean failIrrevocable;
+		int atomicBlockId;
+		final HashSet<Long> reads = new HashSet<Long>();
+		final HashSet<Long> writes = new HashSet<Long>();
+
+		private void check(boolean fail) {
+			if (fail)
+				throw new TransactionException();
+		}
+
+		public void init(int atomicBlockId, String metainf) {
+			this.atomicBlockId = atomicBlockId;
+			reads.clear();
+			writes.clear();
+		}
+
+		public int getReadSetSize() {
+			return reads.size();
+		}
+
+		public int getWriteSetSize() {
+			return writes.size();
+		}
+
+		public boolean commit() {
+			return commit;
+		}
+
+		public void rollback() {
+		}
+
+		public void beforeReadAccess(Object obj, long field) {
+			check(failRead);
+		}
+
+		public Object onReadAccess(Object obj, Object value, long field) {
+			check(failRead);
+			reads.add(field);
+			return value;
+		}
+
+		public boolean onReadAccess(Object obj, boolean value, long field) {
+			check(failRead);
+			reads.add(field);
+			return value;
+		}
+
+		public byte onReadAccess(Object obj, byte value, long field) {
+			check(failRead);
+			reads.add(field);
+			return value;
+		}
+
+		public char onReadAccess(Object obj, char value, long field) {
+			check(failRead);
+			reads.add(field);
+			return value;
+		}
+
+		public short onReadAccess(Object obj, short value, long field) {
+			check(failRead);
+			reads.add(field);
+			return value;
+		}
+
+		public int onReadAccess(Object obj, int value, long field) {
+			check(failRead);
+			reads.add(field);
+			return value;
+		}
+
+		public long onReadAccess(Object obj, long value, long field) {
+			check(failRead);
+			reads.add(field);
+			return value;
+		}
+
+		public float onReadAccess(Object obj, float value, long field) {
+			check(failRead);
+			reads.add(field);
+			return value;
+		}
+
+		public double onReadAccess(Object obj, double value, long field) {
+			check(failRead);
+			reads.add(field);
+			return value;
+		}
+
+		public void onWriteAccess(Object obj, Object value, long field) {
+			check(failWrite);
+			writes.add(field);
+		}
+
+		public void onWriteAccess(Object obj, boolean value, long field) {
+			check(failWrite);
+			writes.add(field);
+		}
+
+		public void onWriteAccess(Object obj, byte value, long field) {
+			check(failWrite);
+			writes.add(field);
+		}
+
+		public void onWriteAccess(Object obj, char value, long field) {
+			check(failWrite);
+			writes.add(field);
+		}
+
+		public void onWriteAccess(Object obj, short value, long field) {
+			check(failWrite);
+			writes.add(field);
+		}
+
+		public void onWriteAccess(Object obj, int value, long field) {
+			check(failWrite);
+			writes.add(field);
+		}
+
+		public void onWriteAccess(Object obj, long value, long field) {
+			check(failWrite);
+			writes.add(field);
+		}
+
+		public void onWriteAccess(Object obj, float value, long field) {
+			check(failWrite);
+			writes.add(field);
+		}
+
+		public void onWriteAccess(Object obj, double value, long field) {
+			check(failWrite);
+			writes.add(field);
+		}
+
+		public void onIrrevocableAccess() {
+			check(failIrrevocable);
+		}
+	}
+
+	private static class CountedContext extends MockContext {
+
+		final int count;
+
+		CountedContext(int count) {
+			this.count = count;
+		}
+	}
+
+	private static class CountedSource implements CounterSource {
+
+		public String getTitle() {
+			return "Counted";
+		}
+
+		public String[] getCounterNames() {
+			return new String[] { "count", "shared" };
+		}
+
+		public void addCounters(Context context, boolean live, long[] counters) {
+			if (context == null)
+				counters[1]++;
+			else if (context instanceof CountedContext)
+				counters[0] += ((CountedContext) context).count;
+		}
+	}
+}
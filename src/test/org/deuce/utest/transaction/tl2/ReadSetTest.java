@@ -0,0 +1,62 @@
+package org.deuce.utest.transaction.tl2;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.deuce.transaction.tl2.LockTable;
+import org.deuce.transaction.tl2.ReadSet;
+
+/**
+ * Checks that the TL2 read set logs the distinct locks read.
+ */
+public class ReadSetTest extends TestCase {
+
+	private static final boolean DEDUP = !"false".equals(System.getProperty("org.deuce.transaction.tl2.dedupReads"));
+
+	public void testRepeatedReadsLoggedOnce() {
+		ReadSet readSet = new ReadSet();
+		readSet.init(0);
+		for (int n = 0; n < 10; n++) {
+			for (int lock = 0; lock < 100; lock++)
+				readSet.add(lock);
+		}
+		if (DEDUP)
+			Assert.assertEquals(100, readSet.size());
+		else
+			Assert.assertEquals(1000, readSet.size());
+	}
+
+	public void testDistinctReadsAllLogged() {
+		ReadSet readSet = new ReadSet();
+		readSet.init(0);
+		for (int lock = 0; lock < 5000; lock++)
+			readSet.add(lock * 31);
+		Assert.assertEquals(5000, readSet.size());
+	}
+
+	public void testNextTransactionLogsAgain() {
+		ReadSet readSet = new ReadSet();
+		readSet.init(0);
+		readSet.add(42);
+		readSet.init(0);
+		Assert.assertEquals(0, readSet.size());
+		readSet.add(42);
+		Assert.assertEquals(1, readSet.size());
+	}
+
+	public void testValidateSeesLockedAndNewerLocks() {
+		int lock = 4242;
+		byte[] contextLocks = new byte[LockTable.LOCKS_SIZE / 8 + 1];
+		int version = LockTable.getVersion(lock);
+		ReadSet readSet = new ReadSet();
+		readSet.init(0);
+		readSet.add(lock);
+		Assert.assertTrue(readSet.validate(version));
+
+		LockTable.lock(lock, contextLocks);
+		Assert.assertFalse(readSet.validate(version));
+		LockTable.setAndReleaseLock(lock, version + 1, contextLocks);
+		Assert.assertFalse(readSet.validate(version));
+		Assert.assertTrue(readSet.validate(version + 1));
+	}
+}
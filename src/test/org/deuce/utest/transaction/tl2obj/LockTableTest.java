@@ -0,0 +1,66 @@
+package org.deuce.utest.transaction.tl2obj;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.deuce.reflection.AddressUtil;
+import org.deuce.reflection.UnsafeHolder;
+import org.deuce.transaction.tl2obj.LockTable;
+
+/**
+ * Checks the lock words of the object based TL2, in the objects and in the fallback table.
+ */
+public class LockTableTest extends TestCase {
+
+	private static class Cell {
+		int value;
+		Object next;
+	}
+
+	private static class SubCell extends Cell {
+		long extra;
+	}
+
+	public void testLockWord() {
+		int[] array = new int[4];
+		long field = AddressUtil.arrayBaseOffset(int[].class);
+		Object base = LockTable.base(array, field);
+		long offset = LockTable.offset(array, field);
+		Assert.assertNotSame(array, base);
+
+		long lock = LockTable.get(base, offset);
+		Assert.assertFalse(LockTable.isLocked(lock));
+		Assert.assertTrue(LockTable.lock(base, offset, lock, LockTable.MAX_OWNER));
+		Assert.assertFalse(LockTable.lock(base, offset, lock, 1));
+
+		long locked = LockTable.get(base, offset);
+		Assert.assertTrue(LockTable.isLocked(locked));
+		Assert.assertEquals(LockTable.MAX_OWNER, LockTable.getOwner(locked));
+		Assert.assertEquals(LockTable.getVersion(lock), LockTable.getVersion(locked));
+
+		LockTable.release(base, offset, 42);
+		long released = LockTable.get(base, offset);
+		Assert.assertFalse(LockTable.isLocked(released));
+		Assert.assertEquals(42, LockTable.getVersion(released));
+		LockTable.release(base, offset, LockTable.getVersion(lock));
+	}
+
+	public void testMetadataInObjects() throws NoSuchFieldException {
+		if (!AddressUtil.isMetadataEnabled())
+			return; // Not the object based backend, the classes have no metadata
+		Cell cell = new SubCell();
+		long value = AddressUtil.getAddress(Cell.class.getDeclaredField("value"));
+		long next = AddressUtil.getAddress(Cell.class.getDeclaredField("next"));
+		long extra = AddressUtil.getAddress(SubCell.class.getDeclaredField("extra"));
+
+		// The fields a class declares share its lock word, in the object
+		Assert.assertSame(cell, LockTable.base(cell, value));
+		Assert.assertTrue(AddressUtil.getMetadataOffset(value) != 0);
+		Assert.assertEquals(LockTable.offset(cell, value), LockTable.offset(cell, next));
+		Assert.assertTrue(LockTable.offset(cell, value) != LockTable.offset(cell, extra));
+
+		// The address still leads to the data
+		cell.value = 7;
+		Assert.assertEquals(7, UnsafeHolder.getUnsafe().getInt(cell, AddressUtil.getOffset(value)));
+	}
+}
@@ -0,0 +1,71 @@
+package org.deuce.utest.transaction.util;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.deuce.transaction.util.Capacity;
+
+/**
+ * Checks the per atomic block prediction and the shrinking of a {@link Capacity}.
+ */
+public class CapacityTest extends TestCase {
+
+	public void testPredictsPerBlock(){
+		Capacity capacity = new Capacity(16);
+		Assert.assertEquals(0, capacity.predict(3));
+		capacity.fit(100, 128);
+		Assert.assertEquals(0, capacity.predict(40));
+		capacity.fit(7, 128);
+		Assert.assertEquals(100, capacity.predict(3));
+		capacity.fit(20, 128);
+		// Declines gradually
+		int prediction = capacity.predict(3);
+		Assert.assertTrue(prediction < 100 && prediction > 20);
+		Assert.assertEquals(7, capacity.predict(40));
+	}
+
+	public void testOnlyFirstClearCounts(){
+		Capacity capacity = new Capacity(16);
+		capacity.predict(0);
+		capacity.fit(50, 64);
+		capacity.fit(0, 64);
+		Assert.assertEquals(50, capacity.predict(0));
+	}
+
+	public void testShrinksAfterSmallTransactions(){
+		if( Capacity.SHRINK_AFTER == 0)
+			return;
+		Capacity capacity = new Capacity(16);
+		int length = 4096;
+		for( int i=1 ; i<Capacity.SHRINK_AFTER ; ++i){
+			capacity.predict(0);
+			Assert.assertEquals(length, capacity.fit(i % 2 == 0 ? 10 : 30, length));
+		}
+		capacity.predict(0);
+		Assert.assertEquals(64, capacity.fit(5, length));
+	}
+
+	public void testLargeTransactionKeepsCapacity(){
+		if( Capacity.SHRINK_AFTER == 0)
+			return;
+		Capacity capacity = new Capacity(16);
+		int length = 4096;
+		for( int i=0 ; i<3*Capacity.SHRINK_AFTER ; ++i){
+			capacity.predict(0);
+			int used = i % Capacity.SHRINK_AFTER == 0 ? 2000 : 10;
+			Assert.assertEquals(length, capacity.fit(used, length));
+		}
+	}
+
+	public void testNeverBelowMinimum(){
+		Capacity capacity = new Capacity(1024);
+		for( int i=0 ; i<2*Capacity.SHRINK_AFTER ; ++i){
+			capacity.predict(0);
+			Assert.assertEquals(1024, capacity.fit(1, 1024));
+		}
+		for( int i=0 ; i<Capacity.SHRINK_AFTER ; ++i){
+			capacity.predict(0);
+			Assert.assertTrue(capacity.fit(1, 8192) >= 1024);
+		}
+	}
+}
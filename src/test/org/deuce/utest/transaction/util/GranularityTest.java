@@ -0,0 +1,72 @@
+package org.deuce.utest.transaction.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.deuce.transaction.util.Granularity;
+
+/**
+ * Checks which locations share a stripe under each {@link Granularity}.
+ */
+public class GranularityTest extends TestCase {
+
+	public void testFieldIsIdentity(){
+		Granularity granularity = new Granularity(Granularity.FIELD, 16, null);
+		for( long field=0 ; field<256 ; field+=4){
+			Assert.assertEquals(field, granularity.stripe(new Object(), field));
+			Assert.assertEquals(field, granularity.stripe(new int[64], field));
+		}
+	}
+
+	public void testObjectSharesOneStripe(){
+		Granularity granularity = new Granularity(Granularity.OBJECT, 16, null);
+		Assert.assertEquals(granularity.stripe(this, 12), granularity.stripe(this, 40));
+		Assert.assertEquals(granularity.stripe(new long[8], 16), granularity.stripe(new long[8], 64));
+	}
+
+	public void testLineStripes(){
+		Granularity granularity = new Granularity(Granularity.LINE, 16, null);
+		Assert.assertEquals(granularity.stripe(this, 64), granularity.stripe(this, 120));
+		Assert.assertTrue(granularity.stripe(this, 60) != granularity.stripe(this, 64));
+	}
+
+	public void testBlockStripesArrays(){
+		Granularity granularity = new Granularity(Granularity.BLOCK, 10, null); // rounded to 16
+		// 16 ints per block
+		Assert.assertEquals(granularity.stripe(new int[64], 64), granularity.stripe(new int[64], 64 + 15 * 4));
+		Assert.assertTrue(granularity.stripe(new int[64], 64) != granularity.stripe(new int[64], 64 + 16 * 4));
+		// 16 longs per block
+		Assert.assertEquals(granularity.stripe(new long[64], 128), granularity.stripe(new long[64], 128 + 15 * 8));
+		Assert.assertTrue(granularity.stripe(new long[64], 128) != granularity.stripe(new long[64], 128 + 16 * 8));
+		// The fields of the other objects on their own
+		Assert.assertEquals(12, granularity.stripe(this, 12));
+		Assert.assertEquals(16, granularity.stripe(this, 16));
+	}
+
+	public void testPerClass(){
+		Map<String, Integer> classes = new HashMap<String, Integer>();
+		classes.put("int[]", Granularity.BLOCK);
+		classes.put(GranularityTest.class.getName(), Granularity.OBJECT);
+		Granularity granularity = new Granularity(Granularity.FIELD, 16, classes);
+		Assert.assertEquals(Granularity.BLOCK, granularity.granularity(int[].class));
+		Assert.assertEquals(Granularity.OBJECT, granularity.granularity(GranularityTest.class));
+		Assert.assertEquals(Granularity.FIELD, granularity.granularity(long[].class));
+
+		Assert.assertEquals(granularity.stripe(this, 12), granularity.stripe(this, 40));
+		Assert.assertEquals(granularity.stripe(new int[64], 64), granularity.stripe(new int[64], 68));
+		Assert.assertTrue(granularity.stripe(new long[64], 64) != granularity.stripe(new long[64], 72));
+	}
+
+	public void testParse(){
+		Assert.assertEquals(Granularity.FIELD, Granularity.parse(null));
+		Assert.assertEquals(Granularity.LINE, Granularity.parse("Line"));
+		try {
+			Granularity.parse("page");
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package org.deuce.utest.transaction.util;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.deuce.transaction.util.IrrevocabilityGuard;
+
+/**
+ * Checks that an irrevocable transaction of the {@link IrrevocabilityGuard} runs alone.
+ */
+public class IrrevocabilityGuardTest extends TestCase {
+
+	public void testStripesRoundedToPowerOfTwo(){
+		Assert.assertEquals(1, new IrrevocabilityGuard(1).stripes());
+		Assert.assertEquals(16, new IrrevocabilityGuard(16).stripes());
+		Assert.assertEquals(32, new IrrevocabilityGuard(17).stripes());
+	}
+
+	public void testWaitsForReaders() throws InterruptedException{
+		final IrrevocabilityGuard guard = new IrrevocabilityGuard(4);
+		int slot = guard.newSlot();
+		int other = guard.newSlot();
+		guard.begin(slot);
+		guard.begin(other);
+		guard.end(other);
+
+		final AtomicBoolean running = new AtomicBoolean();
+		Thread irrevocable = new Thread(){
+			@Override
+			public void run(){
+				guard.beginIrrevocable();
+				running.set(true);
+				guard.endIrrevocable();
+			}
+		};
+		irrevocable.start();
+		Thread.sleep(100);
+		Assert.assertFalse(running.get());
+		guard.end(slot);
+		irrevocable.join(10000);
+		Assert.assertTrue(running.get());
+	}
+
+	public void testRunsAlone() throws InterruptedException{
+		final IrrevocabilityGuard guard = new IrrevocabilityGuard(2);
+		final AtomicInteger readers = new AtomicInteger();
+		final AtomicInteger irrevocables = new AtomicInteger();
+		final AtomicBoolean failed = new AtomicBoolean();
+		final int iterations = 20000;
+
+		Thread[] threads = new Thread[4];
+		for( int i=0 ; i<threads.length ; ++i){
+			final boolean irrevocable = i == 0;
+			threads[i] = new Thread(){
+				@Override
+				public void run(){
+					int slot = guard.newSlot();
+					for( int j=0 ; j<iterations ; ++j){
+						if( irrevocable || j % 100 == 0){
+							guard.beginIrrevocable();
+							if( irrevocables.incrementAndGet() != 1 || readers.get() != 0)
+								failed.set(true);
+							irrevocables.decrementAndGet();
+							guard.endIrrevocable();
+						}
+						else{
+							guard.begin(slot);
+							readers.incrementAndGet();
+							if( irrevocables.get() != 0)
+								failed.set(true);
+							readers.decrementAndGet();
+							guard.end(slot);
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for( Thread thread : threads)
+			thread.join();
+		Assert.assertFalse(failed.get());
+	}
+}
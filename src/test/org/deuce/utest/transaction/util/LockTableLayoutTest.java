@@ -0,0 +1,81 @@
+package org.deuce.utest.transaction.util;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.deuce.transaction.util.LockTableLayout;
+
+/**
+ * Checks the {@link LockTableLayout} mapping.
+ */
+public class LockTableLayoutTest extends TestCase {
+
+	public void testSizeRoundedToPowerOfTwo(){
+		LockTableLayout layout = new LockTableLayout(1000, LockTableLayout.COMPACT, LockTableLayout.SUM_HASH, 4);
+		Assert.assertEquals(1024, layout.size());
+		Assert.assertEquals(1023, layout.mask());
+	}
+
+	public void testSizeBounded(){
+		checkIllegalSize(0, LockTableLayout.COMPACT, 4);
+		checkIllegalSize((1 << 30) + 1, LockTableLayout.COMPACT, 4);
+		checkIllegalSize(Integer.MAX_VALUE, LockTableLayout.COMPACT, 8);
+		// A cache line per lock: 16 words of 4 bytes, 8 of 8 bytes
+		checkIllegalSize((1 << 26) + 1, LockTableLayout.PADDED, 4);
+		checkIllegalSize((1 << 27) + 1, LockTableLayout.PADDED, 8);
+		Assert.assertEquals(1 << 27, new LockTableLayout(1 << 27, LockTableLayout.PADDED,
+				LockTableLayout.SUM_HASH, 8).size());
+	}
+
+	private void checkIllegalSize(int size, int layout, int wordSize){
+		try{
+			new LockTableLayout(size, layout, LockTableLayout.SUM_HASH, wordSize);
+			Assert.fail("Accepted lock table size " + size);
+		}
+		catch( IllegalArgumentException e){
+		}
+	}
+
+	public void testCompactIsIdentity(){
+		LockTableLayout layout = new LockTableLayout(1 << 10, LockTableLayout.COMPACT, LockTableLayout.SUM_HASH, 4);
+		Assert.assertEquals(layout.size(), layout.arrayLength());
+		for( int i=0 ; i<layout.size() ; ++i)
+			Assert.assertEquals(i, layout.slot(i));
+	}
+
+	public void testPaddedOneLockPerLine(){
+		LockTableLayout layout = new LockTableLayout(1 << 10, LockTableLayout.PADDED, LockTableLayout.SUM_HASH, 4);
+		Assert.assertEquals(layout.size() * 16, layout.arrayLength());
+		for( int i=1 ; i<layout.size() ; ++i)
+			Assert.assertEquals(16, layout.slot(i) - layout.slot(i-1));
+	}
+
+	public void testStripedIsPermutation(){
+		checkStriped(new LockTableLayout(1 << 10, LockTableLayout.STRIPED, LockTableLayout.SUM_HASH, 4), 16);
+		checkStriped(new LockTableLayout(1 << 10, LockTableLayout.STRIPED, LockTableLayout.SUM_HASH, 8), 8);
+		checkStriped(new LockTableLayout(8, LockTableLayout.STRIPED, LockTableLayout.SUM_HASH, 4), 16);
+	}
+
+	private void checkStriped(LockTableLayout layout, int wordsPerLine){
+		Assert.assertEquals(layout.size(), layout.arrayLength());
+		boolean[] used = new boolean[layout.arrayLength()];
+		for( int i=0 ; i<layout.size() ; ++i){
+			int slot = layout.slot(i);
+			Assert.assertFalse(used[slot]);
+			used[slot] = true;
+			if( i > 0 && layout.size() > wordsPerLine) // neighbours land on different lines
+				Assert.assertTrue(slot / wordsPerLine != layout.slot(i-1) / wordsPerLine);
+		}
+	}
+
+	public void testHashInRange(){
+		int[] hashes = { LockTableLayout.SUM_HASH, LockTableLayout.MURMUR_HASH, LockTableLayout.FIBONACCI_HASH};
+		for( int hash : hashes){
+			LockTableLayout layout = new LockTableLayout(1 << 12, LockTableLayout.COMPACT, hash, 4);
+			for( int i=0 ; i<1000 ; ++i){
+				int index = layout.hash(new Object(), i * 8);
+				Assert.assertTrue(index >= 0 && index < layout.size());
+			}
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package org.deuce.utest.transaction.util;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.deuce.transaction.util.OwnerRegistry;
+
+/**
+ * Checks that an {@link OwnerRegistry} recycles the ids of the terminated threads and of
+ * the released owners.
+ */
+public class OwnerRegistryTest extends TestCase {
+
+	private static int registerOnThread(final OwnerRegistry<Object> registry) throws InterruptedException {
+		final int[] id = new int[1];
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				id[0] = registry.register(this);
+			}
+		};
+		thread.start();
+		thread.join();
+		return id[0];
+	}
+
+	public void testRecyclesTerminatedThreads() throws InterruptedException {
+		OwnerRegistry<Object> registry = new OwnerRegistry<Object>(100);
+		Set<Integer> ids = new HashSet<Integer>();
+		for (int i = 0; i < 1000; i++) {
+			int id = registerOnThread(registry);
+			Assert.assertTrue(id > OwnerRegistry.NO_OWNER && id <= 100);
+			ids.add(id);
+		}
+		Assert.assertTrue(ids.size() <= 100);
+		Assert.assertTrue(registry.getRecycled() > 0);
+		Assert.assertTrue(registry.getCapacity() <= 128);
+	}
+
+	public void testLiveIdsAreKept() {
+		OwnerRegistry<Object> registry = new OwnerRegistry<Object>(1000);
+		Set<Integer> ids = new HashSet<Integer>();
+		for (int i = 0; i < 500; i++) {
+			Object owner = new Object();
+			int id = registry.register(owner);
+			Assert.assertTrue(ids.add(id));
+			Assert.assertSame(owner, registry.get(id));
+		}
+		Assert.assertEquals(500, registry.size());
+		Assert.assertEquals(0, registry.getRecycled());
+	}
+
+	public void testRecordsSurviveGrowth() {
+		OwnerRegistry<Object> registry = new OwnerRegistry<Object>(1000);
+		int first = registry.register(this);
+		registry.records(first).set(OwnerRegistry.recordIndex(first), 42);
+		for (int i = 0; i < 500; i++)
+			registry.register(new Object());
+		Assert.assertEquals(42, registry.records(first).get(OwnerRegistry.recordIndex(first)));
+	}
+
+	public void testDetachedUntilReleased() throws InterruptedException {
+		final OwnerRegistry<Object> registry = new OwnerRegistry<Object>(2);
+		final int[] id = new int[1];
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				id[0] = registry.register(this);
+				registry.detach(id[0]);
+			}
+		};
+		thread.start();
+		thread.join();
+
+		// The owner outlives its thread
+		int other = registry.register(this);
+		try {
+			registry.register(this);
+			Assert.fail("All the ids are in use");
+		} catch (IllegalStateException e) {
+		}
+		Assert.assertSame(thread, registry.get(id[0]));
+
+		registry.release(id[0]);
+		Assert.assertNull(registry.get(id[0]));
+		Assert.assertEquals(id[0], registry.register(this));
+		Assert.assertTrue(other != id[0]);
+	}
+}
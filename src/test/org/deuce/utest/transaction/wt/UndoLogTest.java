@@ -0,0 +1,80 @@
+package org.deuce.utest.transaction.wt;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.deuce.reflection.AddressUtil;
+import org.deuce.transaction.lsa.field.Field.Type;
+import org.deuce.transaction.wt.LockTable;
+import org.deuce.transaction.wt.UndoLog;
+import org.deuce.transform.Exclude;
+
+/**
+ * Checks the undo log and the lock words of the write-through STM.
+ */
+public class UndoLogTest extends TestCase {
+
+	@Exclude
+	static class Cell {
+		int i;
+		double d;
+		Object o;
+	}
+
+	final private static long I = field("i");
+	final private static long D = field("d");
+	final private static long O = field("o");
+
+	private static long field(String name) {
+		try {
+			return AddressUtil.getAddress(Cell.class.getDeclaredField(name));
+		} catch (NoSuchFieldException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public void testUndoRestoresOldValues() {
+		UndoLog undoLog = new UndoLog(2);
+		Cell[] cells = new Cell[100];
+		for (int i = 0; i < cells.length; i++) {
+			Cell cell = cells[i] = new Cell();
+			cell.i = i;
+			cell.d = i / 2.0;
+			cell.o = cell;
+
+			undoLog.add(cell, I, Type.INT);
+			cell.i = -1;
+			undoLog.add(cell, D, Type.DOUBLE);
+			cell.d = -1;
+			undoLog.add(cell, O, Type.OBJECT);
+			cell.o = null;
+		}
+		// Written twice, the first value comes back
+		undoLog.add(cells[0], I, Type.INT);
+		cells[0].i = -2;
+		Assert.assertEquals(301, undoLog.size());
+
+		undoLog.undo();
+		for (int i = 0; i < cells.length; i++) {
+			Assert.assertEquals(i, cells[i].i);
+			Assert.assertEquals(i / 2.0, cells[i].d);
+			Assert.assertSame(cells[i], cells[i].o);
+		}
+
+		undoLog.clear();
+		Assert.assertTrue(undoLog.isEmpty());
+	}
+
+	public void testRestoreChangesIncarnation() {
+		int hash = LockTable.hash(new Cell(), I);
+		long lock = LockTable.get(hash);
+		Assert.assertTrue(LockTable.lock(hash, lock, 1));
+		LockTable.restore(hash, LockTable.get(hash));
+
+		// Same version, yet a reader of the value written meanwhile sees a new word
+		long restored = LockTable.get(hash);
+		Assert.assertFalse(LockTable.isLocked(restored));
+		Assert.assertEquals(LockTable.getVersion(lock), LockTable.getVersion(restored));
+		Assert.assertTrue(restored != lock);
+	}
+}
@@ -40,4 +40,25 @@ public class BloomFilterTest extends TestCase {
 		for( int i=0 ; i<1000000; i+=3)
 			Assert.assertTrue(filter.contains(i));
 	}
+
+	public void testClearEachAdded(){
+		BloomFilter filter = new BloomFilter(16);
+		for( int i=0 ; i<16; ++i)
+			filter.add(i * 7919);
+		for( int i=0 ; i<16; ++i)
+			filter.clear(i * 7919);
+		for( int i=0 ; i<100000; ++i)
+			Assert.assertFalse(filter.contains(i));
+	}
+
+	public void testFewFalsePositives(){
+		BloomFilter filter = new BloomFilter(64);
+		for( int i=0 ; i<64; ++i)
+			filter.add(i * 104729);
+		int falsePositives = 0;
+		for( int i=1 ; i<=10000; ++i)
+			if( filter.contains(i * 104729 + 1))
+				++falsePositives;
+		Assert.assertTrue("false positives: " + falsePositives, falsePositives < 1000);
+	}
 }
\ No newline at end of file